@@ -0,0 +1,73 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import stock.market.simulator.Account;
+import stock.market.simulator.Stock;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding shares to a portfolio and valuing it, for portfolios of different sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccountBenchmark {
+    @Param({"16", "1024", "16384"})
+    int universeSize;
+
+    @Param({"1", "16", "256", "4096"})
+    int holdings;
+
+    private List<Stock> stocks;
+    private Account account;
+    private int held;
+    private int next;
+
+    /**
+     * Lists the universe.
+     */
+    @Setup(Level.Trial)
+    public void listUniverse() {
+        stocks = Market.list(universeSize);
+        held = Math.min(holdings, universeSize);
+    }
+
+    /**
+     * Gives every iteration a fresh account holding the configured number of stocks.
+     */
+    @Setup(Level.Iteration)
+    public void openAccount() {
+        account = Market.account(stocks, held, 1);
+    }
+
+    /**
+     * Adds one share of the next held stock.
+     */
+    @Benchmark
+    public void addStockToPortfolio() {
+        account.addStockToPortfolio(stocks.get(next), 1);
+        if (++next == held) {
+            next = 0;
+        }
+    }
+
+    /**
+     * Values the portfolio.
+     *
+     * @return The portfolio value.
+     */
+    @Benchmark
+    public double calculatePortfolioValue() {
+        return account.calculatePortfolioValue();
+    }
+}
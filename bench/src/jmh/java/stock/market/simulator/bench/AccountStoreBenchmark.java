@@ -0,0 +1,84 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import stock.market.simulator.Account;
+import stock.market.simulator.AccountStore;
+import stock.market.simulator.MarkToMarket;
+import stock.market.simulator.Money;
+import stock.market.simulator.Stock;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures settling a trade in one of many accounts kept on the heap or in an off-heap {@link AccountStore}: taking
+ * cash out of the account and adding a share of a stock it holds, then the reverse. Accounts are visited in a
+ * scattered order, so with a million accounts most visits miss the cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AccountStoreBenchmark {
+    private static final int UNIVERSE_SIZE = 64;
+    private static final int HOLDINGS = 3;
+
+    @Param({"10000", "1000000"})
+    int accounts;
+
+    @Param({"heap", "offHeap"})
+    String storage;
+
+    private List<Stock> stocks;
+    private Account[] heapAccounts;
+    private AccountStore store;
+    private int next;
+
+    /**
+     * Opens the accounts, each holding shares of three stocks.
+     */
+    @Setup(Level.Trial)
+    public void openAccounts() {
+        stocks = Market.list(UNIVERSE_SIZE);
+        MarkToMarket valuation = new MarkToMarket(Runtime.getRuntime().availableProcessors());
+        if ("heap".equals(storage)) {
+            heapAccounts = new Account[accounts];
+        } else {
+            store = new AccountStore(valuation);
+        }
+        for (int i = 0; i < accounts; i++) {
+            String name = "user" + i;
+            Account account = store == null ? new Account(name, 1e6, valuation) : store.open(name, 1e6);
+            for (int k = 0; k < HOLDINGS; k++) {
+                account.addStockToPortfolio(stocks.get((i + k) % UNIVERSE_SIZE), 10);
+            }
+            if (store == null) {
+                heapAccounts[i] = account;
+            }
+        }
+    }
+
+    /**
+     * Buys a share in the next account and sells it back.
+     *
+     * @return The account's cash after the trades.
+     */
+    @Benchmark
+    public long settle() {
+        next = (next + 7919) % accounts;
+        Account account = store == null ? heapAccounts[next] : store.get(next);
+        Stock stock = stocks.get((next + next % HOLDINGS) % UNIVERSE_SIZE);
+        account.reserveCash(Money.CENT);
+        account.addStockToPortfolio(stock, 1);
+        account.reserveShares(stock, 1);
+        account.updateCashAmount(Money.CENT, "sell");
+        return account.getCashAmount();
+    }
+}
@@ -0,0 +1,64 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import stock.market.simulator.BarAggregator;
+import stock.market.simulator.Money;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding a fill to the one-second, one-minute and five-minute bars of a stock, and reading the VWAP of
+ * the latest hour of one-minute bars. Fills are 10 ms apart, so a new one-second bar starts every hundred fills.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BarAggregatorBenchmark {
+    private static final int SYMBOL_ID = 0;
+    private static final int HOUR_OF_MINUTES = 60;
+
+    private BarAggregator bars;
+    private long time;
+    private long price;
+
+    /**
+     * Creates the aggregator and fills its rings, so reads span full windows.
+     */
+    @Setup(Level.Trial)
+    public void fill() {
+        bars = new BarAggregator();
+        for (int i = 0; i < 1_000_000; i++) {
+            record();
+        }
+    }
+
+    /**
+     * Records the next fill.
+     *
+     * @return The fill's time.
+     */
+    @Benchmark
+    public long record() {
+        time += 10;
+        price = Money.of(100) + (time / 1000 % 50) * Money.CENT;
+        bars.record(SYMBOL_ID, time, price, 100);
+        return time;
+    }
+
+    /**
+     * Reads the volume-weighted average price over the latest hour of one-minute bars.
+     *
+     * @return The VWAP.
+     */
+    @Benchmark
+    public long rollingVwap() {
+        return bars.getRollingVwap(SYMBOL_ID, BarAggregator.MINUTE, HOUR_OF_MINUTES);
+    }
+}
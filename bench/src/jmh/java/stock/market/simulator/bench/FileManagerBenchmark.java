@@ -0,0 +1,128 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import stock.market.simulator.FileManager;
+import stock.market.simulator.Money;
+import stock.market.simulator.SegmentedLog;
+import stock.market.simulator.Stock;
+import stock.market.simulator.TransactionJournal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures journaling a transaction and checking whether a user exists. The benchmark writes its own accounts
+ * log with the configured number of users in a temporary data directory and removes the directory when the trial
+ * ends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileManagerBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int userCount;
+
+    private FileManager fileManager;
+    private String[] usernames;
+    private String[] unknown;
+    private int symbolId;
+    private long total;
+    private int next;
+
+    /**
+     * Writes the accounts log in a temporary data directory and loads it.
+     *
+     * @throws IOException If the accounts log cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void writeAccounts() throws IOException {
+        fileManager = new FileManager(Files.createTempDirectory("file-manager"), TransactionJournal.Durability.NONE,
+                SegmentedLog.DEFAULT_SEGMENT_SIZE);
+        usernames = new String[userCount];
+        unknown = new String[userCount];
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < userCount; i++) {
+            usernames[i] = "user" + i;
+            unknown[i] = "guest" + i;
+            names.append(usernames[i]).append(System.lineSeparator());
+        }
+        try (SegmentedLog accounts = new SegmentedLog(fileManager.getAccountsPath())) {
+            accounts.write(ByteBuffer.wrap(names.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        fileManager.userExists(usernames[0]);
+        Stock stock = Market.list(1).get(0);
+        symbolId = stock.getSymbolId();
+        total = Money.times(stock.getPriceAmount(), 10);
+    }
+
+    /**
+     * Closes the journal and removes the data directory the trial wrote.
+     *
+     * @throws IOException If a file cannot be removed.
+     */
+    @TearDown(Level.Trial)
+    public void removeFiles() throws IOException {
+        fileManager.close();
+        try (Stream<Path> files = Files.walk(fileManager.getDataDirectory())) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Journals one trade.
+     */
+    @Benchmark
+    public void writeTransaction() {
+        fileManager.writeTransaction(usernames[next], "bought", 10, symbolId, total, 10);
+        advance();
+    }
+
+    /**
+     * Checks a registered user.
+     *
+     * @return true, as every checked user is registered.
+     * @throws java.io.FileNotFoundException Never, as the accounts file was loaded during setup.
+     */
+    @Benchmark
+    public boolean userExists() throws java.io.FileNotFoundException {
+        boolean exists = fileManager.userExists(usernames[next]);
+        advance();
+        return exists;
+    }
+
+    /**
+     * Checks a user that is not registered.
+     *
+     * @return false, as no checked user is registered.
+     * @throws java.io.FileNotFoundException Never, as the accounts file was loaded during setup.
+     */
+    @Benchmark
+    public boolean userMissing() throws java.io.FileNotFoundException {
+        boolean exists = fileManager.userExists(unknown[next]);
+        advance();
+        return exists;
+    }
+
+    private void advance() {
+        if (++next == userCount) {
+            next = 0;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import stock.market.simulator.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost the latency histograms add to every instrumented operation: reading the clock and recording
+ * the latency, alone and with several threads recording into the same histogram. Neither should allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyHistogramBenchmark {
+    private final LatencyHistogram histogram = new LatencyHistogram("bench");
+
+    /**
+     * Times and records an empty operation on one thread.
+     */
+    @Benchmark
+    public void record() {
+        histogram.recordSince(System.nanoTime());
+    }
+
+    /**
+     * Times and records an empty operation on four threads sharing the histogram.
+     */
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        histogram.recordSince(System.nanoTime());
+    }
+}
@@ -0,0 +1,74 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import stock.market.simulator.Stock;
+import stock.market.simulator.console.StockSimulatorConsole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures looking up stocks by the symbol a user typed, for universes of different sizes.
+ * The symbols are fresh strings, as they are when read from the console, so their hash codes are not cached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LookupBenchmark {
+    @Param({"16", "1024", "16384"})
+    int universeSize;
+
+    private Market.DiscardingFileManager fileManager;
+    private StockSimulatorConsole console;
+    private char[][] symbols;
+    private int next;
+
+    /**
+     * Lists the universe and creates the console to look stocks up in.
+     *
+     * @throws IOException If the data directory cannot be created.
+     */
+    @Setup(Level.Trial)
+    public void listUniverse() throws IOException {
+        Market.list(universeSize);
+        fileManager = new Market.DiscardingFileManager();
+        console = Market.console(fileManager);
+        symbols = new char[universeSize][];
+        for (int i = 0; i < universeSize; i++) {
+            symbols[i] = Market.symbol(i).toCharArray();
+        }
+    }
+
+    /**
+     * Removes the data directory the trial created.
+     *
+     * @throws IOException If a file cannot be removed.
+     */
+    @TearDown(Level.Trial)
+    public void removeFiles() throws IOException {
+        fileManager.remove();
+    }
+
+    /**
+     * Looks up the next listed symbol.
+     *
+     * @return The stock found.
+     */
+    @Benchmark
+    public Stock getStockBySymbol() {
+        Stock stock = console.getStockBySymbol(new String(symbols[next]));
+        if (++next == universeSize) {
+            next = 0;
+        }
+        return stock;
+    }
+}
@@ -0,0 +1,127 @@
+package stock.market.simulator.bench;
+
+import stock.market.simulator.Account;
+import stock.market.simulator.FileManager;
+import stock.market.simulator.SegmentedLog;
+import stock.market.simulator.Stock;
+import stock.market.simulator.SymbolRegistry;
+import stock.market.simulator.TransactionJournal;
+import stock.market.simulator.console.StockSimulatorConsole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Builds the market the benchmarks trade in. Each benchmark fork is a fresh JVM, so the symbol registry
+ * only ever holds the universe listed by the benchmark that runs in it.
+ */
+final class Market {
+    /** Shares issued for every benchmark stock, enough that no benchmark runs the market dry. */
+    static final int TOTAL_SHARES = 1_000_000_000;
+
+    private Market() {
+    }
+
+    /**
+     * Lists a universe of stocks named {@code S00000}, {@code S00001} and so on, with prices spread between 10 and 500.
+     *
+     * @param size The number of stocks to list.
+     * @return The listed stocks.
+     */
+    static List<Stock> list(int size) {
+        SymbolRegistry symbols = SymbolRegistry.getInstance();
+        for (int i = symbols.getListedStocks().size(); i < size; i++) {
+            symbols.list(new Stock(symbol(i), 10 + (i * 7919 % 49000) / 100.0, TOTAL_SHARES));
+        }
+        return symbols.getListedStocks();
+    }
+
+    /**
+     * Returns the symbol of the benchmark stock at an index of the universe.
+     *
+     * @param index The index in the universe.
+     * @return The symbol.
+     */
+    static String symbol(int index) {
+        return String.format("S%05d", index);
+    }
+
+    /**
+     * Creates an account with enough cash to keep buying for the whole benchmark, holding shares of the first
+     * {@code holdings} stocks of the universe.
+     *
+     * @param stocks   The listed stocks.
+     * @param holdings The number of distinct stocks to hold.
+     * @param shares   The number of shares held of each.
+     * @return The account.
+     */
+    static Account account(List<Stock> stocks, int holdings, int shares) {
+        Account account = new Account("bench", 1e12);
+        for (int i = 0; i < holdings; i++) {
+            account.addStockToPortfolio(stocks.get(i), shares);
+        }
+        return account;
+    }
+
+    /**
+     * Creates a console session whose output is discarded, for transactions to print their results to.
+     *
+     * @param fileManager The file manager the session uses.
+     * @return The console.
+     */
+    static StockSimulatorConsole console(FileManager fileManager) {
+        return new StockSimulatorConsole(fileManager, new ConcurrentHashMap<>(), InputStream.nullInputStream(),
+                new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * A file manager that drops transaction records, so that trade benchmarks do not fill the disk with the text
+     * journal, which {@link FileManagerBenchmark} measures on its own. Fills are still recorded in a real trade
+     * history in a temporary data directory, as a live market records them.
+     */
+    static final class DiscardingFileManager extends FileManager {
+        /**
+         * Constructs a file manager on a new temporary data directory.
+         *
+         * @throws IOException If the directory cannot be created.
+         */
+        DiscardingFileManager() throws IOException {
+            super(Files.createTempDirectory("bench-market"), TransactionJournal.Durability.NONE,
+                    SegmentedLog.DEFAULT_SEGMENT_SIZE);
+        }
+
+        /**
+         * Closes the trade history and removes the data directory.
+         *
+         * @throws IOException If a file cannot be removed.
+         */
+        void remove() throws IOException {
+            close();
+            Path directory = getDataDirectory();
+            if (!Files.exists(directory)) {
+                return;
+            }
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        @Override
+        public void writeTransaction(String username, String action, int quantity, int symbolId, long totalPrice, int marketQuantity) {
+        }
+
+        @Override
+        public void writeTransactions(CharSequence records) {
+        }
+    }
+}
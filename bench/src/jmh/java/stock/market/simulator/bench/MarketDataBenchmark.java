@@ -0,0 +1,100 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import stock.market.simulator.MarketData;
+import stock.market.simulator.Money;
+import stock.market.simulator.Stock;
+
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures publishing a price change to subscribers that have stopped reading: each takes the first quote of every
+ * stock and never asks for more, as a stalled client would. Publishing only writes the stock's latest quote, so it
+ * should cost the same however many subscribers lag, and allocate nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MarketDataBenchmark {
+    private static final int UNIVERSE_SIZE = 64;
+
+    @Param({"0", "1000"})
+    int subscribers;
+
+    private List<Stock> stocks;
+    private MarketData marketData;
+    private int next;
+    private long tick = Money.CENT;
+
+    /**
+     * A subscriber that takes the first quote of every stock and then stops reading.
+     */
+    private static final class StalledSubscriber implements Flow.Subscriber<MarketData.Quote> {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(UNIVERSE_SIZE);
+        }
+
+        @Override
+        public void onNext(MarketData.Quote quote) {
+        }
+
+        @Override
+        public void onError(Throwable error) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    /**
+     * Lists the universe, starts the publisher and subscribes the stalled subscribers.
+     */
+    @Setup(Level.Trial)
+    public void subscribe() {
+        stocks = Market.list(UNIVERSE_SIZE);
+        marketData = new MarketData();
+        for (Stock stock : stocks) {
+            marketData.watch(stock);
+        }
+        for (int i = 0; i < subscribers; i++) {
+            marketData.subscribe(new StalledSubscriber());
+        }
+    }
+
+    /**
+     * Completes the subscribers and stops the publisher.
+     */
+    @TearDown(Level.Trial)
+    public void close() {
+        marketData.close();
+    }
+
+    /**
+     * Moves the next stock's price by a cent, up and down in turn.
+     *
+     * @return The stock's new price.
+     */
+    @Benchmark
+    public long publish() {
+        next = (next + 1) % UNIVERSE_SIZE;
+        if (next == 0) {
+            tick = -tick;
+        }
+        Stock stock = stocks.get(next);
+        stock.setPriceAmount(stock.getPriceAmount() + tick);
+        return stock.getPriceAmount();
+    }
+}
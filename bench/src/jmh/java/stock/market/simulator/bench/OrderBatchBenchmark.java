@@ -0,0 +1,103 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import stock.market.simulator.Account;
+import stock.market.simulator.Buy;
+import stock.market.simulator.OrderBatch;
+import stock.market.simulator.Stock;
+import stock.market.simulator.console.StockSimulatorConsole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures buying one share of each of 500 stocks, as a rebalance would, either as one {@link OrderBatch}
+ * or by executing the orders one at a time. Scores are per order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrderBatchBenchmark {
+    private static final int ORDERS = 500;
+
+    @Param({"500", "16384"})
+    int universeSize;
+
+    private List<Stock> stocks;
+    private Market.DiscardingFileManager fileManager;
+    private StockSimulatorConsole console;
+    private Account account;
+
+    /**
+     * Lists the universe.
+     *
+     * @throws IOException If the data directory cannot be created.
+     */
+    @Setup(Level.Trial)
+    public void listUniverse() throws IOException {
+        stocks = Market.list(universeSize);
+        fileManager = new Market.DiscardingFileManager();
+        console = Market.console(fileManager);
+    }
+
+    /**
+     * Removes the trade history the trial wrote.
+     *
+     * @throws IOException If a file cannot be removed.
+     */
+    @TearDown(Level.Trial)
+    public void removeFiles() throws IOException {
+        fileManager.remove();
+    }
+
+    /**
+     * Gives every iteration a fresh account.
+     */
+    @Setup(Level.Iteration)
+    public void openAccount() {
+        account = Market.account(stocks, 0, 0);
+    }
+
+    /**
+     * Buys the stocks as one batch.
+     *
+     * @return The batch, so its result is not optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ORDERS)
+    public OrderBatch batch() {
+        OrderBatch batch = new OrderBatch(fileManager);
+        for (int i = 0; i < ORDERS; i++) {
+            batch.add(new Buy(account, stocks.get(i), 1, null, fileManager));
+        }
+        batch.execute();
+        return batch;
+    }
+
+    /**
+     * Buys the stocks one order at a time.
+     *
+     * @return The last order, so the results are not optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ORDERS)
+    public Buy oneByOne() {
+        Buy buy = null;
+        for (int i = 0; i < ORDERS; i++) {
+            buy = new Buy(account, stocks.get(i), 1, console, fileManager);
+            buy.execute();
+        }
+        return buy;
+    }
+}
@@ -0,0 +1,49 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import stock.market.simulator.Account;
+import stock.market.simulator.Money;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reserving buying power for an order and releasing it, as admission does for every buy: alone, and with
+ * several threads reserving from the same account, which is where a lock-free reservation matters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReservationBenchmark {
+    private final Account account = new Account("bench", 1e12);
+
+    /**
+     * Reserves a cent and releases it on one thread.
+     *
+     * @return Whether the reservation succeeded.
+     */
+    @Benchmark
+    public boolean reserveAndRelease() {
+        boolean reserved = account.reserveCash(Money.CENT);
+        account.updateCashAmount(Money.CENT, "sell");
+        return reserved;
+    }
+
+    /**
+     * Reserves a cent and releases it on four threads sharing the account.
+     *
+     * @return Whether the reservation succeeded.
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean reserveAndReleaseContended() {
+        boolean reserved = account.reserveCash(Money.CENT);
+        account.updateCashAmount(Money.CENT, "sell");
+        return reserved;
+    }
+}
@@ -0,0 +1,133 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import stock.market.simulator.Account;
+import stock.market.simulator.OrderBook;
+import stock.market.simulator.ShardedExecutor;
+import stock.market.simulator.Stock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of market orders for many stocks submitted by four threads to a sharded executor, each
+ * thread alternating buys and sells of one share across its own account's holdings. With as many cores as shards
+ * the throughput grows with the shard count, since shards only share the journal. Each thread keeps up to
+ * {@value #IN_FLIGHT} orders in flight and awaits each, printing its result, when its place in the window comes round
+ * again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShardedExecutorBenchmark {
+    private static final int UNIVERSE_SIZE = 64;
+    // Four threads never hold more orders than one shard's ring has slots
+    private static final int IN_FLIGHT = 128;
+
+    @Param({"1", "2", "4"})
+    int shards;
+
+    private List<Stock> stocks;
+    private Market.DiscardingFileManager fileManager;
+    private ShardedExecutor executor;
+
+    /**
+     * One submitting thread's account and the orders it has in flight.
+     */
+    @State(Scope.Thread)
+    public static class Submitter {
+        private final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        private Account account;
+        private String[] symbols;
+        private final long[] inFlight = new long[IN_FLIGHT];
+        private int window;
+        private int next;
+
+        /**
+         * Gives every iteration a fresh account, so that sells never run out of shares.
+         *
+         * @param market The benchmark's market.
+         */
+        @Setup(Level.Iteration)
+        public void openAccount(ShardedExecutorBenchmark market) {
+            account = Market.account(market.stocks, UNIVERSE_SIZE, 100_000_000);
+            symbols = new String[UNIVERSE_SIZE];
+            for (int i = 0; i < UNIVERSE_SIZE; i++) {
+                symbols[i] = market.stocks.get(i).getSymbol();
+            }
+            Arrays.fill(inFlight, -1);
+        }
+
+        /**
+         * Waits for the iteration's orders, so none of them runs into the next iteration.
+         *
+         * @param market The benchmark's market.
+         */
+        @TearDown(Level.Iteration)
+        public void drain(ShardedExecutorBenchmark market) {
+            for (long ticket : inFlight) {
+                if (ticket >= 0) {
+                    market.executor.await(ticket);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the universe and starts the executor.
+     *
+     * @throws IOException If the data directory cannot be created.
+     */
+    @Setup(Level.Trial)
+    public void startExecutor() throws IOException {
+        stocks = Market.list(UNIVERSE_SIZE);
+        fileManager = new Market.DiscardingFileManager();
+        executor = new ShardedExecutor(fileManager, shards);
+    }
+
+    /**
+     * Stops the executor and removes the trade history it wrote.
+     *
+     * @throws IOException If a file cannot be removed.
+     */
+    @TearDown(Level.Trial)
+    public void stopExecutor() throws IOException {
+        executor.close();
+        fileManager.remove();
+    }
+
+    /**
+     * Submits one order, awaiting the order the thread submitted {@value #IN_FLIGHT} orders before it.
+     *
+     * @param submitter The submitting thread's state.
+     * @return The order's ticket.
+     */
+    @Benchmark
+    @Threads(4)
+    public long submit(Submitter submitter) {
+        submitter.next = (submitter.next + 1) % UNIVERSE_SIZE;
+        int side = (submitter.next & 1) == 0 ? OrderBook.BUY : OrderBook.SELL;
+        if (submitter.inFlight[submitter.window] >= 0) {
+            executor.await(submitter.inFlight[submitter.window]);
+        }
+        long ticket = executor.submit(submitter.account, side, submitter.symbols[submitter.next], "1",
+                submitter.discard);
+        submitter.inFlight[submitter.window] = ticket;
+        submitter.window = (submitter.window + 1) % IN_FLIGHT;
+        return ticket;
+    }
+}
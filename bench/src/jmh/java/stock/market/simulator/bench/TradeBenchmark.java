@@ -0,0 +1,108 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import stock.market.simulator.Account;
+import stock.market.simulator.Buy;
+import stock.market.simulator.Sell;
+import stock.market.simulator.Stock;
+import stock.market.simulator.console.StockSimulatorConsole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures market orders through matching, settlement, journaling and the printed result, reusing one buy and one
+ * sell as a console session does. Each operation trades one share of the next stock the account holds, so the
+ * position map and the stocks touched grow with the holdings count. Both benchmarks must not allocate; see
+ * {@code checkAllocations} in the build.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TradeBenchmark {
+    @Param({"16", "1024", "16384"})
+    int universeSize;
+
+    @Param({"1", "16", "256"})
+    int holdings;
+
+    private List<Stock> stocks;
+    private Market.DiscardingFileManager fileManager;
+    private StockSimulatorConsole console;
+    private Account account;
+    private Buy buy;
+    private Sell sell;
+    private int next;
+
+    /**
+     * Lists the universe and creates the trading session.
+     *
+     * @throws IOException If the data directory cannot be created.
+     */
+    @Setup(Level.Trial)
+    public void listUniverse() throws IOException {
+        stocks = Market.list(universeSize);
+        fileManager = new Market.DiscardingFileManager();
+        console = Market.console(fileManager);
+        buy = new Buy(null, null, 0, console, fileManager);
+        sell = new Sell(null, null, 0, console, fileManager);
+    }
+
+    /**
+     * Removes the trade history the trial wrote.
+     *
+     * @throws IOException If a file cannot be removed.
+     */
+    @TearDown(Level.Trial)
+    public void removeFiles() throws IOException {
+        fileManager.remove();
+    }
+
+    /**
+     * Gives every iteration a fresh account, so that sells never run out of shares.
+     */
+    @Setup(Level.Iteration)
+    public void openAccount() {
+        account = Market.account(stocks, Math.min(holdings, universeSize), 100_000_000);
+    }
+
+    /**
+     * Buys one share at the market price.
+     *
+     * @return The buy, so its result is not optimized away.
+     */
+    @Benchmark
+    public Buy buy() {
+        buy.reuse(account, nextStock(), 1).execute();
+        return buy;
+    }
+
+    /**
+     * Sells one share at the market price.
+     *
+     * @return The sell, so its result is not optimized away.
+     */
+    @Benchmark
+    public Sell sell() {
+        sell.reuse(account, nextStock(), 1).execute();
+        return sell;
+    }
+
+    private Stock nextStock() {
+        int index = next++;
+        if (next == Math.min(holdings, universeSize)) {
+            next = 0;
+        }
+        return stocks.get(index);
+    }
+}
@@ -0,0 +1,124 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import stock.market.simulator.OrderBook;
+import stock.market.simulator.Stock;
+import stock.market.simulator.TradeHistory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures paged queries of a trade history holding four million fills, a fill every millisecond for about an hour
+ * and a few minutes, by 100,000 accounts across 64 stocks. A query reads only the pages its account and stock share,
+ * so it should cost microseconds however many fills the history holds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TradeHistoryBenchmark {
+    private static final int UNIVERSE_SIZE = 64;
+    private static final int ACCOUNTS = 100_000;
+    private static final int FILLS = 4_000_000;
+    private static final int PAGE_SIZE = 50;
+
+    private Path directory;
+    private TradeHistory history;
+    private String[] accounts;
+    private String[] symbols;
+    private long end;
+    private int next;
+
+    /**
+     * Fills a history in a temporary directory.
+     *
+     * @throws IOException If the history cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        List<Stock> stocks = Market.list(UNIVERSE_SIZE);
+        symbols = new String[UNIVERSE_SIZE];
+        for (int i = 0; i < UNIVERSE_SIZE; i++) {
+            symbols[i] = stocks.get(i).getSymbol();
+        }
+        accounts = new String[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = "user" + i;
+        }
+        directory = Files.createTempDirectory("trade-history");
+        history = new TradeHistory(directory);
+        SplittableRandom random = new SplittableRandom(1);
+        long time = 1_700_000_000_000L;
+        for (int i = 0; i < FILLS; i++) {
+            Stock stock = stocks.get(random.nextInt(UNIVERSE_SIZE));
+            history.append(time + i, accounts[random.nextInt(ACCOUNTS)], stock.getSymbolId(),
+                    random.nextBoolean() ? OrderBook.BUY : OrderBook.SELL, 1 + random.nextInt(100),
+                    stock.getPriceAmount());
+        }
+        end = time + FILLS;
+    }
+
+    /**
+     * Closes the history and removes its files.
+     *
+     * @throws IOException If a file cannot be removed.
+     */
+    @TearDown(Level.Trial)
+    public void removeFiles() throws IOException {
+        history.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Queries one account's fills of one stock over the whole history.
+     *
+     * @return The first page of the fills.
+     */
+    @Benchmark
+    public TradeHistory.Page accountAndSymbol() {
+        next = (next + 1) % ACCOUNTS;
+        return history.query(accounts[next], symbols[next % UNIVERSE_SIZE], 0, Long.MAX_VALUE, 0, PAGE_SIZE);
+    }
+
+    /**
+     * Queries one account's fills of every stock over the last ten minutes.
+     *
+     * @return The first page of the fills.
+     */
+    @Benchmark
+    public TradeHistory.Page accountRecent() {
+        next = (next + 1) % ACCOUNTS;
+        return history.query(accounts[next], null, end - TimeUnit.MINUTES.toMillis(10), end, 0, PAGE_SIZE);
+    }
+
+    /**
+     * Queries the first page of one stock's fills over a minute in the middle of the history.
+     *
+     * @return The first page of the fills.
+     */
+    @Benchmark
+    public TradeHistory.Page symbolMinute() {
+        next = (next + 1) % ACCOUNTS;
+        long from = end - FILLS / 2;
+        return history.query(null, symbols[next % UNIVERSE_SIZE], from, from + TimeUnit.MINUTES.toMillis(1), 0,
+                PAGE_SIZE);
+    }
+}
@@ -0,0 +1,127 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import stock.market.simulator.Account;
+import stock.market.simulator.OrderBook;
+import stock.market.simulator.Stock;
+import stock.market.simulator.TradePipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures market orders submitted to the trade pipeline, alternating buys and sells of one share across the
+ * account's holdings. {@code submit} keeps up to {@value #IN_FLIGHT} orders in flight and awaits each only when its
+ * place in the window comes round again, so it measures the pipeline's throughput; {@code submitAndAwait} waits for
+ * every order and prints its result before sending the next, as a console session does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TradePipelineBenchmark {
+    @Param({"16", "1024"})
+    int universeSize;
+
+    private static final int HOLDINGS = 16;
+    private static final int IN_FLIGHT = 256;
+
+    private final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+    private List<Stock> stocks;
+    private Market.DiscardingFileManager fileManager;
+    private TradePipeline pipeline;
+    private Account account;
+    private String[] symbols;
+    private final long[] inFlight = new long[IN_FLIGHT];
+    private int window;
+    private int next;
+
+    /**
+     * Lists the universe and starts the pipeline.
+     *
+     * @throws IOException If the data directory cannot be created.
+     */
+    @Setup(Level.Trial)
+    public void startPipeline() throws IOException {
+        stocks = Market.list(universeSize);
+        fileManager = new Market.DiscardingFileManager();
+        pipeline = new TradePipeline(fileManager);
+        symbols = new String[HOLDINGS];
+        for (int i = 0; i < HOLDINGS; i++) {
+            symbols[i] = stocks.get(i).getSymbol();
+        }
+    }
+
+    /**
+     * Gives every iteration a fresh account, so that sells never run out of shares.
+     */
+    @Setup(Level.Iteration)
+    public void openAccount() {
+        account = Market.account(stocks, HOLDINGS, 100_000_000);
+        Arrays.fill(inFlight, -1);
+    }
+
+    /**
+     * Waits for the iteration's orders, so none of them runs into the next iteration.
+     */
+    @TearDown(Level.Iteration)
+    public void drain() {
+        for (long sequence : inFlight) {
+            if (sequence >= 0) {
+                pipeline.await(sequence);
+            }
+        }
+    }
+
+    /**
+     * Stops the pipeline and removes the trade history it wrote.
+     *
+     * @throws IOException If a file cannot be removed.
+     */
+    @TearDown(Level.Trial)
+    public void stopPipeline() throws IOException {
+        pipeline.close();
+        fileManager.remove();
+    }
+
+    /**
+     * Submits one order, awaiting the order submitted {@value #IN_FLIGHT} orders before it.
+     *
+     * @return The order's sequence number.
+     */
+    @Benchmark
+    public long submit() {
+        if (inFlight[window] >= 0) {
+            pipeline.await(inFlight[window]);
+        }
+        long sequence = pipeline.submit(account, nextSide(), symbols[next], "1", discard);
+        inFlight[window] = sequence;
+        window = (window + 1) % IN_FLIGHT;
+        return sequence;
+    }
+
+    /**
+     * Submits one order, waits for it and prints its result.
+     */
+    @Benchmark
+    public void submitAndAwait() {
+        pipeline.execute(account, nextSide(), symbols[next], "1", discard);
+    }
+
+    private int nextSide() {
+        next = (next + 1) % HOLDINGS;
+        return (next & 1) == 0 ? OrderBook.BUY : OrderBook.SELL;
+    }
+}
@@ -0,0 +1,81 @@
+package stock.market.simulator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import stock.market.simulator.Account;
+import stock.market.simulator.MarkToMarket;
+import stock.market.simulator.Money;
+import stock.market.simulator.Stock;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures marking accounts to market: a price change on a stock every account holds, one on a stock held by one
+ * account in a hundred, and a full revaluation of every account.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ValuationBenchmark {
+    private static final int UNIVERSE_SIZE = 64;
+
+    @Param({"10000", "1000000"})
+    int accounts;
+
+    private MarkToMarket valuation;
+    private Stock widelyHeld;
+    private Stock rarelyHeld;
+    private long tick;
+
+    /**
+     * Opens the accounts. Each holds the widely held stock and one other; one in a hundred also holds the rarely
+     * held stock.
+     */
+    @Setup(Level.Trial)
+    public void openAccounts() {
+        List<Stock> stocks = Market.list(UNIVERSE_SIZE);
+        valuation = new MarkToMarket(Runtime.getRuntime().availableProcessors());
+        widelyHeld = stocks.get(0);
+        rarelyHeld = stocks.get(1);
+        for (int i = 0; i < accounts; i++) {
+            Account account = new Account("bench", 0, valuation);
+            account.addStockToPortfolio(widelyHeld, 10);
+            account.addStockToPortfolio(stocks.get(2 + i % (UNIVERSE_SIZE - 2)), 10);
+            if (i % 100 == 0) {
+                account.addStockToPortfolio(rarelyHeld, 10);
+            }
+        }
+    }
+
+    /**
+     * Moves the price of the stock every account holds by a cent.
+     */
+    @Benchmark
+    public void tickWidelyHeld() {
+        widelyHeld.setPriceAmount(widelyHeld.getPriceAmount() + ((tick++ & 1) == 0 ? Money.CENT : -Money.CENT));
+    }
+
+    /**
+     * Moves the price of the stock one account in a hundred holds by a cent.
+     */
+    @Benchmark
+    public void tickRarelyHeld() {
+        rarelyHeld.setPriceAmount(rarelyHeld.getPriceAmount() + ((tick++ & 1) == 0 ? Money.CENT : -Money.CENT));
+    }
+
+    /**
+     * Revalues every account from its positions.
+     */
+    @Benchmark
+    public void revalue() {
+        valuation.revalue();
+    }
+}
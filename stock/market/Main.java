@@ -1,19 +1,103 @@
 package stock.market;
 
+import stock.market.simulator.Backtest;
+import stock.market.simulator.Backtester;
+import stock.market.simulator.FileManager;
+import stock.market.simulator.MovingAverageCrossover;
+import stock.market.simulator.PriceHistory;
+import stock.market.simulator.Stock;
+import stock.market.simulator.Strategy;
+import stock.market.simulator.SymbolRegistry;
+import stock.market.simulator.console.LoadGenerator;
 import stock.market.simulator.console.StockSimulatorConsole;
+import stock.market.simulator.console.StockSimulatorServer;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class to start the stock market simulator application.
  */
 public class Main {
+    private static final String[] DEFAULT_WINDOWS = {"5:20", "10:50", "20:100", "50:200"};
+    private static final double BACKTEST_CASH = 100000;
+    private static final int BACKTEST_LOT = 100;
+    private static final int LOAD_TRADERS = 16;
+    private static final long LOAD_SECONDS = 10;
+    private static final long LOAD_WARMUP_SECONDS = 5;
 
     /**
-     * Main method to start the application.
+     * Main method to start the application. With {@code --server [port [shards]]} it serves sessions over a local
+     * socket instead of running a single console session, running orders on that many shards of the market if
+     * shards are given; {@code --headless [port [shards]]} does the same for programs, speaking the line-based
+     * command protocol. With {@code --load [port [traders [rate [seconds]]]]} it runs simulated traders against a
+     * headless server, closed-loop or at a fixed total rate of orders per second, and prints their latencies. A
+     * server runs until the process is stopped, and then drains its orders and writes a final snapshot.
+     * With {@code --backtest file [fast:slow ...]} it runs a moving
+     * average crossover over a price file once for each pair of windows, in parallel, and prints the results.
+     * Any of these may be preceded by {@code --data dir} to keep the simulator's files in that directory rather than
+     * the one named by the {@value FileManager#DATA_DIRECTORY_PROPERTY} system property.
      *
-     * @param args Command-line arguments (not used)
+     * @param args Command-line arguments
+     * @throws IOException If the server socket cannot be opened or the price file cannot be read
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 1 && args[0].equals("--data")) {
+            System.setProperty(FileManager.DATA_DIRECTORY_PROPERTY, args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length > 0 && (args[0].equals("--server") || args[0].equals("--headless"))) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : StockSimulatorServer.DEFAULT_PORT;
+            int shards = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+            try (StockSimulatorServer server = new StockSimulatorServer(port, shards, args[0].equals("--headless"))) {
+                server.addShutdownHook();
+                server.run();
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--load")) {
+            load(args);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--backtest")) {
+            backtest(args);
+            return;
+        }
         StockSimulatorConsole simulator = new StockSimulatorConsole();
         simulator.run();
     }
+
+    private static void load(String[] args) {
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : StockSimulatorServer.DEFAULT_PORT;
+        int traders = args.length > 2 ? Integer.parseInt(args[2]) : LOAD_TRADERS;
+        double rate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        long seconds = args.length > 4 ? Long.parseLong(args[4]) : LOAD_SECONDS;
+        StockSimulatorConsole.initializeStocks();
+        List<String> symbols = new ArrayList<>();
+        for (Stock stock : SymbolRegistry.getInstance().getListedStocks()) {
+            symbols.add(stock.getSymbol());
+        }
+        new LoadGenerator(port, traders, rate, TimeUnit.SECONDS.toNanos(seconds),
+                TimeUnit.SECONDS.toNanos(LOAD_WARMUP_SECONDS), symbols).run(System.out);
+    }
+
+    private static void backtest(String[] args) throws IOException {
+        List<Backtest> runs = new ArrayList<>();
+        String[] windows = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : DEFAULT_WINDOWS;
+        for (String window : windows) {
+            String[] parts = window.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected fast:slow windows, got " + window);
+            }
+            Strategy strategy = new MovingAverageCrossover(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), BACKTEST_LOT);
+            runs.add(new Backtest(window, strategy, BACKTEST_CASH));
+        }
+        try (PriceHistory history = new PriceHistory(Paths.get(args[1]))) {
+            new Backtester(history).run(runs, System.out);
+        }
+    }
 }
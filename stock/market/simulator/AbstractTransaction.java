@@ -1,17 +1,53 @@
 package stock.market.simulator;
 
+import java.io.PrintStream;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * Abstract base class for stock transactions, providing foundational elements
  * and functionality common to all transaction types.
+ * <p>
+ * A transaction is submitted as an order into the stock's {@link OrderBook}. Market orders are limited to the
+ * stock's current price and any quantity the book cannot match is traded against the market's own shares.
+ * Limit orders first trade the same way and then leave any unfilled remainder resting in the book.
  */
-public abstract class AbstractTransaction {
+public abstract class AbstractTransaction implements FillListener {
+    /** Limit value used for market orders, which trade at the stock's current price. */
+    protected static final long MARKET_ORDER = -1L;
+
+    // Outcomes of matching an order under the stock's trading lock
+    protected static final int EXECUTED = 0;
+    protected static final int REJECTED_SHARES = 1;
+    protected static final int REJECTED_CASH = 2;
+    protected static final int REJECTED_VALUE = 3;
+    protected static final int REJECTED_PRICE = 4;
+
+    private static final int LINE_CAPACITY = 128;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
     protected Account account;
     protected Stock stock;
     protected int quantity;
     protected FileManager fileManager;
+    protected long limitTicks;
+    protected int filledQuantity;
+    protected long filledAmount;
+    protected int marketQuantity;
+    protected long restingOrderId = OrderBook.NO_ORDER;
+    protected int restingQuantity;
+    protected long reservedCash;
+    protected int status = EXECUTED;
+    protected PrintStream out = System.out;
+    protected StringBuilder journalBlock;
+    protected TradeHistory.Block fillBlock;
+    protected final StringBuilder line = new StringBuilder(LINE_CAPACITY);
+    // The order's records and fills when it runs on its own, written once the stock's trading lock is released
+    private final StringBuilder records = new StringBuilder(LINE_CAPACITY * 2);
+    private final TradeHistory.Block fills = new TradeHistory.Block();
+    private byte[] lineBytes = new byte[LINE_CAPACITY];
 
     /**
-     * Constructs a new transaction object.
+     * Constructs a new market order transaction.
      *
      * @param account     The user's trading account involved in the transaction.
      * @param stock       The stock involved in the transaction.
@@ -19,12 +55,97 @@ public abstract class AbstractTransaction {
      * @param fileManager The file manager for logging the transaction to storage.
      */
     public AbstractTransaction(Account account, Stock stock, int quantity, FileManager fileManager) {
+        this(account, stock, quantity, MARKET_ORDER, fileManager);
+    }
+
+    /**
+     * Constructs a new limit order transaction.
+     *
+     * @param account     The user's trading account involved in the transaction.
+     * @param stock       The stock involved in the transaction.
+     * @param quantity    The number of shares involved in the transaction.
+     * @param limitPrice  The limit price, rounded to the stock's nearest tick.
+     * @param fileManager The file manager for logging the transaction to storage.
+     */
+    protected AbstractTransaction(Account account, Stock stock, int quantity, double limitPrice, FileManager fileManager) {
+        this(account, stock, quantity, stock.toTicks(Money.of(limitPrice)), fileManager);
+    }
+
+    /**
+     * Constructs a new transaction object with an explicit limit in ticks.
+     *
+     * @param account     The user's trading account involved in the transaction.
+     * @param stock       The stock involved in the transaction.
+     * @param quantity    The number of shares involved in the transaction.
+     * @param limitTicks  The limit price in ticks, or {@link #MARKET_ORDER}.
+     * @param fileManager The file manager for logging the transaction to storage.
+     */
+    protected AbstractTransaction(Account account, Stock stock, int quantity, long limitTicks, FileManager fileManager) {
         this.account = account;
         this.stock = stock;
         this.quantity = quantity;
+        this.limitTicks = limitTicks;
         this.fileManager = fileManager;
     }
 
+    /**
+     * Reuses this transaction for a new order, clearing the results of the last one. A transaction can be reused as
+     * soon as it has executed: the order book keeps the owner of a resting remainder, never the transaction.
+     *
+     * @param account    The user's trading account involved in the transaction.
+     * @param stock      The stock involved in the transaction.
+     * @param quantity   The number of shares involved in the transaction.
+     * @param limitTicks The limit price in ticks, or {@link #MARKET_ORDER}.
+     */
+    protected void reset(Account account, Stock stock, int quantity, long limitTicks) {
+        this.account = account;
+        this.stock = stock;
+        this.quantity = quantity;
+        this.limitTicks = limitTicks;
+        filledQuantity = 0;
+        filledAmount = 0;
+        marketQuantity = 0;
+        restingOrderId = OrderBook.NO_ORDER;
+        restingQuantity = 0;
+        reservedCash = 0;
+        status = EXECUTED;
+        journalBlock = null;
+        fillBlock = null;
+    }
+
+    /**
+     * Sets where the order's transaction records and fills go until they are written: the blocks of whatever runs
+     * the order, or null once it has finished with them.
+     *
+     * @param records The block of transaction records.
+     * @param fills   The block of fills for the trade history.
+     */
+    protected void journalTo(StringBuilder records, TradeHistory.Block fills) {
+        journalBlock = records;
+        fillBlock = fills;
+    }
+
+    /**
+     * Reserves the order's cash when it is accepted, ahead of execution, so that orders accepted together cannot
+     * count on the same cash. The reservation is a compare-and-set on the account's balance and takes no lock.
+     * Execution spends the reserved cash, topping it up or returning the difference if the price has moved, and
+     * an order that is rejected at execution gets it back.
+     *
+     * @param priceTicks The price to reserve at, normally the stock's current price.
+     * @return true if the cash was reserved or the order needs none, false if the account cannot afford it.
+     */
+    protected boolean reserveAhead(long priceTicks) {
+        long amount = cashToReserve(priceTicks);
+        if (amount <= 0) {
+            return true;
+        }
+        if (!account.reserveCash(amount)) {
+            return false;
+        }
+        reservedCash = amount;
+        return true;
+    }
+
     /**
      * Executes the transaction.
      *
@@ -32,10 +153,348 @@ public abstract class AbstractTransaction {
      */
     public abstract void execute() throws Exception;
 
+    /**
+     * Runs the order on its own: matches it under the stock's trading lock, buffering the records and fills of the
+     * resting orders it fills in the order's own blocks, then prints the result and journals the blocks once the
+     * lock has been released.
+     */
+    protected void executeAlone() {
+        records.setLength(0);
+        fills.clear();
+        journalTo(records, fills);
+        try {
+            status = matchUnderLock();
+            printResult(status);
+            if (status == EXECUTED) {
+                journalFills();
+            }
+            if (records.length() > 0) {
+                fileManager.writeTransactions(records);
+            }
+            fileManager.recordFills(fills);
+        } finally {
+            journalTo(null, null);
+        }
+    }
+
+    /**
+     * Matches the order under the stock's trading lock without printing or journaling anything, leaving the fills
+     * in the order for {@link #printResult(int)} and {@link #journalFills()}. The time taken, waiting for the lock
+     * included, is recorded in the order's {@link #matchLatency()} histogram.
+     *
+     * @return {@link #EXECUTED} if the order was matched, otherwise the reason it was rejected.
+     */
+    protected int matchUnderLock() {
+        long start = System.nanoTime();
+        ReentrantLock lock = stock.getLock();
+        lock.lock();
+        try {
+            return match();
+        } finally {
+            lock.unlock();
+            releaseReservation();
+            matchLatency().recordSince(start);
+        }
+    }
+
+    /**
+     * Takes the order's cash from the account, using what {@link #reserveAhead(long)} reserved and reserving only
+     * the rest, or returning what was reserved beyond the amount.
+     *
+     * @param amount The cash the order needs as a {@link Money} amount.
+     * @return true if the order now holds exactly the amount, false if the account cannot afford the rest.
+     */
+    protected boolean takeCash(long amount) {
+        long reserved = reservedCash;
+        if (amount > reserved && !account.reserveCash(amount - reserved)) {
+            return false;
+        }
+        reservedCash = 0;
+        if (reserved > amount) {
+            account.updateCashAmount(reserved - amount, "sell");
+        }
+        return true;
+    }
+
+    /**
+     * Returns any cash reserved ahead of execution that execution did not take.
+     */
+    protected void releaseReservation() {
+        if (reservedCash > 0) {
+            account.updateCashAmount(reservedCash, "sell");
+            reservedCash = 0;
+        }
+    }
+
+    /**
+     * Checks the order, reserves its cash or shares and fills it. Called with the stock's trading lock held.
+     *
+     * @return {@link #EXECUTED} if the order was matched, otherwise the reason it was rejected.
+     */
+    protected abstract int match();
+
+    /**
+     * Prints the result of matching the order: why it was rejected, or what it filled and what rests in the book.
+     *
+     * @param status The status {@link #matchUnderLock()} returned.
+     */
+    protected abstract void printResult(int status);
+
     /**
      * Calculates the total monetary amount for the transaction.
      *
-     * @return The total monetary amount.
+     * @return The total monetary amount as a {@link Money} amount.
+     */
+    protected abstract long calculateTransactionAmount();
+
+    /**
+     * Checks, under the stock's trading lock and before anything is reserved, whether the order can execute.
+     *
+     * @param book       The stock's order book.
+     * @param priceTicks The stock's current price in ticks, read once for this execution.
+     * @param claimed    The number of shares that earlier orders of the same {@link OrderBatch} may take
+     *                   from this stock's sellers.
+     * @return {@link #EXECUTED} if the order can go ahead, otherwise the reason it is rejected.
+     */
+    protected abstract int check(OrderBook book, long priceTicks, int claimed);
+
+    /**
+     * Returns the cash to take from the account before the order is matched.
+     *
+     * @param priceTicks The price the order was checked at.
+     * @return The cash to reserve as a {@link Money} amount.
+     */
+    protected abstract long cashToReserve(long priceTicks);
+
+    /**
+     * Returns the shares to take from the account before the order is matched.
+     *
+     * @return The number of shares to reserve.
+     */
+    protected abstract int sharesToReserve();
+
+    /**
+     * Matches the order, under the stock's trading lock, once its cash or shares have been reserved: against the
+     * book, then against the market's own shares, leaving any limit remainder resting in the book.
+     *
+     * @param book       The stock's order book.
+     * @param priceTicks The price the order was checked at.
+     * @return The part of the reserved cash that was neither spent nor left resting, to return to the account.
      */
-    protected abstract double calculateTransactionAmount();
+    protected abstract long fill(OrderBook book, long priceTicks);
+
+    /**
+     * Returns the histogram the order's matching is timed into.
+     *
+     * @return {@link TradeMetrics#BUY} or {@link TradeMetrics#SELL}.
+     */
+    protected abstract LatencyHistogram matchLatency();
+
+    /**
+     * Returns the action this order's fills are journaled as.
+     *
+     * @return "bought" or "sold".
+     */
+    protected abstract String action();
+
+    /**
+     * Journals the order's own fills, if it filled any.
+     */
+    protected void journalFills() {
+        if (filledQuantity > 0) {
+            journal(account.getAccountName(), action(), filledQuantity, filledAmount, marketQuantity);
+        }
+    }
+
+    /**
+     * Appends a transaction record for this order's stock to the journal block of whatever runs the order: its own
+     * block when it runs on its own, or that of the pipeline, shard or {@link OrderBatch} running it. Records are
+     * appended under the stock's trading lock and written after it is released. The fill is buffered in the fill
+     * block the same way, for the trade history.
+     *
+     * @param username       The user who traded.
+     * @param action         The action taken (e.g., "bought" or "sold").
+     * @param quantity       The number of shares traded.
+     * @param total          The total value of the trade as a {@link Money} amount.
+     * @param marketQuantity The number of shares traded with the market.
+     */
+    protected void journal(String username, String action, int quantity, long total, int marketQuantity) {
+        TransactionJournal.append(journalBlock, username, action, quantity, stock.getSymbol(), total, marketQuantity);
+        fillBlock.add(System.currentTimeMillis(), username, stock.getSymbolId(),
+                "bought".equals(action) ? OrderBook.BUY : OrderBook.SELL, quantity, total);
+    }
+
+    /**
+     * Prints a fixed message as one line.
+     *
+     * @param message The message.
+     */
+    protected void printLine(String message) {
+        line.setLength(0);
+        line.append(message);
+        printLine();
+    }
+
+    /**
+     * Prints the text built up in {@link #line} as one line. ASCII text is encoded into a reused buffer and written
+     * as bytes, so printing a result allocates nothing.
+     */
+    protected void printLine() {
+        line.append(LINE_SEPARATOR);
+        int length = line.length();
+        if (lineBytes.length < length) {
+            lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c >= 0x80) {
+                out.print(line);
+                return;
+            }
+            lineBytes[i] = (byte) c;
+        }
+        out.write(lineBytes, 0, length);
+    }
+
+    /**
+     * Sets the stream the transaction prints its result to, in place of the console's output.
+     *
+     * @param out The stream to print to.
+     */
+    public void setOutput(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Returns whether this transaction is a market order.
+     *
+     * @return true for market orders, false for limit orders.
+     */
+    public boolean isMarketOrder() {
+        return limitTicks == MARKET_ORDER;
+    }
+
+    /**
+     * Returns the limit price in ticks; for market orders this is the stock's current price.
+     *
+     * @return The effective limit price in ticks.
+     */
+    public long getLimitTicks() {
+        return isMarketOrder() ? stock.getPriceTicks() : limitTicks;
+    }
+
+    /**
+     * Returns the number of shares filled when the transaction was executed.
+     *
+     * @return The filled quantity.
+     */
+    public int getFilledQuantity() {
+        return filledQuantity;
+    }
+
+    /**
+     * Returns the outcome of the transaction's last execution on its own.
+     *
+     * @return {@link #EXECUTED} or the reason the order was rejected.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the total money exchanged for the filled shares.
+     *
+     * @return The filled amount as a {@link Money} amount.
+     */
+    public long getFilledAmount() {
+        return filledAmount;
+    }
+
+    /**
+     * Returns the id of the order left resting in the book, if any.
+     *
+     * @return The resting order id, or {@link OrderBook#NO_ORDER}.
+     */
+    public long getRestingOrderId() {
+        return restingOrderId;
+    }
+
+    /**
+     * Returns the price an order trades at against the market's own shares, read once so that the checks,
+     * reservations and fills of one execution all use the same price while the market keeps moving.
+     * For market orders this price is also the limit.
+     *
+     * @param priceTicks The stock's current price in ticks, read once for this execution.
+     * @return The effective limit price in ticks.
+     */
+    protected long limitAt(long priceTicks) {
+        return isMarketOrder() ? priceTicks : limitTicks;
+    }
+
+    /**
+     * Checks that an unfilled remainder of this order could rest in the book, so that a limit order is rejected
+     * before anything is reserved rather than after it has partly filled.
+     *
+     * @param book  The stock's order book.
+     * @param limit The limit price in ticks.
+     * @return true for market orders and for limit orders within the book's price range.
+     */
+    protected boolean canRest(OrderBook book, long limit) {
+        return isMarketOrder() || (limit >= book.getMinPriceTicks() && limit <= book.getMaxPriceTicks());
+    }
+
+    /**
+     * Cancels a resting order and returns whatever it still holds back to its owner:
+     * the reserved cash of a buy order or the reserved shares of a sell order.
+     *
+     * @param stock   The stock the order was placed for.
+     * @param orderId The id of the resting order.
+     * @return The number of shares that were cancelled, or 0 if the order is no longer resting.
+     */
+    public static int cancel(Stock stock, long orderId) {
+        OrderBook book = stock.getOrderBook();
+        Account owner;
+        int side;
+        long priceTicks;
+        int remaining;
+        ReentrantLock lock = stock.getLock();
+        lock.lock();
+        try {
+            owner = book.getOwner(orderId);
+            side = book.getSide(orderId);
+            priceTicks = book.getPriceTicks(orderId);
+            remaining = book.cancel(orderId);
+        } finally {
+            lock.unlock();
+        }
+        if (remaining > 0) {
+            if (side == OrderBook.BUY) {
+                owner.updateCashAmount(Money.times(stock.toAmount(priceTicks), remaining), "sell");
+            } else {
+                owner.addStockToPortfolio(stock, remaining);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Settles the resting side of a fill: a resting buyer receives the shares it already paid for,
+     * and a resting seller receives the cash for the shares it already gave up. The maker's record and fill go into
+     * the blocks with the taker's, to be written once the stock's trading lock is released.
+     *
+     * @param maker      The owner of the resting order.
+     * @param takerSide  The side of the incoming order.
+     * @param priceTicks The fill price in ticks.
+     * @param quantity   The number of shares traded.
+     */
+    protected void settleMaker(Account maker, int takerSide, long priceTicks, int quantity) {
+        long amount = Money.times(stock.toAmount(priceTicks), quantity);
+        if (takerSide == OrderBook.SELL) {
+            maker.addStockToPortfolio(stock, quantity);
+            journal(maker.getAccountName(), "bought", quantity, amount, 0);
+        } else {
+            maker.updateCashAmount(amount, "sell");
+            journal(maker.getAccountName(), "sold", quantity, amount, 0);
+        }
+    }
 }
@@ -1,17 +1,49 @@
 package stock.market.simulator;
 
-import java.text.DecimalFormat;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
 
 /**
  * Represents a user account in the stock market simulation.
  * This class manages the user's account, including their name, cash balance, and holdings of stocks.
+ * Holdings are kept as a symbol id to quantity map, and their market value is kept up to date by a
+ * {@link MarkToMarket} store as fills arrive and as the prices of held stocks change, so valuing the portfolio
+ * does not revisit every position.
+ * Cash and values are fixed-point {@link Money} amounts; the {@code double} accessors convert for display.
+ * <p>
+ * An account either keeps its state on the heap or is a view of an account in an {@link AccountStore}, which keeps
+ * it off the heap; the two behave the same.
+ * <p>
+ * Accounts may be traded from several sessions and stocks at once. The cash balance is a single counter updated
+ * with compare-and-set, so reserving buying power for an order, crediting a sale and reading the balance never
+ * lock or block, and a reservation either takes the whole amount or leaves the balance untouched. Every method that
+ * reads or changes the holdings synchronizes on the account's monitor, which is the account itself or, for a view,
+ * a monitor the store shares between every view of the account. Use {@link #reserveCash} and {@link #reserveShares}
+ * rather than a separate check followed by an update when the check must still hold at the time of the update; a
+ * caller that needs several calls to act as one, as {@link OrderBatch} does, can hold the account's monitor around
+ * them, bearing in mind that cash can still change while it does.
  */
 public class Account {
+    private static final VarHandle CASH;
+
+    static {
+        try {
+            CASH = MethodHandles.lookup().findVarHandle(Account.class, "cash", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final String accountName;
-    private double cash;
-    private ArrayList<Stock> heldStocks = new ArrayList<>();
-    DecimalFormat decimalFormat = new DecimalFormat("#.00");
+    private volatile long cash;
+    private final PositionMap positions;
+    private final MarkToMarket valuation;
+    private final int valuationId;
+    private final AccountStore store;
+    private final int id;
+    private final Object lock;
 
     /**
      * Constructs a new Account object with the specified name and initial cash balance.
@@ -20,8 +52,43 @@ public class Account {
      * @param initialCash The initial cash balance in the account.
      */
     public Account(String accountName, double initialCash) {
+        this(accountName, initialCash, MarkToMarket.getInstance());
+    }
+
+    /**
+     * Constructs a new Account object whose holdings are valued in the given store.
+     *
+     * @param accountName The name of the account holder.
+     * @param initialCash The initial cash balance in the account.
+     * @param valuation   The store that values the account's holdings.
+     */
+    public Account(String accountName, double initialCash, MarkToMarket valuation) {
         this.accountName = accountName;
-        this.cash = initialCash;
+        this.cash = Money.of(initialCash);
+        this.positions = new PositionMap();
+        this.valuation = valuation;
+        this.valuationId = valuation.register();
+        this.store = null;
+        this.id = -1;
+        this.lock = this;
+    }
+
+    /**
+     * Constructs a view of an account in a store.
+     *
+     * @param store       The store holding the account.
+     * @param id          The account's id in the store.
+     * @param valuation   The store that values the account's holdings.
+     * @param valuationId The account's id in the valuation store.
+     */
+    Account(AccountStore store, int id, MarkToMarket valuation, int valuationId) {
+        this.accountName = null;
+        this.positions = null;
+        this.valuation = valuation;
+        this.valuationId = valuationId;
+        this.store = store;
+        this.id = id;
+        this.lock = store.lock(id);
     }
 
     /**
@@ -30,7 +97,7 @@ public class Account {
      * @return The name of the account holder.
      */
     public String getAccountName() {
-        return accountName;
+        return store == null ? accountName : store.name(id);
     }
 
     /**
@@ -39,7 +106,16 @@ public class Account {
      * @return The current cash balance.
      */
     public double getCashBalance() {
-        return cash;
+        return Money.toDouble(getCashAmount());
+    }
+
+    /**
+     * Returns the current cash balance in the account as a fixed-point amount.
+     *
+     * @return The current cash balance as a {@link Money} amount.
+     */
+    public long getCashAmount() {
+        return cash();
     }
 
     /**
@@ -49,33 +125,75 @@ public class Account {
      * @param transactionType The type of transaction ("buy" or "sell").
      */
     public void updateCashBalance(double transactionCash, String transactionType) {
+        updateCashAmount(Money.of(transactionCash), transactionType);
+    }
+
+    /**
+     * Updates the cash balance in the account based on a trading transaction.
+     *
+     * @param transactionCash The cash amount involved in the transaction, as a {@link Money} amount.
+     * @param transactionType The type of transaction ("buy" or "sell").
+     */
+    public void updateCashAmount(long transactionCash, String transactionType) {
         if ("buy".equals(transactionType)) {
-            cash -= transactionCash;
+            addCash(-transactionCash);
         } else if ("sell".equals(transactionType)) {
-            cash += transactionCash;
+            addCash(transactionCash);
         }
     }
 
-
     /**
      * Adds a stock to the user's account holdings.
      *
-     * @param stock The stock to be added to the account.
+     * @param stock The stock to be added to the account, carrying the quantity to add.
      */
     public void addStockToPortfolio(Stock stock) {
-        int existingStockIndex = -1;
-        for (int i = 0; i < heldStocks.size(); i++) {
-            Stock existingStock = heldStocks.get(i);
-            if (existingStock.getSymbol().equals(stock.getSymbol())) {
-                existingStockIndex = i;
-                break;
-            }
+        addStockToPortfolio(stock, stock.getQuantity());
+    }
+
+    /**
+     * Adds shares of a stock to the user's account holdings.
+     *
+     * @param stock    The stock whose shares are added.
+     * @param quantity The number of shares to add.
+     */
+    public void addStockToPortfolio(Stock stock, int quantity) {
+        synchronized (lock) {
+            Stock market = marketStock(stock);
+            addPosition(market.getSymbolId(), quantity);
+            valuation.move(valuationId, market, quantity);
         }
-        if (existingStockIndex == -1) {
-            heldStocks.add(stock);
-        } else {
-            Stock existingStock = heldStocks.get(existingStockIndex);
-            existingStock.setQuantity(existingStock.getQuantity() + stock.getQuantity());
+    }
+
+    /**
+     * Atomically checks that the account has enough cash and, if so, takes it out of the balance, without locking.
+     * The cash stays reserved until the order that reserved it fills, when it is spent, or is rejected or
+     * cancelled, when it is put back with {@link #updateCashAmount(long, String)}.
+     *
+     * @param amount The amount to reserve as a {@link Money} amount.
+     * @return true if the cash was reserved, false if the balance is too low.
+     */
+    public boolean reserveCash(long amount) {
+        long balance;
+        do {
+            balance = cash();
+            if (amount > balance) {
+                return false;
+            }
+        } while (!compareAndSetCash(balance, balance - amount));
+        return true;
+    }
+
+    /**
+     * Atomically checks that the account holds enough shares of a stock and, if so, takes them out of the portfolio.
+     *
+     * @param stock    The stock.
+     * @param quantity The number of shares to reserve.
+     * @return true if the shares were reserved, false if the account holds fewer shares.
+     */
+    public boolean reserveShares(Stock stock, int quantity) {
+        synchronized (lock) {
+            return quantity > 0 && reduceStockQuantity(stock, quantity);
         }
     }
 
@@ -83,16 +201,32 @@ public class Account {
      * Displays the user's portfolio, including cash balance and holdings.
      */
     public void displayPortfolio() {
-        System.out.println(accountName + "'s Portfolio");
-        System.out.println("---------------------------");
-        double portfolioValue = calculatePortfolioValue();
-        System.out.println("\nAccount Value: $" + decimalFormat.format(portfolioValue) + "   Cash: $" + decimalFormat.format(cash) + "\n");
+        displayPortfolio(System.out);
+    }
+
+    /**
+     * Displays the user's portfolio, including cash balance and holdings, on the given stream.
+     *
+     * @param out The stream to print to.
+     */
+    public void displayPortfolio(PrintStream out) {
+        long portfolioValue;
+        long cashBalance;
+        ArrayList<Stock> heldStocks;
+        synchronized (lock) {
+            portfolioValue = calculatePortfolioAmount();
+            cashBalance = cash();
+            heldStocks = getHeldStocks();
+        }
+        out.println(getAccountName() + "'s Portfolio");
+        out.println("---------------------------");
+        out.println("\nAccount Value: $" + Money.format(portfolioValue) + "   Cash: $" + Money.format(cashBalance) + "\n");
 
         for (Stock stock : heldStocks) {
-            System.out.println("Stock Symbol: " + stock.getSymbol() + "\n" +
-                    "Price: $" + decimalFormat.format(stock.getPrice()) + "\n" +
+            out.println("Stock Symbol: " + stock.getSymbol() + "\n" +
+                    "Price: $" + Money.format(stock.getPriceAmount()) + "\n" +
                     "Quantity: " + stock.getQuantity() + "\n" +
-                    "Total: $" + decimalFormat.format(stock.getPrice() * stock.getQuantity()) + "\n");
+                    "Total: $" + Money.format(Money.times(stock.getPriceAmount(), stock.getQuantity())) + "\n");
         }
     }
 
@@ -101,33 +235,40 @@ public class Account {
      *
      * @param stockToReduce The stock for which the quantity needs to be reduced.
      * @param quantity The quantity to be reduced.
+     * @return true if the quantity was reduced, false if the stock is not held or fewer shares are held.
      */
-    public void reduceStockQuantity(Stock stockToReduce, int quantity) {
-        for (Stock stock : heldStocks) {
-            if (stock.getSymbol().equals(stockToReduce.getSymbol())) {
-                int newQuantity = stock.getQuantity() - quantity;
-                if (newQuantity >= 0) {
-                    stock.setQuantity(newQuantity);
-                } else {
-                    System.out.println("Error: Trying to reduce more shares than are available.");
-                }
-                return;
+    public boolean reduceStockQuantity(Stock stockToReduce, int quantity) {
+        synchronized (lock) {
+            Stock market = marketStock(stockToReduce);
+            int held = position(market.getSymbolId());
+            if (held == 0 || held - quantity < 0) {
+                return false;
             }
+            addPosition(market.getSymbolId(), -quantity);
+            valuation.move(valuationId, market, -quantity);
+            return true;
         }
-        System.out.println("Stock not found in the portfolio.");
     }
 
     /**
-     * Calculates the total value of the user's portfolio, including cash balance and stock holdings.
+     * Returns the total value of the user's portfolio, including cash balance and stock holdings.
+     * The value of the holdings is maintained incrementally, so this does not iterate over positions.
      *
      * @return The total value of the portfolio.
      */
     public double calculatePortfolioValue() {
-        double totalValue = 0;
-        for (Stock stock : heldStocks) {
-            totalValue += (stock.getPrice() * stock.getQuantity());
+        return Money.toDouble(calculatePortfolioAmount());
+    }
+
+    /**
+     * Returns the total value of the user's portfolio as a fixed-point amount.
+     *
+     * @return The total value of the portfolio as a {@link Money} amount.
+     */
+    public long calculatePortfolioAmount() {
+        synchronized (lock) {
+            return valuation.getHoldingsValue(valuationId) + cash();
         }
-        return totalValue + cash;
     }
 
     /**
@@ -137,7 +278,17 @@ public class Account {
      * @return true if the account has enough cash, false otherwise
      */
     public boolean hasEnoughCash(double totalCost) {
-        return totalCost <= getCashBalance();
+        return hasEnoughCashAmount(Money.of(totalCost));
+    }
+
+    /**
+     * Checks if the account has enough cash to perform the trade.
+     *
+     * @param totalCost the total cost of the trade as a {@link Money} amount
+     * @return true if the account has enough cash, false otherwise
+     */
+    public boolean hasEnoughCashAmount(long totalCost) {
+        return totalCost <= cash();
     }
 
     /**
@@ -152,12 +303,119 @@ public class Account {
     }
 
     /**
-     * Retrieves a copy of the list of stocks currently held in the user's account.
+     * Returns the number of shares of a stock held in the account.
      *
-     * @return A new {@link ArrayList} containing copies of the {@link Stock} objects held in the account.
+     * @param symbol The stock symbol.
+     * @return The quantity held, or 0 if the stock is not in the portfolio.
+     */
+    public int getStockQuantity(String symbol) {
+        int symbolId = SymbolRegistry.getInstance().getId(symbol);
+        return symbolId == SymbolRegistry.UNKNOWN ? 0 : getStockQuantity(symbolId);
+    }
+
+    /**
+     * Returns the number of shares of a stock held in the account.
+     *
+     * @param symbolId The interned symbol id.
+     * @return The quantity held, or 0 if the stock is not in the portfolio.
+     */
+    public int getStockQuantity(int symbolId) {
+        synchronized (lock) {
+            return position(symbolId);
+        }
+    }
+
+    /**
+     * Retrieves a list of the stocks currently held in the user's account.
+     * This builds a new {@link Stock} per position and is meant for display, not for the trade path.
+     *
+     * @return A new {@link ArrayList} containing {@link Stock} objects with the held quantities.
      */
     public ArrayList<Stock> getHeldStocks() {
-        return new ArrayList<>(heldStocks);
+        synchronized (lock) {
+            PositionMap holdings = store == null ? positions : store.positions(id);
+            ArrayList<Stock> heldStocks = new ArrayList<>(holdings.size());
+            SymbolRegistry symbols = SymbolRegistry.getInstance();
+            for (int slot = 0; slot < holdings.capacity(); slot++) {
+                int symbolId = holdings.symbolAt(slot);
+                if (symbolId >= 0) {
+                    Stock market = symbols.getStock(symbolId);
+                    Stock held = new Stock(symbols.getSymbol(symbolId), market == null ? 0 : market.getPriceAmount(), 0,
+                            market == null ? Money.CENT : market.getTickSize());
+                    held.setQuantity(holdings.quantityAt(slot));
+                    heldStocks.add(held);
+                }
+            }
+            return heldStocks;
+        }
+    }
+
+    /**
+     * Returns the monitor that guards the account's balance and holdings, for a caller that needs several calls
+     * to act as one.
+     *
+     * @return The account's monitor.
+     */
+    Object monitor() {
+        return lock;
+    }
+
+    /**
+     * Checks whether another object is this account. Views of an account in a store are equal to each other.
+     *
+     * @param other The object to compare with.
+     * @return true if the other object is this account or a view of the same stored account.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (store == null || !(other instanceof Account account)) {
+            return this == other;
+        }
+        return store == account.store && id == account.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return store == null ? System.identityHashCode(this) : System.identityHashCode(store) * 31 + id;
+    }
+
+    // Cash is updated with atomic operations; callers of the position helpers hold the account's lock
+
+    private long cash() {
+        return store == null ? cash : store.cash(id);
+    }
+
+    private void addCash(long amount) {
+        if (store == null) {
+            CASH.getAndAdd(this, amount);
+        } else {
+            store.addCash(id, amount);
+        }
+    }
+
+    private boolean compareAndSetCash(long expected, long amount) {
+        return store == null ? CASH.compareAndSet(this, expected, amount)
+                : store.compareAndSetCash(id, expected, amount);
+    }
+
+    private int position(int symbolId) {
+        return store == null ? positions.get(symbolId) : store.position(id, symbolId);
+    }
+
+    private void addPosition(int symbolId, int delta) {
+        if (store == null) {
+            positions.add(symbolId, delta);
+        } else {
+            store.addPosition(id, symbolId, delta);
+        }
+    }
+
+    /**
+     * Returns the listed stock for a symbol, which is the one whose price the holdings are valued at.
+     */
+    private static Stock marketStock(Stock stock) {
+        Stock listed = SymbolRegistry.getInstance().getStock(stock.getSymbolId());
+        return listed != null ? listed : stock;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,422 @@
+package stock.market.simulator;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Keeps the cash, holdings and names of millions of accounts off the heap, in direct buffers.
+ * <p>
+ * Accounts are numbered from 0 as they are opened. Their fields are stored in columns, one per field, in pages of
+ * 65,536 accounts, so an account costs 24 bytes of columns plus its name, and the accounts of a page share a single
+ * buffer rather than being objects of their own. Holdings live in 32-byte blocks of three symbol id and quantity
+ * pairs, chained per account, so an account holding nothing takes no block. Names are stored once as
+ * length-prefixed UTF-8 bytes, and a name index of one int per slot finds an account by name. The heap holds only
+ * the name index and the page arrays, so the garbage collector has nothing per account to trace, and a full GC
+ * takes no longer with ten million accounts than with ten.
+ * <p>
+ * {@link #get(int)} and {@link #open(String, double)} return an {@link Account} that is a view of the stored account:
+ * every view of an account reads and writes the same columns and locks the same monitor, and views are equal when
+ * they are of the same account, so callers can drop views and get them again as they need them. Accounts share
+ * one of a fixed set of monitors, so the store adds no lock per account.
+ * <p>
+ * A store can be backed by a {@link MarketSnapshot}: an account that is not in the store but is in the snapshot is
+ * opened from its snapshot record the first time it is looked up by name, so a restart does not have to load every
+ * account before taking logins.
+ */
+public class AccountStore {
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int CASH = 0;
+    private static final int HOLDINGS = CASH + Long.BYTES * PAGE_SIZE;
+    private static final int NAME = HOLDINGS + Integer.BYTES * PAGE_SIZE;
+    private static final int HASH = NAME + Integer.BYTES * PAGE_SIZE;
+    private static final int VALUATION = HASH + Integer.BYTES * PAGE_SIZE;
+    private static final int PAGE_BYTES = VALUATION + Integer.BYTES * PAGE_SIZE;
+
+    private static final int BLOCK_BYTES = 32;
+    private static final int BLOCK_PAIRS = (BLOCK_BYTES - 2 * Integer.BYTES) / (2 * Integer.BYTES);
+    private static final int BLOCK_PAGE_BITS = 14;
+    private static final int BLOCK_PAGE_SIZE = 1 << BLOCK_PAGE_BITS;
+    private static final int NO_BLOCK = 0;
+
+    private static final int NAME_PAGE_BITS = 20;
+    private static final int NAME_PAGE_SIZE = 1 << NAME_PAGE_BITS;
+    private static final int MAX_NAME_BYTES = 0xFFFF;
+
+    private static final int LOCKS = 1024;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final MarkToMarket valuation;
+    private final Object[] locks = new Object[LOCKS];
+    private final Object blockLock = new Object();
+    private volatile ByteBuffer[] pages = new ByteBuffer[0];
+    private volatile ByteBuffer[] blockPages = new ByteBuffer[0];
+    private volatile ByteBuffer[] namePages = new ByteBuffer[0];
+    private int size;
+    private int blockCount = 1;
+    private int freeBlock = NO_BLOCK;
+    private int nameArenaSize;
+    private int[] index = new int[16];
+    private MarketSnapshot snapshot;
+
+    /**
+     * Constructs an empty store whose accounts are valued in the shared mark-to-market store.
+     */
+    public AccountStore() {
+        this(MarkToMarket.getInstance());
+    }
+
+    /**
+     * Constructs an empty store whose accounts are valued in the given store.
+     *
+     * @param valuation The store that values the accounts' holdings.
+     */
+    public AccountStore(MarkToMarket valuation) {
+        this.valuation = valuation;
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the account with the given name, opening it with the given cash balance if there is none. An account
+     * in the backing snapshot is opened with its snapshot cash and positions instead.
+     *
+     * @param accountName The name of the account holder.
+     * @param initialCash The cash balance to open the account with.
+     * @return A view of the account.
+     */
+    public synchronized Account open(String accountName, double initialCash) {
+        byte[] name = accountName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Account name is too long");
+        }
+        int hash = hash(name);
+        int slot = find(name, hash);
+        if (index[slot] != 0) {
+            return get(index[slot] - 1);
+        }
+        int record = snapshot == null ? -1 : snapshot.find(accountName);
+        return create(name, hash, slot, record < 0 ? Money.of(initialCash) : 0, record);
+    }
+
+    /**
+     * Returns the account with the given name, opening it from the backing snapshot if it is only there.
+     *
+     * @param accountName The name of the account holder.
+     * @return A view of the account, or null if there is none.
+     */
+    public synchronized Account find(String accountName) {
+        byte[] name = accountName.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(name);
+        int slot = find(name, hash);
+        if (index[slot] != 0) {
+            return get(index[slot] - 1);
+        }
+        int record = snapshot == null ? -1 : snapshot.find(accountName);
+        return record < 0 ? null : create(name, hash, slot, 0, record);
+    }
+
+    /**
+     * Returns a view of an account by id.
+     *
+     * @param id The account's id, from 0 up to {@link #size()}.
+     * @return A view of the account.
+     */
+    public Account get(int id) {
+        if (id < 0 || id >> PAGE_BITS >= pages.length) {
+            throw new IndexOutOfBoundsException("No account " + id);
+        }
+        return new Account(this, id, valuation, page(id).getInt(VALUATION + (id & (PAGE_SIZE - 1)) * Integer.BYTES));
+    }
+
+    /**
+     * Returns the number of accounts opened in the store, not counting those still only in the backing snapshot.
+     *
+     * @return The account count.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the bytes the store has allocated off the heap for columns, holdings and names.
+     *
+     * @return The off-heap bytes.
+     */
+    public long getOffHeapBytes() {
+        return (long) pages.length * PAGE_BYTES + (long) blockPages.length * BLOCK_PAGE_SIZE * BLOCK_BYTES
+                + (long) namePages.length * NAME_PAGE_SIZE;
+    }
+
+    /**
+     * Returns the bytes the store's name index takes on the heap.
+     *
+     * @return The heap bytes of the index.
+     */
+    public synchronized long getIndexBytes() {
+        return (long) index.length * Integer.BYTES;
+    }
+
+    synchronized void setSnapshot(MarketSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    Object lock(int id) {
+        return locks[id & (LOCKS - 1)];
+    }
+
+    String name(int id) {
+        int offset = page(id).getInt(NAME + (id & (PAGE_SIZE - 1)) * Integer.BYTES);
+        ByteBuffer page = namePages[offset >>> NAME_PAGE_BITS];
+        int position = offset & (NAME_PAGE_SIZE - 1);
+        byte[] name = new byte[page.getShort(position) & 0xFFFF];
+        page.get(position + 2, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    // Cash is read and updated atomically in place, so it needs no lock
+
+    long cash(int id) {
+        return (long) LONGS.getVolatile(page(id), CASH + (id & (PAGE_SIZE - 1)) * Long.BYTES);
+    }
+
+    void addCash(int id, long amount) {
+        LONGS.getAndAdd(page(id), CASH + (id & (PAGE_SIZE - 1)) * Long.BYTES, amount);
+    }
+
+    boolean compareAndSetCash(int id, long expected, long cash) {
+        return LONGS.compareAndSet(page(id), CASH + (id & (PAGE_SIZE - 1)) * Long.BYTES, expected, cash);
+    }
+
+    // The methods below read and write an account's holdings; callers hold the account's lock
+
+    int position(int id, int symbolId) {
+        for (int block = head(id); block != NO_BLOCK; block = next(block)) {
+            ByteBuffer page = blockPage(block);
+            int base = blockOffset(block);
+            int count = page.getInt(base + Integer.BYTES);
+            for (int pair = 0; pair < count; pair++) {
+                if (page.getInt(pairOffset(base, pair)) == symbolId) {
+                    return page.getInt(pairOffset(base, pair) + Integer.BYTES);
+                }
+            }
+        }
+        return 0;
+    }
+
+    // Only the first block of an account is ever partly full: new positions go into it, and a removed position is
+    // replaced by the first block's last one, so a block is freed as soon as it empties
+    int addPosition(int id, int symbolId, int delta) {
+        int head = head(id);
+        for (int block = head; block != NO_BLOCK; block = next(block)) {
+            ByteBuffer page = blockPage(block);
+            int base = blockOffset(block);
+            int count = page.getInt(base + Integer.BYTES);
+            for (int pair = 0; pair < count; pair++) {
+                int offset = pairOffset(base, pair);
+                if (page.getInt(offset) == symbolId) {
+                    int quantity = page.getInt(offset + Integer.BYTES) + delta;
+                    if (quantity != 0) {
+                        page.putInt(offset + Integer.BYTES, quantity);
+                    } else {
+                        removePair(id, head, page, offset);
+                    }
+                    return quantity;
+                }
+            }
+        }
+        if (delta == 0) {
+            return 0;
+        }
+        if (head == NO_BLOCK || blockPage(head).getInt(blockOffset(head) + Integer.BYTES) == BLOCK_PAIRS) {
+            int block = allocateBlock();
+            blockPage(block).putInt(blockOffset(block), head);
+            setHead(id, block);
+            head = block;
+        }
+        ByteBuffer page = blockPage(head);
+        int base = blockOffset(head);
+        int count = page.getInt(base + Integer.BYTES);
+        page.putInt(pairOffset(base, count), symbolId);
+        page.putInt(pairOffset(base, count) + Integer.BYTES, delta);
+        page.putInt(base + Integer.BYTES, count + 1);
+        return delta;
+    }
+
+    PositionMap positions(int id) {
+        PositionMap positions = new PositionMap();
+        for (int block = head(id); block != NO_BLOCK; block = next(block)) {
+            ByteBuffer page = blockPage(block);
+            int base = blockOffset(block);
+            int count = page.getInt(base + Integer.BYTES);
+            for (int pair = 0; pair < count; pair++) {
+                int offset = pairOffset(base, pair);
+                positions.add(page.getInt(offset), page.getInt(offset + Integer.BYTES));
+            }
+        }
+        return positions;
+    }
+
+    private void removePair(int id, int head, ByteBuffer page, int offset) {
+        ByteBuffer headPage = blockPage(head);
+        int headBase = blockOffset(head);
+        int last = headPage.getInt(headBase + Integer.BYTES) - 1;
+        int lastOffset = pairOffset(headBase, last);
+        page.putLong(offset, headPage.getLong(lastOffset));
+        headPage.putInt(headBase + Integer.BYTES, last);
+        if (last == 0) {
+            setHead(id, headPage.getInt(headBase));
+            freeBlock(head);
+        }
+    }
+
+    private int head(int id) {
+        return page(id).getInt(HOLDINGS + (id & (PAGE_SIZE - 1)) * Integer.BYTES);
+    }
+
+    private void setHead(int id, int block) {
+        page(id).putInt(HOLDINGS + (id & (PAGE_SIZE - 1)) * Integer.BYTES, block);
+    }
+
+    private int next(int block) {
+        return blockPage(block).getInt(blockOffset(block));
+    }
+
+    private int allocateBlock() {
+        synchronized (blockLock) {
+            int block = freeBlock;
+            if (block != NO_BLOCK) {
+                freeBlock = next(block);
+            } else {
+                block = blockCount++;
+                if (block >> BLOCK_PAGE_BITS == blockPages.length) {
+                    ByteBuffer[] grown = Arrays.copyOf(blockPages, blockPages.length + 1);
+                    grown[blockPages.length] = ByteBuffer.allocateDirect(BLOCK_PAGE_SIZE * BLOCK_BYTES)
+                            .order(ByteOrder.nativeOrder());
+                    blockPages = grown;
+                }
+            }
+            blockPage(block).putInt(blockOffset(block) + Integer.BYTES, 0);
+            return block;
+        }
+    }
+
+    private void freeBlock(int block) {
+        synchronized (blockLock) {
+            blockPage(block).putInt(blockOffset(block), freeBlock);
+            freeBlock = block;
+        }
+    }
+
+    // Opens a new account in the given empty index slot, with the holdings of a snapshot record if there is one
+    private Account create(byte[] name, int hash, int slot, long cash, int record) {
+        int id = size;
+        if (id >> PAGE_BITS == pages.length) {
+            ByteBuffer[] grown = Arrays.copyOf(pages, pages.length + 1);
+            grown[pages.length] = ByteBuffer.allocateDirect(PAGE_BYTES).order(ByteOrder.nativeOrder());
+            pages = grown;
+        }
+        ByteBuffer page = page(id);
+        int row = id & (PAGE_SIZE - 1);
+        page.putLong(CASH + row * Long.BYTES, cash);
+        page.putInt(NAME + row * Integer.BYTES, storeName(name));
+        page.putInt(HASH + row * Integer.BYTES, hash);
+        page.putInt(VALUATION + row * Integer.BYTES, valuation.register());
+        size++;
+        index[slot] = id + 1;
+        if (size * 2 > index.length) {
+            rehash(index.length * 2);
+        }
+        Account account = get(id);
+        if (record >= 0) {
+            JournalRecovery.restoreHoldings(account, snapshot, record);
+        }
+        return account;
+    }
+
+    private ByteBuffer page(int id) {
+        return pages[id >>> PAGE_BITS];
+    }
+
+    private ByteBuffer blockPage(int block) {
+        return blockPages[block >>> BLOCK_PAGE_BITS];
+    }
+
+    private static int blockOffset(int block) {
+        return (block & (BLOCK_PAGE_SIZE - 1)) * BLOCK_BYTES;
+    }
+
+    private static int pairOffset(int base, int pair) {
+        return base + 2 * Integer.BYTES + pair * 2 * Integer.BYTES;
+    }
+
+    // Names never straddle a page, so a name is read with a single bulk get
+    private int storeName(byte[] name) {
+        int position = nameArenaSize & (NAME_PAGE_SIZE - 1);
+        if (position + 2 + name.length > NAME_PAGE_SIZE) {
+            nameArenaSize += NAME_PAGE_SIZE - position;
+            position = 0;
+        }
+        if (nameArenaSize >>> NAME_PAGE_BITS == namePages.length) {
+            ByteBuffer[] grown = Arrays.copyOf(namePages, namePages.length + 1);
+            grown[namePages.length] = ByteBuffer.allocateDirect(NAME_PAGE_SIZE);
+            namePages = grown;
+        }
+        ByteBuffer page = namePages[nameArenaSize >>> NAME_PAGE_BITS];
+        page.putShort(position, (short) name.length);
+        page.put(position + 2, name);
+        int offset = nameArenaSize;
+        nameArenaSize += 2 + name.length;
+        return offset;
+    }
+
+    // Returns the index slot holding the name's account, or the empty slot where it belongs
+    private int find(byte[] name, int hash) {
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        for (; index[slot] != 0; slot = (slot + 1) & mask) {
+            int id = index[slot] - 1;
+            if (page(id).getInt(HASH + (id & (PAGE_SIZE - 1)) * Integer.BYTES) == hash && nameEquals(id, name)) {
+                return slot;
+            }
+        }
+        return slot;
+    }
+
+    private boolean nameEquals(int id, byte[] name) {
+        int offset = page(id).getInt(NAME + (id & (PAGE_SIZE - 1)) * Integer.BYTES);
+        ByteBuffer page = namePages[offset >>> NAME_PAGE_BITS];
+        int position = offset & (NAME_PAGE_SIZE - 1);
+        return (page.getShort(position) & 0xFFFF) == name.length
+                && page.slice(position + 2, name.length).equals(ByteBuffer.wrap(name));
+    }
+
+    private void rehash(int capacity) {
+        int[] grown = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry : index) {
+            if (entry != 0) {
+                int id = entry - 1;
+                int slot = page(id).getInt(HASH + (id & (PAGE_SIZE - 1)) * Integer.BYTES) & mask;
+                while (grown[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                grown[slot] = entry;
+            }
+        }
+        index = grown;
+    }
+
+    private static int hash(byte[] name) {
+        int hash = 0x811C9DC5;
+        for (byte b : name) {
+            hash = (hash ^ b) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,235 @@
+package stock.market.simulator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * One run of a {@link Strategy} over a {@link PriceHistory}.
+ * <p>
+ * The run trades with the same {@link Account}, {@link Buy} and {@link Sell} logic as a live session, against its
+ * own copies of the stocks: each stock is created at its first price in the history, moved to every later price,
+ * and sells the run as many shares as it asks for. Runs therefore share nothing but the file, and many of them can
+ * replay the same history at once. Trades are not journaled and their results are not printed.
+ * <p>
+ * The history's symbols must not be listed for live trading in the same JVM, since accounts value positions at the
+ * listed stock's price.
+ */
+public class Backtest implements TickListener {
+    /** Shares each stock starts with, far more than a run buys and low enough that sales back cannot overflow. */
+    public static final int MARKET_SHARES = Integer.MAX_VALUE / 2;
+
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+    private static final FileManager UNJOURNALED = new FileManager() {
+        @Override
+        public void writeTransaction(String username, String action, int quantity, int symbolId, long totalPrice, int marketQuantity) {
+        }
+
+        @Override
+        public void writeTransactions(CharSequence records) {
+        }
+
+        @Override
+        public void recordFills(TradeHistory.Block fills) {
+        }
+    };
+
+    private final String name;
+    private final Strategy strategy;
+    private final Account account;
+    private final long initialValue;
+    private final Buy buyOrder;
+    private final Sell sellOrder;
+    private Stock[] stocks = new Stock[64];
+    private long time;
+    private long events;
+    private long trades;
+    private long elapsedNanos;
+
+    /**
+     * Constructs a run.
+     *
+     * @param name        The name the run is reported under, such as its strategy parameters.
+     * @param strategy    The strategy, used by this run only.
+     * @param initialCash The cash the run's account starts with.
+     */
+    public Backtest(String name, Strategy strategy, double initialCash) {
+        this.name = name;
+        this.strategy = strategy;
+        this.account = new Account(name, initialCash, new MarkToMarket(1));
+        this.initialValue = account.getCashAmount();
+        this.buyOrder = new Buy(account, null, 0, null, UNJOURNALED);
+        this.sellOrder = new Sell(account, null, 0, null, UNJOURNALED);
+        buyOrder.setOutput(DISCARD);
+        sellOrder.setOutput(DISCARD);
+    }
+
+    /**
+     * Replays a history through the strategy. A run is meant to be replayed once.
+     *
+     * @param history The price history.
+     */
+    public void run(PriceHistory history) {
+        long start = System.nanoTime();
+        history.replay(this);
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Moves the run's copy of a stock to its next price and passes it to the strategy.
+     *
+     * @param time     The time of the price.
+     * @param symbolId The interned id of the stock's symbol.
+     * @param price    The price as a {@link Money} amount.
+     */
+    @Override
+    public void onPrice(long time, int symbolId, long price) {
+        if (symbolId >= stocks.length) {
+            stocks = Arrays.copyOf(stocks, Math.max(symbolId + 1, stocks.length * 2));
+        }
+        Stock stock = stocks[symbolId];
+        if (stock == null) {
+            stock = create(symbolId, price);
+        } else {
+            stock.setPriceAmount(price);
+        }
+        this.time = time;
+        events++;
+        strategy.onPrice(this, stock);
+    }
+
+    /**
+     * Buys shares at the stock's current price.
+     *
+     * @param stock    The run's copy of the stock.
+     * @param quantity The number of shares to buy.
+     * @return The executed order, from which the fill can be read until the run's next buy.
+     */
+    public Buy buy(Stock stock, int quantity) {
+        Buy order = buyOrder.reuse(account, stock, quantity);
+        order.execute();
+        if (order.getFilledQuantity() > 0) {
+            trades++;
+        }
+        return order;
+    }
+
+    /**
+     * Sells shares at the stock's current price.
+     *
+     * @param stock    The run's copy of the stock.
+     * @param quantity The number of shares to sell.
+     * @return The executed order, from which the fill can be read until the run's next sell.
+     */
+    public Sell sell(Stock stock, int quantity) {
+        Sell order = sellOrder.reuse(account, stock, quantity);
+        order.execute();
+        if (order.getFilledQuantity() > 0) {
+            trades++;
+        }
+        return order;
+    }
+
+    /**
+     * Returns the run's copy of a stock.
+     *
+     * @param symbol The stock symbol.
+     * @return The stock, or null if the history has not reached a price for it yet.
+     */
+    public Stock getStock(String symbol) {
+        int symbolId = SymbolRegistry.getInstance().getId(symbol);
+        return symbolId >= 0 && symbolId < stocks.length ? stocks[symbolId] : null;
+    }
+
+    /**
+     * Returns the name of the run.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the run's account.
+     *
+     * @return The account.
+     */
+    public Account getAccount() {
+        return account;
+    }
+
+    /**
+     * Returns the time of the latest price.
+     *
+     * @return The time, as written in the price file.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the number of prices replayed.
+     *
+     * @return The event count.
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * Returns the number of orders that filled.
+     *
+     * @return The trade count.
+     */
+    public long getTrades() {
+        return trades;
+    }
+
+    /**
+     * Returns how long the replay took.
+     *
+     * @return The elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the replay's throughput.
+     *
+     * @return The number of prices replayed per second.
+     */
+    public double getEventsPerSecond() {
+        return elapsedNanos == 0 ? 0 : events * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns the account's return over the run, with positions valued at their latest prices.
+     *
+     * @return The return as a fraction of the initial cash, e.g. 0.05 for 5%.
+     */
+    public double getReturn() {
+        return (double) (account.calculatePortfolioAmount() - initialValue) / initialValue;
+    }
+
+    /**
+     * Prints the run's result and throughput.
+     *
+     * @param out The stream to print to.
+     */
+    public void report(PrintStream out) {
+        out.printf("%-16s value $%s  return %.2f%%  trades %d  events %d  %.0f events/s%n", name,
+                Money.format(account.calculatePortfolioAmount()), getReturn() * 100, trades, events, getEventsPerSecond());
+    }
+
+    private Stock create(int symbolId, long price) {
+        if (SymbolRegistry.getInstance().getStock(symbolId) != null) {
+            throw new IllegalStateException("Cannot backtest a stock listed for live trading: "
+                    + SymbolRegistry.getInstance().getSymbol(symbolId));
+        }
+        Stock stock = new Stock(SymbolRegistry.getInstance().getSymbol(symbolId), price, MARKET_SHARES, Money.CENT);
+        stocks[symbolId] = stock;
+        return stock;
+    }
+}
@@ -0,0 +1,99 @@
+package stock.market.simulator;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs many {@link Backtest}s over one {@link PriceHistory} in parallel.
+ * <p>
+ * Runs are independent, so they are split in halves with fork/join until each task holds a single run, and the
+ * pool's work stealing keeps every core busy when runs take different times. Every run streams the same mapped
+ * file, so memory use does not grow with the number of runs.
+ */
+public class Backtester {
+    private final PriceHistory history;
+    private final int parallelism;
+
+    /**
+     * Constructs a backtester that uses every available processor.
+     *
+     * @param history The price history to replay.
+     */
+    public Backtester(PriceHistory history) {
+        this(history, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a backtester.
+     *
+     * @param history     The price history to replay.
+     * @param parallelism The largest number of runs to replay at once.
+     */
+    public Backtester(PriceHistory history, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.history = history;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Replays the history through every run and waits for them all to finish.
+     *
+     * @param runs The runs.
+     * @return The elapsed time in nanoseconds.
+     */
+    public long run(List<Backtest> runs) {
+        long start = System.nanoTime();
+        if (!runs.isEmpty()) {
+            ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, runs.size()));
+            try {
+                pool.invoke(new Runs(runs, 0, runs.size()));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Replays the history through every run and prints each run's result, followed by the combined throughput.
+     *
+     * @param runs The runs.
+     * @param out  The stream to print to.
+     */
+    public void run(List<Backtest> runs, PrintStream out) {
+        long elapsedNanos = run(runs);
+        long events = 0;
+        for (Backtest run : runs) {
+            run.report(out);
+            events += run.getEvents();
+        }
+        out.printf("%d runs, %d events in %.3f s, %.0f events/s%n", runs.size(), events, elapsedNanos / 1e9,
+                elapsedNanos == 0 ? 0 : events * 1e9 / elapsedNanos);
+    }
+
+    private final class Runs extends RecursiveAction {
+        private final List<Backtest> runs;
+        private final int from;
+        private final int to;
+
+        Runs(List<Backtest> runs, int from, int to) {
+            this.runs = runs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                runs.get(from).run(history);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Runs(runs, from, middle), new Runs(runs, middle, to));
+            }
+        }
+    }
+}
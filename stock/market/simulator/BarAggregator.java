@@ -0,0 +1,425 @@
+package stock.market.simulator;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Builds open, high, low, close and volume bars for every stock as it trades, at several intervals at once, and
+ * answers volume-weighted average price and volume over the latest bars.
+ * <p>
+ * Each stock traded gets a fixed set of primitive rings, one slot per bar and one ring per interval, so memory per
+ * stock is constant and the oldest bars are overwritten as new ones start. A fill updates the current bar of every
+ * interval in place, or starts the next one. Each slot also keeps the running totals of volume and traded value up
+ * to the end of its bar, so volume and VWAP over any number of the latest bars is a difference of two totals. Every
+ * query is O(1). A bar exists only for an interval in which the stock traded, and bars are counted back from the
+ * current one: bar 0 is the latest, bar 1 the one before it.
+ * <p>
+ * Fills are recorded under the stock's trading lock, so each stock has one writer at a time. Readers never block
+ * it: they read optimistically and retry if a fill came in meanwhile.
+ */
+public class BarAggregator implements TradeListener {
+    /** Index of the one-second interval in the default aggregator. */
+    public static final int SECOND = 0;
+
+    /** Index of the one-minute interval in the default aggregator. */
+    public static final int MINUTE = 1;
+
+    /** Index of the five-minute interval in the default aggregator. */
+    public static final int FIVE_MINUTES = 2;
+
+    private static final long[] DEFAULT_INTERVALS = {1000, 60_000, 300_000};
+    private static final int DEFAULT_CAPACITY = 256;
+    // Columns read by the single-value getters
+    private static final int STARTS = 0;
+    private static final int OPENS = 1;
+    private static final int HIGHS = 2;
+    private static final int LOWS = 3;
+    private static final int CLOSES = 4;
+    private static final int VOLUMES = 5;
+    private static final BarAggregator INSTANCE = new BarAggregator();
+
+    private final long[] intervals;
+    private final int capacity;
+    private final LongSupplier clock;
+    private volatile Series[] series = new Series[0];
+
+    /**
+     * The bars of one stock. Columns are indexed by {@code interval * capacity + slot}.
+     */
+    private static final class Series {
+        private final StampedLock lock = new StampedLock();
+        private final long[] counts;
+        private final long[] starts;
+        private final long[] opens;
+        private final long[] highs;
+        private final long[] lows;
+        private final long[] closes;
+        private final long[] volumes;
+        private final long[] values;
+        private final long[] totalVolumes;
+        private final long[] totalValues;
+
+        private Series(int intervals, int capacity) {
+            int size = intervals * capacity;
+            counts = new long[intervals];
+            starts = new long[size];
+            opens = new long[size];
+            highs = new long[size];
+            lows = new long[size];
+            closes = new long[size];
+            volumes = new long[size];
+            values = new long[size];
+            totalVolumes = new long[size];
+            totalValues = new long[size];
+        }
+    }
+
+    /**
+     * Constructs an aggregator with one-second, one-minute and five-minute bars, keeping the latest 256 of each, and
+     * timing fills by the system clock.
+     */
+    public BarAggregator() {
+        this(DEFAULT_INTERVALS, DEFAULT_CAPACITY, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructs an aggregator.
+     *
+     * @param intervals The bar intervals in milliseconds.
+     * @param capacity  The number of bars to keep for each interval of each stock.
+     * @param clock     The clock that times fills, in milliseconds.
+     */
+    public BarAggregator(long[] intervals, int capacity, LongSupplier clock) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        }
+        for (long interval : intervals) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Intervals must be positive: " + interval);
+            }
+        }
+        this.intervals = intervals.clone();
+        this.capacity = capacity;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the aggregator the live market records its fills in.
+     *
+     * @return The shared aggregator.
+     */
+    public static BarAggregator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts recording a stock's fills.
+     *
+     * @param stock The stock to watch.
+     */
+    public void watch(Stock stock) {
+        stock.addTradeListener(this);
+    }
+
+    /**
+     * Records a fill at the current time.
+     */
+    @Override
+    public void onTrade(Stock stock, int side, long price, int quantity) {
+        record(stock.getSymbolId(), clock.getAsLong(), price, quantity);
+    }
+
+    /**
+     * Records a fill, such as one replayed from a history, at a given time. A fill timed before the current bar of
+     * an interval is added to that bar.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param time     The time of the fill in milliseconds.
+     * @param price    The fill price as a {@link Money} amount.
+     * @param quantity The number of shares.
+     */
+    public void record(int symbolId, long time, long price, int quantity) {
+        Series bars = seriesForWrite(symbolId);
+        long value = Money.times(price, quantity);
+        long stamp = bars.lock.writeLock();
+        try {
+            for (int interval = 0; interval < intervals.length; interval++) {
+                long start = Math.floorDiv(time, intervals[interval]) * intervals[interval];
+                long count = bars.counts[interval];
+                int latest = slot(interval, count - 1);
+                if (count > 0 && start <= bars.starts[latest]) {
+                    bars.highs[latest] = Math.max(bars.highs[latest], price);
+                    bars.lows[latest] = Math.min(bars.lows[latest], price);
+                    bars.closes[latest] = price;
+                    bars.volumes[latest] += quantity;
+                    bars.values[latest] += value;
+                    bars.totalVolumes[latest] += quantity;
+                    bars.totalValues[latest] += value;
+                    continue;
+                }
+                int next = slot(interval, count);
+                bars.starts[next] = start;
+                bars.opens[next] = price;
+                bars.highs[next] = price;
+                bars.lows[next] = price;
+                bars.closes[next] = price;
+                bars.volumes[next] = quantity;
+                bars.values[next] = value;
+                bars.totalVolumes[next] = (count > 0 ? bars.totalVolumes[latest] : 0) + quantity;
+                bars.totalValues[next] = (count > 0 ? bars.totalValues[latest] : 0) + value;
+                bars.counts[interval] = count + 1;
+            }
+        } finally {
+            bars.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the number of intervals bars are built at.
+     *
+     * @return The interval count.
+     */
+    public int getIntervalCount() {
+        return intervals.length;
+    }
+
+    /**
+     * Returns the length of an interval.
+     *
+     * @param interval The interval's index.
+     * @return The interval in milliseconds.
+     */
+    public long getInterval(int interval) {
+        return intervals[interval];
+    }
+
+    /**
+     * Returns the number of bars of an interval that can be read for a stock, at most the aggregator's capacity.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param interval The interval's index.
+     * @return The number of bars kept.
+     */
+    public int getBarCount(int symbolId, int interval) {
+        Series bars = series(symbolId);
+        if (bars == null) {
+            return 0;
+        }
+        long stamp;
+        long count;
+        do {
+            stamp = bars.lock.tryOptimisticRead();
+            count = bars.counts[interval];
+        } while (!bars.lock.validate(stamp));
+        return (int) Math.min(count, capacity);
+    }
+
+    /**
+     * Returns the time a bar starts at.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param interval The interval's index.
+     * @param bar      The bar, counting back from 0 for the latest.
+     * @return The start time in milliseconds, or 0 if there is no such bar.
+     */
+    public long getStart(int symbolId, int interval, int bar) {
+        return read(symbolId, interval, bar, STARTS);
+    }
+
+    /**
+     * Returns the price of a bar's first fill.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param interval The interval's index.
+     * @param bar      The bar, counting back from 0 for the latest.
+     * @return The price as a {@link Money} amount, or 0 if there is no such bar.
+     */
+    public long getOpen(int symbolId, int interval, int bar) {
+        return read(symbolId, interval, bar, OPENS);
+    }
+
+    /**
+     * Returns the highest fill price of a bar.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param interval The interval's index.
+     * @param bar      The bar, counting back from 0 for the latest.
+     * @return The price as a {@link Money} amount, or 0 if there is no such bar.
+     */
+    public long getHigh(int symbolId, int interval, int bar) {
+        return read(symbolId, interval, bar, HIGHS);
+    }
+
+    /**
+     * Returns the lowest fill price of a bar.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param interval The interval's index.
+     * @param bar      The bar, counting back from 0 for the latest.
+     * @return The price as a {@link Money} amount, or 0 if there is no such bar.
+     */
+    public long getLow(int symbolId, int interval, int bar) {
+        return read(symbolId, interval, bar, LOWS);
+    }
+
+    /**
+     * Returns the price of a bar's last fill.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param interval The interval's index.
+     * @param bar      The bar, counting back from 0 for the latest.
+     * @return The price as a {@link Money} amount, or 0 if there is no such bar.
+     */
+    public long getClose(int symbolId, int interval, int bar) {
+        return read(symbolId, interval, bar, CLOSES);
+    }
+
+    /**
+     * Returns the number of shares traded in a bar.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param interval The interval's index.
+     * @param bar      The bar, counting back from 0 for the latest.
+     * @return The volume, or 0 if there is no such bar.
+     */
+    public long getVolume(int symbolId, int interval, int bar) {
+        return read(symbolId, interval, bar, VOLUMES);
+    }
+
+    /**
+     * Returns the volume-weighted average price of a bar.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param interval The interval's index.
+     * @param bar      The bar, counting back from 0 for the latest.
+     * @return The price as a {@link Money} amount, or 0 if there is no such bar.
+     */
+    public long getVwap(int symbolId, int interval, int bar) {
+        Series bars = series(symbolId);
+        if (bars == null) {
+            return 0;
+        }
+        long stamp;
+        long volume;
+        long value;
+        do {
+            stamp = bars.lock.tryOptimisticRead();
+            int slot = slotOf(bars, interval, bar);
+            volume = slot < 0 ? 0 : bars.volumes[slot];
+            value = slot < 0 ? 0 : bars.values[slot];
+        } while (!bars.lock.validate(stamp));
+        return average(value, volume);
+    }
+
+    /**
+     * Returns the number of shares traded in the latest bars of an interval, the current one included.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param interval The interval's index.
+     * @param bars     The number of bars, up to one less than the aggregator's capacity.
+     * @return The volume.
+     */
+    public long getRollingVolume(int symbolId, int interval, int bars) {
+        return rolling(symbolId, interval, bars, false);
+    }
+
+    /**
+     * Returns the volume-weighted average price over the latest bars of an interval, the current one included.
+     *
+     * @param symbolId The interned id of the stock's symbol.
+     * @param interval The interval's index.
+     * @param bars     The number of bars, up to one less than the aggregator's capacity.
+     * @return The price as a {@link Money} amount, or 0 if the stock has not traded.
+     */
+    public long getRollingVwap(int symbolId, int interval, int bars) {
+        return rolling(symbolId, interval, bars, true);
+    }
+
+    private long read(int symbolId, int interval, int bar, int column) {
+        Series bars = series(symbolId);
+        if (bars == null) {
+            return 0;
+        }
+        long stamp;
+        long result;
+        do {
+            stamp = bars.lock.tryOptimisticRead();
+            int slot = slotOf(bars, interval, bar);
+            result = slot < 0 ? 0 : column(bars, column)[slot];
+        } while (!bars.lock.validate(stamp));
+        return result;
+    }
+
+    private long rolling(int symbolId, int interval, int count, boolean vwap) {
+        Series bars = series(symbolId);
+        if (bars == null || count <= 0) {
+            return 0;
+        }
+        // The totals before the window come from the bar just before it, so the window can span one bar less than the ring
+        int window = Math.min(count, capacity - 1);
+        long stamp;
+        long volume;
+        long value;
+        do {
+            stamp = bars.lock.tryOptimisticRead();
+            int latest = slotOf(bars, interval, 0);
+            int before = slotOf(bars, interval, window);
+            volume = latest < 0 ? 0 : bars.totalVolumes[latest] - (before < 0 ? 0 : bars.totalVolumes[before]);
+            value = latest < 0 ? 0 : bars.totalValues[latest] - (before < 0 ? 0 : bars.totalValues[before]);
+        } while (!bars.lock.validate(stamp));
+        return vwap ? average(value, volume) : volume;
+    }
+
+    // Returns the slot of a bar counted back from the latest, or -1 if it is not kept
+    private int slotOf(Series bars, int interval, int bar) {
+        long count = bars.counts[interval];
+        if (bar < 0 || bar >= count || bar >= capacity) {
+            return -1;
+        }
+        return slot(interval, count - 1 - bar);
+    }
+
+    private int slot(int interval, long bar) {
+        return interval * capacity + (int) Math.floorMod(bar, (long) capacity);
+    }
+
+    private static long[] column(Series bars, int column) {
+        return switch (column) {
+            case STARTS -> bars.starts;
+            case OPENS -> bars.opens;
+            case HIGHS -> bars.highs;
+            case LOWS -> bars.lows;
+            case CLOSES -> bars.closes;
+            default -> bars.volumes;
+        };
+    }
+
+    private static long average(long value, long volume) {
+        return volume == 0 ? 0 : Math.round((double) value / volume);
+    }
+
+    private Series series(int symbolId) {
+        Series[] current = series;
+        return symbolId < current.length ? current[symbolId] : null;
+    }
+
+    // Creates a stock's rings at its first fill
+    private Series seriesForWrite(int symbolId) {
+        Series bars = series(symbolId);
+        if (bars != null) {
+            return bars;
+        }
+        synchronized (this) {
+            Series[] current = series;
+            if (symbolId >= current.length) {
+                current = Arrays.copyOf(current, Math.max(symbolId + 1, current.length * 2));
+            }
+            if (current[symbolId] == null) {
+                current[symbolId] = new Series(intervals.length, capacity);
+            }
+            series = current;
+            return current[symbolId];
+        }
+    }
+}
@@ -2,14 +2,11 @@ package stock.market.simulator;
 
 import stock.market.simulator.console.StockSimulatorConsole;
 
-import java.text.DecimalFormat;
-
 /**
  * Handles the buying of stocks within the stock market simulator.
  */
 public class Buy extends AbstractTransaction {
 
-    private DecimalFormat df = new DecimalFormat("#.00");
     private StockSimulatorConsole simulator;
 
     /**
@@ -24,37 +21,188 @@ public class Buy extends AbstractTransaction {
     public Buy(Account account, Stock stock, int quantity, StockSimulatorConsole simulator, FileManager fileManager) {
         super(account, stock, quantity, fileManager);
         this.simulator = simulator;
+        if (simulator != null) {
+            this.out = simulator.getOutput();
+        }
     }
 
     /**
-     * Calculates the total transaction amount by multiplying the price of the stock with the quantity being traded.
+     * Constructs a limit Buy order. Any quantity that cannot be bought at or below the limit price
+     * rests in the stock's order book until it is matched or cancelled.
+     *
+     * @param account     The user's account for trading.
+     * @param stock       The stock to be traded.
+     * @param quantity    The quantity of stock to buy.
+     * @param limitPrice  The highest price the user is willing to pay per share.
+     * @param simulator   The stock simulator to interact with the stock data.
+     * @param fileManager The file manager to handle file operations.
+     */
+    public Buy(Account account, Stock stock, int quantity, double limitPrice, StockSimulatorConsole simulator, FileManager fileManager) {
+        super(account, stock, quantity, limitPrice, fileManager);
+        this.simulator = simulator;
+        if (simulator != null) {
+            this.out = simulator.getOutput();
+        }
+    }
+
+    /**
+     * Reuses this buy for a new market order, clearing the results of the last one, so that a session can keep
+     * trading without allocating an order per trade. The result is printed to the same stream as before.
+     *
+     * @param account  The user's account for trading.
+     * @param stock    The stock to be traded.
+     * @param quantity The quantity of stock to buy.
+     * @return This buy.
+     */
+    public Buy reuse(Account account, Stock stock, int quantity) {
+        reset(account, stock, quantity, MARKET_ORDER);
+        return this;
+    }
+
+    /**
+     * Calculates the most the transaction can cost by multiplying the limit price with the quantity being traded.
+     * For market orders the limit is the current price of the stock.
      *
      * @return The total transaction amount
      */
     @Override
-    protected double calculateTransactionAmount() {
-        return stock.getPrice() * quantity;
+    protected long calculateTransactionAmount() {
+        return Money.times(stock.toAmount(getLimitTicks()), quantity);
     }
 
     /**
      * Executes the buy transaction. Checks if there are enough shares available and if the account has enough cash.
-     * If conditions are met, updates the cash balance, stock quantity, and portfolio, and writes the transaction to a file.
+     * If conditions are met, the cost is reserved from the cash balance and the order is matched against resting
+     * sell orders, then against the market's remaining shares. Unfilled limit orders rest in the book, and the
+     * transaction is written to a file. Matching happens under the stock's trading lock; the result is printed
+     * and the records of this order and the sellers it filled are journaled after the lock is released.
      */
     @Override
     public void execute() {
-        if (account.sharesAvailable(stock, quantity)) {
-            double totalPrice = calculateTransactionAmount();
-            if (account.hasEnoughCash(totalPrice)) {
-                System.out.println("The total comes to: $" + df.format(totalPrice));
-                account.updateCashBalance(-totalPrice, "buy");
-                stock.setQuantity(quantity);
-                account.addStockToPortfolio(new Stock(stock.getSymbol(), stock.getPrice(), quantity));
-                fileManager.writeTransaction(account.getAccountName(), "bought", quantity, stock.getSymbol(), totalPrice);
-            } else {
-                System.out.println("Sorry, not enough cash.");
+        executeAlone();
+    }
+
+    @Override
+    protected void printResult(int status) {
+        if (status == REJECTED_SHARES) {
+            printLine("Sorry, not enough shares available.");
+        } else if (status == REJECTED_CASH) {
+            printLine("Sorry, not enough cash.");
+        } else if (status == REJECTED_PRICE) {
+            printLine("Sorry, that limit price is outside the stock's trading range.");
+        } else {
+            if (filledQuantity > 0) {
+                line.setLength(0);
+                Money.appendTo(line.append("The total comes to: $"), filledAmount);
+                printLine();
             }
+            if (restingQuantity > 0) {
+                line.setLength(0);
+                Money.appendTo(line.append(restingQuantity).append(" shares resting at $"), stock.toAmount(limitTicks))
+                        .append(" (order ").append(restingOrderId).append(").");
+                printLine();
+            }
+        }
+    }
+
+    @Override
+    protected int match() {
+        OrderBook book = stock.getOrderBook();
+        long priceTicks = stock.getPriceTicks();
+        int status = check(book, priceTicks, 0);
+        if (status != EXECUTED) {
+            return status;
+        }
+        if (!takeCash(cashToReserve(priceTicks))) {
+            return REJECTED_CASH;
+        }
+        long refund = fill(book, priceTicks);
+        if (refund > 0) {
+            account.updateCashAmount(refund, "sell");
+        }
+        return EXECUTED;
+    }
+
+    /**
+     * Checks that the limit is within the book's range and that a market order can be filled in full.
+     */
+    @Override
+    protected int check(OrderBook book, long priceTicks, int claimed) {
+        long limit = limitAt(priceTicks);
+        if (!canRest(book, limit)) {
+            return REJECTED_PRICE;
+        }
+        int available = book.matchableQuantity(OrderBook.BUY, limit, quantity)
+                + (priceTicks <= limit ? stock.getSharesLeft() : 0) - claimed;
+        if (quantity <= 0 || (available < quantity && isMarketOrder())) {
+            return REJECTED_SHARES;
+        }
+        return EXECUTED;
+    }
+
+    /**
+     * Reserves the most the order can cost, its limit price times its quantity.
+     */
+    @Override
+    protected long cashToReserve(long priceTicks) {
+        return Money.times(stock.toAmount(limitAt(priceTicks)), quantity);
+    }
+
+    @Override
+    protected int sharesToReserve() {
+        return 0;
+    }
+
+    @Override
+    protected long fill(OrderBook book, long priceTicks) {
+        long limit = limitAt(priceTicks);
+        int remaining = quantity - fillFromBook(book, limit);
+        if (remaining > 0 && priceTicks <= limit) {
+            int fromMarket = Math.min(remaining, stock.getSharesLeft());
+            if (fromMarket > 0) {
+                stock.updateSharesLeft(fromMarket, "buy");
+                onFill(null, OrderBook.NO_ORDER, OrderBook.BUY, priceTicks, fromMarket);
+                remaining -= fromMarket;
+            }
+        }
+        if (remaining > 0) {
+            restingOrderId = book.submit(OrderBook.BUY, limit, remaining, account, true, this);
+            restingQuantity = remaining;
+        }
+        // Return whatever was reserved but not spent or still resting
+        return cashToReserve(priceTicks) - filledAmount - Money.times(stock.toAmount(limit), remaining);
+    }
+
+    @Override
+    protected LatencyHistogram matchLatency() {
+        return TradeMetrics.BUY;
+    }
+
+    @Override
+    protected String action() {
+        return "bought";
+    }
+
+    /**
+     * Receives a fill for this order, adds the shares to the account, reports the trade and settles the seller.
+     * A null maker means the shares came from the market rather than a resting order.
+     */
+    @Override
+    public void onFill(Account maker, long makerOrderId, int side, long priceTicks, int quantity) {
+        filledQuantity += quantity;
+        filledAmount += Money.times(stock.toAmount(priceTicks), quantity);
+        account.addStockToPortfolio(stock, quantity);
+        stock.notifyTrade(side, priceTicks, quantity);
+        if (maker != null) {
+            settleMaker(maker, side, priceTicks, quantity);
         } else {
-            System.out.println("Sorry, not enough shares available.");
+            marketQuantity += quantity;
         }
     }
+
+    private int fillFromBook(OrderBook book, long limit) {
+        int before = filledQuantity;
+        book.submit(OrderBook.BUY, limit, quantity, account, false, this);
+        return filledQuantity - before;
+    }
 }
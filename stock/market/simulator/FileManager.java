@@ -1,12 +1,72 @@
 package stock.market.simulator;
 
 import java.io.*;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
+/**
+ * Keeps the simulator's files in a data directory: the transactions and accounts logs, each a {@link SegmentedLog}
+ * of rolling segment files, the snapshot of the market and the trade history.
+ */
 public class FileManager {
-    private String TRANSACTIONS_FILE = "C:\\Users\\HP\\Desktop\\oop_project\\stock\\market\\simulator\\transactions.txt";
-    private String ACCOUNTS_FILE = "C:\\Users\\HP\\Desktop\\oop_project\\stock\\market\\simulator\\accounts.txt";
+    /** The system property naming the data directory; it defaults to {@value #DEFAULT_DATA_DIRECTORY}. */
+    public static final String DATA_DIRECTORY_PROPERTY = "stock.market.data";
+
+    /** The data directory used when the property is not set, relative to the working directory. */
+    public static final String DEFAULT_DATA_DIRECTORY = "data";
+
+    // Sealed accounts segments that are compacted into one when the accounts are loaded
+    private static final int COMPACT_SEGMENTS = 2;
+
+    private final Path dataDirectory;
+    private final long segmentSize;
+    private final TransactionJournal.Durability journalDurability;
+    private volatile TransactionJournal journal;
+    private TransactionJournal accountsJournal;
+    private volatile UserIndex users;
+    private volatile TradeHistory history;
+
+    /**
+     * Constructs a FileManager on the configured data directory whose transaction journal leaves syncing to the
+     * operating system.
+     */
+    public FileManager() {
+        this(TransactionJournal.Durability.NONE);
+    }
+
+    /**
+     * Constructs a FileManager on the configured data directory with the given transaction journal durability.
+     *
+     * @param journalDurability When journaled transactions are forced to disk.
+     */
+    public FileManager(TransactionJournal.Durability journalDurability) {
+        this(getDefaultDataDirectory(), journalDurability, SegmentedLog.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructs a FileManager.
+     *
+     * @param dataDirectory     The directory to keep the files in; it is created when first written to.
+     * @param journalDurability When journaled transactions are forced to disk.
+     * @param segmentSize       The size at which the transactions and accounts logs roll over to a new segment.
+     */
+    public FileManager(Path dataDirectory, TransactionJournal.Durability journalDurability, long segmentSize) {
+        this.dataDirectory = dataDirectory;
+        this.journalDurability = journalDurability;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Returns the data directory named by the {@value #DATA_DIRECTORY_PROPERTY} system property.
+     *
+     * @return The configured data directory.
+     */
+    public static Path getDefaultDataDirectory() {
+        return Paths.get(System.getProperty(DATA_DIRECTORY_PROPERTY, DEFAULT_DATA_DIRECTORY));
+    }
 
     /**
      * Writes a transaction record to the transactions file.
@@ -18,70 +78,354 @@ public class FileManager {
      * @param totalPrice
      */
     public void writeTransaction(String username, String stock, double price, String transactionType, double totalPrice) {
-        try (PrintWriter out = new PrintWriter(new FileWriter(TRANSACTIONS_FILE, true))) {
-            out.printf("%s, %s, %.2f, %s%n", username, stock, price, transactionType);
-        } catch (IOException e) {
-            System.err.println("Error writing to transactions file: " + e.getMessage());
+        TransactionJournal out = journal();
+        if (out != null) {
+            out.append(String.format("%s, %s, %.2f, %s%n", username, stock, price, transactionType));
         }
     }
 
     /**
-     * Registers a new user by writing their username to the accounts file.
+     * Writes a transaction record to the transactions file for a stock identified by its interned symbol id.
      *
-     * @param username The username to register.
-     * @return true if the registration was successful, false if the username already exists.
+     * @param username        The user's name who performed the transaction.
+     * @param action          The action taken (e.g., "bought" or "sold").
+     * @param quantity        The number of shares traded.
+     * @param symbolId        The interned id of the stock's symbol.
+     * @param totalPrice      The total value of the trade as a {@link Money} amount.
      */
-    public boolean registerUser(String username) throws FileNotFoundException {
-        Set<String> existingUsers = new HashSet<>();
+    public void writeTransaction(String username, String action, int quantity, int symbolId, long totalPrice) {
+        writeTransaction(username, action, quantity, symbolId, totalPrice, 0);
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(ACCOUNTS_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                existingUsers.add(line.trim());
+    /**
+     * Writes a transaction record that {@link JournalRecovery} can replay: besides the shares traded it records
+     * the total and how many of the shares were traded with the market rather than with another user's order.
+     *
+     * @param username        The user's name who performed the transaction.
+     * @param action          The action taken (e.g., "bought" or "sold").
+     * @param quantity        The number of shares traded.
+     * @param symbolId        The interned id of the stock's symbol.
+     * @param totalPrice      The total value of the trade as a {@link Money} amount.
+     * @param marketQuantity  The number of shares traded with the market.
+     */
+    public void writeTransaction(String username, String action, int quantity, int symbolId, long totalPrice, int marketQuantity) {
+        long start = System.nanoTime();
+        TransactionJournal out = journal();
+        if (out != null) {
+            out.append(username, action, quantity, SymbolRegistry.getInstance().getSymbol(symbolId), totalPrice, marketQuantity);
+            TradeMetrics.WRITE_TRANSACTION.recordSince(start);
+        }
+    }
+
+    /**
+     * Writes a block of transaction records, formatted with
+     * {@link TransactionJournal#append(StringBuilder, String, String, int, String, long, int)}, to the transactions
+     * file. A block that fits in the journal is appended with a single write; a larger one is split between records.
+     *
+     * @param records The records, each ending with a line terminator.
+     */
+    public void writeTransactions(CharSequence records) {
+        long startNanos = System.nanoTime();
+        TransactionJournal out = journal();
+        if (out == null) {
+            return;
+        }
+        // Records are mostly ASCII; leave room for names that take several bytes per character
+        int limit = out.getMaxRecordLength() / 4;
+        int start = 0;
+        while (records.length() - start > limit) {
+            int end = start + limit;
+            while (end > start && records.charAt(end - 1) != '\n') {
+                end--;
+            }
+            if (end == start) {
+                throw new IllegalArgumentException("Transaction record is too long for the journal");
+            }
+            out.append(records.subSequence(start, end));
+            start = end;
+        }
+        if (start == 0) {
+            // The whole block fits; append it as it is rather than copying it
+            if (records.length() > 0) {
+                out.append(records);
             }
-        } catch (java.io.FileNotFoundException e) {
-            throw new FileNotFoundException("The accounts file could not be found.");
-        } catch (IOException e) {
-            System.err.println("Error reading accounts file: " + e.getMessage());
-            return false;
+        } else if (start < records.length()) {
+            out.append(records.subSequence(start, records.length()));
         }
+        TradeMetrics.WRITE_TRANSACTION.recordSince(startNanos);
+    }
 
+    /**
+     * Records a block of fills in the trade history, so that they can be found by account, symbol and time. Fills
+     * are buffered while a stock's trading lock is held and recorded here once it has been released, along with the
+     * transaction records of the same orders.
+     *
+     * @param fills The fills.
+     */
+    public void recordFills(TradeHistory.Block fills) {
+        if (fills.size() == 0) {
+            return;
+        }
+        TradeHistory history = getTradeHistory();
+        if (history != null) {
+            history.append(fills);
+        }
+    }
 
-        // Check if the username already exists
-        if (existingUsers.contains(username)) {
-            System.out.println("Username already exists. Please choose a different username.");
-            return false;
+    /**
+     * Returns the trade history, opening it on first use.
+     *
+     * @return The history, or null if it cannot be opened.
+     */
+    public TradeHistory getTradeHistory() {
+        TradeHistory fills = history;
+        if (fills != null) {
+            return fills;
+        }
+        synchronized (this) {
+            if (history == null) {
+                try {
+                    history = new TradeHistory(getHistoryPath());
+                } catch (IOException e) {
+                    System.err.println("Error opening trade history: " + e.getMessage());
+                }
+            }
+            return history;
         }
+    }
+
+    /**
+     * Returns the directory the files are kept in.
+     *
+     * @return The data directory.
+     */
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    /**
+     * Returns the size at which the transactions and accounts logs roll over to a new segment.
+     *
+     * @return The segment size in bytes.
+     */
+    public long getSegmentSize() {
+        return segmentSize;
+    }
 
-        // Write the new username to the file
-        try (PrintWriter out = new PrintWriter(new FileWriter(ACCOUNTS_FILE, true))) {
-            out.println(username);
-        } catch (IOException e) {
-            System.err.println("Error writing to accounts file: " + e.getMessage());
-            return false;
+    /**
+     * Returns the directory of the transactions log.
+     *
+     * @return The transactions log directory.
+     */
+    public Path getTransactionsPath() {
+        return dataDirectory.resolve("transactions");
+    }
+
+    /**
+     * Returns the directory of the accounts log.
+     *
+     * @return The accounts log directory.
+     */
+    public Path getAccountsPath() {
+        return dataDirectory.resolve("accounts");
+    }
+
+    /**
+     * Returns the path of the snapshot file that checkpoints the state replayed from the transactions log.
+     *
+     * @return The snapshot file.
+     */
+    public Path getSnapshotPath() {
+        return dataDirectory.resolve("snapshot");
+    }
+
+    /**
+     * Returns the path of the directory holding the trade history.
+     *
+     * @return The history directory.
+     */
+    public Path getHistoryPath() {
+        return dataDirectory.resolve("history");
+    }
+
+    /**
+     * Waits until every transaction written so far has reached the transactions file.
+     */
+    public void flushTransactions() {
+        TransactionJournal out = journal;
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Flushes and closes the transaction and accounts journals and the trade history.
+     */
+    public synchronized void close() {
+        if (history != null) {
+            history.close();
+            history = null;
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (accountsJournal != null) {
+            accountsJournal.close();
+            accountsJournal = null;
+        }
+    }
+
+    /**
+     * Returns the transaction journal, opening it on first use. Transactions are only queued here;
+     * the journal's own thread appends them to the file in batches.
+     *
+     * @return The journal, or null if the transactions file cannot be opened.
+     */
+    private TransactionJournal journal() {
+        TransactionJournal out = journal;
+        if (out != null) {
+            return out;
         }
+        synchronized (this) {
+            if (journal == null) {
+                try {
+                    journal = new TransactionJournal(new SegmentedLog(getTransactionsPath(), segmentSize), journalDurability);
+                } catch (IOException e) {
+                    System.err.println("Error writing to transactions file: " + e.getMessage());
+                }
+            }
+            return journal;
+        }
+    }
 
+    /**
+     * Registers a new user by queueing their username for the accounts file and then adding them to the user index.
+     * The name is only indexed once it has been handed to the accounts journal, so a user that could not be
+     * written is never reported as existing.
+     *
+     * @param username The username to register.
+     * @return true if the registration was successful, false if the username already exists.
+     * @throws FileNotFoundException If the accounts file cannot be read or written.
+     */
+    public boolean registerUser(String username) throws FileNotFoundException {
+        UserIndex index = users();
+        TransactionJournal out = accountsJournal();
+        if (out == null) {
+            throw new FileNotFoundException("Error writing to accounts file: it could not be opened");
+        }
+
+        // Hold the index while writing so that two registrations of one name cannot both be written
+        synchronized (index) {
+            if (index.contains(username)) {
+                return false;
+            }
+            if (!index.fits(username)) {
+                throw new IllegalArgumentException("Username is too long");
+            }
+            try {
+                // Write the new username to the file in the background
+                out.append(username + System.lineSeparator());
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                throw new FileNotFoundException("Error writing to accounts file: " + e.getMessage());
+            }
+            index.add(username);
+        }
         return true;
     }
 
     /**
-     * Checks if a user with the given username exists in the accounts file.
+     * Checks if a user with the given username exists, using the user index loaded from the accounts file.
      *
      * @param username The username to check for existence
      * @return True if the user exists, otherwise false
      * @throws IOException If an I/O error occurs while reading the accounts file
      */
     public boolean userExists(String username) throws java.io.FileNotFoundException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(ACCOUNTS_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().equals(username)) {
-                    return true;
-                }
-            }
-        } catch (IOException e) {
+        long start = System.nanoTime();
+        try {
+            return users().contains(username);
+        } catch (FileNotFoundException e) {
             System.err.println("Accounts file not found: " + e.getMessage());
+        } finally {
+            TradeMetrics.USER_EXISTS.recordSince(start);
         }
         return false;
     }
+
+    /**
+     * Returns the user index, loading it from the accounts log the first time it is needed, after compacting the
+     * log if it has rolled over several times.
+     *
+     * @return The user index.
+     * @throws FileNotFoundException If the accounts log cannot be read.
+     */
+    private UserIndex users() throws FileNotFoundException {
+        UserIndex index = users;
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            if (users == null) {
+                try (SegmentedLog log = new SegmentedLog(getAccountsPath(), segmentSize)) {
+                    if (log.getSealedCount() >= COMPACT_SEGMENTS) {
+                        compact(log);
+                    }
+                    users = UserIndex.load(log.getSegments());
+                } catch (IOException e) {
+                    throw new FileNotFoundException("Error reading accounts file: " + e.getMessage());
+                }
+            }
+            return users;
+        }
+    }
+
+    /**
+     * Rewrites the sealed segments of the accounts log as one segment holding each username once. The accounts log
+     * only ever adds names, so its latest state is every distinct name in it; the segment being appended to is left
+     * alone, so registration can carry on.
+     *
+     * @param log The accounts log.
+     * @throws IOException If the segments cannot be read or replaced.
+     */
+    private static void compact(SegmentedLog log) throws IOException {
+        List<Path> segments = log.getSegments();
+        List<Path> sealed = segments.subList(0, segments.size() - 1);
+        UserIndex written = new UserIndex();
+        Path compacted = log.getDirectory().resolve("compacted.tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+            for (Path segment : sealed) {
+                try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String username = line.trim();
+                        if (!username.isEmpty() && written.add(username)) {
+                            writer.write(username);
+                            writer.write(System.lineSeparator());
+                        }
+                    }
+                }
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(compacted.toFile(), true)) {
+            out.getFD().sync();
+        }
+        log.replaceSealed(compacted);
+    }
+
+    /**
+     * Returns the journal that appends registered usernames to the accounts log, opening it on first use.
+     *
+     * @return The accounts journal, or null if the accounts log cannot be opened.
+     */
+    private synchronized TransactionJournal accountsJournal() {
+        if (accountsJournal == null) {
+            try {
+                accountsJournal = new TransactionJournal(new SegmentedLog(getAccountsPath(), segmentSize), journalDurability);
+            } catch (IOException e) {
+                System.err.println("Error writing to accounts file: " + e.getMessage());
+            }
+        }
+        return accountsJournal;
+    }
 }
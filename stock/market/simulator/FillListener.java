@@ -0,0 +1,19 @@
+package stock.market.simulator;
+
+/**
+ * Receives the fills produced when an incoming order is matched against the {@link OrderBook}.
+ * Fills are reported one resting order at a time, in price-time priority.
+ */
+public interface FillListener {
+
+    /**
+     * Called once for every resting order that trades against the incoming order.
+     *
+     * @param maker        The account that owns the resting order.
+     * @param makerOrderId The id of the resting order.
+     * @param side         The side of the incoming order ({@link OrderBook#BUY} or {@link OrderBook#SELL}).
+     * @param priceTicks   The matched price in ticks, which is always the resting order's price.
+     * @param quantity     The number of shares traded.
+     */
+    void onFill(Account maker, long makerOrderId, int side, long priceTicks, int quantity);
+}
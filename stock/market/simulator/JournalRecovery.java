@@ -0,0 +1,654 @@
+package stock.market.simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rebuilds accounts and the market's remaining shares from the transactions log at startup.
+ * <p>
+ * Every journaled trade records its shares, its total and how many of the shares were traded with the market, so
+ * the state of the market is the sum of those records. A checkpoint saves that sum, with the listed stocks' prices,
+ * to a {@link MarketSnapshot} together with the journal offset it covers; recovery maps the snapshot and replays
+ * only the journal written after it.
+ * The tail is split at line boundaries into one range per processor, each range is streamed sequentially into its
+ * own per-account totals, and the totals are added together. Records are additive, so the order in which
+ * ranges finish does not matter.
+ * <p>
+ * Checkpoints are built from the log rather than from live accounts, so they can be taken while users trade. Once
+ * a checkpoint is written, the log's segments it covers are archived, so the log's directory, what recovery reads
+ * and what a backup copies stay bounded by the time between checkpoints rather than the age of the market.
+ * Records written before totals were journaled only restore shares; their cash effect is unknown.
+ */
+public class JournalRecovery {
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int MIN_RANGE_SIZE = 1 << 20;
+
+    private final Path journalDirectory;
+    private final Path snapshotFile;
+    private final long initialCash;
+    private final int threads;
+
+    /**
+     * The recovered totals of one account.
+     */
+    public static final class Holdings {
+        private long cash;
+        private final PositionMap positions = new PositionMap();
+
+        /**
+         * Returns the recovered cash balance.
+         *
+         * @return The cash as a {@link Money} amount.
+         */
+        public long getCash() {
+            return cash;
+        }
+
+        /**
+         * Returns the recovered positions by symbol id.
+         *
+         * @return The positions.
+         */
+        public PositionMap getPositions() {
+            return positions;
+        }
+
+        private void merge(Holdings other) {
+            cash += other.cash;
+            for (int slot = 0; slot < other.positions.capacity(); slot++) {
+                int symbolId = other.positions.symbolAt(slot);
+                if (symbolId >= 0) {
+                    positions.add(symbolId, other.positions.quantityAt(slot));
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of the market as of an offset in the transactions log.
+     */
+    public static final class State {
+        private final Map<String, Holdings> accounts = new HashMap<>();
+        private final PositionMap marketSold = new PositionMap();
+        private long journalOffset;
+
+        /**
+         * Returns the recovered accounts by username.
+         *
+         * @return The accounts.
+         */
+        public Map<String, Holdings> getAccounts() {
+            return accounts;
+        }
+
+        /**
+         * Returns, by symbol id, how many shares the market has sold to users net of what it bought back.
+         *
+         * @return The net shares taken from the market.
+         */
+        public PositionMap getMarketSold() {
+            return marketSold;
+        }
+
+        /**
+         * Returns the offset of the first byte in the transactions log that this state does not include.
+         *
+         * @return The journal offset.
+         */
+        public long getJournalOffset() {
+            return journalOffset;
+        }
+
+        // Accounts seen for the first time start with the initial cash; partial states never include it
+        private void merge(State other, long initialCash) {
+            other.accounts.forEach((name, holdings) -> accounts.computeIfAbsent(name, n -> {
+                Holdings created = new Holdings();
+                created.cash = initialCash;
+                return created;
+            }).merge(holdings));
+            for (int slot = 0; slot < other.marketSold.capacity(); slot++) {
+                int symbolId = other.marketSold.symbolAt(slot);
+                if (symbolId >= 0) {
+                    marketSold.add(symbolId, other.marketSold.quantityAt(slot));
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs a recovery for the files of a file manager.
+     *
+     * @param fileManager The file manager whose transactions log is replayed.
+     * @param initialCash The cash an account starts with as a {@link Money} amount.
+     */
+    public JournalRecovery(FileManager fileManager, long initialCash) {
+        this(fileManager.getTransactionsPath(), fileManager.getSnapshotPath(), initialCash,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a recovery.
+     *
+     * @param journalDirectory The directory of the transactions log.
+     * @param snapshotFile     The snapshot file.
+     * @param initialCash      The cash an account starts with as a {@link Money} amount.
+     * @param threads          The number of ranges the journal tail is replayed in.
+     */
+    public JournalRecovery(Path journalDirectory, Path snapshotFile, long initialCash, int threads) {
+        this.journalDirectory = journalDirectory;
+        this.snapshotFile = snapshotFile;
+        this.initialCash = initialCash;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Loads the latest snapshot and replays the journal written after it.
+     *
+     * @return The recovered state.
+     * @throws IOException If the journal cannot be read.
+     */
+    public State recover() throws IOException {
+        long end = completeLength();
+        MarketSnapshot snapshot = openSnapshot(end);
+        State state = new State();
+        if (snapshot != null) {
+            SymbolRegistry symbols = SymbolRegistry.getInstance();
+            for (int i = 0; i < snapshot.getInstrumentCount(); i++) {
+                state.marketSold.add(symbols.intern(snapshot.getSymbol(i)), snapshot.getMarketSold(i));
+            }
+            for (int account = 0; account < snapshot.getAccountCount(); account++) {
+                Holdings holdings = new Holdings();
+                holdings.cash = snapshot.getCash(account);
+                addPositions(holdings.positions, snapshot, account);
+                state.accounts.put(snapshot.getAccountName(account), holdings);
+            }
+            state.journalOffset = snapshot.getJournalOffset();
+        }
+        replay(state, end, initialCash);
+        return state;
+    }
+
+    /**
+     * Restores the accounts, the listed stocks' prices and remaining shares, and any stocks listed when the
+     * snapshot was taken but not listed now, into a map of accounts.
+     * This should be called once, before any session trades.
+     * <p>
+     * Snapshot accounts are streamed from the mapped file straight into accounts, and the journal written after the
+     * snapshot is replayed on top of them.
+     *
+     * @param accounts The map to put the recovered accounts in.
+     * @throws IOException If the journal cannot be read.
+     */
+    public void restore(Map<String, Account> accounts) throws IOException {
+        long end = completeLength();
+        MarketSnapshot snapshot = openSnapshot(end);
+        State tail = replayTail(snapshot, end);
+        restoreMarket(snapshot, tail);
+        if (snapshot != null) {
+            for (int i = 0; i < snapshot.getAccountCount(); i++) {
+                String name = snapshot.getAccountName(i);
+                Account account = new Account(name, 0);
+                restoreHoldings(account, snapshot, i);
+                Holdings holdings = tail.accounts.remove(name);
+                if (holdings != null) {
+                    restoreHoldings(account, holdings);
+                }
+                accounts.put(name, account);
+            }
+        }
+        tail.accounts.forEach((name, holdings) -> {
+            Account account = new Account(name, 0);
+            account.updateCashAmount(initialCash, "sell");
+            restoreHoldings(account, holdings);
+            accounts.put(name, account);
+        });
+    }
+
+    /**
+     * Restores the accounts, the listed stocks' prices and remaining shares, and any stocks listed when the
+     * snapshot was taken but not listed now, into an off-heap account store.
+     * This should be called once, before any session trades.
+     * <p>
+     * Only the accounts that traded after the snapshot are opened here. The store keeps the snapshot mapped and
+     * opens every other account from it the first time the account is looked up, so restoring takes as long as
+     * replaying the journal tail, however many accounts the snapshot holds.
+     *
+     * @param accounts The store to open the recovered accounts in.
+     * @throws IOException If the journal cannot be read.
+     */
+    public void restore(AccountStore accounts) throws IOException {
+        long end = completeLength();
+        MarketSnapshot snapshot = openSnapshot(end);
+        State tail = replayTail(snapshot, end);
+        restoreMarket(snapshot, tail);
+        if (snapshot != null) {
+            accounts.setSnapshot(snapshot);
+        }
+        tail.accounts.forEach((name, holdings) -> {
+            boolean known = snapshot != null && snapshot.find(name) >= 0;
+            Account account = accounts.open(name, 0);
+            if (!known) {
+                account.updateCashAmount(initialCash, "sell");
+            }
+            restoreHoldings(account, holdings);
+        });
+    }
+
+    private static void restoreMarket(MarketSnapshot snapshot, State tail) {
+        SymbolRegistry symbols = SymbolRegistry.getInstance();
+        if (snapshot != null) {
+            for (int i = 0; i < snapshot.getInstrumentCount(); i++) {
+                Stock stock = symbols.getStock(snapshot.getSymbol(i));
+                if (stock == null && snapshot.isListed(i)) {
+                    stock = new Stock(snapshot.getSymbol(i), snapshot.getPriceAmount(i), snapshot.getTotalShares(i),
+                            snapshot.getTickSize(i));
+                    symbols.list(stock);
+                } else if (stock != null && snapshot.isListed(i)) {
+                    stock.setPriceAmount(snapshot.getPriceAmount(i));
+                }
+                if (stock != null) {
+                    stock.updateSharesLeft(snapshot.getMarketSold(i));
+                }
+            }
+        }
+        for (int slot = 0; slot < tail.marketSold.capacity(); slot++) {
+            int symbolId = tail.marketSold.symbolAt(slot);
+            Stock stock = symbolId < 0 ? null : symbols.getStock(symbolId);
+            if (stock != null) {
+                stock.updateSharesLeft(tail.marketSold.quantityAt(slot));
+            }
+        }
+    }
+
+    /**
+     * Adds the cash and positions of an account's snapshot record to an account. Positions in stocks that are not
+     * listed are left out.
+     *
+     * @param account  The account.
+     * @param snapshot The snapshot.
+     * @param record   The account's record in the snapshot.
+     */
+    static void restoreHoldings(Account account, MarketSnapshot snapshot, int record) {
+        SymbolRegistry symbols = SymbolRegistry.getInstance();
+        account.updateCashAmount(snapshot.getCash(record), "sell");
+        for (int position = 0; position < snapshot.getPositionCount(record); position++) {
+            Stock stock = symbols.getStock(snapshot.getSymbol(snapshot.getPositionInstrument(record, position)));
+            int quantity = snapshot.getPositionQuantity(record, position);
+            if (stock != null && quantity > 0) {
+                account.addStockToPortfolio(stock, quantity);
+            }
+        }
+    }
+
+    // Holdings replayed after a snapshot may sell shares the snapshot holds, so negative positions are taken out
+    private static void restoreHoldings(Account account, Holdings holdings) {
+        SymbolRegistry symbols = SymbolRegistry.getInstance();
+        account.updateCashAmount(holdings.cash, "sell");
+        PositionMap positions = holdings.positions;
+        for (int slot = 0; slot < positions.capacity(); slot++) {
+            int symbolId = positions.symbolAt(slot);
+            Stock stock = symbolId < 0 ? null : symbols.getStock(symbolId);
+            if (stock != null && positions.quantityAt(slot) > 0) {
+                account.addStockToPortfolio(stock, positions.quantityAt(slot));
+            } else if (stock != null && positions.quantityAt(slot) < 0) {
+                account.reserveShares(stock, -positions.quantityAt(slot));
+            }
+        }
+    }
+
+    /**
+     * Writes a new snapshot covering everything in the transactions log so far, with the listed stocks' current
+     * prices. The snapshot is written to a temporary file and then moved into place, so a crash never leaves a
+     * partial snapshot behind.
+     * <p>
+     * The new snapshot is the previous one plus the journal written since, merged one account at a time as the
+     * previous snapshot is streamed from its mapping, so a checkpoint holds only the journal tail in memory. It
+     * reads files rather than live accounts, so trading carries on while it runs, and every account in it is as of
+     * the same point in the journal.
+     *
+     * @throws IOException If the journal cannot be read or the snapshot cannot be written.
+     */
+    public void checkpoint() throws IOException {
+        long end = completeLength();
+        MarketSnapshot previous = openSnapshot(end);
+        State tail = replayTail(previous, end);
+        SymbolRegistry symbols = SymbolRegistry.getInstance();
+        PositionMap marketSold = new PositionMap();
+        if (previous != null) {
+            for (int i = 0; i < previous.getInstrumentCount(); i++) {
+                marketSold.add(symbols.intern(previous.getSymbol(i)), previous.getMarketSold(i));
+            }
+        }
+        Files.createDirectories(snapshotFile.toAbsolutePath().getParent());
+        Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (MarketSnapshot.Writer out = new MarketSnapshot.Writer(temporary, end)) {
+            for (Stock stock : symbols.getListedStocks()) {
+                out.instrument(stock.getSymbolId(), stock, marketSold.get(stock.getSymbolId())
+                        + tail.marketSold.get(stock.getSymbolId()));
+            }
+            for (int slot = 0; slot < marketSold.capacity(); slot++) {
+                int symbolId = marketSold.symbolAt(slot);
+                if (symbolId >= 0 && symbols.getStock(symbolId) == null) {
+                    out.instrument(symbolId, null, marketSold.quantityAt(slot) + tail.marketSold.get(symbolId));
+                }
+            }
+            for (int slot = 0; slot < tail.marketSold.capacity(); slot++) {
+                int symbolId = tail.marketSold.symbolAt(slot);
+                if (symbolId >= 0 && symbols.getStock(symbolId) == null && marketSold.get(symbolId) == 0) {
+                    out.instrument(symbolId, null, tail.marketSold.quantityAt(slot));
+                }
+            }
+            if (previous != null) {
+                for (int account = 0; account < previous.getAccountCount(); account++) {
+                    String name = previous.getAccountName(account);
+                    Holdings holdings = tail.accounts.remove(name);
+                    PositionMap positions = holdings == null ? new PositionMap() : holdings.positions;
+                    addPositions(positions, previous, account);
+                    out.account(name, previous.getCash(account) + (holdings == null ? 0 : holdings.cash), positions);
+                }
+            }
+            for (Map.Entry<String, Holdings> entry : tail.accounts.entrySet()) {
+                out.account(entry.getKey(), initialCash + entry.getValue().cash, entry.getValue().positions);
+            }
+        }
+        Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (SegmentedLog log = new SegmentedLog(journalDirectory)) {
+            log.archive(end);
+        }
+    }
+
+    // Returns the snapshot to recover from, or null to replay the journal from the start
+    private MarketSnapshot openSnapshot(long end) {
+        try {
+            MarketSnapshot snapshot = MarketSnapshot.open(snapshotFile);
+            if (snapshot.getJournalOffset() > end) {
+                System.err.println("Error reading snapshot: it is newer than the transactions log, replaying from the start");
+                return null;
+            }
+            return snapshot;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Error reading snapshot, replaying from the start: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Replays the journal after the snapshot into totals without the initial cash, to add to the snapshot's accounts
+    private State replayTail(MarketSnapshot snapshot, long end) throws IOException {
+        State tail = new State();
+        tail.journalOffset = snapshot == null ? 0 : snapshot.getJournalOffset();
+        replay(tail, end, 0);
+        return tail;
+    }
+
+    private static void addPositions(PositionMap positions, MarketSnapshot snapshot, int account) {
+        SymbolRegistry symbols = SymbolRegistry.getInstance();
+        for (int position = 0; position < snapshot.getPositionCount(account); position++) {
+            int symbolId = symbols.intern(snapshot.getSymbol(snapshot.getPositionInstrument(account, position)));
+            positions.add(symbolId, snapshot.getPositionQuantity(account, position));
+        }
+    }
+
+    // The writer may be in the middle of a line, so only replay up to the last line terminator
+    private long completeLength() throws IOException {
+        if (!Files.exists(journalDirectory)) {
+            return 0;
+        }
+        try (SegmentedLog log = new SegmentedLog(journalDirectory)) {
+            long end = log.size();
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            while (end > 0) {
+                long start = Math.max(0, end - buffer.capacity());
+                buffer.clear().limit((int) (end - start));
+                readFully(log, buffer, start);
+                for (int i = buffer.limit() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            return 0;
+        }
+    }
+
+    private void replay(State state, long end, long startingCash) throws IOException {
+        long start = state.journalOffset;
+        if (start >= end) {
+            return;
+        }
+        try (SegmentedLog log = new SegmentedLog(journalDirectory)) {
+            List<long[]> ranges = split(log, start, end);
+            if (ranges.size() == 1) {
+                state.merge(replayRange(log, start, end), startingCash);
+            } else {
+                try (ExecutorService pool = Executors.newFixedThreadPool(ranges.size())) {
+                    List<Future<State>> parts = new ArrayList<>();
+                    for (long[] range : ranges) {
+                        parts.add(pool.submit(() -> replayRange(log, range[0], range[1])));
+                    }
+                    for (Future<State> part : parts) {
+                        state.merge(part.get(), startingCash);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Replay was interrupted", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Error replaying transactions log: " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        }
+        state.journalOffset = end;
+    }
+
+    // Splits [start, end) into ranges that each begin right after a line terminator
+    private List<long[]> split(SegmentedLog log, long start, long end) throws IOException {
+        int count = (int) Math.max(1, Math.min(threads, (end - start) / MIN_RANGE_SIZE));
+        List<long[]> ranges = new ArrayList<>(count);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long rangeStart = start;
+        for (int i = 1; i < count && rangeStart < end; i++) {
+            long boundary = Math.max(rangeStart, start + (end - start) * i / count);
+            long next = end;
+            search:
+            while (boundary < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - boundary));
+                readFully(log, buffer, boundary);
+                for (int j = 0; j < buffer.limit(); j++) {
+                    if (buffer.get(j) == '\n') {
+                        next = boundary + j + 1;
+                        break search;
+                    }
+                }
+                boundary += buffer.limit();
+            }
+            if (next > rangeStart) {
+                ranges.add(new long[] {rangeStart, next});
+                rangeStart = next;
+            }
+        }
+        if (rangeStart < end) {
+            ranges.add(new long[] {rangeStart, end});
+        }
+        return ranges;
+    }
+
+    private State replayRange(SegmentedLog log, long start, long end) throws IOException {
+        State state = new State();
+        SymbolIds symbols = new SymbolIds();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        byte[] line = new byte[256];
+        int lineLength = 0;
+        long position = start;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(log, buffer, position);
+            position += buffer.limit();
+            for (int i = 0; i < buffer.limit(); i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    apply(state, symbols, line, lineLength);
+                    lineLength = 0;
+                } else {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+        }
+        if (lineLength > 0) {
+            apply(state, symbols, line, lineLength);
+        }
+        return state;
+    }
+
+    // Parses "username, action, quantity, symbol[, total, marketQuantity]" from the right, so commas in names are kept
+    private static void apply(State state, SymbolIds symbols, byte[] line, int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        int[] separators = new int[5];
+        int fields = 0;
+        for (int i = length - 2; i >= 0 && fields < 5; i--) {
+            if (line[i] == ',' && line[i + 1] == ' ') {
+                separators[fields++] = i;
+            }
+        }
+        if (fields < 3) {
+            return;
+        }
+        boolean full = fields == 5 && isAction(line, separators[4] + 2, separators[3]);
+        int first = full ? 4 : 2;
+        int nameEnd = separators[first];
+        int actionStart = nameEnd + 2;
+        int actionEnd = separators[first - 1];
+        int quantityEnd = separators[first - 2];
+        int symbolEnd = full ? separators[1] : length;
+        if (!isAction(line, actionStart, actionEnd)) {
+            return;
+        }
+        try {
+            boolean bought = line[actionStart] == 'b';
+            int quantity = (int) (Money.parse(ascii(line, actionEnd + 2, quantityEnd), 0, quantityEnd - actionEnd - 2) / Money.SCALE);
+            int symbolId = symbols.get(line, quantityEnd + 2, symbolEnd - quantityEnd - 2);
+            long total = 0;
+            int marketQuantity = quantity;
+            if (full) {
+                total = Money.parse(ascii(line, separators[1] + 2, separators[0]), 0, separators[0] - separators[1] - 2);
+                marketQuantity = Integer.parseInt(ascii(line, separators[0] + 2, length));
+            }
+            String username = new String(line, 0, nameEnd, StandardCharsets.UTF_8);
+            Holdings holdings = state.accounts.computeIfAbsent(username, name -> new Holdings());
+            holdings.cash += bought ? -total : total;
+            holdings.positions.add(symbolId, bought ? quantity : -quantity);
+            state.marketSold.add(symbolId, bought ? marketQuantity : -marketQuantity);
+        } catch (NumberFormatException e) {
+            System.err.println("Error replaying transaction: " + new String(line, 0, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static boolean isAction(byte[] line, int start, int end) {
+        return matches(line, start, end, "bought") || matches(line, start, end, "sold");
+    }
+
+    private static boolean matches(byte[] line, int start, int end, String word) {
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (line[start + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String ascii(byte[] line, int start, int end) {
+        return new String(line, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    // Reads across segment boundaries, since each read stops at the end of a segment
+    private static void readFully(SegmentedLog log, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (log.read(buffer, position + buffer.position()) <= 0) {
+                throw new IOException("Transactions log ended unexpectedly");
+            }
+        }
+    }
+
+    /**
+     * A replay thread's own map from a symbol's bytes to its registry id. A journal names few symbols many times, so
+     * nearly every record finds its symbol here without building a string or touching the shared registry, which is
+     * only asked, lock-free first, the first time the thread meets a symbol.
+     */
+    private static final class SymbolIds {
+        private byte[][] keys = new byte[64][];
+        private int[] ids = new int[64];
+        private int size;
+
+        private int get(byte[] line, int start, int length) {
+            int hash = hash(line, start, length);
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            for (byte[] key; (key = keys[slot]) != null; slot = (slot + 1) & mask) {
+                if (Arrays.equals(key, 0, key.length, line, start, start + length)) {
+                    return ids[slot];
+                }
+            }
+            String symbol = new String(line, start, length, StandardCharsets.UTF_8);
+            SymbolRegistry registry = SymbolRegistry.getInstance();
+            int id = registry.getId(symbol);
+            if (id == SymbolRegistry.UNKNOWN) {
+                id = registry.intern(symbol);
+            }
+            keys[slot] = Arrays.copyOfRange(line, start, start + length);
+            ids[slot] = id;
+            if (++size * 2 > keys.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            byte[][] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            ids = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = hash(oldKeys[i], 0, oldKeys[i].length) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    ids[slot] = oldIds[i];
+                }
+            }
+        }
+
+        private static int hash(byte[] bytes, int start, int length) {
+            int hash = 0;
+            for (int i = start; i < start + length; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package stock.market.simulator;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long an operation takes, in buckets fine enough to read off tail percentiles such as p99.99.
+ * <p>
+ * Latencies are bucketed log-linearly, the way HdrHistogram does it: below 128 nanoseconds each nanosecond has its
+ * own bucket, and every power of two above that is split into 64 buckets, so a latency is reported to within 1.6% of
+ * its value, however large. All the buckets are allocated up front, and recording a latency is a few atomic
+ * increments, so {@link #record} never allocates or locks and can be called on every trade from any number of
+ * threads. Reading percentiles scans the buckets and is meant for monitoring, not the trading path.
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private volatile long startNanos = System.nanoTime();
+
+    /**
+     * Constructs an empty histogram.
+     *
+     * @param name The name of the operation measured.
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the operation measured.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records one operation.
+     *
+     * @param nanos How long the operation took, in nanoseconds. Negative values are counted as zero.
+     */
+    public void record(long nanos) {
+        long latency = Math.max(nanos, 0);
+        counts.incrementAndGet(bucket(latency));
+        totalNanos.addAndGet(latency);
+        long max = maxNanos.get();
+        while (latency > max && !maxNanos.compareAndSet(max, latency)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Records one operation that started at the given time.
+     *
+     * @param startNanos The {@link System#nanoTime()} when the operation started.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the latency at or below which a given share of operations completed.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency in nanoseconds, as the highest value of its bucket, or 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    @Override
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    @Override
+    public double getThroughput() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : getCount() * 1e9 / elapsed;
+    }
+
+    @Override
+    public double getMean() {
+        long operations = getCount();
+        return operations == 0 ? 0 : totalNanos.get() / 1e3 / operations;
+    }
+
+    @Override
+    public double getP50() {
+        return getPercentileNanos(50) / 1e3;
+    }
+
+    @Override
+    public double getP90() {
+        return getPercentileNanos(90) / 1e3;
+    }
+
+    @Override
+    public double getP99() {
+        return getPercentileNanos(99) / 1e3;
+    }
+
+    @Override
+    public double getP999() {
+        return getPercentileNanos(99.9) / 1e3;
+    }
+
+    @Override
+    public double getP9999() {
+        return getPercentileNanos(99.99) / 1e3;
+    }
+
+    @Override
+    public double getMax() {
+        return maxNanos.get() / 1e3;
+    }
+
+    /**
+     * Starts the throughput clock at a given time, for operations that are only recorded from then on.
+     *
+     * @param startNanos The {@link System#nanoTime()} to measure throughput from.
+     */
+    public void startClockAt(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Clears the recorded latencies and restarts the throughput clock. Operations recorded during a reset may be
+     * partly kept.
+     */
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalNanos.set(0);
+        maxNanos.set(0);
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Prints the operation's count, throughput and latency percentiles on one line, in microseconds.
+     *
+     * @param out The stream to print to.
+     */
+    public void report(PrintStream out) {
+        out.printf("%-18s %10d %10.0f %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, getCount(), getThroughput(),
+                getP50(), getP90(), getP99(), getP999(), getP9999(), getMax());
+    }
+
+    /**
+     * Prints the column headings for {@link #report}.
+     *
+     * @param out The stream to print to.
+     */
+    public static void reportHeader(PrintStream out) {
+        out.printf("%-18s %10s %10s %9s %9s %9s %9s %9s %9s%n", "Operation", "Count", "Ops/s",
+                "p50 us", "p90 us", "p99 us", "p99.9 us", "p99.99 us", "Max us");
+    }
+
+    // Below LINEAR_LIMIT a latency is its own bucket; above it, the top seven bits of the latency pick the bucket
+    private static int bucket(long nanos) {
+        if (nanos < LINEAR_LIMIT) {
+            return (int) nanos;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (nanos >>> shift);
+    }
+
+    private static long highestValue(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = bucket - ((long) shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
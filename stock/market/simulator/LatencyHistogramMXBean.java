@@ -0,0 +1,75 @@
+package stock.market.simulator;
+
+/**
+ * The JMX view of a {@link LatencyHistogram}. Latencies are in microseconds.
+ */
+public interface LatencyHistogramMXBean {
+
+    /**
+     * Returns the number of operations recorded since the last reset.
+     *
+     * @return The operation count.
+     */
+    long getCount();
+
+    /**
+     * Returns the average rate of operations since the last reset.
+     *
+     * @return Operations per second.
+     */
+    double getThroughput();
+
+    /**
+     * Returns the mean latency.
+     *
+     * @return The mean in microseconds.
+     */
+    double getMean();
+
+    /**
+     * Returns the median latency.
+     *
+     * @return The 50th percentile in microseconds.
+     */
+    double getP50();
+
+    /**
+     * Returns the 90th percentile latency.
+     *
+     * @return The 90th percentile in microseconds.
+     */
+    double getP90();
+
+    /**
+     * Returns the 99th percentile latency.
+     *
+     * @return The 99th percentile in microseconds.
+     */
+    double getP99();
+
+    /**
+     * Returns the 99.9th percentile latency.
+     *
+     * @return The 99.9th percentile in microseconds.
+     */
+    double getP999();
+
+    /**
+     * Returns the 99.99th percentile latency.
+     *
+     * @return The 99.99th percentile in microseconds.
+     */
+    double getP9999();
+
+    /**
+     * Returns the highest latency recorded.
+     *
+     * @return The maximum in microseconds.
+     */
+    double getMax();
+
+    /**
+     * Clears the recorded latencies and restarts the throughput clock.
+     */
+    void reset();
+}
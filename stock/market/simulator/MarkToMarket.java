@@ -0,0 +1,300 @@
+package stock.market.simulator;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the market value of every account's holdings up to date as prices change.
+ * <p>
+ * Accounts are given dense ids and spread over shards by id. Each shard keeps its accounts' holdings values in one
+ * {@code long} column and, for every symbol, a reverse index from its accounts holding the symbol to their quantities,
+ * along with the mark: the price those holdings are valued at. A price change on one symbol visits only that symbol's
+ * holders, adding {@code quantity * (price - mark)} to each of their values, and a symbol nobody holds costs a single
+ * counter read. A full revaluation, {@link #revalue()}, recomputes every value from the positions and current prices,
+ * sweeping the shards in parallel.
+ * <p>
+ * Positions are changed through {@link #move}, which {@link Account} calls whenever its holdings change. Each shard
+ * has its own lock, so trades in different shards and price changes do not wait on account monitors or on each other
+ * for long. Account ids are not reused.
+ */
+public class MarkToMarket implements PriceListener {
+    private static final MarkToMarket INSTANCE = new MarkToMarket(Runtime.getRuntime().availableProcessors());
+    private static final int INITIAL_ACCOUNTS = 64;
+
+    private final Shard[] shards;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private volatile Symbol[] symbols = new Symbol[0];
+
+    /**
+     * The holders of every symbol among one shard's accounts.
+     */
+    private static final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private Holders[] holders = new Holders[0];
+        private long[] marks = new long[0];
+        private long[] values = new long[INITIAL_ACCOUNTS];
+
+        private Holders holders(int symbolId) {
+            if (symbolId >= holders.length) {
+                int capacity = Math.max(symbolId + 1, holders.length * 2);
+                holders = Arrays.copyOf(holders, capacity);
+                marks = Arrays.copyOf(marks, capacity);
+            }
+            Holders symbolHolders = holders[symbolId];
+            if (symbolHolders == null) {
+                symbolHolders = new Holders();
+                holders[symbolId] = symbolHolders;
+            }
+            return symbolHolders;
+        }
+
+        private void revalue(MarkToMarket owner) {
+            lock.lock();
+            try {
+                // Read under the lock, so every symbol this shard holds is already in the array
+                Symbol[] symbols = owner.symbols;
+                Arrays.fill(values, 0);
+                for (int symbolId = 0; symbolId < holders.length; symbolId++) {
+                    Holders symbolHolders = holders[symbolId];
+                    if (symbolHolders != null && symbolHolders.size > 0) {
+                        marks[symbolId] = symbols[symbolId].stock.getPriceAmount();
+                        symbolHolders.addTo(values, marks[symbolId]);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The accounts of one shard that hold one symbol, as dense columns of account index and quantity, so a price
+     * change streams through them in order. A map from account index to row finds a holder to update.
+     */
+    private static final class Holders {
+        private int[] accounts = new int[4];
+        private int[] quantities = new int[4];
+        private int size;
+        private final PositionMap rows = new PositionMap();
+
+        private int get(int index) {
+            int row = rows.get(index);
+            return row == 0 ? 0 : quantities[row - 1];
+        }
+
+        private int add(int index, int quantity) {
+            int row = rows.get(index);
+            if (row == 0) {
+                if (quantity == 0) {
+                    return 0;
+                }
+                if (size == accounts.length) {
+                    accounts = Arrays.copyOf(accounts, size * 2);
+                    quantities = Arrays.copyOf(quantities, size * 2);
+                }
+                accounts[size] = index;
+                quantities[size] = quantity;
+                rows.add(index, ++size);
+                return quantity;
+            }
+            int after = quantities[row - 1] + quantity;
+            if (after != 0) {
+                quantities[row - 1] = after;
+                return after;
+            }
+            // Move the last row into the emptied one
+            int last = --size;
+            rows.add(index, -row);
+            if (row - 1 != last) {
+                accounts[row - 1] = accounts[last];
+                quantities[row - 1] = quantities[last];
+                rows.add(accounts[last], row - 1 - last);
+            }
+            return 0;
+        }
+
+        // Adds each holder's quantity times an amount, the price or its change, to the holder's value
+        private void addTo(long[] values, long amount) {
+            for (int row = 0; row < size; row++) {
+                values[accounts[row]] += Money.times(amount, quantities[row]);
+            }
+        }
+    }
+
+    /**
+     * A stock being valued, and how many accounts hold it.
+     */
+    private static final class Symbol {
+        private final Stock stock;
+        private final AtomicInteger holderCount = new AtomicInteger();
+
+        private Symbol(Stock stock) {
+            this.stock = stock;
+        }
+    }
+
+    /**
+     * Returns the store that accounts are valued in unless they are given another.
+     *
+     * @return The shared store, with one shard per processor.
+     */
+    public static MarkToMarket getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Constructs an empty store.
+     *
+     * @param shardCount The number of shards, which bounds how many threads a full revaluation uses.
+     */
+    public MarkToMarket(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * Adds an account with no holdings.
+     *
+     * @return The account's id.
+     */
+    public int register() {
+        int id = nextId.getAndIncrement();
+        Shard shard = shards[id % shards.length];
+        int index = id / shards.length;
+        shard.lock.lock();
+        try {
+            if (index >= shard.values.length) {
+                shard.values = Arrays.copyOf(shard.values, Math.max(index + 1, shard.values.length * 2));
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+        return id;
+    }
+
+    /**
+     * Changes an account's position in a stock and its holdings value. New holdings are valued at the mark the
+     * stock's other holders in the shard are valued at, or at the current price if there are none.
+     *
+     * @param id       The account's id.
+     * @param stock    The stock. Every account must use the same stock object for a symbol.
+     * @param quantity The number of shares added, or removed if negative.
+     */
+    public void move(int id, Stock stock, int quantity) {
+        int symbolId = stock.getSymbolId();
+        Symbol symbol = symbol(stock);
+        Shard shard = shards[id % shards.length];
+        int index = id / shards.length;
+        shard.lock.lock();
+        try {
+            Holders holders = shard.holders(symbolId);
+            boolean unheld = holders.size == 0;
+            int before = holders.get(index);
+            int after = holders.add(index, quantity);
+            // Count the holder before reading the price, so a price change that skips an unheld symbol is seen here
+            if (before == 0 && after != 0) {
+                symbol.holderCount.incrementAndGet();
+            } else if (before != 0 && after == 0) {
+                symbol.holderCount.decrementAndGet();
+            }
+            if (unheld) {
+                shard.marks[symbolId] = stock.getPriceAmount();
+            }
+            shard.values[index] += Money.times(shard.marks[symbolId], quantity);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the market value of an account's holdings.
+     *
+     * @param id The account's id.
+     * @return The holdings value as a {@link Money} amount.
+     */
+    public long getHoldingsValue(int id) {
+        Shard shard = shards[id % shards.length];
+        shard.lock.lock();
+        try {
+            return shard.values[id / shards.length];
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of accounts registered.
+     *
+     * @return The account count.
+     */
+    public int size() {
+        return nextId.get();
+    }
+
+    /**
+     * Moves the holdings of a stock to its latest price, visiting only the accounts that hold it. Revaluing against
+     * the latest price rather than the notified one keeps the values right when notifications overlap.
+     *
+     * @param stock    The stock whose price changed.
+     * @param oldPrice The previous price.
+     * @param newPrice The new price.
+     */
+    @Override
+    public void onPriceChange(Stock stock, long oldPrice, long newPrice) {
+        int symbolId = stock.getSymbolId();
+        Symbol[] current = symbols;
+        if (symbolId >= current.length || current[symbolId] == null || current[symbolId].holderCount.get() == 0) {
+            return;
+        }
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                Holders holders = symbolId < shard.holders.length ? shard.holders[symbolId] : null;
+                if (holders != null && holders.size > 0) {
+                    long price = stock.getPriceAmount();
+                    long change = price - shard.marks[symbolId];
+                    if (change != 0) {
+                        holders.addTo(shard.values, change);
+                        shard.marks[symbolId] = price;
+                    }
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Recomputes every account's holdings value from its positions and the current prices, one shard per thread.
+     */
+    public void revalue() {
+        Arrays.stream(shards).parallel().forEach(shard -> shard.revalue(this));
+    }
+
+    // Starts listening to a stock the first time it is held, before any holder reads its price
+    private Symbol symbol(Stock stock) {
+        int symbolId = stock.getSymbolId();
+        Symbol[] current = symbols;
+        if (symbolId < current.length && current[symbolId] != null) {
+            return current[symbolId];
+        }
+        synchronized (this) {
+            current = symbols;
+            if (symbolId >= current.length) {
+                current = Arrays.copyOf(current, Math.max(symbolId + 1, current.length * 2));
+            }
+            if (current[symbolId] == null) {
+                current[symbolId] = new Symbol(stock);
+                stock.addPriceListener(this);
+            }
+            symbols = current;
+            return current[symbolId];
+        }
+    }
+}
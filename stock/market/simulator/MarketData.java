@@ -0,0 +1,580 @@
+package stock.market.simulator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Publishes the prices and trades of the market to any number of subscribers, conflating whatever a subscriber is
+ * too slow to take into the latest value of each symbol.
+ * <p>
+ * A price change or a fill only writes the latest state of its symbol into the symbol's cell, under a
+ * {@link StampedLock} that readers never take, and bumps the cell's version. Publishing therefore never allocates,
+ * never waits for a subscriber, and costs the same with one subscriber as with thousands. A dispatcher thread wakes
+ * after each burst of updates, finds the subscribers that follow a changed symbol and have outstanding demand, and
+ * hands each to the executor to be drained. A drain delivers one {@link Quote}, read from the cell as it is now,
+ * for every followed symbol that changed since the subscriber last saw it, for as long as its demand lasts.
+ * <p>
+ * Nothing is ever queued for a subscriber. One that stops requesting misses the updates in between, and when it
+ * requests again it gets each changed symbol's latest quote, so a lagging client can neither stall the publisher nor
+ * make memory grow. A new subscriber first receives the current quote of every symbol it follows.
+ */
+public class MarketData implements Flow.Publisher<MarketData.Quote>, PriceListener, TradeListener, AutoCloseable {
+    /** The last side quoted for a stock that has not traded. */
+    public static final int NO_SIDE = -1;
+
+    private static final long CLOSE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final MarketData INSTANCE = new MarketData();
+
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final Thread dispatcher;
+    private volatile Cell[] cells = new Cell[0];
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    private volatile boolean pending;
+    private volatile boolean closed;
+
+    /**
+     * The latest state of one symbol. Writers take the write lock; readers read optimistically and retry if a
+     * writer got in the way.
+     */
+    private static final class Cell {
+        private final Stock stock;
+        private final StampedLock lock = new StampedLock();
+        private volatile long version = 1;
+        private long price;
+        private long lastPrice;
+        private int lastQuantity;
+        private int lastSide = NO_SIDE;
+        private long volume;
+        private long trades;
+
+        private Cell(Stock stock) {
+            this.stock = stock;
+            this.price = stock.getPriceAmount();
+        }
+
+        private void price(long price) {
+            long stamp = lock.writeLock();
+            try {
+                this.price = price;
+                version++;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void trade(int side, long price, int quantity) {
+            long stamp = lock.writeLock();
+            try {
+                lastPrice = price;
+                lastQuantity = quantity;
+                lastSide = side;
+                volume += quantity;
+                trades++;
+                version++;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private Quote quote() {
+            long stamp;
+            long version;
+            long price;
+            long lastPrice;
+            int lastQuantity;
+            int lastSide;
+            long volume;
+            long trades;
+            do {
+                stamp = lock.tryOptimisticRead();
+                version = this.version;
+                price = this.price;
+                lastPrice = this.lastPrice;
+                lastQuantity = this.lastQuantity;
+                lastSide = this.lastSide;
+                volume = this.volume;
+                trades = this.trades;
+            } while (!lock.validate(stamp));
+            return new Quote(stock, version, price, lastPrice, lastQuantity, lastSide, volume, trades);
+        }
+    }
+
+    /**
+     * The latest state of one symbol as a subscriber receives it.
+     */
+    public static final class Quote {
+        private final String symbol;
+        private final int symbolId;
+        private final long sequence;
+        private final long price;
+        private final long lastPrice;
+        private final int lastQuantity;
+        private final int lastSide;
+        private final long volume;
+        private final long trades;
+
+        private Quote(Stock stock, long sequence, long price, long lastPrice, int lastQuantity, int lastSide,
+                      long volume, long trades) {
+            this.symbol = stock.getSymbol();
+            this.symbolId = stock.getSymbolId();
+            this.sequence = sequence;
+            this.price = price;
+            this.lastPrice = lastPrice;
+            this.lastQuantity = lastQuantity;
+            this.lastSide = lastSide;
+            this.volume = volume;
+            this.trades = trades;
+        }
+
+        /**
+         * Returns the stock's symbol.
+         *
+         * @return The symbol.
+         */
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * Returns the interned id of the stock's symbol.
+         *
+         * @return The symbol id.
+         */
+        public int getSymbolId() {
+            return symbolId;
+        }
+
+        /**
+         * Returns the number of updates the symbol has had, counting from 1; a subscriber that receives a quote
+         * whose sequence jumped by more than one missed the updates in between.
+         *
+         * @return The update sequence number.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Returns the stock's current price.
+         *
+         * @return The price as a {@link Money} amount.
+         */
+        public long getPrice() {
+            return price;
+        }
+
+        /**
+         * Returns the price of the last trade.
+         *
+         * @return The price as a {@link Money} amount, or 0 if the stock has not traded.
+         */
+        public long getLastPrice() {
+            return lastPrice;
+        }
+
+        /**
+         * Returns the number of shares in the last trade.
+         *
+         * @return The quantity, or 0 if the stock has not traded.
+         */
+        public int getLastQuantity() {
+            return lastQuantity;
+        }
+
+        /**
+         * Returns the side of the order that made the last trade.
+         *
+         * @return {@link OrderBook#BUY}, {@link OrderBook#SELL}, or {@link MarketData#NO_SIDE} if the stock has
+         * not traded.
+         */
+        public int getLastSide() {
+            return lastSide;
+        }
+
+        /**
+         * Returns the number of shares traded since publishing started.
+         *
+         * @return The volume.
+         */
+        public long getVolume() {
+            return volume;
+        }
+
+        /**
+         * Returns the number of trades since publishing started.
+         *
+         * @return The trade count.
+         */
+        public long getTrades() {
+            return trades;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(64).append(symbol).append(" $");
+            Money.appendTo(text, price);
+            if (trades > 0) {
+                Money.appendTo(text.append(", last ").append(lastQuantity).append(" at $"), lastPrice);
+                text.append(", volume ").append(volume);
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * One subscriber's demand and what it has seen. Only one drain runs at a time: the scheduled flag is held
+     * from the moment a drain is handed to the executor until it ends.
+     */
+    private final class Subscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Quote> subscriber;
+        private final int[] symbolIds;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicBoolean scheduled = new AtomicBoolean(true);
+        private volatile boolean cancelled;
+        private volatile boolean completing;
+        private volatile Throwable error;
+        // Read and written by drains only
+        private long[] seen = new long[0];
+        private int cursor;
+
+        private Subscription(Flow.Subscriber<? super Quote> subscriber, int[] symbolIds) {
+            this.subscriber = subscriber;
+            this.symbolIds = symbolIds;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested a non-positive number of quotes: " + n);
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            remove(this);
+        }
+
+        private void schedule() {
+            if (!cancelled && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (error != null || completing) {
+                    cancel();
+                    if (error != null) {
+                        subscriber.onError(error);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                drain();
+            } catch (RuntimeException e) {
+                System.err.println("Error delivering market data: " + e.getMessage());
+                cancel();
+            } finally {
+                scheduled.set(false);
+            }
+            if (completing || (demand.get() > 0 && hasChanges())) {
+                schedule();
+            }
+        }
+
+        // Delivers every changed symbol while there is demand, starting after the last one delivered so that a
+        // symbol that changes all the time cannot starve the rest
+        private void drain() {
+            Cell[] current = cells;
+            if (seen.length < current.length) {
+                seen = Arrays.copyOf(seen, current.length);
+            }
+            int count = symbolIds == null ? current.length : symbolIds.length;
+            for (int i = 0; i < count && demand.get() > 0 && !cancelled; i++) {
+                int index = (cursor + i) % count;
+                int symbolId = symbolIds == null ? index : symbolIds[index];
+                Cell cell = symbolId < current.length ? current[symbolId] : null;
+                if (cell == null || cell.version == seen[symbolId]) {
+                    continue;
+                }
+                Quote quote = cell.quote();
+                seen[symbolId] = quote.sequence;
+                cursor = index + 1;
+                if (demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                subscriber.onNext(quote);
+            }
+        }
+
+        private boolean hasChanges() {
+            Cell[] current = cells;
+            int count = symbolIds == null ? current.length : symbolIds.length;
+            for (int i = 0; i < count; i++) {
+                int symbolId = symbolIds == null ? i : symbolIds[i];
+                Cell cell = symbolId < current.length ? current[symbolId] : null;
+                if (cell != null && (symbolId >= seen.length || cell.version != seen[symbolId])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean followsAny(boolean[] changed) {
+            if (symbolIds == null) {
+                return true;
+            }
+            for (int symbolId : symbolIds) {
+                if (symbolId < changed.length && changed[symbolId]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Starts a publisher that delivers to each subscriber on virtual threads.
+     */
+    public MarketData() {
+        this(null);
+    }
+
+    /**
+     * Starts a publisher that delivers on the given executor. Deliveries to one subscriber run one at a time.
+     *
+     * @param executor The executor to deliver on, or null to deliver on virtual threads the publisher owns.
+     */
+    public MarketData(Executor executor) {
+        this.ownedExecutor = executor == null ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.executor = executor == null ? ownedExecutor : executor;
+        this.dispatcher = new Thread(this::dispatch, "market-data");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Returns the publisher shared by every session.
+     *
+     * @return The shared publisher.
+     */
+    public static MarketData getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts publishing a stock's prices and trades. Subscribing watches the stocks subscribed to, so this is only
+     * needed for quotes to count trades that happen before anyone subscribes.
+     *
+     * @param stock The stock to watch.
+     */
+    public void watch(Stock stock) {
+        int symbolId = stock.getSymbolId();
+        Cell[] current = cells;
+        if (symbolId < current.length && current[symbolId] != null) {
+            return;
+        }
+        synchronized (this) {
+            current = cells;
+            if (symbolId < current.length && current[symbolId] != null) {
+                return;
+            }
+            current = Arrays.copyOf(current, Math.max(symbolId + 1, current.length));
+            current[symbolId] = new Cell(stock);
+            cells = current;
+            stock.addPriceListener(this);
+            stock.addTradeListener(this);
+        }
+        signal();
+    }
+
+    /**
+     * Subscribes to the quotes of every listed stock, including stocks listed later once something watches them.
+     *
+     * @param subscriber The subscriber.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Quote> subscriber) {
+        for (Stock stock : SymbolRegistry.getInstance().getListedStocks()) {
+            watch(stock);
+        }
+        subscribe(subscriber, null);
+    }
+
+    /**
+     * Subscribes to the quotes of some stocks only.
+     *
+     * @param subscriber The subscriber.
+     * @param stocks     The stocks to follow.
+     */
+    public void subscribe(Flow.Subscriber<? super Quote> subscriber, List<Stock> stocks) {
+        int[] symbolIds = null;
+        if (stocks != null) {
+            symbolIds = new int[stocks.size()];
+            for (int i = 0; i < symbolIds.length; i++) {
+                watch(stocks.get(i));
+                symbolIds[i] = stocks.get(i).getSymbolId();
+            }
+        }
+        Subscription subscription = new Subscription(subscriber, symbolIds);
+        // The subscription stays marked as scheduled until onSubscribe returns, so no delivery can overtake it
+        subscriber.onSubscribe(subscription);
+        if (closed) {
+            subscription.cancelled = true;
+            subscriber.onError(new IllegalStateException("Market data is closed"));
+            return;
+        }
+        synchronized (this) {
+            Subscription[] current = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            current[current.length - 1] = subscription;
+            subscriptions = current;
+        }
+        subscription.scheduled.set(false);
+        if (subscription.demand.get() > 0 || subscription.error != null) {
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * Returns the number of current subscribers.
+     *
+     * @return The subscriber count.
+     */
+    public int getSubscriberCount() {
+        return subscriptions.length;
+    }
+
+    /**
+     * Publishes a price change.
+     */
+    @Override
+    public void onPriceChange(Stock stock, long oldPrice, long newPrice) {
+        Cell cell = cell(stock);
+        if (cell != null) {
+            cell.price(newPrice);
+            signal();
+        }
+    }
+
+    /**
+     * Publishes a trade.
+     */
+    @Override
+    public void onTrade(Stock stock, int side, long price, int quantity) {
+        Cell cell = cell(stock);
+        if (cell != null) {
+            cell.trade(side, price, quantity);
+            signal();
+        }
+    }
+
+    /**
+     * Stops publishing, completes every subscriber and waits for the last deliveries.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(dispatcher);
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // A subscriber being drained completes when its drain ends; keep asking until every one has
+        for (Subscription subscription : subscriptions) {
+            subscription.completing = true;
+            while (!subscription.cancelled) {
+                subscription.schedule();
+                LockSupport.parkNanos(CLOSE_PARK_NANOS);
+            }
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.close();
+        }
+    }
+
+    private Cell cell(Stock stock) {
+        Cell[] current = cells;
+        int symbolId = stock.getSymbolId();
+        return symbolId < current.length ? current[symbolId] : null;
+    }
+
+    // Wakes the dispatcher once per burst of updates
+    private void signal() {
+        if (!pending) {
+            pending = true;
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    private synchronized void remove(Subscription subscription) {
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == subscription) {
+                Subscription[] remaining = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, remaining, 0, i);
+                System.arraycopy(current, i + 1, remaining, i, remaining.length - i);
+                subscriptions = remaining;
+                return;
+            }
+        }
+    }
+
+    private void dispatch() {
+        long[] versions = new long[0];
+        boolean[] changed = new boolean[0];
+        while (!closed) {
+            if (!pending) {
+                LockSupport.park(this);
+                continue;
+            }
+            // Clear the flag before reading the cells, so an update made during the pass wakes the next one
+            pending = false;
+            Cell[] current = cells;
+            if (versions.length < current.length) {
+                versions = Arrays.copyOf(versions, current.length);
+                changed = new boolean[current.length];
+            }
+            boolean any = false;
+            for (int symbolId = 0; symbolId < current.length; symbolId++) {
+                Cell cell = current[symbolId];
+                long version = cell == null ? 0 : cell.version;
+                changed[symbolId] = version != versions[symbolId];
+                versions[symbolId] = version;
+                any |= changed[symbolId];
+            }
+            if (!any) {
+                continue;
+            }
+            for (Subscription subscription : subscriptions) {
+                if (subscription.demand.get() > 0 && subscription.followsAny(changed)) {
+                    subscription.schedule();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package stock.market.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A binary snapshot of the whole market: every instrument with its price, tick size and shares, and every account
+ * with its cash and positions, as of an offset in the transactions file.
+ * <p>
+ * The file starts with a fixed header holding a magic number, the format version and the offsets of its sections.
+ * Account records come first, one after another, then the instruments, then an index of the records' offsets and an
+ * open-addressing table that finds a record by account name. Positions refer to instruments by their place in the
+ * instruments section, so records do not repeat symbols.
+ * <p>
+ * {@link #open(Path)} memory-maps the file and decodes only the header and the instruments. An account's record is
+ * decoded when it is asked for, so opening a snapshot of ten million accounts takes no longer than one of ten, and
+ * a record that is never asked for is never read from disk. A snapshot is read-only and can be read from any number
+ * of threads. Files are limited to 2 GB, the most a single mapping can hold.
+ */
+public final class MarketSnapshot {
+    /** The current format version; files of other versions are rejected. */
+    public static final int VERSION = 2;
+
+    private static final int MAGIC = 0x534D534E;
+    private static final int HEADER_BYTES = 48;
+
+    private final ByteBuffer file;
+    private final long journalOffset;
+    private final int accountCount;
+    private final int indexOffset;
+    private final int tableOffset;
+    private final int tableMask;
+    private final String[] symbols;
+    private final boolean[] listed;
+    private final long[] prices;
+    private final long[] tickSizes;
+    private final int[] totalShares;
+    private final int[] marketSold;
+
+    private MarketSnapshot(ByteBuffer file) throws IOException {
+        this.file = file;
+        if (file.limit() < HEADER_BYTES || file.getInt(0) != MAGIC) {
+            throw new IOException("not a market snapshot");
+        }
+        if (file.getInt(4) != VERSION) {
+            throw new IOException("unsupported snapshot version " + file.getInt(4));
+        }
+        journalOffset = file.getLong(8);
+        accountCount = file.getInt(16);
+        int instrumentCount = file.getInt(20);
+        int instrumentsOffset = (int) file.getLong(24);
+        indexOffset = (int) file.getLong(32);
+        tableOffset = (int) file.getLong(40);
+        tableMask = file.getInt(tableOffset) - 1;
+        symbols = new String[instrumentCount];
+        listed = new boolean[instrumentCount];
+        prices = new long[instrumentCount];
+        tickSizes = new long[instrumentCount];
+        totalShares = new int[instrumentCount];
+        marketSold = new int[instrumentCount];
+        int position = instrumentsOffset;
+        for (int i = 0; i < instrumentCount; i++) {
+            symbols[i] = string(position);
+            position += 2 + (file.getShort(position) & 0xFFFF);
+            listed[i] = file.get(position) != 0;
+            prices[i] = file.getLong(position + 1);
+            tickSizes[i] = file.getLong(position + 9);
+            totalShares[i] = file.getInt(position + 17);
+            marketSold[i] = file.getInt(position + 21);
+            position += 25;
+        }
+    }
+
+    /**
+     * Maps a snapshot file and decodes its header and instruments.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot.
+     * @throws IOException If the file cannot be read or is not a snapshot of the current version.
+     */
+    public static MarketSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("snapshot is larger than 2 GB");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MarketSnapshot(mapped);
+        }
+    }
+
+    /**
+     * Returns the offset of the first byte in the transactions file that this snapshot does not include.
+     *
+     * @return The journal offset.
+     */
+    public long getJournalOffset() {
+        return journalOffset;
+    }
+
+    /**
+     * Returns the number of instruments in the snapshot.
+     *
+     * @return The instrument count.
+     */
+    public int getInstrumentCount() {
+        return symbols.length;
+    }
+
+    /**
+     * Returns an instrument's symbol.
+     *
+     * @param instrument The instrument's place in the snapshot.
+     * @return The symbol.
+     */
+    public String getSymbol(int instrument) {
+        return symbols[instrument];
+    }
+
+    /**
+     * Returns whether an instrument was listed for trading. Unlisted instruments only carry the shares the market
+     * sold of them; their price, tick size and total shares are zero.
+     *
+     * @param instrument The instrument's place in the snapshot.
+     * @return true if the instrument was listed.
+     */
+    public boolean isListed(int instrument) {
+        return listed[instrument];
+    }
+
+    /**
+     * Returns an instrument's price when the snapshot was written.
+     *
+     * @param instrument The instrument's place in the snapshot.
+     * @return The price as a {@link Money} amount.
+     */
+    public long getPriceAmount(int instrument) {
+        return prices[instrument];
+    }
+
+    /**
+     * Returns an instrument's tick size.
+     *
+     * @param instrument The instrument's place in the snapshot.
+     * @return The tick size as a {@link Money} amount.
+     */
+    public long getTickSize(int instrument) {
+        return tickSizes[instrument];
+    }
+
+    /**
+     * Returns the number of shares issued of an instrument.
+     *
+     * @param instrument The instrument's place in the snapshot.
+     * @return The total shares.
+     */
+    public int getTotalShares(int instrument) {
+        return totalShares[instrument];
+    }
+
+    /**
+     * Returns how many shares of an instrument the market had sold to users, net of what it bought back.
+     *
+     * @param instrument The instrument's place in the snapshot.
+     * @return The net shares taken from the market.
+     */
+    public int getMarketSold(int instrument) {
+        return marketSold[instrument];
+    }
+
+    /**
+     * Returns the number of accounts in the snapshot.
+     *
+     * @return The account count.
+     */
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    /**
+     * Finds an account's record by name.
+     *
+     * @param accountName The name of the account holder.
+     * @return The record's place in the snapshot, or -1 if there is no such account.
+     */
+    public int find(String accountName) {
+        byte[] name = accountName.getBytes(StandardCharsets.UTF_8);
+        for (int slot = hash(name) & tableMask; ; slot = (slot + 1) & tableMask) {
+            int entry = file.getInt(tableOffset + Integer.BYTES + slot * Integer.BYTES);
+            if (entry == 0) {
+                return -1;
+            }
+            int record = record(entry - 1);
+            if ((file.getShort(record) & 0xFFFF) == name.length
+                    && file.slice(record + 2, name.length).equals(ByteBuffer.wrap(name))) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the name on an account.
+     *
+     * @param account The record's place in the snapshot.
+     * @return The name of the account holder.
+     */
+    public String getAccountName(int account) {
+        return string(record(account));
+    }
+
+    /**
+     * Returns an account's cash balance.
+     *
+     * @param account The record's place in the snapshot.
+     * @return The cash as a {@link Money} amount.
+     */
+    public long getCash(int account) {
+        return file.getLong(fields(account));
+    }
+
+    /**
+     * Returns the number of positions an account holds.
+     *
+     * @param account The record's place in the snapshot.
+     * @return The position count.
+     */
+    public int getPositionCount(int account) {
+        return file.getInt(fields(account) + Long.BYTES);
+    }
+
+    /**
+     * Returns the instrument of one of an account's positions.
+     *
+     * @param account  The record's place in the snapshot.
+     * @param position The position's place in the record, from 0 up to {@link #getPositionCount(int)}.
+     * @return The instrument's place in the snapshot.
+     */
+    public int getPositionInstrument(int account, int position) {
+        return file.getInt(fields(account) + Long.BYTES + Integer.BYTES + position * 2 * Integer.BYTES);
+    }
+
+    /**
+     * Returns the quantity of one of an account's positions.
+     *
+     * @param account  The record's place in the snapshot.
+     * @param position The position's place in the record, from 0 up to {@link #getPositionCount(int)}.
+     * @return The number of shares held.
+     */
+    public int getPositionQuantity(int account, int position) {
+        return file.getInt(fields(account) + Long.BYTES + 2 * Integer.BYTES + position * 2 * Integer.BYTES);
+    }
+
+    private int record(int account) {
+        if (account < 0 || account >= accountCount) {
+            throw new IndexOutOfBoundsException("No account " + account);
+        }
+        return (int) file.getLong(indexOffset + account * Long.BYTES);
+    }
+
+    // Returns the offset of the fields after the account's name
+    private int fields(int account) {
+        int record = record(account);
+        return record + 2 + (file.getShort(record) & 0xFFFF);
+    }
+
+    private String string(int position) {
+        byte[] bytes = new byte[file.getShort(position) & 0xFFFF];
+        file.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int hash(byte[] name) {
+        int hash = 0x811C9DC5;
+        for (byte b : name) {
+            hash = (hash ^ b) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Writes a snapshot file in one pass. Accounts are written as they are added, so a writer holds only an offset
+     * and a hash per account, never the accounts themselves. Instruments can be added at any time; a position in a
+     * symbol that was never added as an instrument is kept, and the symbol is written as unlisted.
+     */
+    public static final class Writer implements Closeable {
+        private static final int BUFFER_SIZE = 1 << 17;
+        private static final int NO_INSTRUMENT = -1;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final long journalOffset;
+        private long written;
+        private final PositionMap instrumentIds = new PositionMap();
+        private int[] instrumentSymbols = new int[16];
+        private Stock[] instrumentStocks = new Stock[16];
+        private int[] instrumentSold = new int[16];
+        private int instrumentCount;
+        private long[] recordOffsets = new long[1024];
+        private int[] recordHashes = new int[1024];
+        private int accountCount;
+
+        /**
+         * Creates or truncates a snapshot file to write.
+         *
+         * @param file          The file to write.
+         * @param journalOffset The offset of the first byte in the transactions file the snapshot does not include.
+         * @throws IOException If the file cannot be created.
+         */
+        public Writer(Path file, long journalOffset) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.journalOffset = journalOffset;
+            buffer.position(HEADER_BYTES);
+        }
+
+        /**
+         * Adds an instrument.
+         *
+         * @param symbolId   The instrument's symbol id.
+         * @param listed     The listed stock whose price, tick size and total shares are written, or null if the
+         *                   symbol is not listed.
+         * @param marketSold The shares the market has sold of the instrument, net of what it bought back.
+         */
+        public void instrument(int symbolId, Stock listed, int marketSold) {
+            int instrument = instrument(symbolId);
+            instrumentStocks[instrument] = listed;
+            instrumentSold[instrument] = marketSold;
+        }
+
+        /**
+         * Adds an account. Positions of zero shares are left out.
+         *
+         * @param accountName The name of the account holder.
+         * @param cash        The cash balance as a {@link Money} amount.
+         * @param positions   The positions by symbol id.
+         * @throws IOException If the file cannot be written.
+         */
+        public void account(String accountName, long cash, PositionMap positions) throws IOException {
+            byte[] name = accountName.getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xFFFF) {
+                throw new IllegalArgumentException("Account name is too long");
+            }
+            int count = 0;
+            for (int slot = 0; slot < positions.capacity(); slot++) {
+                if (positions.symbolAt(slot) >= 0 && positions.quantityAt(slot) != 0) {
+                    count++;
+                }
+            }
+            if (accountCount == recordOffsets.length) {
+                recordOffsets = Arrays.copyOf(recordOffsets, accountCount * 2);
+                recordHashes = Arrays.copyOf(recordHashes, accountCount * 2);
+            }
+            recordOffsets[accountCount] = position();
+            recordHashes[accountCount] = hash(name);
+            accountCount++;
+            putString(name);
+            reserve(Long.BYTES + Integer.BYTES);
+            buffer.putLong(cash).putInt(count);
+            for (int slot = 0; slot < positions.capacity(); slot++) {
+                int symbolId = positions.symbolAt(slot);
+                if (symbolId >= 0 && positions.quantityAt(slot) != 0) {
+                    reserve(2 * Integer.BYTES);
+                    buffer.putInt(instrument(symbolId)).putInt(positions.quantityAt(slot));
+                }
+            }
+        }
+
+        /**
+         * Writes the instruments, the account index and the header, and closes the file.
+         *
+         * @throws IOException If the file cannot be written.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                long instrumentsOffset = position();
+                SymbolRegistry symbols = SymbolRegistry.getInstance();
+                for (int i = 0; i < instrumentCount; i++) {
+                    Stock stock = instrumentStocks[i];
+                    putString(symbols.getSymbol(instrumentSymbols[i]).getBytes(StandardCharsets.UTF_8));
+                    reserve(25);
+                    buffer.put((byte) (stock == null ? 0 : 1))
+                            .putLong(stock == null ? 0 : stock.getPriceAmount())
+                            .putLong(stock == null ? 0 : stock.getTickSize())
+                            .putInt(stock == null ? 0 : stock.getTotalShares())
+                            .putInt(instrumentSold[i]);
+                }
+                long indexOffset = position();
+                for (int i = 0; i < accountCount; i++) {
+                    reserve(Long.BYTES);
+                    buffer.putLong(recordOffsets[i]);
+                }
+                long tableOffset = position();
+                int tableSize = Integer.highestOneBit(Math.max(8, accountCount) * 2 - 1) << 1;
+                int[] table = new int[tableSize];
+                for (int i = 0; i < accountCount; i++) {
+                    int slot = recordHashes[i] & (tableSize - 1);
+                    while (table[slot] != 0) {
+                        slot = (slot + 1) & (tableSize - 1);
+                    }
+                    table[slot] = i + 1;
+                }
+                reserve(Integer.BYTES);
+                buffer.putInt(tableSize);
+                for (int entry : table) {
+                    reserve(Integer.BYTES);
+                    buffer.putInt(entry);
+                }
+                if (position() > Integer.MAX_VALUE) {
+                    throw new IOException("snapshot is larger than 2 GB");
+                }
+                flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putLong(journalOffset).putInt(accountCount)
+                        .putInt(instrumentCount).putLong(instrumentsOffset).putLong(indexOffset).putLong(tableOffset);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private int instrument(int symbolId) {
+            int instrument = instrumentIds.get(symbolId) - 1;
+            if (instrument != NO_INSTRUMENT) {
+                return instrument;
+            }
+            if (instrumentCount == instrumentSymbols.length) {
+                instrumentSymbols = Arrays.copyOf(instrumentSymbols, instrumentCount * 2);
+                instrumentStocks = Arrays.copyOf(instrumentStocks, instrumentCount * 2);
+                instrumentSold = Arrays.copyOf(instrumentSold, instrumentCount * 2);
+            }
+            instrumentSymbols[instrumentCount] = symbolId;
+            instrumentIds.add(symbolId, instrumentCount + 1);
+            return instrumentCount++;
+        }
+
+        private void putString(byte[] bytes) throws IOException {
+            reserve(2 + bytes.length);
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+
+        private long position() {
+            return written + buffer.position();
+        }
+
+        private void reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, written);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package stock.market.simulator;
+
+/**
+ * Fixed-point money arithmetic. Every cash balance, price and total in the simulator is a {@code long}
+ * count of {@link #SCALE}ths of a currency unit, so sums of millions of trades do not drift the way
+ * {@code double} balances do.
+ * <p>
+ * Amounts are printed with two decimals in the same style as the {@code "#.00"} pattern used by the console.
+ * {@link #appendTo} writes into a caller-supplied builder and does not allocate.
+ */
+public final class Money {
+    /** The number of amount units in one currency unit. */
+    public static final long SCALE = 10_000;
+
+    /** One cent, the default tick size of a stock. */
+    public static final long CENT = SCALE / 100;
+
+    private static final long DISPLAY_UNIT = SCALE / 100;
+
+    private Money() {
+    }
+
+    /**
+     * Converts a decimal amount to fixed point, rounding to the nearest unit.
+     *
+     * @param value The decimal amount.
+     * @return The fixed-point amount.
+     */
+    public static long of(double value) {
+        return Math.round(value * SCALE);
+    }
+
+    /**
+     * Converts a fixed-point amount to a decimal, for display or for callers that still use doubles.
+     *
+     * @param amount The fixed-point amount.
+     * @return The decimal amount.
+     */
+    public static double toDouble(long amount) {
+        return (double) amount / SCALE;
+    }
+
+    /**
+     * Multiplies a price by a share quantity.
+     *
+     * @param price    The fixed-point price per share.
+     * @param quantity The number of shares.
+     * @return The fixed-point total.
+     */
+    public static long times(long price, int quantity) {
+        return Math.multiplyExact(price, (long) quantity);
+    }
+
+    /**
+     * Formats an amount with two decimals.
+     *
+     * @param amount The fixed-point amount.
+     * @return The formatted amount.
+     */
+    public static String format(long amount) {
+        return appendTo(new StringBuilder(24), amount).toString();
+    }
+
+    /**
+     * Appends an amount with two decimals to a builder without allocating.
+     * Like {@code "#.00"}, a zero whole part is omitted and the cents are rounded half-even.
+     *
+     * @param out    The builder to append to.
+     * @param amount The fixed-point amount.
+     * @return The builder.
+     */
+    public static StringBuilder appendTo(StringBuilder out, long amount) {
+        long cents = amount / DISPLAY_UNIT;
+        long remainder = Math.abs(amount % DISPLAY_UNIT);
+        if (remainder * 2 > DISPLAY_UNIT || (remainder * 2 == DISPLAY_UNIT && (cents & 1) != 0)) {
+            cents += amount < 0 ? -1 : 1;
+        }
+        if (cents < 0) {
+            out.append('-');
+        }
+        long whole = Math.abs(cents / 100);
+        int fraction = (int) Math.abs(cents % 100);
+        if (whole != 0) {
+            out.append(whole);
+        }
+        return out.append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+
+    /**
+     * Appends an amount with every decimal place it has, so that {@link #parse} reads back the exact amount.
+     *
+     * @param out    The builder to append to.
+     * @param amount The fixed-point amount.
+     * @return The builder.
+     */
+    public static StringBuilder appendExact(StringBuilder out, long amount) {
+        if (amount < 0) {
+            out.append('-');
+        }
+        long whole = Math.abs(amount / SCALE);
+        long fraction = Math.abs(amount % SCALE);
+        out.append(whole).append('.');
+        for (long digit = SCALE / 10; digit > 0; digit /= 10) {
+            out.append((char) ('0' + fraction / digit % 10));
+        }
+        return out;
+    }
+
+    /**
+     * Parses a decimal amount such as {@code "122.02"}, {@code ".50"} or {@code "-3"} without going through
+     * {@code double}. Digits beyond the scale are truncated.
+     *
+     * @param text  The text containing the amount.
+     * @param start The index of the first character of the amount.
+     * @param end   The index after the last character of the amount.
+     * @return The fixed-point amount.
+     * @throws NumberFormatException If the text is not a decimal number.
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        boolean negative = start < end && text.charAt(start) == '-';
+        int position = negative ? start + 1 : start;
+        long whole = 0;
+        long fraction = 0;
+        long digit = SCALE;
+        boolean seenPoint = false;
+        boolean seenDigit = false;
+        for (; position < end; position++) {
+            char c = text.charAt(position);
+            if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (!seenPoint) {
+                    whole = Math.addExact(Math.multiplyExact(whole, 10), c - '0');
+                } else if (digit > 1) {
+                    digit /= 10;
+                    fraction += (c - '0') * digit;
+                }
+            } else {
+                throw new NumberFormatException("Not an amount: " + text.subSequence(start, end));
+            }
+        }
+        if (!seenDigit) {
+            throw new NumberFormatException("Not an amount: " + text.subSequence(start, end));
+        }
+        long amount = Math.addExact(Math.multiplyExact(whole, SCALE), fraction);
+        return negative ? -amount : amount;
+    }
+}
@@ -0,0 +1,83 @@
+package stock.market.simulator;
+
+import java.util.Arrays;
+
+/**
+ * A trend-following {@link Strategy}: it buys a lot of a stock when the stock's fast exponential moving average
+ * crosses above its slow one, and sells the whole position when it crosses back below.
+ * <p>
+ * The averages are kept per symbol id in primitive arrays, and a stock is not traded until it has had as many
+ * prices as the slow window.
+ */
+public class MovingAverageCrossover implements Strategy {
+    private final int slowWindow;
+    private final double fastWeight;
+    private final double slowWeight;
+    private final int lotSize;
+    private double[] fast = new double[64];
+    private double[] slow = new double[64];
+    private int[] seen = new int[64];
+    private boolean[] above = new boolean[64];
+
+    /**
+     * Constructs a crossover strategy.
+     *
+     * @param fastWindow The number of prices the fast average spans.
+     * @param slowWindow The number of prices the slow average spans, greater than the fast window.
+     * @param lotSize    The number of shares to buy on each upward crossing.
+     */
+    public MovingAverageCrossover(int fastWindow, int slowWindow, int lotSize) {
+        if (fastWindow <= 0 || slowWindow <= fastWindow) {
+            throw new IllegalArgumentException("Windows must satisfy 0 < fast < slow: " + fastWindow + ", " + slowWindow);
+        }
+        this.slowWindow = slowWindow;
+        this.fastWeight = 2.0 / (fastWindow + 1);
+        this.slowWeight = 2.0 / (slowWindow + 1);
+        this.lotSize = lotSize;
+    }
+
+    /**
+     * Updates the stock's averages and trades on a crossing.
+     *
+     * @param backtest The run the price belongs to.
+     * @param stock    The run's copy of the stock.
+     */
+    @Override
+    public void onPrice(Backtest backtest, Stock stock) {
+        int symbolId = stock.getSymbolId();
+        if (symbolId >= seen.length) {
+            grow(symbolId + 1);
+        }
+        double price = stock.getPrice();
+        if (seen[symbolId] == 0) {
+            fast[symbolId] = price;
+            slow[symbolId] = price;
+        }
+        if (seen[symbolId] < slowWindow) {
+            seen[symbolId]++;
+        }
+        fast[symbolId] += fastWeight * (price - fast[symbolId]);
+        slow[symbolId] += slowWeight * (price - slow[symbolId]);
+        boolean wasAbove = above[symbolId];
+        above[symbolId] = fast[symbolId] > slow[symbolId];
+        if (seen[symbolId] < slowWindow || wasAbove == above[symbolId]) {
+            return;
+        }
+        if (above[symbolId]) {
+            backtest.buy(stock, lotSize);
+        } else {
+            int held = backtest.getAccount().getStockQuantity(symbolId);
+            if (held > 0) {
+                backtest.sell(stock, held);
+            }
+        }
+    }
+
+    private void grow(int size) {
+        int capacity = Math.max(size, seen.length * 2);
+        fast = Arrays.copyOf(fast, capacity);
+        slow = Arrays.copyOf(slow, capacity);
+        seen = Arrays.copyOf(seen, capacity);
+        above = Arrays.copyOf(above, capacity);
+    }
+}
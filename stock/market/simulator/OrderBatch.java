@@ -0,0 +1,242 @@
+package stock.market.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Executes many buy and sell orders together, such as a rebalance across hundreds of stocks.
+ * <p>
+ * The batch takes the trading locks of all its stocks, in symbol id order so that batches cannot deadlock
+ * each other, and holds them for the whole batch. Every order is checked at one price read, and the cash and
+ * shares the batch needs are added up per account and validated and reserved in a single step per account.
+ * If any order or account fails its check, the batch is rejected and nothing changes. Otherwise each order is
+ * matched, unspent cash is returned once per account, and all the batch's records, including those of the
+ * resting orders it filled against, are appended to the journal as one block, and its fills to the trade history,
+ * once the locks are released.
+ * <p>
+ * Orders in a batch do not print their results; read them from the orders after {@link #execute()}.
+ */
+public class OrderBatch {
+    private final FileManager fileManager;
+    private final List<AbstractTransaction> orders = new ArrayList<>();
+    private String rejection;
+
+    /**
+     * Holds the cash and shares a batch needs from one account.
+     */
+    private static final class Reservation {
+        private final List<AbstractTransaction> orders;
+        private final PositionMap shares;
+        private long cash;
+        private long refund;
+
+        private Reservation(int expectedOrders) {
+            orders = new ArrayList<>(expectedOrders);
+            shares = new PositionMap(expectedOrders);
+        }
+    }
+
+    /**
+     * Constructs an empty batch.
+     *
+     * @param fileManager The file manager to journal the batch's transactions to.
+     */
+    public OrderBatch(FileManager fileManager) {
+        this.fileManager = fileManager;
+    }
+
+    /**
+     * Adds an order to the batch. Orders are matched in the order they are added.
+     *
+     * @param order The buy or sell order.
+     * @return This batch.
+     */
+    public OrderBatch add(AbstractTransaction order) {
+        orders.add(order);
+        return this;
+    }
+
+    /**
+     * Returns the orders in the batch.
+     *
+     * @return A read-only view of the orders.
+     */
+    public List<AbstractTransaction> getOrders() {
+        return Collections.unmodifiableList(orders);
+    }
+
+    /**
+     * Returns why the batch was rejected.
+     *
+     * @return The reason, or null if the batch has not been rejected.
+     */
+    public String getRejection() {
+        return rejection;
+    }
+
+    /**
+     * Validates and executes every order in the batch, or none of them.
+     *
+     * @return true if the batch executed, false if it was rejected; see {@link #getRejection()}.
+     */
+    public boolean execute() {
+        rejection = null;
+        if (orders.isEmpty()) {
+            return true;
+        }
+        List<ReentrantLock> locks = lockStocks();
+        StringBuilder records = new StringBuilder(orders.size() * 64);
+        TradeHistory.Block fills = new TradeHistory.Block();
+        try {
+            long[] prices = new long[orders.size()];
+            Map<Account, Reservation> reservations = validate(prices);
+            if (reservations == null || !reserve(reservations)) {
+                return false;
+            }
+            for (int i = 0; i < orders.size(); i++) {
+                AbstractTransaction order = orders.get(i);
+                order.journalTo(records, fills);
+                try {
+                    reservations.get(order.account).refund += order.fill(order.stock.getOrderBook(), prices[i]);
+                } finally {
+                    order.journalTo(null, null);
+                }
+            }
+            for (Map.Entry<Account, Reservation> entry : reservations.entrySet()) {
+                if (entry.getValue().refund > 0) {
+                    entry.getKey().updateCashAmount(entry.getValue().refund, "sell");
+                }
+            }
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+        for (AbstractTransaction order : orders) {
+            order.journalTo(records, fills);
+            order.journalFills();
+            order.journalTo(null, null);
+        }
+        if (records.length() > 0) {
+            fileManager.writeTransactions(records);
+        }
+        fileManager.recordFills(fills);
+        return true;
+    }
+
+    private List<ReentrantLock> lockStocks() {
+        List<Stock> stocks = new ArrayList<>(orders.size());
+        Map<Stock, Boolean> seen = new IdentityHashMap<>();
+        for (AbstractTransaction order : orders) {
+            if (seen.put(order.stock, Boolean.TRUE) == null) {
+                stocks.add(order.stock);
+            }
+        }
+        stocks.sort(Comparator.comparingInt(Stock::getSymbolId).thenComparingInt(System::identityHashCode));
+        List<ReentrantLock> locks = new ArrayList<>(stocks.size());
+        for (Stock stock : stocks) {
+            ReentrantLock lock = stock.getLock();
+            lock.lock();
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    // Checks every order at one price read and adds up what each account has to reserve
+    private Map<Account, Reservation> validate(long[] prices) {
+        Map<Account, Reservation> reservations = new IdentityHashMap<>();
+        int expected = orders.size();
+        PositionMap claimed = new PositionMap(orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            AbstractTransaction order = orders.get(i);
+            Stock stock = order.stock;
+            prices[i] = stock.getPriceTicks();
+            int status = order.check(stock.getOrderBook(), prices[i], claimed.get(stock.getSymbolId()));
+            if (status != AbstractTransaction.EXECUTED) {
+                rejection = describe(status, order);
+                return null;
+            }
+            if (order instanceof Buy) {
+                claimed.add(stock.getSymbolId(), order.quantity);
+            }
+            Reservation reservation = reservations.computeIfAbsent(order.account, account -> new Reservation(expected));
+            reservation.orders.add(order);
+            reservation.cash = Math.addExact(reservation.cash, order.cashToReserve(prices[i]));
+            reservation.shares.add(stock.getSymbolId(), order.sharesToReserve());
+        }
+        return reservations;
+    }
+
+    // Reserves each account's cash and shares in one step under its lock, undoing earlier accounts if one falls short
+    private boolean reserve(Map<Account, Reservation> reservations) {
+        List<Account> reserved = new ArrayList<>(reservations.size());
+        for (Map.Entry<Account, Reservation> entry : reservations.entrySet()) {
+            Account account = entry.getKey();
+            Reservation reservation = entry.getValue();
+            synchronized (account.monitor()) {
+                // Cash is not guarded by the monitor, so it is only checked for good by taking it
+                String shortfall = shortfall(account, reservation);
+                if (shortfall == null && !account.reserveCash(reservation.cash)) {
+                    shortfall = cashShortfall(account);
+                }
+                if (shortfall != null) {
+                    rejection = shortfall;
+                    for (Account undo : reserved) {
+                        release(undo, reservations.get(undo));
+                    }
+                    return false;
+                }
+                for (AbstractTransaction order : reservation.orders) {
+                    if (order.sharesToReserve() > 0) {
+                        account.reserveShares(order.stock, order.sharesToReserve());
+                    }
+                }
+            }
+            reserved.add(account);
+        }
+        return true;
+    }
+
+    private static String shortfall(Account account, Reservation reservation) {
+        if (!account.hasEnoughCashAmount(reservation.cash)) {
+            return cashShortfall(account);
+        }
+        PositionMap shares = reservation.shares;
+        for (int slot = 0; slot < shares.capacity(); slot++) {
+            int symbolId = shares.symbolAt(slot);
+            if (symbolId >= 0 && account.getStockQuantity(symbolId) < shares.quantityAt(slot)) {
+                return "Sorry, " + account.getAccountName() + " does not have enough shares of "
+                        + SymbolRegistry.getInstance().getSymbol(symbolId) + " to sell.";
+            }
+        }
+        return null;
+    }
+
+    private static String cashShortfall(Account account) {
+        return "Sorry, not enough cash in " + account.getAccountName() + "'s account.";
+    }
+
+    private static void release(Account account, Reservation reservation) {
+        account.updateCashAmount(reservation.cash, "sell");
+        for (AbstractTransaction order : reservation.orders) {
+            if (order.sharesToReserve() > 0) {
+                account.addStockToPortfolio(order.stock, order.sharesToReserve());
+            }
+        }
+    }
+
+    private static String describe(int status, AbstractTransaction order) {
+        String symbol = order.stock.getSymbol();
+        if (status == AbstractTransaction.REJECTED_SHARES) {
+            return "Sorry, not enough shares of " + symbol + " available.";
+        } else if (status == AbstractTransaction.REJECTED_PRICE) {
+            return "Sorry, the limit price for " + symbol + " is outside the stock's trading range.";
+        }
+        return "Error: Negative value encountered for " + symbol + ".";
+    }
+}
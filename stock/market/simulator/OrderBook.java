@@ -0,0 +1,448 @@
+package stock.market.simulator;
+
+import java.util.Arrays;
+
+/**
+ * A price-time priority limit order book for a single stock.
+ * <p>
+ * Prices are held as integer ticks on a fixed ladder around a reference price. Every price level keeps a
+ * FIFO queue of resting orders, and the orders themselves live in a pool of parallel primitive arrays linked
+ * by slot index, so submitting and cancelling orders does not create an object per order. A bitmap of
+ * non-empty levels per side finds the next best price with a word scan when a level empties, while the best
+ * bid and best ask themselves are always available in O(1).
+ */
+public class OrderBook {
+    public static final int BUY = 0;
+    public static final int SELL = 1;
+
+    /** Returned by {@link #submit} when no part of the order was left resting. */
+    public static final long NO_ORDER = -1L;
+
+    private static final int NIL = -1;
+    private static final int MIN_LEVELS = 1024;
+    private static final int INITIAL_ORDERS = 256;
+
+    private final long baseTicks;
+    private final int levels;
+
+    // Per side, per price level: FIFO head/tail slot and total resting quantity
+    private final int[][] levelHead;
+    private final int[][] levelTail;
+    private final long[][] levelQuantity;
+    private final long[][] occupied;
+
+    // Order pool, indexed by slot
+    private int[] orderLevel;
+    private int[] orderRemaining;
+    private int[] orderNext;
+    private int[] orderPrev;
+    private int[] orderGeneration;
+    private byte[] orderSide;
+    private Account[] orderOwner;
+    private int freeHead = NIL;
+    private int poolSize;
+
+    private int bestBid = NIL;
+    private int bestAsk;
+    private int restingOrders;
+
+    /**
+     * Constructs an order book whose price ladder spans half to one and a half times the reference price.
+     *
+     * @param referenceTicks The reference price in ticks, normally the stock's current price.
+     */
+    public OrderBook(long referenceTicks) {
+        this(Math.max(0, referenceTicks / 2), (int) Math.max(MIN_LEVELS, Math.min(Integer.MAX_VALUE / 2, referenceTicks + 1)));
+    }
+
+    /**
+     * Constructs an order book with an explicit price ladder.
+     *
+     * @param baseTicks The lowest price in ticks that can be quoted.
+     * @param levels    The number of price levels above and including the base price.
+     */
+    public OrderBook(long baseTicks, int levels) {
+        if (baseTicks < 0 || levels <= 0) {
+            throw new IllegalArgumentException("Invalid price ladder: base " + baseTicks + ", levels " + levels);
+        }
+        this.baseTicks = baseTicks;
+        this.levels = levels;
+        this.bestAsk = levels;
+        levelHead = new int[2][levels];
+        levelTail = new int[2][levels];
+        levelQuantity = new long[2][levels];
+        occupied = new long[2][(levels + 63) >>> 6];
+        for (int side = BUY; side <= SELL; side++) {
+            Arrays.fill(levelHead[side], NIL);
+            Arrays.fill(levelTail[side], NIL);
+        }
+        growPool(INITIAL_ORDERS);
+    }
+
+    /**
+     * Matches an incoming limit order against the opposite side of the book and optionally rests the remainder.
+     *
+     * @param side       {@link #BUY} or {@link #SELL}.
+     * @param limitTicks The worst price in ticks the order is willing to trade at.
+     * @param quantity   The number of shares in the order.
+     * @param owner      The account placing the order.
+     * @param rest       Whether any unfilled remainder should be added to the book.
+     * @param listener   Receives one callback per resting order that is traded against.
+     * @return The id of the resting remainder, or {@link #NO_ORDER} if nothing was left in the book.
+     */
+    public long submit(int side, long limitTicks, int quantity, Account owner, boolean rest, FillListener listener) {
+        if (side != BUY && side != SELL) {
+            throw new IllegalArgumentException("Unknown side: " + side);
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive: " + quantity);
+        }
+        int level = rest ? toLevel(limitTicks) : NIL;
+        int remaining = match(side, limitTicks, quantity, listener);
+        if (remaining == 0 || !rest) {
+            return NO_ORDER;
+        }
+        return add(side, level, remaining, owner);
+    }
+
+    /**
+     * Returns how many shares could be bought (or sold) immediately at or better than the limit price,
+     * without changing the book.
+     *
+     * @param side       The side of the hypothetical incoming order.
+     * @param limitTicks The limit price in ticks.
+     * @param quantity   The most shares of interest; the scan stops once this many are found.
+     * @return The number of shares available, at most {@code quantity}.
+     */
+    public int matchableQuantity(int side, long limitTicks, int quantity) {
+        long found = 0;
+        if (side == BUY) {
+            int limit = clampLevel(limitTicks, false);
+            for (int level = bestAsk; level < levels && level <= limit && found < quantity; level = nextLevel(SELL, level + 1)) {
+                found += levelQuantity[SELL][level];
+            }
+        } else {
+            int limit = clampLevel(limitTicks, true);
+            for (int level = bestBid; level >= 0 && level >= limit && found < quantity; level = previousLevel(BUY, level - 1)) {
+                found += levelQuantity[BUY][level];
+            }
+        }
+        return (int) Math.min(found, quantity);
+    }
+
+    /**
+     * Removes a resting order from the book.
+     *
+     * @param orderId The id returned by {@link #submit}.
+     * @return The quantity that was still resting, or 0 if the order is no longer in the book.
+     */
+    public int cancel(long orderId) {
+        int slot = slotOf(orderId);
+        if (slot == NIL) {
+            return 0;
+        }
+        int remaining = orderRemaining[slot];
+        unlink(slot);
+        release(slot);
+        return remaining;
+    }
+
+    /**
+     * Returns the number of shares still resting for an order.
+     *
+     * @param orderId The order id.
+     * @return The resting quantity, or 0 if the order is filled or cancelled.
+     */
+    public int getRemaining(long orderId) {
+        int slot = slotOf(orderId);
+        return slot == NIL ? 0 : orderRemaining[slot];
+    }
+
+    /**
+     * Returns the side of a resting order.
+     *
+     * @param orderId The order id.
+     * @return {@link #BUY} or {@link #SELL}, or -1 if the order is no longer in the book.
+     */
+    public int getSide(long orderId) {
+        int slot = slotOf(orderId);
+        return slot == NIL ? NIL : orderSide[slot];
+    }
+
+    /**
+     * Returns the limit price of a resting order.
+     *
+     * @param orderId The order id.
+     * @return The price in ticks, or -1 if the order is no longer in the book.
+     */
+    public long getPriceTicks(long orderId) {
+        int slot = slotOf(orderId);
+        return slot == NIL ? NIL : baseTicks + orderLevel[slot];
+    }
+
+    /**
+     * Returns the owner of a resting order.
+     *
+     * @param orderId The order id.
+     * @return The owning account, or null if the order is no longer in the book.
+     */
+    public Account getOwner(long orderId) {
+        int slot = slotOf(orderId);
+        return slot == NIL ? null : orderOwner[slot];
+    }
+
+    /**
+     * Returns the best bid price.
+     *
+     * @return The highest resting buy price in ticks, or -1 if there are no bids.
+     */
+    public long getBestBidTicks() {
+        return bestBid == NIL ? NIL : baseTicks + bestBid;
+    }
+
+    /**
+     * Returns the best ask price.
+     *
+     * @return The lowest resting sell price in ticks, or -1 if there are no asks.
+     */
+    public long getBestAskTicks() {
+        return bestAsk == levels ? NIL : baseTicks + bestAsk;
+    }
+
+    /**
+     * Returns the total quantity resting at a price.
+     *
+     * @param side       {@link #BUY} or {@link #SELL}.
+     * @param priceTicks The price in ticks.
+     * @return The resting quantity at that price.
+     */
+    public long getQuantityAt(int side, long priceTicks) {
+        long level = priceTicks - baseTicks;
+        return level < 0 || level >= levels ? 0 : levelQuantity[side][(int) level];
+    }
+
+    /**
+     * Returns the number of orders currently resting in the book.
+     *
+     * @return The resting order count.
+     */
+    public int getRestingOrderCount() {
+        return restingOrders;
+    }
+
+    /**
+     * Returns the lowest price that can be quoted in this book.
+     *
+     * @return The lowest price in ticks.
+     */
+    public long getMinPriceTicks() {
+        return baseTicks;
+    }
+
+    /**
+     * Returns the highest price that can be quoted in this book.
+     *
+     * @return The highest price in ticks.
+     */
+    public long getMaxPriceTicks() {
+        return baseTicks + levels - 1;
+    }
+
+    private int match(int side, long limitTicks, int quantity, FillListener listener) {
+        int remaining = quantity;
+        if (side == BUY) {
+            int limit = clampLevel(limitTicks, false);
+            while (remaining > 0 && bestAsk < levels && bestAsk <= limit) {
+                remaining = fillLevel(SELL, bestAsk, side, remaining, listener);
+            }
+        } else {
+            int limit = clampLevel(limitTicks, true);
+            while (remaining > 0 && bestBid != NIL && bestBid >= limit) {
+                remaining = fillLevel(BUY, bestBid, side, remaining, listener);
+            }
+        }
+        return remaining;
+    }
+
+    private int fillLevel(int restingSide, int level, int takerSide, int remaining, FillListener listener) {
+        long priceTicks = baseTicks + level;
+        int slot = levelHead[restingSide][level];
+        while (remaining > 0 && slot != NIL) {
+            int next = orderNext[slot];
+            int traded = Math.min(remaining, orderRemaining[slot]);
+            long orderId = idOf(slot);
+            Account maker = orderOwner[slot];
+            remaining -= traded;
+            orderRemaining[slot] -= traded;
+            levelQuantity[restingSide][level] -= traded;
+            if (orderRemaining[slot] == 0) {
+                unlink(slot);
+                release(slot);
+            }
+            listener.onFill(maker, orderId, takerSide, priceTicks, traded);
+            slot = next;
+        }
+        return remaining;
+    }
+
+    private long add(int side, int level, int quantity, Account owner) {
+        if (side == BUY ? level >= bestAsk : level <= bestBid) {
+            throw new IllegalStateException("Resting order would cross the book");
+        }
+        int slot = allocate();
+        orderLevel[slot] = level;
+        orderRemaining[slot] = quantity;
+        orderSide[slot] = (byte) side;
+        orderOwner[slot] = owner;
+        orderNext[slot] = NIL;
+        orderPrev[slot] = levelTail[side][level];
+        if (levelTail[side][level] == NIL) {
+            levelHead[side][level] = slot;
+            occupied[side][level >>> 6] |= 1L << level;
+            if (side == BUY && level > bestBid) {
+                bestBid = level;
+            } else if (side == SELL && level < bestAsk) {
+                bestAsk = level;
+            }
+        } else {
+            orderNext[levelTail[side][level]] = slot;
+        }
+        levelTail[side][level] = slot;
+        levelQuantity[side][level] += quantity;
+        restingOrders++;
+        return idOf(slot);
+    }
+
+    private void unlink(int slot) {
+        int side = orderSide[slot];
+        int level = orderLevel[slot];
+        int prev = orderPrev[slot];
+        int next = orderNext[slot];
+        if (prev == NIL) {
+            levelHead[side][level] = next;
+        } else {
+            orderNext[prev] = next;
+        }
+        if (next == NIL) {
+            levelTail[side][level] = prev;
+        } else {
+            orderPrev[next] = prev;
+        }
+        levelQuantity[side][level] -= orderRemaining[slot];
+        restingOrders--;
+        if (levelHead[side][level] == NIL) {
+            occupied[side][level >>> 6] &= ~(1L << level);
+            if (side == BUY && level == bestBid) {
+                bestBid = previousLevel(BUY, level - 1);
+            } else if (side == SELL && level == bestAsk) {
+                bestAsk = nextLevel(SELL, level + 1);
+            }
+        }
+    }
+
+    // Returns the lowest occupied level at or above from, or levels if there is none
+    private int nextLevel(int side, int from) {
+        if (from >= levels) {
+            return levels;
+        }
+        long[] words = occupied[side];
+        int index = from >>> 6;
+        long word = words[index] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return Math.min(levels, (index << 6) + Long.numberOfTrailingZeros(word));
+            }
+            if (++index == words.length) {
+                return levels;
+            }
+            word = words[index];
+        }
+    }
+
+    // Returns the highest occupied level at or below from, or NIL if there is none
+    private int previousLevel(int side, int from) {
+        if (from < 0) {
+            return NIL;
+        }
+        long[] words = occupied[side];
+        int index = from >>> 6;
+        long word = words[index] & (-1L >>> (63 - (from & 63)));
+        while (true) {
+            if (word != 0) {
+                return (index << 6) + 63 - Long.numberOfLeadingZeros(word);
+            }
+            if (--index < 0) {
+                return NIL;
+            }
+            word = words[index];
+        }
+    }
+
+    private int toLevel(long priceTicks) {
+        long level = priceTicks - baseTicks;
+        if (level < 0 || level >= levels) {
+            throw new IllegalArgumentException("Price " + priceTicks + " is outside the book's range "
+                    + getMinPriceTicks() + "-" + getMaxPriceTicks());
+        }
+        return (int) level;
+    }
+
+    // Limits outside the ladder still match everything they would cross inside it
+    private int clampLevel(long limitTicks, boolean floor) {
+        long level = limitTicks - baseTicks;
+        if (level < 0) {
+            return floor ? 0 : NIL;
+        }
+        if (level >= levels) {
+            return floor ? levels : levels - 1;
+        }
+        return (int) level;
+    }
+
+    private int allocate() {
+        if (freeHead == NIL) {
+            growPool(poolSize * 2);
+        }
+        int slot = freeHead;
+        freeHead = orderNext[slot];
+        return slot;
+    }
+
+    private void release(int slot) {
+        orderOwner[slot] = null;
+        orderRemaining[slot] = 0;
+        orderGeneration[slot] = (orderGeneration[slot] + 1) & Integer.MAX_VALUE;
+        orderNext[slot] = freeHead;
+        freeHead = slot;
+    }
+
+    private void growPool(int capacity) {
+        orderLevel = Arrays.copyOf(orderLevel == null ? new int[0] : orderLevel, capacity);
+        orderRemaining = Arrays.copyOf(orderRemaining == null ? new int[0] : orderRemaining, capacity);
+        orderNext = Arrays.copyOf(orderNext == null ? new int[0] : orderNext, capacity);
+        orderPrev = Arrays.copyOf(orderPrev == null ? new int[0] : orderPrev, capacity);
+        orderGeneration = Arrays.copyOf(orderGeneration == null ? new int[0] : orderGeneration, capacity);
+        orderSide = Arrays.copyOf(orderSide == null ? new byte[0] : orderSide, capacity);
+        orderOwner = Arrays.copyOf(orderOwner == null ? new Account[0] : orderOwner, capacity);
+        for (int slot = capacity - 1; slot >= poolSize; slot--) {
+            orderNext[slot] = freeHead;
+            freeHead = slot;
+        }
+        poolSize = capacity;
+    }
+
+    private long idOf(int slot) {
+        return ((long) orderGeneration[slot] << 32) | slot;
+    }
+
+    private int slotOf(long orderId) {
+        if (orderId < 0) {
+            return NIL;
+        }
+        int slot = (int) orderId;
+        if (slot >= poolSize || orderGeneration[slot] != (int) (orderId >>> 32) || orderRemaining[slot] == 0) {
+            return NIL;
+        }
+        return slot;
+    }
+}
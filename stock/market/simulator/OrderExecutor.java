@@ -0,0 +1,50 @@
+package stock.market.simulator;
+
+import java.io.PrintStream;
+
+/**
+ * Runs the buy and sell orders of console and server sessions off the sessions' own threads.
+ */
+public interface OrderExecutor extends AutoCloseable {
+    /**
+     * Submits an order as the user typed it. The result, or the reason the order was rejected, is printed to the
+     * given stream by {@link #await(long)}, on the submitter's thread, so executor threads never write to a session's
+     * stream. Results wait in memory until then, so a thread that submits orders must await them.
+     *
+     * @param account  The account trading.
+     * @param side     {@link OrderBook#BUY} or {@link OrderBook#SELL}.
+     * @param symbol   The stock symbol, as typed.
+     * @param quantity The number of shares, as typed.
+     * @param out      The stream to print the result to.
+     * @return A ticket for the order, to wait for with {@link #await(long)}.
+     */
+    long submit(Account account, int side, String symbol, String quantity, PrintStream out);
+
+    /**
+     * Waits until an order has been executed and journaled, then writes its result, along with those of any earlier
+     * orders of the calling thread not yet written, to the stream of the thread's latest order.
+     *
+     * @param ticket The ticket {@link #submit} returned.
+     */
+    void await(long ticket);
+
+    /**
+     * Submits an order, waits for it and prints its result.
+     *
+     * @param account  The account trading.
+     * @param side     {@link OrderBook#BUY} or {@link OrderBook#SELL}.
+     * @param symbol   The stock symbol, as typed.
+     * @param quantity The number of shares, as typed.
+     * @param out      The stream to print the result to.
+     */
+    default void execute(Account account, int side, String symbol, String quantity, PrintStream out) {
+        await(submit(account, side, symbol, quantity, out));
+    }
+
+    /**
+     * Stops accepting orders and waits for every submitted order to be executed and journaled. Orders must not be submitted
+     * while the executor is closing.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,177 @@
+package stock.market.simulator;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * A preallocated ring of order slots that any number of submitters hand orders to and one executor thread reads
+ * them from, in sequence order. Submitters claim a sequence with an atomic counter, fill its slot and publish it
+ * with a release store, so neither side takes a lock. A slot is reused once its order is complete; a submitter that
+ * finds the ring full gives up the processor until the oldest order is.
+ * <p>
+ * The executor never writes to a submitter's stream. It prints each completed order's result into the
+ * {@link OrderSlot.Receipt} of the thread that submitted it, in memory, and the submitter writes the receipt to its
+ * stream when it awaits the order, so a client that reads slowly or not at all holds up only its own session.
+ * <p>
+ * Both {@link TradePipeline} and {@link ShardedExecutor} run their orders through rings; they differ only in the
+ * threads that read them.
+ *
+ * @param <S> The type of the slots.
+ */
+class OrderRing<S extends OrderSlot> {
+    /** How long an idle executor thread parks before looking for work again. */
+    static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final ThreadLocal<OrderSlot.Receipt> RECEIPTS = ThreadLocal.withInitial(OrderSlot.Receipt::new);
+
+    private final OrderSlot[] slots;
+    private final long[] published;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private Thread consumer;
+    private volatile long completed;
+    private volatile boolean finished;
+
+    /**
+     * Constructs a ring.
+     *
+     * @param size        The number of slots; must be a power of two.
+     * @param fileManager The file manager the slots' orders journal to.
+     * @param slotFactory Creates a slot for the file manager.
+     */
+    OrderRing(int size, FileManager fileManager, Function<FileManager, S> slotFactory) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Slot count must be a power of two: " + size);
+        }
+        slots = new OrderSlot[size];
+        published = new long[size];
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = slotFactory.apply(fileManager);
+            published[i] = -1;
+        }
+    }
+
+    /**
+     * Sets the thread that reads published orders, to wake when an order is published.
+     *
+     * @param consumer The thread.
+     */
+    void setConsumer(Thread consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Publishes an order as the user typed it. Its result goes to the submitting thread's receipt, to be written to
+     * the given stream by {@link #await(long)}.
+     *
+     * @param account  The account trading.
+     * @param side     {@link OrderBook#BUY} or {@link OrderBook#SELL}.
+     * @param symbol   The stock symbol, as typed.
+     * @param stock    The stock, if the submitter has looked it up, or null.
+     * @param quantity The number of shares, as typed.
+     * @param out      The stream to print the result to.
+     * @return The order's sequence number.
+     */
+    long submit(Account account, int side, String symbol, Stock stock, String quantity, PrintStream out) {
+        OrderSlot.Receipt receipt = RECEIPTS.get();
+        receipt.target = out;
+        long sequence = claimed.getAndIncrement();
+        if (sequence - slots.length >= completed) {
+            // The ring is full; give up the processor until the oldest order is complete
+            LockSupport.unpark(consumer);
+            while (sequence - slots.length >= completed) {
+                Thread.yield();
+            }
+        }
+        OrderSlot slot = slots[(int) (sequence & mask)];
+        slot.account = account;
+        slot.side = side;
+        slot.symbol = symbol;
+        slot.stock = stock;
+        slot.quantity = quantity;
+        slot.receipt = receipt;
+        slot.waiter = Thread.currentThread();
+        slot.submitNanos = System.nanoTime();
+        PUBLISHED.setRelease(published, (int) (sequence & mask), sequence);
+        LockSupport.unpark(consumer);
+        return sequence;
+    }
+
+    /**
+     * Returns the slot of a sequence.
+     *
+     * @param sequence The sequence number.
+     * @return The slot.
+     */
+    @SuppressWarnings("unchecked")
+    S get(long sequence) {
+        return (S) slots[(int) (sequence & mask)];
+    }
+
+    /**
+     * Returns the sequence after the last one published without a gap, starting from the given one.
+     *
+     * @param next The first sequence not yet read.
+     * @return The first sequence not yet published.
+     */
+    long publishedUpTo(long next) {
+        long available = next;
+        while ((long) PUBLISHED.getAcquire(published, (int) (available & mask)) == available) {
+            available++;
+        }
+        return available;
+    }
+
+    /**
+     * Returns whether every claimed sequence has been read, for an executor that is closing.
+     *
+     * @param next The first sequence not yet read.
+     * @return true if no submitter has claimed a sequence at or after it.
+     */
+    boolean drained(long next) {
+        return next == claimed.get();
+    }
+
+    /**
+     * Completes the oldest order not yet complete: prints its result into its submitter's receipt, frees its slot
+     * and wakes its submitter. Only one thread completes orders.
+     */
+    void completeNext() {
+        long sequence = completed;
+        OrderSlot slot = slots[(int) (sequence & mask)];
+        Thread waiter = slot.waiter;
+        try {
+            slot.complete();
+        } finally {
+            completed = sequence + 1;
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Marks the ring finished once its executor has completed every order, so no one waits for more.
+     */
+    void finish() {
+        finished = true;
+    }
+
+    /**
+     * Waits until an order is complete, then writes the calling thread's receipt, which holds the order's result, to
+     * the order's stream. Only the order's submitter awaits it.
+     *
+     * @param sequence The order's sequence number.
+     */
+    void await(long sequence) {
+        while (completed <= sequence && !finished) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        RECEIPTS.get().print();
+    }
+}
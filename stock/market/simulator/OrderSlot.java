@@ -0,0 +1,133 @@
+package stock.market.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One order on its way through an {@link OrderRing}. The submitter writes what the user typed, and the executor
+ * running the ring writes the order and its result. The slot owns a buy and a sell that are reused for its orders,
+ * so orders are never allocated.
+ */
+class OrderSlot {
+    private final Buy buy;
+    private final Sell sell;
+    // Written by the submitter
+    Account account;
+    int side;
+    String symbol;
+    String quantity;
+    Receipt receipt;
+    Thread waiter;
+    long submitNanos;
+    // Written by the executor
+    Stock stock;
+    int shares;
+    String rejection;
+    AbstractTransaction order;
+    int status;
+
+    /**
+     * The results of one submitting thread's orders, printed into memory by the executor as each order completes
+     * and written to the submitter's stream by the submitter when it awaits the order. The executor thus never
+     * writes to a stream that may block, and an order's slot is free as soon as the order is complete.
+     */
+    static final class Receipt extends ByteArrayOutputStream {
+        private final PrintStream printer = new PrintStream(this, false, StandardCharsets.UTF_8);
+        // Written and read by the submitter only
+        private byte[] printing = new byte[128];
+        PrintStream target;
+
+        Receipt() {
+            super(128);
+        }
+
+        /**
+         * Writes the results printed since the last call to the stream of the submitter's latest order, outside
+         * the receipt's lock so that the executor can keep printing into it.
+         */
+        void print() {
+            int length;
+            synchronized (this) {
+                length = count;
+                if (printing.length < length) {
+                    printing = new byte[Math.max(length, printing.length * 2)];
+                }
+                System.arraycopy(buf, 0, printing, 0, length);
+                count = 0;
+            }
+            if (length > 0) {
+                target.write(printing, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Constructs a slot.
+     *
+     * @param fileManager The file manager the slot's orders journal to.
+     */
+    OrderSlot(FileManager fileManager) {
+        buy = new Buy(null, null, 0, null, fileManager);
+        sell = new Sell(null, null, 0, null, fileManager);
+    }
+
+    /**
+     * Checks that the order names a listed stock and a number of shares, rejecting it otherwise.
+     *
+     * @return true if the order can go on to be checked against the account and the market.
+     */
+    boolean decode() {
+        rejection = null;
+        order = null;
+        if (stock == null) {
+            rejection = side == OrderBook.BUY ? "Sorry, that stock is not trading."
+                    : "Sorry, that stock is not available for trading.";
+            return false;
+        }
+        try {
+            shares = Integer.parseInt(quantity.trim());
+        } catch (NumberFormatException e) {
+            rejectQuantity();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rejects the order for asking for a quantity the account or the market cannot fill.
+     */
+    void rejectQuantity() {
+        rejection = side == OrderBook.BUY ? "Invalid quantity or not enough shares available."
+                : "Invalid quantity or not enough shares to sell.";
+    }
+
+    /**
+     * Readies the slot's buy or sell for the decoded order.
+     *
+     * @return The order.
+     */
+    AbstractTransaction prepare() {
+        order = side == OrderBook.BUY ? buy.reuse(account, stock, shares) : sell.reuse(account, stock, shares);
+        order.setOutput(receipt.printer);
+        return order;
+    }
+
+    /**
+     * Prints the order's result, or why it was rejected, into its submitter's receipt, times the order from its
+     * submission and clears the slot for reuse.
+     */
+    void complete() {
+        if (rejection != null) {
+            receipt.printer.println(rejection);
+        } else {
+            order.printResult(status);
+        }
+        TradeMetrics.ORDER.recordSince(submitNanos);
+        account = null;
+        stock = null;
+        order = null;
+        receipt = null;
+        waiter = null;
+    }
+}
@@ -0,0 +1,172 @@
+package stock.market.simulator;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from interned symbol id to share quantity.
+ * <p>
+ * Keys and values are kept in parallel int arrays, so reading or updating a position never boxes a value
+ * or allocates a node. Removal uses backward-shift deletion, so lookups never have to step over tombstones.
+ * {@link MarkToMarket} also keys one by account index, to find the row of a symbol's holder.
+ */
+public class PositionMap {
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * Constructs an empty position map.
+     */
+    public PositionMap() {
+        this(INITIAL_CAPACITY / 2);
+    }
+
+    /**
+     * Constructs an empty position map with room for a number of positions before it has to grow.
+     *
+     * @param expectedSize The number of positions expected.
+     */
+    public PositionMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, INITIAL_CAPACITY / 2) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Returns the quantity held for a symbol.
+     *
+     * @param symbolId The symbol id.
+     * @return The quantity, or 0 if there is no position.
+     */
+    public int get(int symbolId) {
+        int slot = find(symbolId);
+        return slot == EMPTY ? 0 : values[slot];
+    }
+
+    /**
+     * Adds to (or, with a negative delta, subtracts from) the quantity held for a symbol.
+     * A position whose quantity reaches zero is removed.
+     *
+     * @param symbolId The symbol id.
+     * @param delta    The change in quantity.
+     * @return The new quantity.
+     */
+    public int add(int symbolId, int delta) {
+        int mask = keys.length - 1;
+        int slot = mix(symbolId) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == symbolId) {
+                int quantity = values[slot] + delta;
+                if (quantity == 0) {
+                    removeSlot(slot);
+                } else {
+                    values[slot] = quantity;
+                }
+                return quantity;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (delta == 0) {
+            return 0;
+        }
+        keys[slot] = symbolId;
+        values[slot] = delta;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return delta;
+    }
+
+    /**
+     * Returns the number of positions held.
+     *
+     * @return The number of symbols with a non-zero quantity.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of slots in the table, for iterating with {@link #symbolAt} and {@link #quantityAt}.
+     *
+     * @return The table capacity.
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the symbol id stored in a slot.
+     *
+     * @param slot A slot index below {@link #capacity()}.
+     * @return The symbol id, or -1 if the slot is empty.
+     */
+    public int symbolAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Returns the quantity stored in a slot.
+     *
+     * @param slot A slot index below {@link #capacity()}.
+     * @return The quantity, or 0 if the slot is empty.
+     */
+    public int quantityAt(int slot) {
+        return keys[slot] == EMPTY ? 0 : values[slot];
+    }
+
+    private int find(int symbolId) {
+        int mask = keys.length - 1;
+        for (int slot = mix(symbolId) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == symbolId) {
+                return slot;
+            }
+        }
+        return EMPTY;
+    }
+
+    private void removeSlot(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = mix(keys[next]) & mask;
+            // Move the entry back if the hole lies between its home slot and where it sits now
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = EMPTY;
+        values[hole] = 0;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,366 @@
+package stock.market.simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A file of historical prices, memory-mapped and parsed in place.
+ * <p>
+ * Each line holds one price, either a tick {@code time,SYMBOL,price[,size]} or a bar
+ * {@code time,SYMBOL,open,high,low,close[,volume]}, of which the close is used. Times are whole numbers, such as
+ * epoch milliseconds, and are passed on as written; lines whose time is not a number, such as a header, are skipped.
+ * <p>
+ * The file is mapped once, in segments that end at line boundaries, and never copied onto the heap: a replay reads
+ * the mapped bytes directly, and only allocates the first time it meets each symbol. Replays do not change the
+ * mapping, so any number of them can run at the same time, and the operating system keeps a single copy of the
+ * file in memory for all of them.
+ */
+public class PriceHistory implements AutoCloseable {
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    // The index of a bar's close; a line with more fields than this is a bar
+    private static final int CLOSE_FIELD = 5;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments;
+    private final long size;
+
+    /**
+     * Opens and maps a price file.
+     *
+     * @param file The price file.
+     * @throws IOException If the file cannot be opened or mapped, or has a line longer than a segment.
+     */
+    public PriceHistory(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            this.segments = map();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the path of the price file.
+     *
+     * @return The price file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the size of the price file.
+     *
+     * @return The size in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Replays every price in the file, in file order.
+     *
+     * @param listener The listener to pass each price to.
+     * @return The number of prices replayed.
+     */
+    public long replay(TickListener listener) {
+        Symbols symbols = new Symbols();
+        long events = 0;
+        for (MappedByteBuffer segment : segments) {
+            Cursor cursor = new Cursor(segment);
+            while (cursor.hasNext()) {
+                if (cursor.next(listener, symbols)) {
+                    events++;
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Closes the file. Replays must have finished.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<MappedByteBuffer> map() throws IOException {
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAX_SEGMENT_SIZE, size - start));
+            int length = segment.limit();
+            if (start + length < size) {
+                while (length > 0 && segment.get(length - 1) != '\n') {
+                    length--;
+                }
+                if (length == 0) {
+                    throw new IOException("Line too long in price file " + file + " at offset " + start);
+                }
+                segment = segment.slice(0, length);
+            }
+            mapped.add(segment);
+            start += length;
+        }
+        return mapped;
+    }
+
+    // Reads one segment line by line, touching each byte once and never copying it
+    private static final class Cursor {
+        private final ByteBuffer data;
+        private final int end;
+        private int position;
+
+        Cursor(ByteBuffer data) {
+            this.data = data;
+            this.end = data.limit();
+        }
+
+        boolean hasNext() {
+            return position < end;
+        }
+
+        // Parses the next line and passes its price on, returning false for a header or a malformed line
+        boolean next(TickListener listener, Symbols symbols) {
+            int lineStart = position;
+            skipSpaces();
+            if (position == end || !isDigit(data.get(position))) {
+                skipLine();
+                return false;
+            }
+            try {
+                long time = readTime();
+                expectSeparator();
+                int symbolId = readSymbol(symbols);
+                expectSeparator();
+                long price = readAmount();
+                long close = 0;
+                int fields = 3;
+                while (nextField()) {
+                    if (fields == CLOSE_FIELD) {
+                        close = readAmount();
+                    } else {
+                        skipField();
+                    }
+                    fields++;
+                }
+                skipLine();
+                listener.onPrice(time, symbolId, fields > CLOSE_FIELD ? close : price);
+                return true;
+            } catch (NumberFormatException e) {
+                skipLine();
+                System.err.println("Error reading price: " + line(lineStart));
+                return false;
+            }
+        }
+
+        private long readTime() {
+            long time = 0;
+            for (; position < end && isDigit(data.get(position)); position++) {
+                time = Math.addExact(Math.multiplyExact(time, 10), data.get(position) - '0');
+            }
+            return time;
+        }
+
+        private int readSymbol(Symbols symbols) {
+            skipSpaces();
+            int start = position;
+            int symbolEnd = position;
+            for (; position < end; position++) {
+                byte b = data.get(position);
+                if (b == ',' || b == '\n' || b == '\r') {
+                    break;
+                }
+                if (b != ' ') {
+                    symbolEnd = position + 1;
+                }
+            }
+            if (symbolEnd == start) {
+                throw new NumberFormatException("Missing symbol");
+            }
+            return symbols.id(data, start, symbolEnd);
+        }
+
+        // Reads a decimal amount the way Money.parse does
+        private long readAmount() {
+            skipSpaces();
+            boolean negative = position < end && data.get(position) == '-';
+            if (negative) {
+                position++;
+            }
+            long whole = 0;
+            long fraction = 0;
+            long digit = Money.SCALE;
+            boolean seenPoint = false;
+            boolean seenDigit = false;
+            for (; position < end; position++) {
+                byte b = data.get(position);
+                if (isDigit(b)) {
+                    seenDigit = true;
+                    if (!seenPoint) {
+                        whole = Math.addExact(Math.multiplyExact(whole, 10), b - '0');
+                    } else if (digit > 1) {
+                        digit /= 10;
+                        fraction += (b - '0') * digit;
+                    }
+                } else if (b == '.' && !seenPoint) {
+                    seenPoint = true;
+                } else {
+                    break;
+                }
+            }
+            if (!seenDigit) {
+                throw new NumberFormatException("Not an amount");
+            }
+            long amount = Math.addExact(Math.multiplyExact(whole, Money.SCALE), fraction);
+            return negative ? -amount : amount;
+        }
+
+        private void expectSeparator() {
+            if (!nextField()) {
+                throw new NumberFormatException("Missing field");
+            }
+        }
+
+        // Moves past the comma before the next field, or returns false at the end of the line
+        private boolean nextField() {
+            skipSpaces();
+            if (position == end) {
+                return false;
+            }
+            byte b = data.get(position);
+            if (b == ',') {
+                position++;
+                return true;
+            }
+            if (b == '\n' || b == '\r') {
+                return false;
+            }
+            throw new NumberFormatException("Unexpected character");
+        }
+
+        private void skipField() {
+            while (position < end) {
+                byte b = data.get(position);
+                if (b == ',' || b == '\n' || b == '\r') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        private void skipSpaces() {
+            while (position < end && data.get(position) == ' ') {
+                position++;
+            }
+        }
+
+        private void skipLine() {
+            while (position < end && data.get(position++) != '\n') {
+                // Consumes the rest of the line and its terminator
+            }
+        }
+
+        private String line(int start) {
+            int lineEnd = start;
+            while (lineEnd < end && data.get(lineEnd) != '\n' && data.get(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            byte[] bytes = new byte[lineEnd - start];
+            data.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
+    }
+
+    // Resolves symbol bytes to ids, interning each symbol in the shared registry the first time it is seen
+    private static final class Symbols {
+        private byte[][] keys = new byte[64][];
+        private int[] ids = new int[64];
+        private int shift = Integer.numberOfLeadingZeros(keys.length - 1);
+        private int size;
+
+        int id(ByteBuffer data, int start, int end) {
+            int mask = keys.length - 1;
+            int slot = slot(hash(data, start, end));
+            while (keys[slot] != null) {
+                if (matches(keys[slot], data, start, end)) {
+                    return ids[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            byte[] key = new byte[end - start];
+            data.get(start, key);
+            int id = SymbolRegistry.getInstance().intern(new String(key, StandardCharsets.UTF_8));
+            keys[slot] = key;
+            ids[slot] = id;
+            if (++size * 2 > keys.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            byte[][] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            ids = new int[oldKeys.length * 2];
+            shift--;
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    ByteBuffer key = ByteBuffer.wrap(oldKeys[i]);
+                    int slot = slot(hash(key, 0, oldKeys[i].length));
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    ids[slot] = oldIds[i];
+                }
+            }
+        }
+
+        // Symbols that differ only in their last characters have nearby hashes, so the slot is taken from the top
+        // bits of the hash times the golden ratio, which every bit of the hash contributes to
+        private int slot(int hash) {
+            return (hash * 0x9E3779B9) >>> shift;
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer data, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != data.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int hash(ByteBuffer data, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + data.get(i);
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package stock.market.simulator;
+
+/**
+ * Receives notifications when the price of a {@link Stock} changes.
+ */
+public interface PriceListener {
+
+    /**
+     * Called after the stock's price has been updated.
+     *
+     * @param stock    The stock whose price changed.
+     * @param oldPrice The previous price as a {@link Money} amount.
+     * @param newPrice The new price as a {@link Money} amount.
+     */
+    void onPriceChange(Stock stock, long oldPrice, long newPrice);
+}
@@ -0,0 +1,342 @@
+package stock.market.simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An append-only log kept as a directory of segment files that roll over at a fixed size.
+ * <p>
+ * Each segment is named after the offset of its first byte in the whole log, so a position in the log maps to a
+ * segment and an offset within it, and readers see one continuous stream of bytes. Appends go to the last segment;
+ * once it has reached the segment size the next append starts a new one, so a segment only ever ends between two
+ * appends. Sealed segments never change, which lets them be moved to the {@value #ARCHIVE} subdirectory once a
+ * snapshot covers them, or replaced by a compacted copy, while the log keeps growing at its end. Archived segments
+ * are still read, so positions in them stay valid as long as they are kept.
+ * <p>
+ * One instance appends to a log; any number of others may read it at the same time, each seeing the segments that
+ * existed when it was opened.
+ */
+public class SegmentedLog implements AutoCloseable {
+    /** The default size at which a segment rolls over. */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+    /** The subdirectory sealed segments are archived to. */
+    public static final String ARCHIVE = "archive";
+
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final long segmentSize;
+    // Segments in log order, archived ones first, with the offset each starts at
+    private final List<Path> segments = new ArrayList<>();
+    private long[] bases = new long[16];
+    private FileChannel[] readers = new FileChannel[16];
+    private int archived;
+    private FileChannel active;
+    private long activeBase;
+    private long activeSize;
+
+    /**
+     * Opens a log with the default segment size.
+     *
+     * @param directory The directory holding the log's segments; it is created if it does not exist.
+     * @throws IOException If the directory cannot be created or listed.
+     */
+    public SegmentedLog(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a log.
+     *
+     * @param directory   The directory holding the log's segments; it is created if it does not exist.
+     * @param segmentSize The size at which a segment rolls over.
+     * @throws IOException If the directory cannot be created or listed.
+     */
+    public SegmentedLog(Path directory, long segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        Path archive = directory.resolve(ARCHIVE);
+        if (Files.isDirectory(archive)) {
+            for (Path segment : list(archive)) {
+                add(segment);
+            }
+        }
+        archived = segments.size();
+        for (Path segment : list(directory)) {
+            add(segment);
+        }
+    }
+
+    /**
+     * Returns the directory holding the log's segments.
+     *
+     * @return The directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the segments that are not archived, oldest first.
+     *
+     * @return The segment files.
+     */
+    public synchronized List<Path> getSegments() {
+        return new ArrayList<>(segments.subList(archived, segments.size()));
+    }
+
+    /**
+     * Returns the offset just past the last byte in the log.
+     *
+     * @return The log's end.
+     * @throws IOException If the last segment's size cannot be read.
+     */
+    public synchronized long size() throws IOException {
+        if (active != null) {
+            return activeBase + activeSize;
+        }
+        int last = segments.size() - 1;
+        return last < 0 ? 0 : bases[last] + Files.size(segments.get(last));
+    }
+
+    /**
+     * Appends bytes to the log, first starting a new segment if the last one has reached the segment size.
+     *
+     * @param bytes The bytes to append.
+     * @throws IOException If the bytes cannot be written.
+     */
+    public synchronized void write(ByteBuffer bytes) throws IOException {
+        if (active == null) {
+            openActive();
+        }
+        if (activeSize >= segmentSize) {
+            roll();
+        }
+        while (bytes.hasRemaining()) {
+            activeSize += active.write(bytes);
+        }
+    }
+
+    /**
+     * Forces appended bytes to the storage device.
+     *
+     * @throws IOException If the segment cannot be synced.
+     */
+    public synchronized void force() throws IOException {
+        if (active != null) {
+            active.force(false);
+        }
+    }
+
+    /**
+     * Reads bytes from the segment holding a position, stopping at the end of that segment.
+     *
+     * @param buffer   The buffer to read into.
+     * @param position The position in the log to read from.
+     * @return The number of bytes read, or -1 if the log holds nothing at the position.
+     * @throws IOException If the segment cannot be read.
+     */
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        FileChannel channel;
+        long base;
+        synchronized (this) {
+            int index = find(position);
+            if (index < 0) {
+                return -1;
+            }
+            base = bases[index];
+            channel = reader(index);
+        }
+        return channel.read(buffer, position - base);
+    }
+
+    /**
+     * Moves every sealed segment that ends at or before an offset to the archive directory, so that the log's
+     * directory only holds what recovery still replays. The last segment is never archived.
+     *
+     * @param offset The offset up to which the log is no longer needed, such as a snapshot's journal offset.
+     * @return The number of segments archived.
+     * @throws IOException If a segment cannot be moved.
+     */
+    public synchronized int archive(long offset) throws IOException {
+        int count = 0;
+        Path archive = directory.resolve(ARCHIVE);
+        while (archived < segments.size() - 1 && bases[archived + 1] <= offset) {
+            Files.createDirectories(archive);
+            closeReader(archived);
+            Path target = archive.resolve(segments.get(archived).getFileName());
+            Files.move(segments.get(archived), target, StandardCopyOption.ATOMIC_MOVE);
+            segments.set(archived, target);
+            archived++;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Replaces every sealed segment that is not archived with a compacted copy of their contents, which keeps the
+     * first one's name. Positions in the replaced segments no longer hold what they did, so this is only for logs
+     * that are read from start to end, such as the accounts log.
+     *
+     * @param compacted A file in the log's directory, not named like a segment, holding the compacted contents.
+     * @throws IOException If a segment cannot be replaced or deleted.
+     */
+    public synchronized void replaceSealed(Path compacted) throws IOException {
+        int last = segments.size() - 1;
+        if (last <= archived) {
+            Files.deleteIfExists(compacted);
+            return;
+        }
+        for (int i = archived; i < last; i++) {
+            closeReader(i);
+        }
+        Files.move(compacted, segments.get(archived), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (int i = last - 1; i > archived; i--) {
+            Files.delete(segments.remove(i));
+            System.arraycopy(bases, i + 1, bases, i, segments.size() - i);
+            System.arraycopy(readers, i + 1, readers, i, segments.size() - i);
+        }
+    }
+
+    /**
+     * Returns the number of sealed segments that are not archived.
+     *
+     * @return The sealed segment count.
+     */
+    public synchronized int getSealedCount() {
+        return Math.max(0, segments.size() - archived - 1);
+    }
+
+    /**
+     * Syncs and closes the segment being appended to and any segments open for reading.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (active != null) {
+                active.force(false);
+                active.close();
+                active = null;
+            }
+        } finally {
+            for (int i = 0; i < segments.size(); i++) {
+                closeReader(i);
+            }
+        }
+    }
+
+    private void add(Path segment) {
+        int index = segments.size();
+        if (index == bases.length) {
+            bases = Arrays.copyOf(bases, index * 2);
+            readers = Arrays.copyOf(readers, index * 2);
+        }
+        segments.add(segment);
+        bases[index] = base(segment);
+    }
+
+    // Finds the last segment starting at or before a position
+    private int find(long position) {
+        int low = 0;
+        int high = segments.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (bases[middle] <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    private FileChannel reader(int index) throws IOException {
+        if (readers[index] == null) {
+            readers[index] = FileChannel.open(segments.get(index), StandardOpenOption.READ);
+        }
+        return readers[index];
+    }
+
+    private void closeReader(int index) throws IOException {
+        if (readers[index] != null) {
+            readers[index].close();
+            readers[index] = null;
+        }
+    }
+
+    private void openActive() throws IOException {
+        int last = segments.size() - 1;
+        if (last >= archived) {
+            activeBase = bases[last];
+            active = FileChannel.open(segments.get(last), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            activeSize = active.size();
+        } else {
+            // Every segment is archived, so the log goes on where the last one ended
+            activeBase = last < 0 ? 0 : bases[last] + Files.size(segments.get(last));
+            activeSize = 0;
+            active = create(activeBase);
+        }
+    }
+
+    private void roll() throws IOException {
+        active.force(false);
+        active.close();
+        activeBase += activeSize;
+        activeSize = 0;
+        active = create(activeBase);
+    }
+
+    private FileChannel create(long base) throws IOException {
+        Path segment = directory.resolve(String.format("%020d%s", base, SUFFIX));
+        FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        add(segment);
+        return channel;
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (isSegment(file)) {
+                    found.add(file);
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(base(a), base(b)));
+        return found;
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        int digits = name.length() - SUFFIX.length();
+        if (digits <= 0) {
+            return false;
+        }
+        for (int i = 0; i < digits; i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long base(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+}
@@ -2,14 +2,11 @@ package stock.market.simulator;
 
 import stock.market.simulator.console.StockSimulatorConsole;
 
-import java.text.DecimalFormat;
-
 /**
  * Handles the selling of stocks within the stock market simulator.
  */
 public class Sell extends AbstractTransaction {
 
-    private DecimalFormat decimalFormat = new DecimalFormat("#.00");
     private StockSimulatorConsole simulator;
 
     /**
@@ -24,38 +21,177 @@ public class Sell extends AbstractTransaction {
     public Sell(Account account, Stock stock, int quantity, StockSimulatorConsole simulator, FileManager fileManager) {
         super(account, stock, quantity, fileManager);
         this.simulator = simulator;
+        if (simulator != null) {
+            this.out = simulator.getOutput();
+        }
+    }
+
+    /**
+     * Constructs a limit Sell order. Any quantity that cannot be sold at or above the limit price
+     * rests in the stock's order book until it is matched or cancelled.
+     *
+     * @param account     The user's account for trading.
+     * @param stock       The stock to be traded.
+     * @param quantity    The quantity of stock to sell.
+     * @param limitPrice  The lowest price the user is willing to accept per share.
+     * @param simulator   The stock simulator to interact with the stock data.
+     * @param fileManager The file manager to handle file operations.
+     */
+    public Sell(Account account, Stock stock, int quantity, double limitPrice, StockSimulatorConsole simulator, FileManager fileManager) {
+        super(account, stock, quantity, limitPrice, fileManager);
+        this.simulator = simulator;
+        if (simulator != null) {
+            this.out = simulator.getOutput();
+        }
     }
 
     /**
-     * Calculates the total transaction amount by multiplying the price of the stock with the quantity being traded.
+     * Reuses this sell for a new market order, clearing the results of the last one, so that a session can keep
+     * trading without allocating an order per trade. The result is printed to the same stream as before.
+     *
+     * @param account  The user's account for trading.
+     * @param stock    The stock to be traded.
+     * @param quantity The quantity of stock to sell.
+     * @return This sell.
+     */
+    public Sell reuse(Account account, Stock stock, int quantity) {
+        reset(account, stock, quantity, MARKET_ORDER);
+        return this;
+    }
+
+    /**
+     * Calculates the least the sale can raise by multiplying the limit price with the quantity being traded.
+     * For market orders the limit is the current price of the stock.
      *
      * @return The total transaction amount
      */
     @Override
-    protected double calculateTransactionAmount() {
-        return stock.getPrice() * quantity;
+    protected long calculateTransactionAmount() {
+        return Money.times(stock.toAmount(getLimitTicks()), quantity);
     }
 
     /**
-     * Executes the sell transaction. Checks if there are enough shares available for sale and calculates the total price.
-     * If conditions are met, updates the stock's available shares, account's cash balance, stock quantity in the portfolio,
-     * and writes the transaction to a file.
+     * Executes the sell transaction. Checks if the account holds enough shares to sell.
+     * If so, the shares are taken out of the portfolio and the order is matched against resting buy orders,
+     * then sold back to the market at the current price if that satisfies the limit. Unfilled limit orders rest
+     * in the book, and the transaction is written to a file. Matching happens under the stock's trading lock;
+     * the result is printed and the records of this order and the buyers it filled are journaled after the lock
+     * is released.
      */
     @Override
     public void execute() {
-        if (account.sharesAvailable(stock, quantity)) {
-            double totalPrice = calculateTransactionAmount();
-            if (totalPrice > 0) {
-                System.out.println("The total value of the sale is: $" + decimalFormat.format(totalPrice));
-                stock.updateSharesLeft(-quantity);  // Assuming this method decrements shares available
-                account.updateCashBalance(totalPrice, "sell");
-                account.reduceStockQuantity(stock, quantity);
-                fileManager.writeTransaction(account.getAccountName(), "sold", quantity, stock.getSymbol(), totalPrice);
-            } else {
-                System.out.println("Error: Negative value encountered.");
+        executeAlone();
+    }
+
+    @Override
+    protected void printResult(int status) {
+        if (status == REJECTED_SHARES) {
+            printLine("Sorry, you do not have enough shares to sell.");
+        } else if (status == REJECTED_VALUE) {
+            printLine("Error: Negative value encountered.");
+        } else if (status == REJECTED_PRICE) {
+            printLine("Sorry, that limit price is outside the stock's trading range.");
+        } else {
+            if (filledQuantity > 0) {
+                line.setLength(0);
+                Money.appendTo(line.append("The total value of the sale is: $"), filledAmount);
+                printLine();
+            }
+            if (restingQuantity > 0) {
+                line.setLength(0);
+                Money.appendTo(line.append(restingQuantity).append(" shares resting at $"), stock.toAmount(limitTicks))
+                        .append(" (order ").append(restingOrderId).append(").");
+                printLine();
             }
+        }
+    }
+
+    @Override
+    protected int match() {
+        OrderBook book = stock.getOrderBook();
+        long priceTicks = stock.getPriceTicks();
+        int status = check(book, priceTicks, 0);
+        if (status != EXECUTED) {
+            return status;
+        }
+        if (!account.reserveShares(stock, sharesToReserve())) {
+            return REJECTED_SHARES;
+        }
+        fill(book, priceTicks);
+        return EXECUTED;
+    }
+
+    /**
+     * Checks that the order has a positive value and that its limit is within the book's range.
+     */
+    @Override
+    protected int check(OrderBook book, long priceTicks, int claimed) {
+        long limit = limitAt(priceTicks);
+        if (quantity <= 0 || stock.toAmount(limit) <= 0) {
+            return quantity > 0 ? REJECTED_VALUE : REJECTED_SHARES;
+        }
+        if (!canRest(book, limit)) {
+            return REJECTED_PRICE;
+        }
+        return EXECUTED;
+    }
+
+    @Override
+    protected long cashToReserve(long priceTicks) {
+        return 0;
+    }
+
+    /**
+     * Reserves the shares being sold.
+     */
+    @Override
+    protected int sharesToReserve() {
+        return quantity;
+    }
+
+    @Override
+    protected long fill(OrderBook book, long priceTicks) {
+        long limit = limitAt(priceTicks);
+        int before = filledQuantity;
+        book.submit(OrderBook.SELL, limit, quantity, account, false, this);
+        int remaining = quantity - (filledQuantity - before);
+        if (remaining > 0 && priceTicks >= limit) {
+            stock.updateSharesLeft(remaining, "sell");
+            onFill(null, OrderBook.NO_ORDER, OrderBook.SELL, priceTicks, remaining);
+            remaining = 0;
+        }
+        if (remaining > 0) {
+            restingOrderId = book.submit(OrderBook.SELL, limit, remaining, account, true, this);
+            restingQuantity = remaining;
+        }
+        return 0;
+    }
+
+    @Override
+    protected LatencyHistogram matchLatency() {
+        return TradeMetrics.SELL;
+    }
+
+    @Override
+    protected String action() {
+        return "sold";
+    }
+
+    /**
+     * Receives a fill for this order, credits the account, reports the trade and settles the buyer.
+     * A null maker means the shares were sold back to the market rather than to a resting order.
+     */
+    @Override
+    public void onFill(Account maker, long makerOrderId, int side, long priceTicks, int quantity) {
+        long amount = Money.times(stock.toAmount(priceTicks), quantity);
+        filledQuantity += quantity;
+        filledAmount += amount;
+        account.updateCashAmount(amount, "sell");
+        stock.notifyTrade(side, priceTicks, quantity);
+        if (maker != null) {
+            settleMaker(maker, side, priceTicks, quantity);
         } else {
-            System.out.println("Sorry, you do not have enough shares to sell.");
+            marketQuantity += quantity;
         }
     }
 }
@@ -0,0 +1,232 @@
+package stock.market.simulator;
+
+import java.io.PrintStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs buy and sell orders on shards of the market, each owning a share of the listed stocks and running every order
+ * for them on one dedicated thread, so orders for different stocks execute on as many cores as there are shards.
+ * <p>
+ * A stock belongs to the shard its symbol id selects, and only that shard's thread matches its orders, so shards
+ * never contend for a stock's trading lock and each checks an order against the market and the account just before
+ * executing it, with no orders ahead of it in flight. Submitters hand orders to a shard through its own
+ * {@link OrderRing} of preallocated slots, claimed with an atomic counter and published with a release store, so
+ * neither side takes a lock. The shard handles every order published since its last pass, journals the batch's
+ * records with one write and its fills with one trade history append once the stocks' locks are released, and then
+ * marks the orders complete. Each submitter prints its result on its own thread when it awaits the order, so a
+ * client that reads slowly or not at all holds up only its own session, never its shard.
+ * <p>
+ * Accounts trade on every shard at once. Their cash needs no owner: reservations and settlements are
+ * compare-and-set updates of the account's balance, which any shard can make, and holdings are only changed under
+ * the account's own monitor. Orders on different shards are not ordered among themselves, so a submitter that
+ * needs a sale's proceeds to pay for a buy of another stock waits for the sale first, as a console session does.
+ */
+public class ShardedExecutor implements OrderExecutor {
+    private static final int DEFAULT_SLOTS = 1 << 10;
+
+    private final FileManager fileManager;
+    private final Shard[] shards;
+    private volatile boolean closed;
+
+    /**
+     * A thread that runs the orders of its stocks, and the ring submitters hand them over in.
+     */
+    private final class Shard implements Runnable {
+        private final OrderRing<OrderSlot> ring;
+        private final StringBuilder records = new StringBuilder(1024);
+        private final TradeHistory.Block fills = new TradeHistory.Block();
+        private final Thread thread;
+
+        private Shard(int index, int slots) {
+            ring = new OrderRing<>(slots, fileManager, OrderSlot::new);
+            thread = new Thread(this, "trade-shard-" + index);
+            thread.setDaemon(true);
+            ring.setConsumer(thread);
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            while (true) {
+                // Read whether the executor is closed before how far submitters got, so no last order is missed
+                boolean done = closed;
+                long available = ring.publishedUpTo(next);
+                if (available == next) {
+                    if (done && ring.drained(next)) {
+                        break;
+                    }
+                    LockSupport.parkNanos(OrderRing.IDLE_PARK_NANOS);
+                    continue;
+                }
+                for (long sequence = next; sequence < available; sequence++) {
+                    execute(ring.get(sequence));
+                }
+                if (records.length() > 0) {
+                    try {
+                        fileManager.writeTransactions(records);
+                    } catch (IllegalStateException e) {
+                        // The journal has stopped; keep trading so that no submitter is left waiting
+                        System.err.println("Error writing to transactions file: " + e.getMessage());
+                    }
+                    records.setLength(0);
+                }
+                fileManager.recordFills(fills);
+                fills.clear();
+                for (; next < available; next++) {
+                    ring.completeNext();
+                }
+            }
+            ring.finish();
+        }
+
+        private void execute(OrderSlot slot) {
+            try {
+                check(slot);
+                if (slot.rejection != null) {
+                    return;
+                }
+                slot.order.journalTo(records, fills);
+                slot.status = slot.order.matchUnderLock();
+                if (slot.status == AbstractTransaction.EXECUTED) {
+                    slot.order.journalFills();
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error processing order: " + e.getMessage());
+                slot.rejection = "Sorry, the order could not be processed.";
+            } finally {
+                if (slot.order != null) {
+                    slot.order.journalTo(null, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts an executor with a shard for every available processor.
+     *
+     * @param fileManager The file manager to journal executed orders to.
+     */
+    public ShardedExecutor(FileManager fileManager) {
+        this(fileManager, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Starts an executor with the default ring size.
+     *
+     * @param fileManager The file manager to journal executed orders to.
+     * @param shards      The number of shards, each with its own thread.
+     */
+    public ShardedExecutor(FileManager fileManager, int shards) {
+        this(fileManager, shards, DEFAULT_SLOTS);
+    }
+
+    /**
+     * Starts an executor.
+     *
+     * @param fileManager The file manager to journal executed orders to.
+     * @param shards      The number of shards, each with its own thread.
+     * @param slots       The number of orders each shard's ring holds; must be a power of two.
+     */
+    public ShardedExecutor(FileManager fileManager, int shards, int slots) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shards);
+        }
+        this.fileManager = fileManager;
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i, slots);
+        }
+        for (Shard shard : this.shards) {
+            shard.thread.start();
+        }
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return The shard count.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the shard that runs a stock's orders.
+     *
+     * @param stock The stock.
+     * @return The shard's index.
+     */
+    public int shardOf(Stock stock) {
+        return stock.getSymbolId() % shards.length;
+    }
+
+    /**
+     * Submits an order as the user typed it to the shard that owns its stock. The result, or the reason the order
+     * was rejected, is printed to the given stream by {@link #await(long)} once the order has been executed and
+     * journaled.
+     *
+     * @param account  The account trading.
+     * @param side     {@link OrderBook#BUY} or {@link OrderBook#SELL}.
+     * @param symbol   The stock symbol, as typed.
+     * @param quantity The number of shares, as typed.
+     * @param out      The stream to print the result to.
+     * @return A ticket for the order, to wait for with {@link #await(long)}.
+     */
+    @Override
+    public long submit(Account account, int side, String symbol, String quantity, PrintStream out) {
+        if (closed) {
+            throw new IllegalStateException("Sharded executor is closed");
+        }
+        // An unknown symbol has no shard; the first one rejects it
+        Stock stock = SymbolRegistry.getInstance().getStock(symbol.trim());
+        int index = stock == null ? 0 : shardOf(stock);
+        long sequence = shards[index].ring.submit(account, side, symbol, stock, quantity, out);
+        return sequence * shards.length + index;
+    }
+
+    /**
+     * Waits until an order is complete and prints its result on the calling thread.
+     *
+     * @param ticket The ticket {@link #submit} returned.
+     */
+    @Override
+    public void await(long ticket) {
+        shards[(int) (ticket % shards.length)].ring.await(ticket / shards.length);
+    }
+
+    /**
+     * Stops accepting orders and waits for every shard to complete the orders submitted to it. Orders must not be
+     * submitted while the executor is closing.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Rejects orders the account or the market plainly cannot fill, and otherwise readies the slot's order.
+    // Execution checks again under the stock's trading lock.
+    private static void check(OrderSlot slot) {
+        if (!slot.decode()) {
+            return;
+        }
+        long available = slot.side == OrderBook.BUY ? slot.stock.getSharesLeft()
+                : slot.account.getStockQuantity(slot.stock.getSymbolId());
+        if (slot.shares <= 0 || available < slot.shares) {
+            slot.rejectQuantity();
+            return;
+        }
+        slot.prepare();
+    }
+}
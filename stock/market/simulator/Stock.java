@@ -1,30 +1,69 @@
 package stock.market.simulator;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents a stock in the stock market simulation.
  * This class contains information about a stock, including its symbol, description, current price,
  * total shares, and remaining shares available for trading.
+ * <p>
+ * Each stock has its own trading lock. Orders for the stock, and changes to its order book and remaining
+ * shares, happen while holding that lock, so trading in different stocks never contends.
  */
 public class Stock implements Serializable {
+    private static final VarHandle CURRENT_PRICE;
+
+    static {
+        try {
+            CURRENT_PRICE = MethodHandles.lookup().findVarHandle(Stock.class, "currentPrice", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     private final String symbol;
+    private final int symbolId;
     private final int totalShares;
-    private int sharesLeft;
+    private volatile int sharesLeft;
     private int quantity;
-    private double currentPrice;
+    private final long tickSize;
+    private volatile long currentPrice;
+    private final transient ReentrantLock lock = new ReentrantLock();
+    private transient volatile OrderBook orderBook;
+    private transient volatile PriceListener[] priceListeners = new PriceListener[0];
+    private transient volatile TradeListener[] tradeListeners = new TradeListener[0];
 
     /**
-     * Constructs a new Stock object with the specified attributes.
+     * Constructs a new Stock object with the specified attributes and a tick size of one cent.
      *
      * @param symbol       The symbol of the stock.
      * @param currentPrice The current price of the stock.
      * @param totalShares  The total shares of the stock.
      */
     public Stock(String symbol, double currentPrice, int totalShares) {
+        this(symbol, Money.of(currentPrice), totalShares, Money.CENT);
+    }
+
+    /**
+     * Constructs a new Stock object with a fixed-point price and an explicit tick size.
+     *
+     * @param symbol       The symbol of the stock.
+     * @param currentPrice The current price of the stock as a {@link Money} amount.
+     * @param totalShares  The total shares of the stock.
+     * @param tickSize     The smallest price increment as a {@link Money} amount.
+     */
+    public Stock(String symbol, long currentPrice, int totalShares, long tickSize) {
+        if (tickSize <= 0) {
+            throw new IllegalArgumentException("Tick size must be positive: " + tickSize);
+        }
         this.symbol = symbol;
-        this.currentPrice = currentPrice;
+        this.symbolId = SymbolRegistry.getInstance().intern(symbol);
+        this.tickSize = tickSize;
+        this.currentPrice = roundToTick(currentPrice);
         this.totalShares = totalShares;
         this.sharesLeft = totalShares;
     }
@@ -56,6 +95,15 @@ public class Stock implements Serializable {
      * @return The current price of the stock.
      */
     public double getPrice() {
+        return Money.toDouble(currentPrice);
+    }
+
+    /**
+     * Returns the current price of the stock as a fixed-point amount.
+     *
+     * @return The current price as a {@link Money} amount.
+     */
+    public long getPriceAmount() {
         return currentPrice;
     }
 
@@ -65,7 +113,167 @@ public class Stock implements Serializable {
      * @param currentPrice The current price of the stock.
      */
     public void setPrice(double currentPrice) {
-        this.currentPrice = currentPrice;
+        setPriceAmount(Money.of(currentPrice));
+    }
+
+    /**
+     * Sets the current price of the stock, rounded to the nearest tick, and notifies its price listeners.
+     * The price is published with a single atomic exchange, so readers never wait for a writer or see a partly
+     * written price, and concurrent writers each notify listeners of the exact change they made.
+     *
+     * @param currentPrice The current price as a {@link Money} amount.
+     */
+    public void setPriceAmount(long currentPrice) {
+        currentPrice = roundToTick(currentPrice);
+        if (currentPrice == this.currentPrice) {
+            return;
+        }
+        long oldPrice = (long) CURRENT_PRICE.getAndSet(this, currentPrice);
+        if (oldPrice != currentPrice) {
+            for (PriceListener listener : priceListeners) {
+                listener.onPriceChange(this, oldPrice, currentPrice);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener to be notified whenever the price changes.
+     *
+     * @param listener The listener to add.
+     */
+    public synchronized void addPriceListener(PriceListener listener) {
+        PriceListener[] listeners = Arrays.copyOf(priceListeners, priceListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        priceListeners = listeners;
+    }
+
+    /**
+     * Removes a previously registered price listener.
+     *
+     * @param listener The listener to remove.
+     */
+    public synchronized void removePriceListener(PriceListener listener) {
+        for (int i = 0; i < priceListeners.length; i++) {
+            if (priceListeners[i] == listener) {
+                PriceListener[] listeners = new PriceListener[priceListeners.length - 1];
+                System.arraycopy(priceListeners, 0, listeners, 0, i);
+                System.arraycopy(priceListeners, i + 1, listeners, i, listeners.length - i);
+                priceListeners = listeners;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registers a listener to be notified of every fill of an order for this stock.
+     *
+     * @param listener The listener to add.
+     */
+    public synchronized void addTradeListener(TradeListener listener) {
+        TradeListener[] listeners = Arrays.copyOf(tradeListeners, tradeListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        tradeListeners = listeners;
+    }
+
+    /**
+     * Removes a previously registered trade listener.
+     *
+     * @param listener The listener to remove.
+     */
+    public synchronized void removeTradeListener(TradeListener listener) {
+        for (int i = 0; i < tradeListeners.length; i++) {
+            if (tradeListeners[i] == listener) {
+                TradeListener[] listeners = new TradeListener[tradeListeners.length - 1];
+                System.arraycopy(tradeListeners, 0, listeners, 0, i);
+                System.arraycopy(tradeListeners, i + 1, listeners, i, listeners.length - i);
+                tradeListeners = listeners;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Notifies the trade listeners of a fill. Called by orders with the stock's trading lock held.
+     *
+     * @param side       The side of the incoming order.
+     * @param priceTicks The trade price in ticks.
+     * @param quantity   The number of shares traded.
+     */
+    void notifyTrade(int side, long priceTicks, int quantity) {
+        TradeListener[] listeners = tradeListeners;
+        if (listeners.length == 0) {
+            return;
+        }
+        long price = toAmount(priceTicks);
+        for (TradeListener listener : listeners) {
+            listener.onTrade(this, side, price, quantity);
+        }
+    }
+
+    /**
+     * Returns the current price of the stock in order book ticks.
+     *
+     * @return The current price in ticks.
+     */
+    public long getPriceTicks() {
+        return currentPrice / tickSize;
+    }
+
+    /**
+     * Returns the smallest price increment of the stock.
+     *
+     * @return The tick size as a {@link Money} amount.
+     */
+    public long getTickSize() {
+        return tickSize;
+    }
+
+    /**
+     * Converts a price in ticks to a fixed-point amount.
+     *
+     * @param ticks The price in ticks.
+     * @return The price as a {@link Money} amount.
+     */
+    public long toAmount(long ticks) {
+        return ticks * tickSize;
+    }
+
+    /**
+     * Converts a fixed-point price to the nearest whole number of ticks.
+     *
+     * @param amount The price as a {@link Money} amount.
+     * @return The price in ticks.
+     */
+    public long toTicks(long amount) {
+        return roundToTick(amount) / tickSize;
+    }
+
+    /**
+     * Returns the limit order book for this stock, creating it around the current price on first use.
+     *
+     * @return The stock's order book.
+     */
+    public OrderBook getOrderBook() {
+        OrderBook book = orderBook;
+        if (book == null) {
+            synchronized (this) {
+                if (orderBook == null) {
+                    orderBook = new OrderBook(getPriceTicks());
+                }
+                book = orderBook;
+            }
+        }
+        return book;
+    }
+
+    /**
+     * Returns the lock that must be held while trading this stock: submitting to or cancelling from its
+     * order book and changing its remaining shares.
+     *
+     * @return The stock's trading lock.
+     */
+    public ReentrantLock getLock() {
+        return lock;
     }
 
     /**
@@ -77,6 +285,15 @@ public class Stock implements Serializable {
         return symbol;
     }
 
+    /**
+     * Returns the interned id of the stock's symbol.
+     *
+     * @return The symbol id from the shared {@link SymbolRegistry}.
+     */
+    public int getSymbolId() {
+        return symbolId;
+    }
+
     /**
      * Returns the number of shares left in the open market for trading.
      *
@@ -117,4 +334,8 @@ public class Stock implements Serializable {
     public int getTotalShares() {
         return totalShares;
     }
-}
\ No newline at end of file
+
+    private long roundToTick(long amount) {
+        return Math.floorDiv(amount + tickSize / 2, tickSize) * tickSize;
+    }
+}
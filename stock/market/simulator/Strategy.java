@@ -0,0 +1,17 @@
+package stock.market.simulator;
+
+/**
+ * A trading strategy run by a {@link Backtest}. A strategy instance keeps the state of one run, so each run needs
+ * its own instance.
+ */
+public interface Strategy {
+
+    /**
+     * Called after the price of a stock has moved to the next price in the history. The strategy trades through
+     * {@link Backtest#buy} and {@link Backtest#sell}, which execute immediately at the current price.
+     *
+     * @param backtest The run the price belongs to.
+     * @param stock    The run's copy of the stock, already at its new price.
+     */
+    void onPrice(Backtest backtest, Stock stock);
+}
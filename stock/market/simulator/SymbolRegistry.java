@@ -0,0 +1,201 @@
+package stock.market.simulator;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Interns stock symbols to dense int ids and keeps the listed {@link Stock} for each id.
+ * <p>
+ * Every symbol is hashed once, when it is first interned; after that a symbol can be resolved to its id,
+ * and an id to its symbol or stock, with a single array access. Lookups by string use an open-addressing
+ * table of parallel arrays, so they do not box or allocate.
+ * <p>
+ * Interning and listing are synchronized; lookups take no lock. The arrays are replaced when they grow and are
+ * published through volatile fields, and each entry is written with a release store before its id can be found,
+ * so a reader that finds an id always sees its symbol and the current arrays.
+ */
+public class SymbolRegistry {
+    /** Id returned for symbols that have never been interned. */
+    public static final int UNKNOWN = -1;
+
+    private static final SymbolRegistry INSTANCE = new SymbolRegistry();
+    private static final int INITIAL_CAPACITY = 64;
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(String[].class);
+    private static final VarHandle STOCKS = MethodHandles.arrayElementVarHandle(Stock[].class);
+
+    private volatile Table table = new Table(INITIAL_CAPACITY * 2);
+    private volatile String[] symbols = new String[INITIAL_CAPACITY];
+    private volatile Stock[] stocks = new Stock[INITIAL_CAPACITY];
+    private volatile int size;
+    // Listed stocks in the order they were listed, and where each id's stock is in it
+    private Stock[] listed = new Stock[INITIAL_CAPACITY];
+    private int[] listedIndex = new int[INITIAL_CAPACITY];
+    private int listedCount;
+    private volatile List<Stock> listedStocks = Collections.emptyList();
+
+    /**
+     * Returns the registry shared by every stock in the application.
+     *
+     * @return The shared symbol registry.
+     */
+    public static SymbolRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the id for a symbol, assigning the next free id if the symbol has not been seen before.
+     *
+     * @param symbol The stock symbol.
+     * @return The symbol's id.
+     */
+    public synchronized int intern(String symbol) {
+        int id = getId(symbol);
+        if (id != UNKNOWN) {
+            return id;
+        }
+        if ((size + 1) * 2 > table.keys.length) {
+            rehash(table.keys.length * 2);
+        }
+        if (size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, size * 2);
+            stocks = Arrays.copyOf(stocks, size * 2);
+            listedIndex = Arrays.copyOf(listedIndex, size * 2);
+        }
+        id = size;
+        symbols[id] = symbol;
+        listedIndex[id] = -1;
+        size = id + 1;
+        table.insert(symbol, id);
+        return id;
+    }
+
+    /**
+     * Lists a stock as tradable so that it can be looked up by symbol or id. A stock listed under an id that
+     * already has one replaces it in place. Listing appends to an array of the listed stocks and publishes a
+     * read-only view of it, so listing a whole universe takes time in proportion to its size.
+     *
+     * @param stock The stock to list.
+     */
+    public synchronized void list(Stock stock) {
+        int id = stock.getSymbolId();
+        STOCKS.setRelease(stocks, id, stock);
+        int index = listedIndex[id];
+        if (index < 0) {
+            if (listedCount == listed.length) {
+                listed = Arrays.copyOf(listed, listedCount * 2);
+            }
+            index = listedCount++;
+            listedIndex[id] = index;
+        }
+        listed[index] = stock;
+        listedStocks = Collections.unmodifiableList(Arrays.asList(listed).subList(0, listedCount));
+    }
+
+    /**
+     * Returns the id of a symbol without interning it.
+     *
+     * @param symbol The stock symbol.
+     * @return The symbol's id, or {@link #UNKNOWN} if it has never been interned.
+     */
+    public int getId(String symbol) {
+        if (symbol == null) {
+            return UNKNOWN;
+        }
+        Table current = table;
+        String[] keys = current.keys;
+        int mask = keys.length - 1;
+        String key;
+        for (int slot = mix(symbol.hashCode()) & mask; (key = (String) KEYS.getAcquire(keys, slot)) != null;
+             slot = (slot + 1) & mask) {
+            if (key == symbol || key.equals(symbol)) {
+                return current.ids[slot];
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns the symbol for an id.
+     *
+     * @param id The symbol id.
+     * @return The symbol.
+     */
+    public String getSymbol(int id) {
+        return symbols[id];
+    }
+
+    /**
+     * Returns the listed stock for an id.
+     *
+     * @param id The symbol id.
+     * @return The listed stock, or null if the id is unknown or not listed.
+     */
+    public Stock getStock(int id) {
+        return id >= 0 && id < size ? (Stock) STOCKS.getAcquire(stocks, id) : null;
+    }
+
+    /**
+     * Returns the listed stock for a symbol.
+     *
+     * @param symbol The stock symbol.
+     * @return The listed stock, or null if the symbol is not listed.
+     */
+    public Stock getStock(String symbol) {
+        return getStock(getId(symbol));
+    }
+
+    /**
+     * Returns the number of interned symbols; ids are always below this value.
+     *
+     * @return The number of interned symbols.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a read-only view of the listed stocks, in the order they were listed.
+     *
+     * @return The listed stocks.
+     */
+    public List<Stock> getListedStocks() {
+        return listedStocks;
+    }
+
+    private void rehash(int capacity) {
+        Table resized = new Table(capacity);
+        for (int id = 0; id < size; id++) {
+            resized.insert(symbols[id], id);
+        }
+        table = resized;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // Keys and ids are swapped together on resize so readers never pair one table's keys with another's ids, and
+    // each key is stored after its id with a release store, so a reader that finds the key also sees the id
+    private static final class Table {
+        final String[] keys;
+        final int[] ids;
+
+        Table(int capacity) {
+            keys = new String[capacity];
+            ids = new int[capacity];
+        }
+
+        void insert(String symbol, int id) {
+            int mask = keys.length - 1;
+            int slot = mix(symbol.hashCode()) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = id;
+            KEYS.setRelease(keys, slot, symbol);
+        }
+    }
+}
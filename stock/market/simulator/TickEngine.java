@@ -0,0 +1,216 @@
+package stock.market.simulator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves stock prices with geometric Brownian motion.
+ * <p>
+ * Each update advances one stock by one time step: the price is multiplied by
+ * {@code exp((drift - volatility^2 / 2) * step + volatility * sqrt(step) * z)} for a standard normal {@code z}, and
+ * the result is published to the stock rounded to its tick. Stocks are updated in turn, so with {@code n} stocks every
+ * stock moves once per {@code n} updates. The exact simulated prices are kept here, so moves smaller than a tick
+ * still accumulate. A given seed, stock list and parameters always produce the same price paths.
+ * <p>
+ * The engine writes prices with {@link Stock#setPriceAmount}, which publishes each price with one atomic store:
+ * traders and portfolio valuations read prices without locking and never hold up the engine.
+ */
+public class TickEngine implements AutoCloseable {
+    /** The number of trading seconds in a year of 252 six-and-a-half-hour days. */
+    public static final double TRADING_SECONDS_PER_YEAR = 252 * 6.5 * 3600;
+
+    /** A time step of one second of trading, in years. */
+    public static final double ONE_SECOND = 1 / TRADING_SECONDS_PER_YEAR;
+
+    private static final int MAX_BATCH = 4096;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final Stock[] stocks;
+    private final int[] slotBySymbol;
+    private final double[] prices;
+    private final double[] drifts;
+    private final double[] volatilities;
+    private final double[] growth;
+    private final double[] diffusion;
+    private final double timeStep;
+    private final SplittableRandom random;
+    private int next;
+    private volatile long updateCount;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Constructs an engine in which every stock has the same volatility and no drift.
+     *
+     * @param stocks     The stocks to move.
+     * @param seed       The seed of the random price paths.
+     * @param volatility The annualized volatility, e.g. 0.3 for 30%.
+     * @param timeStep   The time one update advances a stock by, in years; see {@link #ONE_SECOND}.
+     */
+    public TickEngine(List<Stock> stocks, long seed, double volatility, double timeStep) {
+        if (!(timeStep > 0)) {
+            throw new IllegalArgumentException("Time step must be positive: " + timeStep);
+        }
+        this.stocks = stocks.toArray(new Stock[0]);
+        this.timeStep = timeStep;
+        this.random = new SplittableRandom(seed);
+        int size = this.stocks.length;
+        prices = new double[size];
+        drifts = new double[size];
+        volatilities = new double[size];
+        growth = new double[size];
+        diffusion = new double[size];
+        int maxSymbolId = -1;
+        for (Stock stock : this.stocks) {
+            maxSymbolId = Math.max(maxSymbolId, stock.getSymbolId());
+        }
+        slotBySymbol = new int[maxSymbolId + 1];
+        Arrays.fill(slotBySymbol, -1);
+        for (int i = 0; i < size; i++) {
+            slotBySymbol[this.stocks[i].getSymbolId()] = i;
+            prices[i] = this.stocks[i].getPrice();
+            setParameters(i, 0, volatility);
+        }
+    }
+
+    /**
+     * Sets the annualized volatility of one stock.
+     *
+     * @param stock      The stock.
+     * @param volatility The annualized volatility, e.g. 0.3 for 30%.
+     */
+    public synchronized void setVolatility(Stock stock, double volatility) {
+        int slot = slotOf(stock);
+        setParameters(slot, drifts[slot], volatility);
+    }
+
+    /**
+     * Sets the annualized drift of one stock.
+     *
+     * @param stock The stock.
+     * @param drift The annualized expected return, e.g. 0.05 for 5%.
+     */
+    public synchronized void setDrift(Stock stock, double drift) {
+        int slot = slotOf(stock);
+        setParameters(slot, drift, volatilities[slot]);
+    }
+
+    /**
+     * Advances every stock by one time step.
+     */
+    public void tick() {
+        advance(stocks.length);
+    }
+
+    /**
+     * Performs a number of updates, moving the stocks in turn.
+     *
+     * @param updates The number of stock updates.
+     */
+    public synchronized void advance(int updates) {
+        int size = stocks.length;
+        if (size == 0) {
+            return;
+        }
+        int slot = next;
+        for (int i = 0; i < updates; i++) {
+            double price = prices[slot] * Math.exp(growth[slot] + diffusion[slot] * random.nextGaussian());
+            prices[slot] = price;
+            Stock stock = stocks[slot];
+            stock.setPriceAmount(Math.max(stock.getTickSize(), Money.of(price)));
+            if (++slot == size) {
+                slot = 0;
+            }
+        }
+        next = slot;
+        updateCount += updates;
+    }
+
+    /**
+     * Starts a thread that performs updates at a steady rate until the engine is closed.
+     *
+     * @param updatesPerSecond The number of stock updates per second, or 0 to update as fast as possible.
+     */
+    public synchronized void start(long updatesPerSecond) {
+        if (thread != null) {
+            throw new IllegalStateException("Engine is already running");
+        }
+        running = true;
+        thread = new Thread(() -> run(updatesPerSecond), "tick-engine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the number of stock updates performed so far.
+     *
+     * @return The update count.
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Stops the update thread, if it was started, and waits for it to finish.
+     */
+    @Override
+    public void close() {
+        Thread worker;
+        synchronized (this) {
+            worker = thread;
+            thread = null;
+            running = false;
+        }
+        if (worker == null) {
+            return;
+        }
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Performs whatever updates are due, and if the engine falls more than a second behind it skips ahead
+    private void run(long updatesPerSecond) {
+        double updatesPerNano = updatesPerSecond / 1e9;
+        long start = System.nanoTime();
+        long done = 0;
+        while (running) {
+            long due = updatesPerSecond <= 0 ? done + MAX_BATCH : (long) ((System.nanoTime() - start) * updatesPerNano);
+            if (due - done > updatesPerSecond && updatesPerSecond > 0) {
+                done = due - updatesPerSecond;
+            }
+            if (due > done) {
+                int batch = (int) Math.min(due - done, MAX_BATCH);
+                advance(batch);
+                done += batch;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void setParameters(int slot, double drift, double volatility) {
+        if (volatility < 0) {
+            throw new IllegalArgumentException("Volatility must not be negative: " + volatility);
+        }
+        drifts[slot] = drift;
+        volatilities[slot] = volatility;
+        growth[slot] = (drift - volatility * volatility / 2) * timeStep;
+        diffusion[slot] = volatility * Math.sqrt(timeStep);
+    }
+
+    private int slotOf(Stock stock) {
+        int symbolId = stock.getSymbolId();
+        int slot = symbolId < slotBySymbol.length ? slotBySymbol[symbolId] : -1;
+        if (slot < 0) {
+            throw new IllegalArgumentException("Stock is not simulated: " + stock.getSymbol());
+        }
+        return slot;
+    }
+}
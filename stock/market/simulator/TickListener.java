@@ -0,0 +1,16 @@
+package stock.market.simulator;
+
+/**
+ * Receives the price events replayed from a {@link PriceHistory}.
+ */
+public interface TickListener {
+
+    /**
+     * Called for each price in the history, in file order.
+     *
+     * @param time     The time of the price, as written in the file.
+     * @param symbolId The interned id of the stock's symbol.
+     * @param price    The price as a {@link Money} amount.
+     */
+    void onPrice(long time, int symbolId, long price);
+}
@@ -0,0 +1,853 @@
+package stock.market.simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary store of every fill, indexed by account, symbol and time, that answers range queries a page at a time.
+ * <p>
+ * Fills are appended as fixed-size records to memory-mapped segment files in a directory, in time order. Records
+ * are grouped into pages of {@value #PAGE_RECORDS}. The store keeps the time of each page's first record, and for
+ * every account and every symbol the ascending list of pages it has a fill on. A query binary-searches the page
+ * times for its range, intersects the lists of the account and symbol asked for, and reads only the pages they
+ * share, so its cost depends on how many fills match rather than on how many the store holds. Results come back
+ * in pages of a given size, each with a cursor that continues the query where it stopped.
+ * <p>
+ * The page lists are written to an index file as each page fills up, and account and symbol names to their own
+ * files when first seen; opening a store reads those and scans only the records of the unfinished last page.
+ * Appends are serialized on the store, so traders buffer their fills in a {@link Block} while they hold a stock's
+ * trading lock and append the block once it is released. Queries take a short lock to see a consistent end of the store and then read
+ * the mapped records without it, so they do not hold up trading.
+ */
+public final class TradeHistory implements AutoCloseable {
+    /** The size of a record in bytes. */
+    public static final int RECORD_BYTES = 32;
+
+    /** The number of records in a page, the unit a query reads. */
+    public static final int PAGE_RECORDS = 256;
+
+    private static final int SEGMENT_PAGES = 8192;
+    private static final long SEGMENT_RECORDS = (long) PAGE_RECORDS * SEGMENT_PAGES;
+    private static final int INDEX_ENTRY_BYTES = 8;
+    private static final int PAGE_MARK = -1;
+    private static final int SYMBOL_KEY = 1;
+
+    private final Path directory;
+    private final FileChannel accountsFile;
+    private final FileChannel symbolsFile;
+    private final FileChannel indexFile;
+    private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect((2 * PAGE_RECORDS + 1) * INDEX_ENTRY_BYTES);
+    private final Map<String, Integer> accountIds = new HashMap<>();
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    // Names by id; arrays rather than lists so that queries can read them without copying
+    private String[] accountNames = new String[256];
+    private String[] symbolNames = new String[64];
+    // History symbol ids by SymbolRegistry id, plus one so that zero means not seen yet
+    private int[] registrySymbols = new int[64];
+    private MappedByteBuffer[] segments = new MappedByteBuffer[8];
+    private int segmentCount;
+    private long[] pageTimes = new long[1024];
+    // Postings by key: an account's key is its id times two, a symbol's the same plus one. Each list holds its pages
+    // in ascending order, where a negative entry -n after a page means the n pages after it are on the list too, so
+    // a key with a fill on every page takes two entries however many pages it covers
+    private int[][] postings = new int[256][];
+    private int[] postingCounts = new int[256];
+    // The last page each key was posted on, plus one
+    private int[] lastPages = new int[256];
+    private final int[] pageKeys = new int[2 * PAGE_RECORDS];
+    private int pageKeyCount;
+    private long size;
+    private long lastTime = 1;
+    private boolean closed;
+
+    /**
+     * A fill as stored in the history.
+     */
+    public static final class Fill {
+        private final long sequence;
+        private final long time;
+        private final String account;
+        private final String symbol;
+        private final int side;
+        private final int quantity;
+        private final long total;
+
+        private Fill(long sequence, long time, String account, String symbol, int side, int quantity, long total) {
+            this.sequence = sequence;
+            this.time = time;
+            this.account = account;
+            this.symbol = symbol;
+            this.side = side;
+            this.quantity = quantity;
+            this.total = total;
+        }
+
+        /**
+         * Returns the fill's place in the history, counting from zero.
+         *
+         * @return The sequence number.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Returns when the fill was recorded.
+         *
+         * @return The time in epoch milliseconds.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the account that traded.
+         *
+         * @return The account name.
+         */
+        public String getAccount() {
+            return account;
+        }
+
+        /**
+         * Returns the symbol of the stock traded.
+         *
+         * @return The symbol.
+         */
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * Returns whether the account bought or sold.
+         *
+         * @return {@link OrderBook#BUY} or {@link OrderBook#SELL}.
+         */
+        public int getSide() {
+            return side;
+        }
+
+        /**
+         * Returns the number of shares traded.
+         *
+         * @return The quantity.
+         */
+        public int getQuantity() {
+            return quantity;
+        }
+
+        /**
+         * Returns the total value of the fill.
+         *
+         * @return The total as a {@link Money} amount.
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return account + (side == OrderBook.BUY ? " bought " : " sold ") + quantity + " " + symbol
+                    + " for $" + Money.format(total);
+        }
+    }
+
+    /**
+     * Fills waiting to be appended together with {@link #append(Block)}, such as those of one order or one batch of
+     * orders, buffered while a stock's trading lock is held. The block grows as needed and is reused once cleared,
+     * so buffering a fill does no I/O, takes no lock and, once the block has grown, allocates nothing.
+     */
+    public static final class Block {
+        private long[] times = new long[16];
+        private String[] accounts = new String[16];
+        private int[] symbolIds = new int[16];
+        private int[] sides = new int[16];
+        private int[] quantities = new int[16];
+        private long[] totals = new long[16];
+        private int size;
+
+        /**
+         * Buffers a fill.
+         *
+         * @param time     When the fill happened, in epoch milliseconds.
+         * @param account  The account that traded.
+         * @param symbolId The interned id of the stock's symbol.
+         * @param side     {@link OrderBook#BUY} or {@link OrderBook#SELL}.
+         * @param quantity The number of shares traded.
+         * @param total    The total value of the fill as a {@link Money} amount.
+         */
+        public void add(long time, String account, int symbolId, int side, int quantity, long total) {
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                accounts = Arrays.copyOf(accounts, capacity);
+                symbolIds = Arrays.copyOf(symbolIds, capacity);
+                sides = Arrays.copyOf(sides, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+                totals = Arrays.copyOf(totals, capacity);
+            }
+            times[size] = time;
+            accounts[size] = account;
+            symbolIds[size] = symbolId;
+            sides[size] = side;
+            quantities[size] = quantity;
+            totals[size] = total;
+            size++;
+        }
+
+        /**
+         * Returns the number of fills buffered.
+         *
+         * @return The fill count.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Empties the block for reuse.
+         */
+        public void clear() {
+            Arrays.fill(accounts, 0, size, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * One page of a query's results.
+     */
+    public static final class Page {
+        private final List<Fill> fills;
+        private final long nextCursor;
+
+        private Page(List<Fill> fills, long nextCursor) {
+            this.fills = fills;
+            this.nextCursor = nextCursor;
+        }
+
+        /**
+         * Returns the page's fills, oldest first.
+         *
+         * @return The fills.
+         */
+        public List<Fill> getFills() {
+            return fills;
+        }
+
+        /**
+         * Returns the cursor to pass to the same query for the next page.
+         *
+         * @return The cursor, or -1 if this is the last page.
+         */
+        public long getNextCursor() {
+            return nextCursor;
+        }
+
+        /**
+         * Returns whether more fills match the query.
+         *
+         * @return true if there is a next page.
+         */
+        public boolean hasMore() {
+            return nextCursor >= 0;
+        }
+    }
+
+    /**
+     * Opens the history in a directory, creating it if it does not exist.
+     *
+     * @param directory The directory holding the history's files.
+     * @throws IOException If the files cannot be opened or read.
+     */
+    public TradeHistory(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        this.accountNames = load(directory.resolve("accounts"), accountNames, accountIds);
+        this.symbolNames = load(directory.resolve("symbols"), symbolNames, symbolIds);
+        this.accountsFile = openAppend(directory.resolve("accounts"));
+        this.symbolsFile = openAppend(directory.resolve("symbols"));
+        this.indexFile = FileChannel.open(directory.resolve("index"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long indexedPages = loadIndex();
+            loadSegments();
+            long start = Math.min(indexedPages * PAGE_RECORDS, size);
+            for (long sequence = start; sequence < size; sequence++) {
+                ByteBuffer segment = segments[(int) (sequence / SEGMENT_RECORDS)];
+                int offset = (int) (sequence % SEGMENT_RECORDS) * RECORD_BYTES;
+                index(sequence, segment.getLong(offset), segment.getInt(offset + 8), segment.getInt(offset + 12));
+            }
+        } catch (IOException e) {
+            closeFiles();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the directory holding the history's files.
+     *
+     * @return The directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the number of fills in the history.
+     *
+     * @return The fill count.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Appends a fill. Times never go backwards in the history: a fill timed before the last one is stored with
+     * the last one's time.
+     *
+     * @param time     When the fill happened, in epoch milliseconds.
+     * @param account  The account that traded.
+     * @param symbolId The interned id of the stock's symbol.
+     * @param side     {@link OrderBook#BUY} or {@link OrderBook#SELL}.
+     * @param quantity The number of shares traded.
+     * @param total    The total value of the fill as a {@link Money} amount.
+     */
+    public synchronized void append(long time, String account, int symbolId, int side, int quantity, long total) {
+        if (!closed) {
+            write(time, account, symbolId, side, quantity, total);
+        }
+    }
+
+    /**
+     * Appends a block of fills in the order they were buffered, taking the store's lock once for the whole block.
+     *
+     * @param block The fills.
+     */
+    public synchronized void append(Block block) {
+        for (int i = 0; i < block.size && !closed; i++) {
+            write(block.times[i], block.accounts[i], block.symbolIds[i], block.sides[i], block.quantities[i],
+                    block.totals[i]);
+        }
+    }
+
+    private void write(long time, String account, int symbolId, int side, int quantity, long total) {
+        try {
+            int accountId = accountId(account);
+            int symbol = symbolId(symbolId);
+            lastTime = Math.max(time, lastTime);
+            long sequence = size;
+            ByteBuffer segment = segment(sequence);
+            int offset = (int) (sequence % SEGMENT_RECORDS) * RECORD_BYTES;
+            segment.putInt(offset + 8, accountId);
+            segment.putInt(offset + 12, symbol);
+            segment.putInt(offset + 16, side);
+            segment.putInt(offset + 20, quantity);
+            segment.putLong(offset + 24, total);
+            // The time goes in last: a record with no time marks the end of the history
+            segment.putLong(offset, lastTime);
+            index(sequence, lastTime, accountId, symbol);
+            size = sequence + 1;
+        } catch (IOException e) {
+            System.err.println("Error writing to trade history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a page of the fills that match a query, oldest first. Pass a cursor of zero for the first page and
+     * each page's {@link Page#getNextCursor() next cursor} for the one after it.
+     *
+     * @param account The account whose fills to return, or null for every account.
+     * @param symbol  The symbol whose fills to return, or null for every symbol.
+     * @param from    The earliest time to return, in epoch milliseconds.
+     * @param to      The latest time to return, in epoch milliseconds.
+     * @param cursor  Where to continue from.
+     * @param limit   The most fills to return.
+     * @return The page.
+     */
+    public Page query(String account, String symbol, long from, long to, long cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + limit);
+        }
+        long end;
+        MappedByteBuffer[] mapped;
+        long[] times;
+        Pages accountPages = null;
+        Pages symbolPages = null;
+        int accountId = -1;
+        int symbolId = -1;
+        String[] accounts;
+        String[] symbols;
+        synchronized (this) {
+            end = size;
+            mapped = segments;
+            times = pageTimes;
+            if (account != null) {
+                Integer id = accountIds.get(account);
+                if (id == null) {
+                    return new Page(Collections.emptyList(), -1);
+                }
+                accountId = id;
+                accountPages = new Pages(postings[id << 1], postingCounts[id << 1]);
+            }
+            if (symbol != null) {
+                Integer id = symbolIds.get(symbol);
+                if (id == null) {
+                    return new Page(Collections.emptyList(), -1);
+                }
+                symbolId = id;
+                symbolPages = new Pages(postings[id << 1 | SYMBOL_KEY], postingCounts[id << 1 | SYMBOL_KEY]);
+            }
+            accounts = accountNames;
+            symbols = symbolNames;
+        }
+        int pageCount = (int) ((end + PAGE_RECORDS - 1) / PAGE_RECORDS);
+        // The first page that can hold the start of the range is the last one to start at or before it
+        int firstPage = Math.max(lastPageStartingBy(times, pageCount, from), 0);
+        firstPage = (int) Math.max(firstPage, Math.max(cursor, 0) / PAGE_RECORDS);
+        int lastPage = lastPageStartingBy(times, pageCount, to);
+
+        Query query = new Query(mapped, end, accounts, symbols, accountId, symbolId, from, to, Math.max(cursor, 0), limit);
+        if (accountPages == null && symbolPages == null) {
+            for (int page = firstPage; page <= lastPage && query.scan(page); page++) {
+            }
+        } else if (accountPages == null || symbolPages == null) {
+            Pages pages = accountPages != null ? accountPages : symbolPages;
+            for (int page = pages.seek(firstPage); page <= lastPage && query.scan(page); page = pages.seek(page + 1)) {
+            }
+        } else {
+            // Walk the shorter list and look each of its pages up in the longer one, skipping ahead in both
+            boolean accountShorter = accountPages.count <= symbolPages.count;
+            Pages shorter = accountShorter ? accountPages : symbolPages;
+            Pages longer = accountShorter ? symbolPages : accountPages;
+            int page = shorter.seek(firstPage);
+            while (page <= lastPage) {
+                int match = longer.seek(page);
+                if (match != page) {
+                    page = shorter.seek(match);
+                } else if (query.scan(page)) {
+                    page = shorter.seek(page + 1);
+                } else {
+                    break;
+                }
+            }
+        }
+        return new Page(query.fills, query.next);
+    }
+
+    /**
+     * Forces the history's records to the storage device.
+     */
+    public synchronized void flush() {
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i].force();
+        }
+        try {
+            indexFile.force(false);
+        } catch (IOException e) {
+            System.err.println("Error syncing trade history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forces the history to disk and closes its files. Fills appended afterwards are dropped.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        closeFiles();
+    }
+
+    /**
+     * The state of one query as it reads pages.
+     */
+    private static final class Query {
+        private final MappedByteBuffer[] segments;
+        private final long end;
+        private final String[] accounts;
+        private final String[] symbols;
+        private final int account;
+        private final int symbol;
+        private final long from;
+        private final long to;
+        private final long cursor;
+        private final int limit;
+        private final List<Fill> fills = new ArrayList<>();
+        private long next = -1;
+
+        private Query(MappedByteBuffer[] segments, long end, String[] accounts, String[] symbols, int account,
+                      int symbol, long from, long to, long cursor, int limit) {
+            this.segments = segments;
+            this.end = end;
+            this.accounts = accounts;
+            this.symbols = symbols;
+            this.account = account;
+            this.symbol = symbol;
+            this.from = from;
+            this.to = to;
+            this.cursor = cursor;
+            this.limit = limit;
+        }
+
+        /**
+         * Reads the matching fills of one page.
+         *
+         * @param page The page.
+         * @return false once the query has a full page and knows where the next one starts, or has passed its range.
+         */
+        private boolean scan(int page) {
+            long first = Math.max((long) page * PAGE_RECORDS, cursor);
+            long last = Math.min((long) (page + 1) * PAGE_RECORDS, end);
+            for (long sequence = first; sequence < last; sequence++) {
+                ByteBuffer segment = segments[(int) (sequence / SEGMENT_RECORDS)];
+                int offset = (int) (sequence % SEGMENT_RECORDS) * RECORD_BYTES;
+                long time = segment.getLong(offset);
+                if (time > to) {
+                    return false;
+                }
+                if (time < from || (account >= 0 && segment.getInt(offset + 8) != account)
+                        || (symbol >= 0 && segment.getInt(offset + 12) != symbol)) {
+                    continue;
+                }
+                if (fills.size() == limit) {
+                    next = sequence;
+                    return false;
+                }
+                fills.add(new Fill(sequence, time, accounts[segment.getInt(offset + 8)],
+                        symbols[segment.getInt(offset + 12)], segment.getInt(offset + 16),
+                        segment.getInt(offset + 20), segment.getLong(offset + 24)));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Finds the last page whose first record is no later than a time.
+     *
+     * @return The page, or -1 if every page starts later.
+     */
+    private static int lastPageStartingBy(long[] times, int pageCount, long time) {
+        int low = 0;
+        int high = pageCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * A query's view of one key's page list as it was when the query started, read forwards. Appends may lengthen
+     * the list's last run while the query reads it, which only adds pages past the end the query has seen.
+     */
+    private static final class Pages {
+        private final int[] entries;
+        private final int count;
+        // The entry the last page found starts its run at
+        private int run;
+
+        private Pages(int[] entries, int count) {
+            this.entries = entries;
+            this.count = count;
+        }
+
+        /**
+         * Finds the first page on the list no smaller than a page, searching from the run of the last one found.
+         *
+         * @param page The page.
+         * @return The page found, or {@link Integer#MAX_VALUE} if the list has none.
+         */
+        private int seek(int page) {
+            int low = run;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int start = entries[middle] < 0 ? middle - 1 : middle;
+                if (lastPage(start) < page) {
+                    low = next(start);
+                } else {
+                    high = start;
+                }
+            }
+            run = low;
+            return low < count ? Math.max(entries[low], page) : Integer.MAX_VALUE;
+        }
+
+        private int lastPage(int start) {
+            return start + 1 < count && entries[start + 1] < 0 ? entries[start] - entries[start + 1] : entries[start];
+        }
+
+        private int next(int start) {
+            return start + 1 < count && entries[start + 1] < 0 ? start + 2 : start + 1;
+        }
+    }
+
+    private int accountId(String account) throws IOException {
+        Integer id = accountIds.get(account);
+        if (id != null) {
+            return id;
+        }
+        accountNames = intern(account, accountNames, accountIds, accountsFile);
+        return accountIds.size() - 1;
+    }
+
+    private int symbolId(int registryId) throws IOException {
+        if (registryId >= registrySymbols.length) {
+            registrySymbols = Arrays.copyOf(registrySymbols, Math.max(registrySymbols.length * 2, registryId + 1));
+        }
+        int id = registrySymbols[registryId] - 1;
+        if (id < 0) {
+            String symbol = SymbolRegistry.getInstance().getSymbol(registryId);
+            Integer known = symbolIds.get(symbol);
+            if (known != null) {
+                id = known;
+            } else {
+                symbolNames = intern(symbol, symbolNames, symbolIds, symbolsFile);
+                id = symbolIds.size() - 1;
+            }
+            registrySymbols[registryId] = id + 1;
+        }
+        return id;
+    }
+
+    /**
+     * Gives a name the next id and appends it to its names file, so that the id means the same after a restart.
+     *
+     * @return The names by id, grown if the new name did not fit.
+     */
+    private static String[] intern(String name, String[] names, Map<String, Integer> ids, FileChannel file) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((name + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            file.write(line);
+        }
+        return add(name, names, ids);
+    }
+
+    private static String[] add(String name, String[] names, Map<String, Integer> ids) {
+        int id = ids.size();
+        // Queries may be reading the array, so a full one is replaced rather than changed
+        String[] grown = id == names.length ? Arrays.copyOf(names, id * 2) : names;
+        grown[id] = name;
+        ids.put(name, id);
+        return grown;
+    }
+
+    /**
+     * Reads a names file, one name per line, giving each the next id.
+     *
+     * @return The names by id.
+     */
+    private static String[] load(Path file, String[] names, Map<String, Integer> ids) throws IOException {
+        if (Files.exists(file)) {
+            for (String name : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                names = add(name, names, ids);
+            }
+        }
+        return names;
+    }
+
+    private static FileChannel openAppend(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Loads the page lists of every finished page from the index file, dropping entries after the last page mark
+     * that a crash left behind.
+     *
+     * @return The number of pages the index holds.
+     */
+    private long loadIndex() throws IOException {
+        long length = indexFile.size() / INDEX_ENTRY_BYTES * INDEX_ENTRY_BYTES;
+        if (length == 0) {
+            indexFile.truncate(0);
+            return 0;
+        }
+        ByteBuffer entries = indexFile.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        long committed = 0;
+        long pages = 0;
+        for (long position = length - INDEX_ENTRY_BYTES; position >= 0; position -= INDEX_ENTRY_BYTES) {
+            if (entries.getInt((int) position) == PAGE_MARK) {
+                committed = position + INDEX_ENTRY_BYTES;
+                pages = entries.getInt((int) position + 4) + 1L;
+                break;
+            }
+        }
+        for (int position = 0; position < committed; position += INDEX_ENTRY_BYTES) {
+            int key = entries.getInt(position);
+            if (key != PAGE_MARK) {
+                post(key, entries.getInt(position + 4));
+            }
+        }
+        indexFile.truncate(committed);
+        indexFile.position(committed);
+        return pages;
+    }
+
+    /**
+     * Maps the segment files and finds the end of the history in the last one.
+     */
+    private void loadSegments() throws IOException {
+        while (Files.exists(segmentPath(segmentCount))) {
+            map(segmentCount);
+        }
+        if (segmentCount == 0) {
+            return;
+        }
+        ByteBuffer last = segments[segmentCount - 1];
+        long low = 0;
+        long high = SEGMENT_RECORDS;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (last.getLong((int) middle * RECORD_BYTES) != 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        size = (segmentCount - 1) * SEGMENT_RECORDS + low;
+        long pages = (size + PAGE_RECORDS - 1) / PAGE_RECORDS;
+        pageTimes = new long[(int) Math.max(pages, 1024)];
+        for (int page = 0; page < pages; page++) {
+            long sequence = (long) page * PAGE_RECORDS;
+            pageTimes[page] = segments[(int) (sequence / SEGMENT_RECORDS)].getLong((int) (sequence % SEGMENT_RECORDS) * RECORD_BYTES);
+        }
+        if (size > 0) {
+            long sequence = size - 1;
+            lastTime = segments[(int) (sequence / SEGMENT_RECORDS)].getLong((int) (sequence % SEGMENT_RECORDS) * RECORD_BYTES);
+        }
+    }
+
+    private ByteBuffer segment(long sequence) throws IOException {
+        int index = (int) (sequence / SEGMENT_RECORDS);
+        if (index == segmentCount) {
+            map(index);
+        }
+        return segments[index];
+    }
+
+    private void map(int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(index), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_RECORDS * RECORD_BYTES);
+            if (index == segments.length) {
+                segments = Arrays.copyOf(segments, segments.length * 2);
+            }
+            segments[index] = segment;
+            segmentCount = index + 1;
+        }
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("segment-%08d", index));
+    }
+
+    /**
+     * Adds a record to the page time index and the page lists of its account and symbol, and writes the page's
+     * lists to the index file once its last record is in.
+     */
+    private void index(long sequence, long time, int accountId, int symbol) {
+        int page = (int) (sequence / PAGE_RECORDS);
+        int record = (int) (sequence % PAGE_RECORDS);
+        if (record == 0) {
+            if (page == pageTimes.length) {
+                pageTimes = Arrays.copyOf(pageTimes, pageTimes.length * 2);
+            }
+            pageTimes[page] = time;
+        }
+        if (post(accountId << 1, page)) {
+            pageKeys[pageKeyCount++] = accountId << 1;
+        }
+        if (post(symbol << 1 | SYMBOL_KEY, page)) {
+            pageKeys[pageKeyCount++] = symbol << 1 | SYMBOL_KEY;
+        }
+        if (record == PAGE_RECORDS - 1) {
+            seal(page);
+        }
+    }
+
+    /**
+     * Adds a page to a key's page list unless it is already the last one there. A page straight after the last one
+     * extends the list's last run in place, so a key with a fill on every page never grows its list.
+     *
+     * @return true if the page was added.
+     */
+    private boolean post(int key, int page) {
+        if (key >= postings.length) {
+            int length = Math.max(postings.length * 2, key + 1);
+            postings = Arrays.copyOf(postings, length);
+            postingCounts = Arrays.copyOf(postingCounts, length);
+            lastPages = Arrays.copyOf(lastPages, length);
+        }
+        if (lastPages[key] == page + 1) {
+            return false;
+        }
+        int[] pages = postings[key];
+        int count = postingCounts[key];
+        // The key's last page is the one before this one
+        boolean follows = count > 0 && lastPages[key] == page;
+        lastPages[key] = page + 1;
+        if (follows && pages[count - 1] < 0) {
+            // Readers that see the run lengthen only find pages past the end they know of
+            pages[count - 1]--;
+            return true;
+        }
+        if (pages == null) {
+            pages = postings[key] = new int[8];
+        } else if (count == pages.length) {
+            // Readers keep the old array, whose first entries stay valid
+            pages = postings[key] = Arrays.copyOf(pages, count * 2);
+        }
+        pages[count] = follows ? -1 : page;
+        postingCounts[key] = count + 1;
+        return true;
+    }
+
+    /**
+     * Appends a finished page's keys to the index file, followed by a mark that commits them.
+     */
+    private void seal(int page) {
+        indexBuffer.clear();
+        for (int i = 0; i < pageKeyCount; i++) {
+            indexBuffer.putInt(pageKeys[i]).putInt(page);
+        }
+        indexBuffer.putInt(PAGE_MARK).putInt(page);
+        indexBuffer.flip();
+        pageKeyCount = 0;
+        try {
+            while (indexBuffer.hasRemaining()) {
+                indexFile.write(indexBuffer);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing trade history index: " + e.getMessage());
+        }
+    }
+
+    private void closeFiles() {
+        try {
+            accountsFile.close();
+            symbolsFile.close();
+            indexFile.close();
+        } catch (IOException e) {
+            System.err.println("Error closing trade history: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package stock.market.simulator;
+
+/**
+ * Receives notifications when shares of a {@link Stock} trade.
+ */
+public interface TradeListener {
+
+    /**
+     * Called once for every fill of an order for the stock, with the stock's trading lock held.
+     *
+     * @param stock    The stock that traded.
+     * @param side     The side of the incoming order ({@link OrderBook#BUY} or {@link OrderBook#SELL}).
+     * @param price    The trade price as a {@link Money} amount.
+     * @param quantity The number of shares traded.
+     */
+    void onTrade(Stock stock, int side, long price, int quantity);
+}
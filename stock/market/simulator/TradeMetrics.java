@@ -0,0 +1,77 @@
+package stock.market.simulator;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The latency histograms of the simulator's hot paths, one per operation.
+ * <p>
+ * Each histogram is registered with the platform MBean server under
+ * {@code stock.market.simulator:type=Latency,name=<operation>}, so a JMX console such as JConsole can watch
+ * throughput and tail latencies while the simulator runs, and the console's stats command prints them all.
+ */
+public final class TradeMetrics {
+    /** Latency of matching a buy order under its stock's trading lock, however the order runs. */
+    public static final LatencyHistogram BUY = new LatencyHistogram("buy");
+    /** Latency of matching a sell order under its stock's trading lock, however the order runs. */
+    public static final LatencyHistogram SELL = new LatencyHistogram("sell");
+    /** Latency of an order run by an {@link OrderExecutor}, from submission until its result is ready for its submitter. */
+    public static final LatencyHistogram ORDER = new LatencyHistogram("order");
+    /** Latency of journaling a transaction or a block of them. */
+    public static final LatencyHistogram WRITE_TRANSACTION = new LatencyHistogram("writeTransaction");
+    /** Latency of {@link FileManager#userExists(String)}. */
+    public static final LatencyHistogram USER_EXISTS = new LatencyHistogram("userExists");
+
+    private static final List<LatencyHistogram> ALL = List.of(BUY, SELL, ORDER, WRITE_TRANSACTION, USER_EXISTS);
+
+    static {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (LatencyHistogram histogram : ALL) {
+            try {
+                ObjectName name = new ObjectName("stock.market.simulator:type=Latency,name=" + histogram.getName());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(histogram, name);
+                }
+            } catch (JMException e) {
+                System.err.println("Error registering latency metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    private TradeMetrics() {
+    }
+
+    /**
+     * Returns every histogram.
+     *
+     * @return The histograms, in the order they are reported.
+     */
+    public static List<LatencyHistogram> getHistograms() {
+        return ALL;
+    }
+
+    /**
+     * Prints a table of every operation's count, throughput and latency percentiles.
+     *
+     * @param out The stream to print to.
+     */
+    public static void report(PrintStream out) {
+        LatencyHistogram.reportHeader(out);
+        for (LatencyHistogram histogram : ALL) {
+            histogram.report(out);
+        }
+    }
+
+    /**
+     * Clears every histogram.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : ALL) {
+            histogram.reset();
+        }
+    }
+}
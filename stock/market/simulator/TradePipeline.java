@@ -0,0 +1,283 @@
+package stock.market.simulator;
+
+import java.io.PrintStream;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Runs buy and sell orders through a chain of stages, each on its own thread: decode, risk check, execute, journal
+ * and complete. Results are written to each submitter's stream by the submitter itself, when it awaits its order.
+ * <p>
+ * Orders are written into a preallocated {@link OrderRing} of slots and move through the stages in submission order without
+ * being copied or queued: each stage follows the one before it around the ring and handles every slot its
+ * predecessor has finished since its last pass, so under load the stages work in batches and only wake each other
+ * once per batch. Slow disk writes hold up the journal stage alone, while the execute stage keeps matching, and
+ * since no stage writes to a session's stream, a client that reads slowly or not at all holds up only its own
+ * session. The execute stage does no I/O and allocates nothing: it matches the order under
+ * the stock's trading lock and buffers its fills, and those of the resting orders it filled, in the slot's own
+ * blocks, which the journal stage writes to the transactions log and the trade history. Each slot reuses its own
+ * buy and sell, and results are printed without building strings, so an order that fills passes through every
+ * stage without allocating.
+ * <p>
+ * The risk stage reserves each buy's cash from the account as it accepts the order, with a compare-and-set on the
+ * balance, so buys waiting to execute can never count on the same cash; execution spends the reservation, and an
+ * order rejected at execution gets it back.
+ * <p>
+ * Any number of threads can submit orders. A submitter waits only if the ring is full, and then waits for its order
+ * with {@link #await(long)}, which writes the order's result to its stream.
+ */
+public class TradePipeline implements OrderExecutor {
+    private static final int DEFAULT_SLOTS = 1 << 10;
+
+    private final FileManager fileManager;
+    private final OrderRing<Slot> ring;
+    private final Stage decoder;
+    private final Stage checker;
+    private final Stage executor;
+    private final Stage journaler;
+    private final Stage reporter;
+    private volatile boolean closed;
+    private long checked;
+
+    /**
+     * One order on its way through the pipeline, with what the execute stage hands the journal stage and what the
+     * risk stage remembers about the orders it admitted.
+     */
+    private static final class Slot extends OrderSlot {
+        // Written by the execute stage
+        private final StringBuilder records = new StringBuilder(256);
+        private final TradeHistory.Block fills = new TradeHistory.Block();
+        // Written and read by the risk stage only: what it admitted, for checking the orders behind this one
+        private Account admittedAccount;
+        private Stock admittedStock;
+        private int admittedSide;
+        private int admittedShares;
+
+        private Slot(FileManager fileManager) {
+            super(fileManager);
+        }
+    }
+
+    /**
+     * A thread that handles every slot the stage before it has finished.
+     */
+    private final class Stage implements Runnable {
+        private final Consumer<Slot> handler;
+        private final Stage upstream;
+        private final Thread thread;
+        private Stage downstream;
+        private volatile long progress;
+        private volatile boolean finished;
+
+        private Stage(String name, Consumer<Slot> handler, Stage upstream) {
+            this.handler = handler;
+            this.upstream = upstream;
+            this.thread = new Thread(this, "trade-pipeline-" + name);
+            thread.setDaemon(true);
+            if (upstream != null) {
+                upstream.downstream = this;
+            }
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            while (true) {
+                // Read whether the upstream is done before how far it got, so nothing it finished last is missed
+                boolean upstreamDone = upstream == null ? closed : upstream.finished;
+                long available = upstream == null ? ring.publishedUpTo(next) : upstream.progress;
+                if (available == next) {
+                    if (upstreamDone && (upstream != null || ring.drained(next))) {
+                        break;
+                    }
+                    LockSupport.parkNanos(OrderRing.IDLE_PARK_NANOS);
+                    continue;
+                }
+                for (; next < available; next++) {
+                    Slot slot = ring.get(next);
+                    try {
+                        handler.accept(slot);
+                    } catch (RuntimeException e) {
+                        System.err.println("Error processing order: " + e.getMessage());
+                        slot.rejection = "Sorry, the order could not be processed.";
+                    }
+                    progress = next + 1;
+                }
+                if (downstream != null) {
+                    LockSupport.unpark(downstream.thread);
+                }
+            }
+            finished = true;
+            if (downstream != null) {
+                LockSupport.unpark(downstream.thread);
+            } else {
+                ring.finish();
+            }
+        }
+    }
+
+    /**
+     * Starts a pipeline with the default ring size.
+     *
+     * @param fileManager The file manager to journal executed orders to.
+     */
+    public TradePipeline(FileManager fileManager) {
+        this(fileManager, DEFAULT_SLOTS);
+    }
+
+    /**
+     * Starts a pipeline.
+     *
+     * @param fileManager The file manager to journal executed orders to.
+     * @param slots       The number of orders the ring holds; must be a power of two.
+     */
+    public TradePipeline(FileManager fileManager, int slots) {
+        this.fileManager = fileManager;
+        this.ring = new OrderRing<>(slots, fileManager, Slot::new);
+        decoder = new Stage("decode", this::decode, null);
+        checker = new Stage("risk", this::check, decoder);
+        executor = new Stage("execute", this::execute, checker);
+        journaler = new Stage("journal", this::journal, executor);
+        reporter = new Stage("complete", slot -> ring.completeNext(), journaler);
+        ring.setConsumer(decoder.thread);
+        for (Stage stage : new Stage[]{decoder, checker, executor, journaler, reporter}) {
+            stage.thread.start();
+        }
+    }
+
+    /**
+     * Submits an order as the user typed it. The result, or the reason the order was rejected, is printed to the
+     * given stream by {@link #await(long)} once the order has been executed and journaled.
+     *
+     * @param account  The account trading.
+     * @param side     {@link OrderBook#BUY} or {@link OrderBook#SELL}.
+     * @param symbol   The stock symbol, as typed.
+     * @param quantity The number of shares, as typed.
+     * @param out      The stream to print the result to.
+     * @return The order's sequence number, to wait for with {@link #await(long)}.
+     */
+    @Override
+    public long submit(Account account, int side, String symbol, String quantity, PrintStream out) {
+        if (closed) {
+            throw new IllegalStateException("Trade pipeline is closed");
+        }
+        return ring.submit(account, side, symbol, null, quantity, out);
+    }
+
+    /**
+     * Waits until an order is complete and prints its result on the calling thread.
+     *
+     * @param sequence The sequence number {@link #submit} returned.
+     */
+    @Override
+    public void await(long sequence) {
+        ring.await(sequence);
+    }
+
+    /**
+     * Stops accepting orders and waits for every submitted order to be complete. Orders must not be submitted
+     * while the pipeline is closing.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Stage stage : new Stage[]{decoder, checker, executor, journaler, reporter}) {
+            LockSupport.unpark(stage.thread);
+            try {
+                stage.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void decode(Slot slot) {
+        slot.stock = SymbolRegistry.getInstance().getStock(slot.symbol.trim());
+        slot.decode();
+    }
+
+    // Rejects orders the account or the market plainly cannot fill before they reach execution, which checks
+    // again under the stock's trading lock, and reserves the cash of the buys it accepts
+    private void check(Slot slot) {
+        long sequence = checked++;
+        slot.admittedShares = 0;
+        if (slot.rejection != null) {
+            return;
+        }
+        if (slot.shares <= 0 || available(slot, sequence) < slot.shares) {
+            slot.rejectQuantity();
+            return;
+        }
+        AbstractTransaction order = slot.prepare();
+        if (!order.reserveAhead(slot.stock.getPriceTicks()) && !saleAhead(slot, sequence)) {
+            slot.rejection = "Sorry, not enough cash.";
+            return;
+        }
+        slot.admittedAccount = slot.account;
+        slot.admittedStock = slot.stock;
+        slot.admittedSide = slot.side;
+        slot.admittedShares = slot.shares;
+    }
+
+    // Returns the shares a buy can take from the market or a sell can take from the account, counting those that
+    // admitted orders ahead of it but not yet executed may add. Orders that execute during the check are counted
+    // twice, which can only admit an order that execution then rejects.
+    private long available(Slot slot, long sequence) {
+        long executed = executor.progress;
+        long available = slot.side == OrderBook.BUY ? slot.stock.getSharesLeft()
+                : slot.account.getStockQuantity(slot.stock.getSymbolId());
+        for (long ahead = executed; ahead < sequence; ahead++) {
+            Slot order = ring.get(ahead);
+            if (order.admittedShares > 0 && order.admittedStock == slot.stock && order.admittedSide != slot.side
+                    && (slot.side == OrderBook.BUY || order.admittedAccount.equals(slot.account))) {
+                available += order.admittedShares;
+            }
+        }
+        return available;
+    }
+
+    // Returns whether a sale the account has ahead of an unreserved buy may yet pay for it, in which case the buy is
+    // left for execution to reserve
+    private boolean saleAhead(Slot slot, long sequence) {
+        for (long ahead = executor.progress; ahead < sequence; ahead++) {
+            Slot order = ring.get(ahead);
+            if (order.admittedShares > 0 && order.admittedSide == OrderBook.SELL
+                    && order.admittedAccount.equals(slot.account)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void execute(Slot slot) {
+        if (slot.rejection != null) {
+            return;
+        }
+        slot.records.setLength(0);
+        slot.fills.clear();
+        slot.order.journalTo(slot.records, slot.fills);
+        slot.status = slot.order.matchUnderLock();
+    }
+
+    private void journal(Slot slot) {
+        AbstractTransaction order = slot.order;
+        if (slot.rejection != null || order == null) {
+            return;
+        }
+        try {
+            if (slot.status == AbstractTransaction.EXECUTED) {
+                order.journalFills();
+            }
+        } finally {
+            order.journalTo(null, null);
+        }
+        if (slot.records.length() > 0) {
+            fileManager.writeTransactions(slot.records);
+        }
+        fileManager.recordFills(slot.fills);
+    }
+}
@@ -0,0 +1,395 @@
+package stock.market.simulator;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An append-only transaction log written by a dedicated thread with group commit.
+ * <p>
+ * Callers encode a record straight into a preallocated ring of fixed-size slots and return; they only wait if the
+ * ring is full. The writer thread drains every record published since its last pass into one buffer, appends it
+ * to a {@link SegmentedLog} with a single write, and then forces the log to disk according to the configured
+ * {@link Durability}. Under load many records therefore share one write and one sync, and since the log only rolls
+ * over between writes, a segment always ends with a whole record.
+ */
+public class TransactionJournal implements AutoCloseable {
+
+    /**
+     * How often the journal forces written records to the storage device.
+     */
+    public enum Durability {
+        /** Never sync; records reach the disk whenever the operating system flushes its cache. */
+        NONE,
+        /** Sync at most once per sync interval. */
+        PERIODIC,
+        /** Sync after every group of records, before they count as written. */
+        BATCH
+    }
+
+    private static final int SLOT_SIZE = 128;
+    private static final int HEADER_SIZE = 4;
+    private static final int DEFAULT_SLOTS = 1 << 14;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final ThreadLocal<StringBuilder> LINE = ThreadLocal.withInitial(() -> new StringBuilder(SLOT_SIZE));
+
+    private final byte[] ring;
+    private final long[] published;
+    private final int slots;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private final SegmentedLog log;
+    private final ByteBuffer batch;
+    private final Durability durability;
+    private final long syncIntervalNanos;
+    private final Thread writer;
+    private final Thread shutdownHook;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private long lastSync = System.nanoTime();
+
+    /**
+     * Opens a journal with the default ring size that syncs at most once a second in {@link Durability#PERIODIC} mode.
+     *
+     * @param log        The log to append to.
+     * @param durability When written records are forced to disk.
+     */
+    public TransactionJournal(SegmentedLog log, Durability durability) {
+        this(log, durability, TimeUnit.SECONDS.toNanos(1), DEFAULT_SLOTS);
+    }
+
+    /**
+     * Opens a journal.
+     *
+     * @param log               The log to append to.
+     * @param durability        When written records are forced to disk.
+     * @param syncIntervalNanos The minimum time between syncs in {@link Durability#PERIODIC} mode.
+     * @param slots             The number of record slots in the ring; must be a power of two.
+     */
+    public TransactionJournal(SegmentedLog log, Durability durability, long syncIntervalNanos, int slots) {
+        if (Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("Slot count must be a power of two: " + slots);
+        }
+        this.slots = slots;
+        this.ring = new byte[slots * SLOT_SIZE];
+        this.published = new long[slots];
+        for (int i = 0; i < slots; i++) {
+            published[i] = -1;
+        }
+        this.batch = ByteBuffer.allocateDirect(ring.length);
+        this.durability = durability;
+        this.syncIntervalNanos = syncIntervalNanos;
+        this.log = log;
+        this.writer = new Thread(this::drain, "transaction-journal");
+        writer.setDaemon(true);
+        writer.start();
+        this.shutdownHook = new Thread(this::flushOnShutdown, "transaction-journal-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Appends a trade record in the transactions file format: {@code username, action, quantity, symbol}.
+     *
+     * @param username The user who traded.
+     * @param action   The action taken (e.g., "bought" or "sold").
+     * @param quantity The number of shares traded.
+     * @param symbol   The stock symbol.
+     */
+    public void append(String username, String action, int quantity, String symbol) {
+        StringBuilder line = LINE.get();
+        line.setLength(0);
+        line.append(username).append(", ").append(action).append(", ").append(quantity).append(".00, ")
+                .append(symbol).append(System.lineSeparator());
+        append(line);
+    }
+
+    /**
+     * Appends a trade record that also carries what recovery needs to rebuild state from the journal:
+     * {@code username, action, quantity, symbol, total, marketQuantity}. The total is written exactly and the
+     * market quantity is the part of the trade done against the stock's own shares rather than another order.
+     *
+     * @param username       The user who traded.
+     * @param action         The action taken (e.g., "bought" or "sold").
+     * @param quantity       The number of shares traded.
+     * @param symbol         The stock symbol.
+     * @param total          The total value of the trade as a {@link Money} amount.
+     * @param marketQuantity The number of those shares traded with the market.
+     */
+    public void append(String username, String action, int quantity, String symbol, long total, int marketQuantity) {
+        StringBuilder line = LINE.get();
+        line.setLength(0);
+        append(line, username, action, quantity, symbol, total, marketQuantity);
+        append(line);
+    }
+
+    /**
+     * Formats a trade record like {@link #append(String, String, int, String, long, int)} into a builder, so that
+     * several records can be collected and appended to the journal as one block.
+     *
+     * @param out            The builder to append the record to.
+     * @param username       The user who traded.
+     * @param action         The action taken (e.g., "bought" or "sold").
+     * @param quantity       The number of shares traded.
+     * @param symbol         The stock symbol.
+     * @param total          The total value of the trade as a {@link Money} amount.
+     * @param marketQuantity The number of those shares traded with the market.
+     * @return The builder.
+     */
+    public static StringBuilder append(StringBuilder out, String username, String action, int quantity, String symbol,
+                                       long total, int marketQuantity) {
+        out.append(username).append(", ").append(action).append(", ").append(quantity).append(".00, ")
+                .append(symbol).append(", ");
+        return Money.appendExact(out, total).append(", ").append(marketQuantity).append(System.lineSeparator());
+    }
+
+    /**
+     * Returns the length in bytes of the longest record or block the journal accepts.
+     *
+     * @return The maximum record length.
+     */
+    public int getMaxRecordLength() {
+        return slots * SLOT_SIZE - HEADER_SIZE;
+    }
+
+    /**
+     * Appends one record. The text is encoded as UTF-8 directly into the ring, so the caller may reuse it
+     * as soon as this method returns.
+     *
+     * @param record The record text, including its line terminator.
+     */
+    public void append(CharSequence record) {
+        checkOpen();
+        int length = utf8Length(record);
+        int recordSlots = (HEADER_SIZE + length + SLOT_SIZE - 1) / SLOT_SIZE;
+        if (recordSlots > slots) {
+            throw new IllegalArgumentException("Record of " + length + " bytes does not fit in the journal");
+        }
+        long sequence = claimed.getAndAdd(recordSlots);
+        if (sequence + recordSlots - consumed > slots) {
+            // The ring is full; wake the writer and give up the processor until it catches up
+            LockSupport.unpark(writer);
+            while (sequence + recordSlots - consumed > slots) {
+                if (!writer.isAlive()) {
+                    checkOpen();
+                }
+                Thread.yield();
+            }
+        }
+        int offset = (int) (sequence & (slots - 1)) * SLOT_SIZE;
+        if (closed || failure != null) {
+            // The journal was closed after the check above, and the writer may already be waiting for this
+            // sequence; publish it as a skipped record so the writer can finish without it
+            putInt(offset, -length);
+            PUBLISHED.setRelease(published, (int) (sequence & (slots - 1)), sequence);
+            checkOpen();
+        }
+        putInt(offset, length);
+        encode(record, offset + HEADER_SIZE);
+        PUBLISHED.setRelease(published, (int) (sequence & (slots - 1)), sequence);
+    }
+
+    /**
+     * Waits until every record appended before this call has been written to the log
+     * (and synced, in {@link Durability#BATCH} mode).
+     *
+     * @throws IllegalStateException If the journal stopped because the log could not be written.
+     */
+    public void flush() {
+        long target = claimed.get();
+        while (consumed < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        if (consumed < target && failure != null) {
+            throw new IllegalStateException("Journal stopped: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * Returns the durability mode of the journal.
+     *
+     * @return The durability mode.
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Writes all pending records, syncs the log and closes it.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down
+        }
+    }
+
+    private void checkOpen() {
+        IOException cause = failure;
+        if (cause != null) {
+            throw new IllegalStateException("Journal stopped: " + cause.getMessage(), cause);
+        }
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+    }
+
+    // Runs if the JVM exits before the journal is closed. The journal is left open, since whatever closes it, such as
+    // a server's own shutdown hook, may still be appending records
+    private void flushOnShutdown() {
+        try {
+            flush();
+        } catch (IllegalStateException e) {
+            return;
+        }
+        try {
+            log.force();
+        } catch (IOException e) {
+            System.err.println("Error syncing transactions file: " + e.getMessage());
+        }
+    }
+
+    private void drain() {
+        long next = 0;
+        while (!closed || next < claimed.get()) {
+            batch.clear();
+            long end = next;
+            while (batch.remaining() >= SLOT_SIZE) {
+                int index = (int) (end & (slots - 1));
+                if ((long) PUBLISHED.getAcquire(published, index) != end) {
+                    break;
+                }
+                int offset = index * SLOT_SIZE;
+                int length = getInt(offset);
+                if (length < 0) {
+                    // Claimed by an append that found the journal closed
+                    end += (HEADER_SIZE - length + SLOT_SIZE - 1) / SLOT_SIZE;
+                    continue;
+                }
+                int recordSlots = (HEADER_SIZE + length + SLOT_SIZE - 1) / SLOT_SIZE;
+                if (batch.remaining() < length) {
+                    break;
+                }
+                copyOut(offset + HEADER_SIZE, length);
+                end += recordSlots;
+            }
+            if (end == next) {
+                try {
+                    syncIfDue(false);
+                } catch (IOException e) {
+                    System.err.println("Error syncing transactions file: " + e.getMessage());
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            batch.flip();
+            try {
+                if (batch.hasRemaining()) {
+                    log.write(batch);
+                }
+                syncIfDue(durability == Durability.BATCH);
+            } catch (IOException e) {
+                // The log may now end part way through the batch, so nothing more can be appended after it; stop,
+                // leaving the batch unconsumed, and fail every later append and flush
+                System.err.println("Error writing to transactions file: " + e.getMessage());
+                failure = e;
+                break;
+            }
+            next = end;
+            consumed = end;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Error closing transactions file: " + e.getMessage());
+        }
+    }
+
+    private void syncIfDue(boolean always) throws IOException {
+        if (durability == Durability.NONE) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (always || (durability == Durability.PERIODIC && now - lastSync >= syncIntervalNanos)) {
+            lastSync = now;
+            log.force();
+        }
+    }
+
+    private void copyOut(int offset, int length) {
+        int first = Math.min(length, ring.length - offset);
+        batch.put(ring, offset, first);
+        if (first < length) {
+            batch.put(ring, 0, length - first);
+        }
+    }
+
+    private void putInt(int offset, int value) {
+        ring[offset] = (byte) (value >>> 24);
+        ring[offset + 1] = (byte) (value >>> 16);
+        ring[offset + 2] = (byte) (value >>> 8);
+        ring[offset + 3] = (byte) value;
+    }
+
+    private int getInt(int offset) {
+        return (ring[offset] & 0xFF) << 24 | (ring[offset + 1] & 0xFF) << 16
+                | (ring[offset + 2] & 0xFF) << 8 | (ring[offset + 3] & 0xFF);
+    }
+
+    private void encode(CharSequence text, int offset) {
+        int mask = ring.length - 1;
+        int position = offset;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                ring[position++ & mask] = (byte) c;
+            } else if (c < 0x800) {
+                ring[position++ & mask] = (byte) (0xC0 | c >> 6);
+                ring[position++ & mask] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                ring[position++ & mask] = (byte) (0xF0 | codePoint >> 18);
+                ring[position++ & mask] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                ring[position++ & mask] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                ring[position++ & mask] = (byte) (0x80 | codePoint & 0x3F);
+            } else {
+                ring[position++ & mask] = (byte) (0xE0 | c >> 12);
+                ring[position++ & mask] = (byte) (0x80 | c >> 6 & 0x3F);
+                ring[position++ & mask] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
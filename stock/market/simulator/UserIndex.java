@@ -0,0 +1,259 @@
+package stock.market.simulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An in-memory set of usernames built for very large user bases.
+ * <p>
+ * Names are stored once as length-prefixed UTF-8 bytes in a paged byte arena, and an open-addressing table
+ * holds only an int arena offset and the name's hash per entry. Ten million typical usernames therefore take
+ * a few hundred megabytes instead of the gigabytes a {@code HashSet<String>} would, and a lookup costs one
+ * hash plus, normally, one byte comparison. Lookups and insertions take the index's lock.
+ */
+public class UserIndex {
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int MAX_NAME_BYTES = 0xFFFF;
+    private static final int EMPTY = -1;
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[64]);
+
+    private byte[][] pages = new byte[1][];
+    private int arenaSize;
+    private int[] offsets;
+    private int[] hashes;
+    private int size;
+    private int encodedLength;
+
+    /**
+     * Constructs an empty index.
+     */
+    public UserIndex() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty index sized for an expected number of users.
+     *
+     * @param expectedUsers The number of users the index should hold without resizing.
+     */
+    public UserIndex(int expectedUsers) {
+        int capacity = Integer.highestOneBit(Math.max(16, Math.min(expectedUsers, 1 << 28)) * 2 - 1) << 1;
+        offsets = new int[capacity];
+        hashes = new int[capacity];
+        Arrays.fill(offsets, EMPTY);
+        pages[0] = new byte[PAGE_SIZE];
+    }
+
+    /**
+     * Builds an index from a file with one username per line, trimming surrounding whitespace.
+     *
+     * @param file The accounts file.
+     * @return The loaded index.
+     * @throws IOException If the file cannot be read.
+     */
+    public static UserIndex load(Path file) throws IOException {
+        UserIndex index = new UserIndex((int) Math.min(1 << 28, Files.size(file) / 8));
+        index.addAll(file);
+        return index;
+    }
+
+    private void addAll(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String username = line.trim();
+                if (!username.isEmpty()) {
+                    add(username);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds an index from files with one username per line, such as the segments of the accounts log, read in
+     * order.
+     *
+     * @param files The files.
+     * @return The loaded index.
+     * @throws IOException If a file cannot be read.
+     */
+    public static UserIndex load(List<Path> files) throws IOException {
+        long size = 0;
+        for (Path file : files) {
+            size += Files.size(file);
+        }
+        UserIndex index = new UserIndex((int) Math.min(1 << 28, size / 8));
+        for (Path file : files) {
+            index.addAll(file);
+        }
+        return index;
+    }
+
+    /**
+     * Checks whether a username is in the index.
+     *
+     * @param username The username.
+     * @return true if the username has been added.
+     */
+    public synchronized boolean contains(String username) {
+        byte[] name = encode(username);
+        int length = encodedLength;
+        return find(name, length, hash(name, length)) != EMPTY;
+    }
+
+    /**
+     * Adds a username to the index.
+     *
+     * @param username The username.
+     * @return true if the username was added, false if it was already present.
+     */
+    public synchronized boolean add(String username) {
+        byte[] name = encode(username);
+        int length = encodedLength;
+        if (length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Username is too long");
+        }
+        int hash = hash(name, length);
+        if (find(name, length, hash) != EMPTY) {
+            return false;
+        }
+        if ((size + 1) * 2 > offsets.length) {
+            rehash(offsets.length * 2);
+        }
+        int offset = store(name, length);
+        insert(offsets, hashes, offset, hash);
+        size++;
+        return true;
+    }
+
+    /**
+     * Checks whether a username is short enough to be added to the index.
+     *
+     * @param username The username.
+     * @return true if {@link #add(String)} would accept the username.
+     */
+    public synchronized boolean fits(String username) {
+        encode(username);
+        return encodedLength <= MAX_NAME_BYTES;
+    }
+
+    /**
+     * Returns the number of usernames in the index.
+     *
+     * @return The number of usernames.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    // Encodes into this thread's scratch buffer and leaves the byte count in encodedLength
+    private byte[] encode(String username) {
+        byte[] buffer = SCRATCH.get();
+        int maxLength = username.length() * 3;
+        if (buffer.length < maxLength) {
+            buffer = new byte[maxLength];
+            SCRATCH.set(buffer);
+        }
+        int length = 0;
+        for (int i = 0; i < username.length(); i++) {
+            char c = username.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | c >> 6);
+                buffer[length++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < username.length() && Character.isLowSurrogate(username.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, username.charAt(++i));
+                buffer[length++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[length++] = (byte) (0x80 | codePoint & 0x3F);
+            } else {
+                buffer[length++] = (byte) (0xE0 | c >> 12);
+                buffer[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        encodedLength = length;
+        return buffer;
+    }
+
+    private int find(byte[] name, int length, int hash) {
+        int mask = offsets.length - 1;
+        for (int slot = hash & mask; offsets[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && matches(offsets[slot], name, length)) {
+                return slot;
+            }
+        }
+        return EMPTY;
+    }
+
+    private boolean matches(int offset, byte[] name, int length) {
+        byte[] page = pages[offset >>> PAGE_BITS];
+        int position = offset & (PAGE_SIZE - 1);
+        if (((page[position] & 0xFF) << 8 | (page[position + 1] & 0xFF)) != length) {
+            return false;
+        }
+        return Arrays.equals(page, position + 2, position + 2 + length, name, 0, length);
+    }
+
+    // Names never straddle a page, so a match is a single range comparison
+    private int store(byte[] name, int length) {
+        int position = arenaSize & (PAGE_SIZE - 1);
+        if (position + 2 + length > PAGE_SIZE) {
+            arenaSize += PAGE_SIZE - position;
+            position = 0;
+        }
+        int pageIndex = arenaSize >>> PAGE_BITS;
+        if (pageIndex == pages.length) {
+            pages = Arrays.copyOf(pages, pages.length * 2);
+        }
+        if (pages[pageIndex] == null) {
+            pages[pageIndex] = new byte[PAGE_SIZE];
+        }
+        byte[] page = pages[pageIndex];
+        page[position] = (byte) (length >>> 8);
+        page[position + 1] = (byte) length;
+        System.arraycopy(name, 0, page, position + 2, length);
+        int offset = arenaSize;
+        arenaSize += 2 + length;
+        return offset;
+    }
+
+    private void rehash(int capacity) {
+        int[] newOffsets = new int[capacity];
+        int[] newHashes = new int[capacity];
+        Arrays.fill(newOffsets, EMPTY);
+        for (int slot = 0; slot < offsets.length; slot++) {
+            if (offsets[slot] != EMPTY) {
+                insert(newOffsets, newHashes, offsets[slot], hashes[slot]);
+            }
+        }
+        offsets = newOffsets;
+        hashes = newHashes;
+    }
+
+    private static void insert(int[] offsets, int[] hashes, int offset, int hash) {
+        int mask = offsets.length - 1;
+        int slot = hash & mask;
+        while (offsets[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        offsets[slot] = offset;
+        hashes[slot] = hash;
+    }
+
+    private static int hash(byte[] name, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ name[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,182 @@
+package stock.market.simulator.console;
+
+import stock.market.simulator.Account;
+import stock.market.simulator.FileManager;
+import stock.market.simulator.FileNotFoundException;
+import stock.market.simulator.Money;
+import stock.market.simulator.OrderBook;
+import stock.market.simulator.OrderExecutor;
+import stock.market.simulator.Stock;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A non-interactive session for programs rather than people: one command per line in, one response per line out.
+ * <p>
+ * The commands are:
+ * <ul>
+ *     <li>{@code REGISTER name} and {@code LOGIN name}, which answer {@code OK} or {@code ERR reason};</li>
+ *     <li>{@code BUY symbol quantity} and {@code SELL symbol quantity}, which run a market order through the shared
+ *     {@link OrderExecutor} and answer {@code OK} with the order's report, such as
+ *     {@code OK The total comes to: $366.03}, or {@code ERR} with the reason it was rejected;</li>
+ *     <li>{@code PORTFOLIO}, which answers {@code OK cash=12.34 AAPL=3 ...};</li>
+ *     <li>{@code QUIT}, which answers {@code OK} and ends the session.</li>
+ * </ul>
+ * Every command gets exactly one line back, in order, so a client may send several commands before reading their
+ * responses. Orders are the same orders an interactive session places, so a load test through this protocol
+ * measures the trading path users see.
+ */
+public class CommandSession {
+    private final FileManager fileManager;
+    private final Map<String, Account> accounts;
+    private final OrderExecutor executor;
+    private final BufferedReader in;
+    private final PrintStream out;
+    private final ByteArrayOutputStream report = new ByteArrayOutputStream(128);
+    private final PrintStream reportOut = new PrintStream(report, true, StandardCharsets.UTF_8);
+    private final StringBuilder line = new StringBuilder(128);
+    private Account account;
+
+    /**
+     * Constructs a session that shares its file manager, accounts and order executor with other sessions.
+     *
+     * @param fileManager The shared file manager.
+     * @param accounts    The shared map of logged-in accounts by username.
+     * @param executor    The shared executor the session's orders run through.
+     * @param in          The stream to read commands from.
+     * @param out         The stream to write responses to.
+     */
+    public CommandSession(FileManager fileManager, Map<String, Account> accounts, OrderExecutor executor,
+                          InputStream in, PrintStream out) {
+        this.fileManager = fileManager;
+        this.accounts = accounts;
+        this.executor = executor;
+        this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        this.out = out;
+        StockSimulatorConsole.initializeStocks();
+    }
+
+    /**
+     * Answers commands until the client sends {@code QUIT} or closes its end.
+     *
+     * @throws IOException If the commands cannot be read.
+     */
+    public void run() throws IOException {
+        String command;
+        while ((command = in.readLine()) != null) {
+            if (!execute(command.trim())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs one command and writes its response.
+     *
+     * @param command The command line.
+     * @return false if the command ends the session.
+     */
+    private boolean execute(String command) {
+        int space = command.indexOf(' ');
+        String verb = space < 0 ? command : command.substring(0, space);
+        String arguments = space < 0 ? "" : command.substring(space + 1).trim();
+        switch (verb.toUpperCase()) {
+            case "REGISTER":
+                register(arguments);
+                break;
+            case "LOGIN":
+                login(arguments);
+                break;
+            case "BUY":
+                trade(OrderBook.BUY, arguments);
+                break;
+            case "SELL":
+                trade(OrderBook.SELL, arguments);
+                break;
+            case "PORTFOLIO":
+                portfolio();
+                break;
+            case "QUIT":
+                out.println("OK");
+                return false;
+            default:
+                out.println("ERR unknown command " + verb);
+                break;
+        }
+        return true;
+    }
+
+    private void register(String username) {
+        if (username.isEmpty()) {
+            out.println("ERR usage: REGISTER name");
+            return;
+        }
+        try {
+            if (fileManager.userExists(username) || !fileManager.registerUser(username)) {
+                out.println("ERR username already exists");
+            } else {
+                out.println("OK");
+            }
+        } catch (IOException | FileNotFoundException e) {
+            out.println("ERR " + e.getMessage());
+        }
+    }
+
+    private void login(String username) {
+        if (username.isEmpty()) {
+            out.println("ERR usage: LOGIN name");
+            return;
+        }
+        try {
+            if (!fileManager.userExists(username)) {
+                out.println("ERR username not found");
+                return;
+            }
+        } catch (IOException e) {
+            out.println("ERR " + e.getMessage());
+            return;
+        }
+        account = accounts.computeIfAbsent(username, name -> new Account(name, StockSimulatorConsole.INITIAL_CASH));
+        out.println("OK");
+    }
+
+    /**
+     * Runs a market order through the executor and answers with its report. Orders that fill report their total;
+     * any other report is a rejection.
+     */
+    private void trade(int side, String arguments) {
+        if (account == null) {
+            out.println("ERR not logged in");
+            return;
+        }
+        int space = arguments.indexOf(' ');
+        if (space < 0) {
+            out.println(side == OrderBook.BUY ? "ERR usage: BUY symbol quantity" : "ERR usage: SELL symbol quantity");
+            return;
+        }
+        report.reset();
+        executor.execute(account, side, arguments.substring(0, space), arguments.substring(space + 1).trim(), reportOut);
+        String result = report.toString(StandardCharsets.UTF_8).trim().replace(System.lineSeparator(), " ");
+        out.println((result.startsWith("The total") ? "OK " : "ERR ") + result);
+    }
+
+    private void portfolio() {
+        if (account == null) {
+            out.println("ERR not logged in");
+            return;
+        }
+        line.setLength(0);
+        Money.appendTo(line.append("OK cash="), account.getCashAmount());
+        for (Stock stock : account.getHeldStocks()) {
+            line.append(' ').append(stock.getSymbol()).append('=').append(stock.getQuantity());
+        }
+        out.println(line);
+    }
+}
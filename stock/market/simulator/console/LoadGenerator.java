@@ -0,0 +1,182 @@
+package stock.market.simulator.console;
+
+import stock.market.simulator.LatencyHistogram;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a headless {@link StockSimulatorServer} with simulated traders and reports the latency of their orders.
+ * <p>
+ * Each trader is a connection of its own, on a virtual thread, that registers and logs in a user and then buys and
+ * sells one share of the stocks in turn through the {@link CommandSession} protocol. In closed-loop mode a trader
+ * sends its next order as soon as the last one is answered, which measures the most the server can take. In
+ * open-loop mode orders are due at a fixed total rate, spread evenly over the traders, whether or not earlier ones
+ * have been answered. An order's response time is then counted from when it was due rather than when it was sent,
+ * so that a stall delaying the orders queued behind it shows in their latencies instead of going unmeasured, the
+ * coordinated omission that hides tail latency from closed-loop tools. Service time, from sending to the answer, is
+ * reported next to it.
+ */
+public class LoadGenerator {
+    private final int port;
+    private final int traders;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final List<String> symbols;
+    private final LatencyHistogram service = new LatencyHistogram("service");
+    private final LatencyHistogram response = new LatencyHistogram("response");
+    private final AtomicLong errors = new AtomicLong();
+    private volatile long measureFrom;
+
+    /**
+     * Constructs a load generator for a server on the loopback address.
+     *
+     * @param port          The server's port.
+     * @param traders       The number of simulated traders.
+     * @param rate          The total orders per second to send, or 0 to run closed-loop.
+     * @param durationNanos How long to measure for.
+     * @param warmupNanos   How long to trade before measuring.
+     * @param symbols       The stocks to trade.
+     */
+    public LoadGenerator(int port, int traders, double rate, long durationNanos, long warmupNanos, List<String> symbols) {
+        if (traders <= 0 || rate < 0 || symbols.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one trader and one stock, and a rate of zero or more");
+        }
+        this.port = port;
+        this.traders = traders;
+        this.rate = rate;
+        this.durationNanos = durationNanos;
+        this.warmupNanos = warmupNanos;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Runs the traders for the warmup and the measured time and prints the latencies measured.
+     *
+     * @param out The stream to print the report to.
+     */
+    public void run(PrintStream out) {
+        long start = System.nanoTime();
+        measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        // Orders sent during the warmup are never recorded, so throughput is counted from the end of the warmup
+        service.startClockAt(measureFrom);
+        response.startClockAt(measureFrom);
+        // In open-loop mode each trader is due every interval, offset from the others so arrivals are even
+        long interval = rate > 0 ? (long) (traders * 1e9 / rate) : 0;
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < traders; i++) {
+                int trader = i;
+                pool.submit(() -> trade(trader, start + interval * trader / traders, interval, end));
+            }
+        }
+        out.println(traders + " traders, " + (rate > 0 ? "open loop at " + (long) rate + " orders/s" : "closed loop")
+                + ", " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + " s measured after "
+                + TimeUnit.NANOSECONDS.toSeconds(warmupNanos) + " s warmup");
+        LatencyHistogram.reportHeader(out);
+        service.report(out);
+        if (rate > 0) {
+            response.report(out);
+        }
+        out.println("Rejected orders: " + errors.get());
+    }
+
+    /**
+     * Returns the histogram of service times, from sending an order to its answer.
+     *
+     * @return The service times.
+     */
+    public LatencyHistogram getServiceTimes() {
+        return service;
+    }
+
+    /**
+     * Returns the histogram of response times, from when an order was due to its answer. In closed-loop mode orders
+     * are due when they are sent, so this is empty.
+     *
+     * @return The response times.
+     */
+    public LatencyHistogram getResponseTimes() {
+        return response;
+    }
+
+    /**
+     * Returns the number of orders the server rejected.
+     *
+     * @return The rejected orders.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    private void trade(int trader, long firstDue, long interval, long end) {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter commands = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            String username = "load" + trader;
+            send(commands, in, "REGISTER " + username);
+            if (!send(commands, in, "LOGIN " + username).startsWith("OK")) {
+                throw new IOException("could not log in " + username);
+            }
+            StringBuilder order = new StringBuilder(32);
+            long due = firstDue;
+            // Start every trader on a buy, so that no sell comes before the share it sells back
+            for (long sequence = 2L * trader; ; sequence++) {
+                if (interval > 0) {
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                long sent = System.nanoTime();
+                if (sent >= end) {
+                    break;
+                }
+                // Buy a share, then sell it back, so that a trader never runs out of cash or shares
+                String symbol = symbols.get((int) (sequence / 2 % symbols.size()));
+                order.setLength(0);
+                order.append((sequence & 1) == 0 ? "BUY " : "SELL ").append(symbol).append(" 1");
+                String answer = send(commands, in, order);
+                long answered = System.nanoTime();
+                if (sent >= measureFrom) {
+                    service.record(answered - sent);
+                    if (interval > 0) {
+                        response.record(answered - due);
+                    }
+                    if (!answer.startsWith("OK")) {
+                        errors.incrementAndGet();
+                    }
+                }
+                due += interval;
+            }
+            send(commands, in, "QUIT");
+        } catch (IOException e) {
+            System.err.println("Error running trader " + trader + ": " + e.getMessage());
+        }
+    }
+
+    private static String send(BufferedWriter commands, BufferedReader in, CharSequence command) throws IOException {
+        commands.append(command).append('\n');
+        commands.flush();
+        String answer = in.readLine();
+        if (answer == null) {
+            throw new IOException("the server closed the connection");
+        }
+        return answer;
+    }
+}
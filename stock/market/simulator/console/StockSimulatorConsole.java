@@ -3,31 +3,120 @@ package stock.market.simulator.console;
 import stock.market.simulator.*;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 /**
  * StockSimulatorConsole is a class representing a stock simulator console application.
  * It allows users to simulate trading stocks.
+ * <p>
+ * A console drives one user session over an input and an output stream. Several consoles can share
+ * a {@link FileManager} and an account map to serve concurrent sessions, as {@link StockSimulatorServer} does.
  */
 public class StockSimulatorConsole {
-    private ArrayList<Stock> stocks;
-    private FileManager fileManager = new FileManager();
+    /** The cash a new account starts with. */
+    static final int INITIAL_CASH = 10000;
+
+    /** How many stock prices the tick engine moves per second; with the default stocks each moves about once a second. */
+    static final long PRICE_UPDATES_PER_SECOND = 12;
+
+    /** The annualized volatility of simulated prices. */
+    static final double PRICE_VOLATILITY = 0.3;
+
+    /** The number of one-minute bars the Bars option prints. */
+    static final int CHART_BARS = 10;
+
+    /** The number of fills the History option prints at a time. */
+    static final int HISTORY_PAGE = 10;
+
+    private final SymbolRegistry symbols = SymbolRegistry.getInstance();
+    private final FileManager fileManager;
+    private final Map<String, Account> accounts;
+    private final Scanner scanner;
+    private final PrintStream out;
+    private final boolean ownsFileManager;
+    private final OrderExecutor pipeline;
+    private JournalRecovery recovery;
+    private TickEngine tickEngine;
     private Account currentAccount;
-    private Scanner scanner = new Scanner(System.in);
+    private Buy buy;
+    private Sell sell;
 
     /**
-     * Constructs a new StockSimulatorConsole object and initializes the list of stocks.
+     * Constructs a new StockSimulatorConsole object on standard input and output, initializes the list of stocks,
+     * restores the accounts recorded in the transactions file, starts moving prices and starts a
+     * {@link TradePipeline} to run the session's orders.
      */
     public StockSimulatorConsole() {
-        stocks = new ArrayList<>();
+        this(new FileManager(), new ConcurrentHashMap<>(), System.in, System.out, true);
+        recovery = new JournalRecovery(fileManager, Money.of(INITIAL_CASH));
+        recoverAccounts(recovery, accounts);
+        tickEngine = startTickEngine(symbols.getListedStocks());
+    }
+
+    /**
+     * Constructs a console for one session that shares its file manager and accounts with other sessions.
+     *
+     * @param fileManager The shared file manager.
+     * @param accounts    The shared map of logged-in accounts by username.
+     * @param in          The stream to read the user's input from.
+     * @param out         The stream to print to.
+     */
+    public StockSimulatorConsole(FileManager fileManager, Map<String, Account> accounts, InputStream in, PrintStream out) {
+        this(fileManager, accounts, in, out, null);
+    }
+
+    /**
+     * Constructs a console for one session that shares its file manager, accounts and order executor with other
+     * sessions. The session's buy and sell orders run through the executor, a {@link TradePipeline} or a
+     * {@link ShardedExecutor}, rather than on the session's thread.
+     *
+     * @param fileManager The shared file manager.
+     * @param accounts    The shared map of logged-in accounts by username.
+     * @param in          The stream to read the user's input from.
+     * @param out         The stream to print to.
+     * @param pipeline    The shared executor, or null to execute orders on the session's thread.
+     */
+    public StockSimulatorConsole(FileManager fileManager, Map<String, Account> accounts, InputStream in, PrintStream out,
+                                 OrderExecutor pipeline) {
+        this(fileManager, accounts, in, out, pipeline, false);
+    }
+
+    private StockSimulatorConsole(FileManager fileManager, Map<String, Account> accounts, InputStream in, PrintStream out,
+                                  boolean ownsFileManager) {
+        this(fileManager, accounts, in, out, new TradePipeline(fileManager), ownsFileManager);
+    }
+
+    private StockSimulatorConsole(FileManager fileManager, Map<String, Account> accounts, InputStream in, PrintStream out,
+                                  OrderExecutor pipeline, boolean ownsFileManager) {
+        this.fileManager = fileManager;
+        this.accounts = accounts;
+        this.scanner = new Scanner(in);
+        this.out = out;
+        this.pipeline = pipeline;
+        this.ownsFileManager = ownsFileManager;
         initializeStocks();
     }
 
     /**
-     * Initializes the list of stocks with some predefined stocks.
+     * Initializes the list of stocks with some predefined stocks, lists them in the symbol registry and starts
+     * building their bars. The market is shared by every session, so this only lists the stocks once.
      */
-    private void initializeStocks() {
+    public static synchronized void initializeStocks() {
+        SymbolRegistry symbols = SymbolRegistry.getInstance();
+        if (!symbols.getListedStocks().isEmpty()) {
+            return;
+        }
+        List<Stock> stocks = new ArrayList<>();
         stocks.add(new Stock("AAPL", 122.02, 100000000));
         stocks.add(new Stock("MSFT", 42.60, 200000000));
         stocks.add(new Stock("FB", 81.67, 100000000));
@@ -40,6 +129,10 @@ public class StockSimulatorConsole {
         stocks.add(new Stock("VA", 30.36, 100000000));
         stocks.add(new Stock("BT", 65.65, 100000000));
         stocks.add(new Stock("HSBA", 581.08, 100000000));
+        for (Stock stock : stocks) {
+            symbols.list(stock);
+            BarAggregator.getInstance().watch(stock);
+        }
     }
 
     /**
@@ -47,14 +140,72 @@ public class StockSimulatorConsole {
      * or exit the application, and directs them to corresponding functionalities based on their choice.
      */
     public void run() {
+        try {
+            menu();
+        } catch (NoSuchElementException e) {
+            // The input was closed, which ends the session like choosing Exit
+        }
+        if (ownsFileManager) {
+            tickEngine.close();
+            pipeline.close();
+            fileManager.close();
+            checkpoint(recovery);
+        }
+    }
+
+    /**
+     * Restores the accounts and the stocks' remaining shares from the last snapshot and the transactions written after it.
+     *
+     * @param recovery The recovery for the transactions file.
+     * @param accounts The map to put the recovered accounts in.
+     */
+    static void recoverAccounts(JournalRecovery recovery, Map<String, Account> accounts) {
+        try {
+            recovery.restore(accounts);
+        } catch (IOException e) {
+            System.err.println("Error recovering accounts: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a tick engine that moves the prices of the given stocks for as long as the market is open.
+     *
+     * @param stocks The stocks to move.
+     * @return The running engine.
+     */
+    static TickEngine startTickEngine(List<Stock> stocks) {
+        TickEngine engine = new TickEngine(stocks, System.nanoTime(), PRICE_VOLATILITY,
+                TickEngine.ONE_SECOND * stocks.size() / PRICE_UPDATES_PER_SECOND);
+        engine.start(PRICE_UPDATES_PER_SECOND);
+        return engine;
+    }
+
+    /**
+     * Writes a snapshot of the transactions file so the next startup only replays what is written after it.
+     *
+     * @param recovery The recovery for the transactions file, or null if there is none.
+     */
+    static void checkpoint(JournalRecovery recovery) {
+        if (recovery == null) {
+            return;
+        }
+        try {
+            recovery.checkpoint();
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot: " + e.getMessage());
+        }
+    }
+
+    private void menu() {
         boolean exit = false;
 
         while (!exit) {
-            System.out.println("Welcome to the Stock Market Simulator!");
-            System.out.println("1. Login");
-            System.out.println("2. Register");
-            System.out.println("3. Exit");
-            System.out.print("Choose an option: ");
+            out.println("Welcome to the Stock Market Simulator!");
+            out.println("1. Login");
+            out.println("2. Register");
+            out.println("3. Exit");
+            out.println("4. Stats");
+            out.print("Choose an option: ");
             String choice = scanner.nextLine();
 
             switch (choice) {
@@ -69,8 +220,11 @@ public class StockSimulatorConsole {
                 case "3":
                     exit = true;
                     break;
+                case "4":
+                    TradeMetrics.report(out);
+                    break;
                 default:
-                    System.out.println("Invalid option. Please try again.");
+                    out.println("Invalid option. Please try again.");
                     break;
             }
         }
@@ -78,26 +232,25 @@ public class StockSimulatorConsole {
 
     /**
      * Handles the login functionality. Prompts the user to enter their username, checks if the user exists,
-     * and creates a new account if the user does not exist.
+     * and opens their account, sharing it with any other session the user is logged in to.
      *
      * @param scanner Scanner object for user input
      * @return True if login is successful, otherwise false
      */
     private boolean login(Scanner scanner) {
-        System.out.print("Enter your username: ");
+        out.print("Enter your username: ");
         String username = scanner.nextLine();
 
         try {
             if (fileManager.userExists(username)) {
-                int initialCash = 10000;
-                currentAccount = new Account(username, initialCash);
-                System.out.println("Login successful.");
+                currentAccount = accounts.computeIfAbsent(username, name -> new Account(name, INITIAL_CASH));
+                out.println("Login successful.");
                 return true;
             } else {
-                System.out.println("Username not found. Please register.");
+                out.println("Username not found. Please register.");
             }
         } catch (IOException e) {
-            System.out.println(e.getMessage());
+            out.println(e.getMessage());
         }
         return false;
     }
@@ -108,18 +261,17 @@ public class StockSimulatorConsole {
      * @param scanner Scanner object for user input
      */
     private void register(Scanner scanner) {
-        System.out.print("Choose a username: ");
+        out.print("Choose a username: ");
         String username = scanner.nextLine();
 
         try {
-            if (!fileManager.userExists(username)) {
-                fileManager.registerUser(username);
-                System.out.println("Registration successful. Please login.");
+            if (!fileManager.userExists(username) && fileManager.registerUser(username)) {
+                out.println("Registration successful. Please login.");
             } else {
-                System.out.println("Username already exists. Please try another one.");
+                out.println("Username already exists. Please try another one.");
             }
         } catch (IOException | FileNotFoundException e) {
-            System.out.println(e.getMessage());
+            out.println(e.getMessage());
         }
     }
 
@@ -132,12 +284,16 @@ public class StockSimulatorConsole {
         boolean logout = false;
 
         while (!logout) {
-            System.out.println("\nMenu:");
-            System.out.println("1. Buy Stocks");
-            System.out.println("2. Sell Stocks");
-            System.out.println("3. View Portfolio");
-            System.out.println("4. Logout");
-            System.out.print("Choose an option: ");
+            out.println("\nMenu:");
+            out.println("1. Buy Stocks");
+            out.println("2. Sell Stocks");
+            out.println("3. View Portfolio");
+            out.println("4. Logout");
+            out.println("5. Stats");
+            out.println("6. Watch Market");
+            out.println("7. Bars");
+            out.println("8. History");
+            out.print("Choose an option: ");
             String choice = scanner.nextLine();
 
             switch (choice) {
@@ -149,82 +305,241 @@ public class StockSimulatorConsole {
                     break;
                 case "3":
                     if (currentAccount != null) {
-                        currentAccount.displayPortfolio();
+                        currentAccount.displayPortfolio(out);
                     }
                     break;
                 case "4":
                     logout = true;
                     break;
+                case "5":
+                    TradeMetrics.report(out);
+                    break;
+                case "6":
+                    watchMarket();
+                    break;
+                case "7":
+                    showBars();
+                    break;
+                case "8":
+                    showHistory();
+                    break;
                 default:
-                    System.out.println("Invalid option. Please try again.");
+                    out.println("Invalid option. Please try again.");
                     break;
             }
         }
     }
 
+    /**
+     * Prints the market's quotes as prices move and stocks trade, until the user presses Enter. Quotes come from the
+     * shared {@link MarketData} publisher, one at a time as each is printed, so a session on a slow connection
+     * sees the latest quote of each stock rather than falling behind.
+     */
+    private void watchMarket() {
+        out.println("Watching the market. Press Enter to stop.");
+        QuotePrinter printer = new QuotePrinter(out);
+        MarketData.getInstance().subscribe(printer);
+        scanner.nextLine();
+        printer.cancel();
+    }
+
+    /**
+     * Prints a stock's latest one-minute bars and its volume-weighted average price over them, from the bars the
+     * shared {@link BarAggregator} builds as the stock trades.
+     */
+    private void showBars() {
+        out.println("Enter the stock symbol to chart:");
+        Stock stock = getStockBySymbol(scanner.nextLine());
+        if (stock == null) {
+            out.println("Sorry, that stock is not trading.");
+            return;
+        }
+        BarAggregator bars = BarAggregator.getInstance();
+        int symbolId = stock.getSymbolId();
+        int count = Math.min(bars.getBarCount(symbolId, BarAggregator.MINUTE), CHART_BARS);
+        if (count == 0) {
+            out.println("No trades yet.");
+            return;
+        }
+        StringBuilder line = new StringBuilder(80);
+        for (int bar = count - 1; bar >= 0; bar--) {
+            line.setLength(0);
+            line.append(Instant.ofEpochMilli(bars.getStart(symbolId, BarAggregator.MINUTE, bar))).append("  O $");
+            Money.appendTo(line, bars.getOpen(symbolId, BarAggregator.MINUTE, bar)).append("  H $");
+            Money.appendTo(line, bars.getHigh(symbolId, BarAggregator.MINUTE, bar)).append("  L $");
+            Money.appendTo(line, bars.getLow(symbolId, BarAggregator.MINUTE, bar)).append("  C $");
+            Money.appendTo(line, bars.getClose(symbolId, BarAggregator.MINUTE, bar)).append("  V ")
+                    .append(bars.getVolume(symbolId, BarAggregator.MINUTE, bar));
+            out.println(line);
+        }
+        out.println("VWAP: $" + Money.format(bars.getRollingVwap(symbolId, BarAggregator.MINUTE, count))
+                + ", Volume: " + bars.getRollingVolume(symbolId, BarAggregator.MINUTE, count));
+    }
+
+    /**
+     * Prints the user's fills from the trade history, optionally of one stock and from the last few days, a page at a
+     * time.
+     */
+    private void showHistory() {
+        TradeHistory history = fileManager.getTradeHistory();
+        if (history == null) {
+            out.println("The trade history is not available.");
+            return;
+        }
+        out.println("Enter a stock symbol, or leave blank for all stocks:");
+        String symbol = scanner.nextLine().trim();
+        out.println("Enter how many days back to look, or leave blank for all time:");
+        String days = scanner.nextLine().trim();
+        long from = 0;
+        if (!days.isEmpty()) {
+            try {
+                from = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(Long.parseLong(days));
+            } catch (NumberFormatException e) {
+                out.println("Invalid number of days.");
+                return;
+            }
+        }
+        long cursor = 0;
+        while (true) {
+            TradeHistory.Page page = history.query(currentAccount.getAccountName(), symbol.isEmpty() ? null : symbol,
+                    from, Long.MAX_VALUE, cursor, HISTORY_PAGE);
+            if (cursor == 0 && page.getFills().isEmpty()) {
+                out.println("No trades found.");
+                return;
+            }
+            for (TradeHistory.Fill fill : page.getFills()) {
+                out.println(Instant.ofEpochMilli(fill.getTime()) + "  " + fill);
+            }
+            if (!page.hasMore()) {
+                return;
+            }
+            out.println("Show more? (y/n)");
+            if (!scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                return;
+            }
+            cursor = page.getNextCursor();
+        }
+    }
+
+    /**
+     * Prints each quote it receives and asks for the next one once it has.
+     */
+    private static final class QuotePrinter implements Flow.Subscriber<MarketData.Quote> {
+        private final PrintStream out;
+        private volatile Flow.Subscription subscription;
+
+        private QuotePrinter(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(MarketData.Quote quote) {
+            out.println(quote);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            System.err.println("Error watching the market: " + error.getMessage());
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        private void cancel() {
+            subscription.cancel();
+        }
+    }
+
     /**
      * Handles the process of buying stocks. Displays available stocks, prompts the user for input,
-     * and executes the buy transaction.
+     * and executes the buy transaction, through the trade pipeline if the console has one.
      */
     private void performBuy() {
-        System.out.println("Available Stocks to Buy:");
-        for (Stock stock : getAllStocks()) {
-            System.out.println("Symbol: " + stock.getSymbol() + ", Price: $" + stock.getPrice() + ", Shares Available: " + stock.getSharesLeft());
+        out.println("Available Stocks to Buy:");
+        for (Stock stock : symbols.getListedStocks()) {
+            out.println("Symbol: " + stock.getSymbol() + ", Price: $" + Money.format(stock.getPriceAmount()) + ", Shares Available: " + stock.getSharesLeft());
         }
 
-        System.out.println("Enter stock symbol you would like to trade: ");
+        out.println("Enter stock symbol you would like to trade: ");
         String symbol = scanner.nextLine();
         Stock stock = getStockBySymbol(symbol);
         if (stock == null) {
-            System.out.println("Sorry, that stock is not trading.");
+            out.println("Sorry, that stock is not trading.");
             return;
         }
 
-        System.out.println("How many shares would you like to buy: ");
-        int quantity = Integer.parseInt(scanner.nextLine());
+        out.println("How many shares would you like to buy: ");
+        String input = scanner.nextLine();
+        if (pipeline != null) {
+            pipeline.execute(currentAccount, OrderBook.BUY, symbol, input, out);
+            return;
+        }
+        int quantity = Integer.parseInt(input);
         if(quantity > 0 && stock.getSharesLeft() >= quantity) {
-            Buy buy = new Buy(currentAccount, stock, quantity, this, fileManager);
+            buy = buy == null ? new Buy(currentAccount, stock, quantity, this, fileManager) : buy.reuse(currentAccount, stock, quantity);
             buy.execute();
         } else {
-            System.out.println("Invalid quantity or not enough shares available.");
+            out.println("Invalid quantity or not enough shares available.");
         }
     }
 
     /**
      * Handles the process of selling stocks. Displays available stocks held by the user, prompts the user for input,
-     * and executes the sell transaction.
+     * and executes the sell transaction, through the trade pipeline if the console has one.
      */
     private void performSell() {
-        System.out.println("Stocks Available to Sell:");
+        out.println("Stocks Available to Sell:");
         for (Stock stock : currentAccount.getHeldStocks()) {
-            System.out.println("Symbol: " + stock.getSymbol() + ", Quantity: " + stock.getQuantity());
+            out.println("Symbol: " + stock.getSymbol() + ", Quantity: " + stock.getQuantity());
         }
 
-        System.out.println("Enter the stock symbol you would like to sell:");
+        out.println("Enter the stock symbol you would like to sell:");
         String symbol = scanner.nextLine();
         Stock stock = getStockBySymbol(symbol);
         if (stock == null) {
-            System.out.println("Sorry, that stock is not available for trading.");
+            out.println("Sorry, that stock is not available for trading.");
             return;
         }
 
-        System.out.println("How many shares would you like to sell:");
-        int quantity = Integer.parseInt(scanner.nextLine());
-        if(quantity > 0 && stock.getQuantity() >= quantity) {
-            Sell sell = new Sell(currentAccount, stock, quantity, this, fileManager);
+        out.println("How many shares would you like to sell:");
+        String input = scanner.nextLine();
+        if (pipeline != null) {
+            pipeline.execute(currentAccount, OrderBook.SELL, symbol, input, out);
+            return;
+        }
+        int quantity = Integer.parseInt(input);
+        if(quantity > 0 && currentAccount.getStockQuantity(stock.getSymbolId()) >= quantity) {
+            sell = sell == null ? new Sell(currentAccount, stock, quantity, this, fileManager) : sell.reuse(currentAccount, stock, quantity);
             sell.execute();
         } else {
-            System.out.println("Invalid quantity or not enough shares to sell.");
+            out.println("Invalid quantity or not enough shares to sell.");
         }
     }
 
+    /**
+     * Returns the stream this console prints to, which transactions started from it print to as well.
+     *
+     * @return The console's output stream
+     */
+    public PrintStream getOutput() {
+        return out;
+    }
+
     /**
      * Retrieves all available stocks.
      *
      * @return ArrayList of all available stocks
      */
     public ArrayList<Stock> getAllStocks() {
-        return new ArrayList<>(stocks);
+        return new ArrayList<>(symbols.getListedStocks());
     }
 
     /**
@@ -234,9 +549,16 @@ public class StockSimulatorConsole {
      * @return The Stock object corresponding to the symbol, or null if not found
      */
     public Stock getStockBySymbol(String symbol) {
-        return stocks.stream()
-                .filter(s -> s.getSymbol().equals(symbol))
-                .findFirst()
-                .orElse(null);
+        return symbols.getStock(symbol);
+    }
+
+    /**
+     * Retrieves a stock by its interned symbol id.
+     *
+     * @param symbolId The symbol id of the stock to retrieve
+     * @return The Stock object corresponding to the id, or null if not found
+     */
+    public Stock getStockById(int symbolId) {
+        return symbols.getStock(symbolId);
     }
 }
@@ -0,0 +1,198 @@
+package stock.market.simulator.console;
+
+import stock.market.simulator.Account;
+import stock.market.simulator.FileManager;
+import stock.market.simulator.JournalRecovery;
+import stock.market.simulator.Money;
+import stock.market.simulator.OrderExecutor;
+import stock.market.simulator.ShardedExecutor;
+import stock.market.simulator.SymbolRegistry;
+import stock.market.simulator.TickEngine;
+import stock.market.simulator.TradePipeline;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StockSimulatorServer serves the stock market simulator to many simultaneous users over a local socket.
+ * Every connection gets its own {@link StockSimulatorConsole} session running on a virtual thread.
+ * <p>
+ * All sessions trade the same market. Each stock is traded under its own lock and each account synchronizes
+ * its own balance and holdings, so there is no global lock. Orders from every session go through one shared
+ * {@link TradePipeline}, so a session with a slow connection holds up only its own reports, never the matching of
+ * other sessions' orders. A server started with shards runs orders on a {@link ShardedExecutor} instead, matching
+ * the orders of different stocks on as many threads as it has shards. A headless server runs a
+ * {@link CommandSession} for each connection instead of a console, for programs such as {@link LoadGenerator}.
+ * <p>
+ * The server runs until it is closed, which {@link #addShutdownHook()} arranges for when the JVM is stopped, so that
+ * every accepted order is executed and journaled and a final snapshot is written before the process exits.
+ */
+public class StockSimulatorServer implements AutoCloseable {
+    /** The port used when none is given. */
+    public static final int DEFAULT_PORT = 5555;
+
+    /** How often a snapshot of the transactions file is written, in seconds. */
+    public static final long CHECKPOINT_INTERVAL_SECONDS = 60;
+
+    private final FileManager fileManager = new FileManager();
+    private final OrderExecutor pipeline;
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final JournalRecovery recovery = new JournalRecovery(fileManager, Money.of(StockSimulatorConsole.INITIAL_CASH));
+    private final ScheduledExecutorService checkpoints = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final TickEngine tickEngine;
+    private final ServerSocket serverSocket;
+    private final boolean headless;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a server listening on the loopback address, restoring the accounts recorded in the transactions
+     * file, checkpointing them periodically and moving prices while it runs.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public StockSimulatorServer(int port) throws IOException {
+        this(port, 0);
+    }
+
+    /**
+     * Constructs a server listening on the loopback address that runs orders on shards of the market.
+     *
+     * @param port   The port to listen on, or 0 for any free port.
+     * @param shards The number of shards to run orders on, or 0 to run them through a {@link TradePipeline}.
+     * @throws IOException If the port cannot be opened.
+     */
+    public StockSimulatorServer(int port, int shards) throws IOException {
+        this(port, shards, false);
+    }
+
+    /**
+     * Constructs a server listening on the loopback address that runs orders on shards of the market.
+     *
+     * @param port     The port to listen on, or 0 for any free port.
+     * @param shards   The number of shards to run orders on, or 0 to run them through a {@link TradePipeline}.
+     * @param headless Whether connections speak the {@link CommandSession} protocol rather than the console's menus.
+     * @throws IOException If the port cannot be opened.
+     */
+    public StockSimulatorServer(int port, int shards, boolean headless) throws IOException {
+        this.headless = headless;
+        pipeline = shards > 0 ? new ShardedExecutor(fileManager, shards) : new TradePipeline(fileManager);
+        StockSimulatorConsole.initializeStocks();
+        StockSimulatorConsole.recoverAccounts(recovery, accounts);
+        checkpoints.scheduleWithFixedDelay(() -> StockSimulatorConsole.checkpoint(recovery),
+                CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        tickEngine = StockSimulatorConsole.startTickEngine(SymbolRegistry.getInstance().getListedStocks());
+        serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return The local port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed, starting a session for each one.
+     */
+    public void run() {
+        System.out.println("Stock Market Simulator " + (headless ? "headless " : "") + "server listening on port "
+                + getPort());
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                synchronized (this) {
+                    if (closed) {
+                        // Accepted just as the server closed
+                        socket.close();
+                        continue;
+                    }
+                    connections.add(socket);
+                    sessions.submit(() -> serve(socket));
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Error accepting connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the server when the JVM shuts down, for example on Ctrl-C, so that a server that is never closed by its
+     * caller still drains its orders and writes a final snapshot.
+     */
+    public void addShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "server-shutdown"));
+    }
+
+    /**
+     * Stops accepting connections, disconnects open sessions and waits for them to end, executes the orders already
+     * submitted, stops moving prices, closes the transaction journal and writes a final snapshot. Closing a closed
+     * server waits for the first close to finish and does nothing more.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing server socket: " + e.getMessage());
+        }
+        // Sessions wait for their clients; disconnecting them ends each session once its current order is done
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Error closing connection: " + e.getMessage());
+            }
+        }
+        sessions.close();
+        pipeline.close();
+        tickEngine.close();
+        checkpoints.shutdownNow();
+        fileManager.close();
+        StockSimulatorConsole.checkpoint(recovery);
+    }
+
+    private void serve(Socket socket) {
+        try (socket; PrintStream out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            if (headless) {
+                socket.setTcpNoDelay(true);
+                new CommandSession(fileManager, accounts, pipeline, socket.getInputStream(), out).run();
+            } else {
+                new StockSimulatorConsole(fileManager, accounts, socket.getInputStream(), out, pipeline).run();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Session ended with an error: " + e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Session ended with an error: " + e);
+        } finally {
+            connections.remove(socket);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package stock.market.simulator;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks the off-heap account store: holdings chained across blocks of three positions, finding accounts by name
+ * as the index grows, and opening accounts from a backing snapshot.
+ */
+class AccountStoreTest {
+    private static final int SYMBOLS = 10;
+
+    @TempDir
+    Path directory;
+
+    private final MarkToMarket valuation = new MarkToMarket(1);
+    private AccountStore store;
+
+    @BeforeEach
+    void openStore() {
+        store = new AccountStore(valuation);
+    }
+
+    @Test
+    void addsAndRemovesPositionsAcrossBlocks() {
+        // Accounts are numbered from 0 as they are opened
+        Account holder = store.open("holder", 0);
+        int id = 0;
+        assertEquals(store.get(id), holder);
+
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            assertEquals(symbol + 1, store.addPosition(id, symbol, symbol + 1));
+        }
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            assertEquals(symbol + 1, store.position(id, symbol));
+        }
+        assertEquals(SYMBOLS, store.positions(id).size());
+
+        // Empty a position in the last block, one in a middle block and one in the first block
+        assertEquals(0, store.addPosition(id, 0, -1));
+        assertEquals(0, store.addPosition(id, 4, -5));
+        assertEquals(0, store.addPosition(id, 9, -10));
+        assertEquals(7, store.addPosition(id, 5, 1));
+
+        PositionMap positions = store.positions(id);
+        assertEquals(SYMBOLS - 3, positions.size());
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            int expected = symbol == 0 || symbol == 4 || symbol == 9 ? 0 : symbol == 5 ? 7 : symbol + 1;
+            assertEquals(expected, store.position(id, symbol), "symbol " + symbol);
+            assertEquals(expected, positions.get(symbol), "symbol " + symbol);
+        }
+
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            store.addPosition(id, symbol, -store.position(id, symbol));
+        }
+        assertEquals(0, store.positions(id).size());
+        assertEquals(0, store.addPosition(id, 3, 0));
+        assertEquals(0, store.positions(id).size());
+    }
+
+    @Test
+    void matchesAMapUnderRandomTrading() {
+        int accounts = 50;
+        for (int i = 0; i < accounts; i++) {
+            store.open("trader" + i, 0);
+        }
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(17);
+        for (int step = 0; step < 200_000; step++) {
+            int id = random.nextInt(accounts);
+            int symbol = random.nextInt(SYMBOLS);
+            long key = (long) id * SYMBOLS + symbol;
+            int held = expected.getOrDefault(key, 0);
+            // Sell everything now and then, so positions keep emptying and blocks are freed and reused
+            int delta = random.nextInt(4) == 0 ? -held : random.nextInt(5) + 1;
+            expected.put(key, held + delta);
+            assertEquals(held + delta, store.addPosition(id, symbol, delta));
+        }
+        for (int id = 0; id < accounts; id++) {
+            PositionMap positions = store.positions(id);
+            int held = 0;
+            for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+                int quantity = expected.getOrDefault((long) id * SYMBOLS + symbol, 0);
+                assertEquals(quantity, store.position(id, symbol));
+                assertEquals(quantity, positions.get(symbol));
+                held += quantity == 0 ? 0 : 1;
+            }
+            assertEquals(held, positions.size());
+        }
+    }
+
+    @Test
+    void findsEveryAccountByNameAsTheIndexGrows() {
+        // More than a page of accounts, so the index is rehashed many times and ids cross a page boundary
+        int accounts = 70_000;
+        for (int i = 0; i < accounts; i++) {
+            Account account = store.open("account" + i, i);
+            if (i % 1000 == 0) {
+                assertEquals(store.get(0), store.find("account0"));
+                assertEquals(account, store.find("account" + i));
+            }
+        }
+
+        assertEquals(accounts, store.size());
+        for (int i = 0; i < accounts; i++) {
+            Account account = store.find("account" + i);
+            assertNotNull(account, "account" + i);
+            assertEquals("account" + i, account.getAccountName());
+            assertEquals(Money.of(i), account.getCashAmount());
+            assertEquals(store.get(i), account);
+        }
+        assertNull(store.find("account" + accounts));
+        // Opening an account that exists returns it rather than a new one
+        assertEquals(store.get(5), store.open("account5", 99));
+        assertEquals(Money.of(5), store.get(5).getCashAmount());
+        assertEquals(accounts, store.size());
+    }
+
+    @Test
+    void restoresIntoTheStoreFromASnapshotAndTheJournal() throws IOException {
+        Stock stock = new Stock("STORED", 10.0, 1000);
+        SymbolRegistry.getInstance().list(stock);
+        FileManager fileManager = new FileManager(directory, TransactionJournal.Durability.NONE,
+                SegmentedLog.DEFAULT_SEGMENT_SIZE);
+        try {
+            StringBuilder records = new StringBuilder();
+            TransactionJournal.append(records, "kept", "bought", 10, "STORED", Money.of(100), 10);
+            TransactionJournal.append(records, "traded", "bought", 10, "STORED", Money.of(100), 10);
+            fileManager.writeTransactions(records);
+            fileManager.flushTransactions();
+            new JournalRecovery(fileManager, Money.of(1000)).checkpoint();
+            records.setLength(0);
+            TransactionJournal.append(records, "traded", "sold", 4, "STORED", Money.of(44), 4);
+            TransactionJournal.append(records, "new", "bought", 2, "STORED", Money.of(20), 2);
+            fileManager.writeTransactions(records);
+            fileManager.flushTransactions();
+
+            new JournalRecovery(fileManager, Money.of(1000)).restore(store);
+
+            // Only the accounts that traded after the snapshot are opened; the rest open from it when looked up
+            assertEquals(2, store.size());
+            assertStored("traded", 1000 - 100 + 44, 6);
+            assertStored("new", 1000 - 20, 2);
+            assertStored("kept", 1000 - 100, 10);
+            assertEquals(3, store.size());
+            assertNull(store.find("unknown"));
+            assertEquals(1000 - 18, stock.getSharesLeft());
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    private void assertStored(String name, long cash, int shares) {
+        Account account = store.find(name);
+        assertNotNull(account, name);
+        assertEquals(Money.of(cash), account.getCashAmount(), name + "'s cash");
+        assertEquals(shares, account.getStockQuantity("STORED"), name + "'s shares");
+    }
+}
@@ -0,0 +1,178 @@
+package stock.market.simulator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that accounts and the market's remaining shares survive a round trip through the transactions log and
+ * its snapshots: records are written through a {@link FileManager}, checkpointed, and restored into a fresh map.
+ */
+class JournalRecoveryTest {
+    private static final long INITIAL_CASH = Money.of(1000);
+    // Small enough that a few records fill a segment, so checkpoints archive some and keep others
+    private static final long SEGMENT_SIZE = 256;
+    private static int stocks;
+
+    @TempDir
+    Path dataDirectory;
+
+    private FileManager fileManager;
+    private Stock stock;
+    private final StringBuilder records = new StringBuilder();
+
+    @BeforeEach
+    void openMarket() {
+        fileManager = new FileManager(dataDirectory, TransactionJournal.Durability.NONE, SEGMENT_SIZE);
+        // Each test lists its own stock, since the registry outlives the test
+        stock = new Stock("RECOVER" + ++stocks, 10.0, 1000);
+        SymbolRegistry.getInstance().list(stock);
+    }
+
+    @AfterEach
+    void closeMarket() {
+        fileManager.close();
+    }
+
+    @Test
+    void restoresASnapshotAndTheJournalAfterIt() throws IOException {
+        write("alice", "bought", 10, 100, 10);
+        write("bob", "bought", 5, 50, 5);
+        checkpoint();
+        write("alice", "sold", 4, 48, 0);
+        write("bob", "bought", 4, 48, 0);
+        write("carol", "bought", 3, 30, 3);
+
+        Map<String, Account> accounts = restore();
+
+        assertAccount(accounts, "alice", 1000 - 100 + 48, 6);
+        assertAccount(accounts, "bob", 1000 - 50 - 48, 9);
+        assertAccount(accounts, "carol", 1000 - 30, 3);
+        assertEquals(1000 - 18, stock.getSharesLeft());
+    }
+
+    @Test
+    void restoresTheSameStateWithOrWithoutCheckpoints() throws IOException {
+        for (int i = 0; i < 30; i++) {
+            write("trader" + i % 4, i % 3 == 2 ? "sold" : "bought", 2, 20 + i, i % 3 == 2 ? 0 : 2);
+            if (i % 10 == 9) {
+                checkpoint();
+            }
+        }
+        Map<String, Account> checkpointed = restore();
+
+        Path replayed = dataDirectory.resolve("replayed");
+        Files.createDirectories(replayed.resolve("transactions"));
+        try (Stream<Path> segments = Files.walk(fileManager.getTransactionsPath())) {
+            for (Path segment : segments.filter(Files::isRegularFile).toList()) {
+                Files.copy(segment, replayed.resolve("transactions").resolve(segment.getFileName()));
+            }
+        }
+        Map<String, Account> fromStart = new HashMap<>();
+        new JournalRecovery(replayed.resolve("transactions"), replayed.resolve("snapshot"), INITIAL_CASH, 4)
+                .restore(fromStart);
+
+        assertEquals(4, checkpointed.size());
+        for (Account account : fromStart.values()) {
+            Account restored = checkpointed.get(account.getAccountName());
+            assertEquals(account.getCashAmount(), restored.getCashAmount());
+            assertEquals(account.getStockQuantity(stock.getSymbol()), restored.getStockQuantity(stock.getSymbol()));
+        }
+    }
+
+    @Test
+    void archivingKeepsRecordsTheSnapshotDoesNotCover() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            write("filler", "bought", 1, 10, 1);
+        }
+        // A record cut off mid-line, as if the writer were still appending it, is not covered by the checkpoint
+        fileManager.writeTransactions("dave, bought, 7");
+        fileManager.flushTransactions();
+        checkpoint();
+        fileManager.writeTransactions(".00, " + stock.getSymbol() + ", 70.00, 7" + System.lineSeparator());
+        write("erin", "bought", 2, 20, 2);
+
+        try (Stream<Path> archived = Files.list(fileManager.getTransactionsPath().resolve(SegmentedLog.ARCHIVE))) {
+            assertTrue(archived.findAny().isPresent());
+        }
+        Map<String, Account> accounts = restore();
+
+        assertAccount(accounts, "filler", 1000 - 200, 20);
+        assertAccount(accounts, "dave", 1000 - 70, 7);
+        assertAccount(accounts, "erin", 1000 - 20, 2);
+        assertEquals(1000 - 29, stock.getSharesLeft());
+    }
+
+    @Test
+    void keepsCommasInUsernames() throws IOException {
+        write("Smith, Jane", "bought", 3, 30, 3);
+        checkpoint();
+        write("a, bought, 1.00, b", "bought", 2, 20, 2);
+        legacy("Doe, John", "bought", 4);
+
+        Map<String, Account> accounts = restore();
+
+        assertAccount(accounts, "Smith, Jane", 1000 - 30, 3);
+        assertAccount(accounts, "a, bought, 1.00, b", 1000 - 20, 2);
+        assertAccount(accounts, "Doe, John", 1000, 4);
+        assertEquals(3, accounts.size());
+    }
+
+    @Test
+    void restoresSharesOfLegacyRecords() throws IOException {
+        legacy("old", "bought", 10);
+        legacy("old", "sold", 3);
+        checkpoint();
+        legacy("older", "bought", 5);
+
+        Map<String, Account> accounts = restore();
+
+        // Legacy records carry no totals, so only shares are restored and every share came from the market
+        assertAccount(accounts, "old", 1000, 7);
+        assertAccount(accounts, "older", 1000, 5);
+        assertEquals(1000 - 12, stock.getSharesLeft());
+    }
+
+    private void write(String username, String action, int quantity, long total, int marketQuantity) {
+        records.setLength(0);
+        TransactionJournal.append(records, username, action, quantity, stock.getSymbol(), Money.of(total),
+                marketQuantity);
+        fileManager.writeTransactions(records);
+        fileManager.flushTransactions();
+    }
+
+    private void legacy(String username, String action, int quantity) {
+        fileManager.writeTransactions(username + ", " + action + ", " + quantity + ", " + stock.getSymbol()
+                + System.lineSeparator());
+        fileManager.flushTransactions();
+    }
+
+    private void checkpoint() throws IOException {
+        new JournalRecovery(fileManager, INITIAL_CASH).checkpoint();
+    }
+
+    // Restores as at startup: the market starts from the listed stock's full shares
+    private Map<String, Account> restore() throws IOException {
+        stock.updateSharesLeft(stock.getSharesLeft() - stock.getTotalShares());
+        Map<String, Account> accounts = new HashMap<>();
+        new JournalRecovery(fileManager, INITIAL_CASH).restore(accounts);
+        return accounts;
+    }
+
+    private void assertAccount(Map<String, Account> accounts, String username, long cash, int shares) {
+        Account account = accounts.get(username);
+        assertEquals(Money.of(cash), account.getCashAmount(), username + "'s cash");
+        assertEquals(shares, account.getStockQuantity(stock.getSymbol()), username + "'s shares");
+    }
+}
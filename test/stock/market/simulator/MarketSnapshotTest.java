@@ -0,0 +1,143 @@
+package stock.market.simulator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that what a {@link MarketSnapshot.Writer} writes is what a mapped {@link MarketSnapshot} reads back.
+ */
+class MarketSnapshotTest {
+    // Enough accounts to overflow the writer's buffer and its first index array several times over
+    private static final int ACCOUNTS = 20_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackInstrumentsAndEveryAccount() throws IOException {
+        SymbolRegistry symbols = SymbolRegistry.getInstance();
+        Stock listed = listed("SNAPA", 12.34);
+        Stock other = listed("SNAPB", 0.5);
+        int delisted = symbols.intern("SNAPGONE");
+        Path file = directory.resolve("snapshot");
+
+        try (MarketSnapshot.Writer out = new MarketSnapshot.Writer(file, 12345)) {
+            out.instrument(listed.getSymbolId(), listed, 40);
+            out.instrument(delisted, null, -3);
+            for (int i = 0; i < ACCOUNTS; i++) {
+                PositionMap positions = new PositionMap();
+                positions.add(listed.getSymbolId(), i % 7);
+                positions.add(delisted, 1);
+                if (i % 2 == 0) {
+                    // Never added as an instrument; the writer adds it as it meets it
+                    positions.add(other.getSymbolId(), i);
+                }
+                out.account(name(i), Money.of(i) + 1, positions);
+            }
+        }
+        MarketSnapshot snapshot = MarketSnapshot.open(file);
+
+        assertEquals(12345, snapshot.getJournalOffset());
+        assertEquals(3, snapshot.getInstrumentCount());
+        assertEquals("SNAPA", snapshot.getSymbol(0));
+        assertTrue(snapshot.isListed(0));
+        assertEquals(listed.getPriceAmount(), snapshot.getPriceAmount(0));
+        assertEquals(listed.getTickSize(), snapshot.getTickSize(0));
+        assertEquals(1000, snapshot.getTotalShares(0));
+        assertEquals(40, snapshot.getMarketSold(0));
+        assertEquals("SNAPGONE", snapshot.getSymbol(1));
+        assertFalse(snapshot.isListed(1));
+        assertEquals(-3, snapshot.getMarketSold(1));
+        assertEquals("SNAPB", snapshot.getSymbol(2));
+        // Only instruments the writer was given a stock for are written as listed
+        assertFalse(snapshot.isListed(2));
+        assertEquals(0, snapshot.getPriceAmount(2));
+
+        assertEquals(ACCOUNTS, snapshot.getAccountCount());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            int record = snapshot.find(name(i));
+            assertEquals(i, record);
+            assertEquals(name(i), snapshot.getAccountName(record));
+            assertEquals(Money.of(i) + 1, snapshot.getCash(record));
+            assertEquals(i % 7, quantity(snapshot, record, "SNAPA"));
+            assertEquals(1, quantity(snapshot, record, "SNAPGONE"));
+            assertEquals(i % 2 == 0 ? i : 0, quantity(snapshot, record, "SNAPB"));
+            // Positions of zero shares are left out
+            assertEquals(1 + (i % 7 == 0 ? 0 : 1) + (i % 2 == 0 && i > 0 ? 1 : 0), snapshot.getPositionCount(record));
+        }
+        assertEquals(-1, snapshot.find("nobody"));
+        assertEquals(-1, snapshot.find(name(ACCOUNTS)));
+    }
+
+    @Test
+    void readsBackAnEmptyMarket() throws IOException {
+        Path file = directory.resolve("empty");
+        new MarketSnapshot.Writer(file, 0).close();
+
+        MarketSnapshot snapshot = MarketSnapshot.open(file);
+
+        assertEquals(0, snapshot.getJournalOffset());
+        assertEquals(0, snapshot.getInstrumentCount());
+        assertEquals(0, snapshot.getAccountCount());
+        assertEquals(-1, snapshot.find("anyone"));
+        assertThrows(IndexOutOfBoundsException.class, () -> snapshot.getCash(0));
+    }
+
+    @Test
+    void keepsNamesThatAreNotAscii() throws IOException {
+        Stock stock = listed("SNAPU", 3.0);
+        Path file = directory.resolve("unicode");
+        PositionMap positions = new PositionMap();
+        positions.add(stock.getSymbolId(), 9);
+
+        try (MarketSnapshot.Writer out = new MarketSnapshot.Writer(file, 7)) {
+            out.account("Zoë, Ünal", Money.of(5), positions);
+            out.account("株式", Money.of(6), new PositionMap());
+        }
+        MarketSnapshot snapshot = MarketSnapshot.open(file);
+
+        assertEquals(0, snapshot.find("Zoë, Ünal"));
+        assertEquals(9, quantity(snapshot, 0, "SNAPU"));
+        assertEquals(1, snapshot.find("株式"));
+        assertEquals(Money.of(6), snapshot.getCash(1));
+        assertEquals(0, snapshot.getPositionCount(1));
+    }
+
+    @Test
+    void rejectsFilesThatAreNotSnapshots() throws IOException {
+        Path file = Files.writeString(directory.resolve("accounts.txt"), "alice, 1000.00\n".repeat(10));
+
+        assertThrows(IOException.class, () -> MarketSnapshot.open(file));
+    }
+
+    private static Stock listed(String symbol, double price) {
+        Stock stock = SymbolRegistry.getInstance().getStock(symbol);
+        if (stock == null) {
+            stock = new Stock(symbol, price, 1000);
+            SymbolRegistry.getInstance().list(stock);
+        }
+        return stock;
+    }
+
+    private static String name(int i) {
+        return "trader" + i;
+    }
+
+    private static int quantity(MarketSnapshot snapshot, int record, String symbol) {
+        for (int position = 0; position < snapshot.getPositionCount(record); position++) {
+            if (snapshot.getSymbol(snapshot.getPositionInstrument(record, position)).equals(symbol)) {
+                return snapshot.getPositionQuantity(record, position);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,188 @@
+package stock.market.simulator;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the order book's matching: price-time priority, partial fills, cancelling by id and limits outside the
+ * price ladder.
+ */
+class OrderBookTest {
+    private static final long BASE = 100;
+    private static final int LEVELS = 1024;
+
+    private final Account first = new Account("first", 0);
+    private final Account second = new Account("second", 0);
+    private final Account third = new Account("third", 0);
+    private final Account taker = new Account("taker", 0);
+    private final List<String> fills = new ArrayList<>();
+    private final FillListener recorder = (maker, makerOrderId, side, priceTicks, quantity) ->
+            fills.add(maker.getAccountName() + " " + priceTicks + " " + quantity);
+
+    private OrderBook book;
+
+    @BeforeEach
+    void openBook() {
+        book = new OrderBook(BASE, LEVELS);
+    }
+
+    @Test
+    void fillsOrdersAtOneLevelInArrivalOrder() {
+        book.submit(OrderBook.SELL, 200, 10, first, true, recorder);
+        book.submit(OrderBook.SELL, 200, 10, second, true, recorder);
+        book.submit(OrderBook.SELL, 200, 10, third, true, recorder);
+
+        book.submit(OrderBook.BUY, 200, 25, taker, false, recorder);
+
+        assertEquals(List.of("first 200 10", "second 200 10", "third 200 5"), fills);
+        assertEquals(5, book.getQuantityAt(OrderBook.SELL, 200));
+        assertEquals(1, book.getRestingOrderCount());
+    }
+
+    @Test
+    void fillsBetterPricesFirstAtTheRestingPrice() {
+        book.submit(OrderBook.SELL, 205, 10, first, true, recorder);
+        book.submit(OrderBook.SELL, 201, 10, second, true, recorder);
+        book.submit(OrderBook.SELL, 203, 10, third, true, recorder);
+        assertEquals(201, book.getBestAskTicks());
+
+        book.submit(OrderBook.BUY, 204, 30, taker, false, recorder);
+
+        assertEquals(List.of("second 201 10", "third 203 10"), fills);
+        assertEquals(205, book.getBestAskTicks());
+
+        fills.clear();
+        book.submit(OrderBook.BUY, 150, 10, first, true, recorder);
+        book.submit(OrderBook.BUY, 160, 10, second, true, recorder);
+        assertEquals(160, book.getBestBidTicks());
+        book.submit(OrderBook.SELL, 100, 15, taker, false, recorder);
+        assertEquals(List.of("second 160 10", "first 150 5"), fills);
+    }
+
+    @Test
+    void restsTheUnfilledRemainder() {
+        long resting = book.submit(OrderBook.SELL, 200, 10, first, true, recorder);
+
+        long remainder = book.submit(OrderBook.BUY, 200, 25, taker, true, recorder);
+
+        assertEquals(0, book.getRemaining(resting));
+        assertEquals(15, book.getRemaining(remainder));
+        assertEquals(200, book.getBestBidTicks());
+        assertEquals(OrderBook.BUY, book.getSide(remainder));
+        assertEquals(taker, book.getOwner(remainder));
+
+        book.submit(OrderBook.SELL, 200, 4, second, false, recorder);
+        assertEquals(11, book.getRemaining(remainder));
+        assertEquals(11, book.getQuantityAt(OrderBook.BUY, 200));
+    }
+
+    @Test
+    void matchesNothingAndRestsNothingWithoutACross() {
+        book.submit(OrderBook.SELL, 200, 10, first, true, recorder);
+
+        long id = book.submit(OrderBook.BUY, 199, 10, taker, false, recorder);
+
+        assertEquals(OrderBook.NO_ORDER, id);
+        assertEquals(List.of(), fills);
+        assertEquals(10, book.matchableQuantity(OrderBook.BUY, 200, 50));
+        assertEquals(0, book.matchableQuantity(OrderBook.BUY, 199, 50));
+    }
+
+    @Test
+    void cancelsOnlyTheOrderTheIdWasIssuedFor() {
+        long stale = book.submit(OrderBook.SELL, 200, 10, first, true, recorder);
+        assertEquals(10, book.cancel(stale));
+        assertEquals(0, book.getRestingOrderCount());
+
+        // The freed slot is reused by the next order, under a new generation
+        long reused = book.submit(OrderBook.SELL, 210, 7, second, true, recorder);
+        assertEquals((int) stale, (int) reused);
+        assertNotEquals(stale, reused);
+
+        assertEquals(0, book.cancel(stale));
+        assertEquals(0, book.getRemaining(stale));
+        assertEquals(7, book.getRemaining(reused));
+        assertEquals(7, book.cancel(reused));
+        assertEquals(0, book.cancel(reused));
+        assertEquals(0, book.cancel(OrderBook.NO_ORDER));
+    }
+
+    @Test
+    void cancellingTheBestLevelMovesTheBestPrice() {
+        long best = book.submit(OrderBook.BUY, 180, 10, first, true, recorder);
+        book.submit(OrderBook.BUY, 170, 10, second, true, recorder);
+
+        book.cancel(best);
+
+        assertEquals(170, book.getBestBidTicks());
+        assertEquals(0, book.getQuantityAt(OrderBook.BUY, 180));
+    }
+
+    @Test
+    void marketOrdersOutsideTheLadderMatchEverythingInside() {
+        book.submit(OrderBook.SELL, BASE + LEVELS - 1, 10, first, true, recorder);
+        book.submit(OrderBook.BUY, BASE, 10, second, true, recorder);
+
+        assertEquals(10, book.matchableQuantity(OrderBook.BUY, Long.MAX_VALUE, 50));
+        assertEquals(10, book.matchableQuantity(OrderBook.SELL, 0, 50));
+        assertEquals(0, book.matchableQuantity(OrderBook.BUY, BASE - 1, 50));
+        assertEquals(0, book.matchableQuantity(OrderBook.SELL, BASE + LEVELS, 50));
+
+        book.submit(OrderBook.BUY, Long.MAX_VALUE, 10, taker, false, recorder);
+        book.submit(OrderBook.SELL, 0, 10, taker, false, recorder);
+
+        assertEquals(List.of("first " + (BASE + LEVELS - 1) + " 10", "second " + BASE + " 10"), fills);
+        assertEquals(0, book.getRestingOrderCount());
+    }
+
+    @Test
+    void refusesToRestOutsideTheLadder() {
+        assertThrows(IllegalArgumentException.class,
+                () -> book.submit(OrderBook.BUY, BASE - 1, 10, taker, true, recorder));
+        assertThrows(IllegalArgumentException.class,
+                () -> book.submit(OrderBook.SELL, BASE + LEVELS, 10, taker, true, recorder));
+        assertEquals(0, book.getRestingOrderCount());
+    }
+
+    @Test
+    void rejectsLimitOrdersOutsideTheStocksLadder() throws Exception {
+        FileManager fileManager = new FileManager(Files.createTempDirectory("orderbook"),
+                TransactionJournal.Durability.NONE, SegmentedLog.DEFAULT_SEGMENT_SIZE);
+        try {
+            Stock stock = new Stock("LADDER", 10.0, 1000);
+            OrderBook stockBook = stock.getOrderBook();
+            Account account = new Account("ladder", 1_000_000);
+            account.addStockToPortfolio(stock, 100);
+            PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+            double above = Money.toDouble(stock.toAmount(stockBook.getMaxPriceTicks() + 1));
+            double below = Money.toDouble(stock.toAmount(stockBook.getMinPriceTicks() - 1));
+
+            Buy buy = new Buy(account, stock, 10, above, null, fileManager);
+            buy.setOutput(out);
+            buy.execute();
+            Sell sell = new Sell(account, stock, 10, below, null, fileManager);
+            sell.setOutput(out);
+            sell.execute();
+
+            assertEquals(AbstractTransaction.REJECTED_PRICE, buy.getStatus());
+            assertEquals(AbstractTransaction.REJECTED_PRICE, sell.getStatus());
+            assertEquals(0, buy.getFilledQuantity() + sell.getFilledQuantity());
+            assertEquals(Money.of(1_000_000), account.getCashAmount());
+            assertEquals(100, account.getStockQuantity("LADDER"));
+            assertEquals(1000, stock.getSharesLeft());
+            assertEquals(0, stockBook.getRestingOrderCount());
+        } finally {
+            fileManager.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package stock.market.simulator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a segmented log rolls over between appends, archives only what it is told it no longer needs and
+ * replaces its sealed segments with a compacted copy, all while reading back as one stream.
+ */
+class SegmentedLogTest {
+    private static final int SEGMENT_SIZE = 100;
+    private static final int RECORD_SIZE = 30;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rollsOverBetweenAppends() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < 10; i++) {
+                append(log, i);
+            }
+
+            // A segment rolls over on the first append after it has reached the segment size
+            assertEquals(List.of("00000000000000000000.log", "00000000000000000120.log", "00000000000000000240.log"),
+                    names(log.getSegments()));
+            assertEquals(10 * RECORD_SIZE, log.size());
+            assertEquals(2, log.getSealedCount());
+            assertEquals(records(0, 10), readAll(log, 0));
+        }
+        try (SegmentedLog reopened = new SegmentedLog(directory, SEGMENT_SIZE)) {
+            assertEquals(10 * RECORD_SIZE, reopened.size());
+            // The last segment has room, so appends carry on in it
+            append(reopened, 10);
+            assertEquals(3, reopened.getSegments().size());
+            assertEquals(records(0, 11), readAll(reopened, 0));
+        }
+    }
+
+    @Test
+    void archivesOnlySealedSegmentsBeforeTheOffset() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < 10; i++) {
+                append(log, i);
+            }
+
+            // The second segment holds offset 239, so only the first is archived
+            assertEquals(1, log.archive(239));
+            assertEquals(0, log.archive(239));
+            assertEquals(List.of("00000000000000000120.log", "00000000000000000240.log"), names(log.getSegments()));
+            assertTrue(Files.exists(directory.resolve(SegmentedLog.ARCHIVE).resolve("00000000000000000000.log")));
+            // The last segment is never archived, however far the offset
+            assertEquals(1, log.archive(Long.MAX_VALUE));
+            assertEquals(List.of("00000000000000000240.log"), names(log.getSegments()));
+            assertEquals(0, log.getSealedCount());
+
+            // Archived segments are still read
+            assertEquals(records(0, 10), readAll(log, 0));
+            append(log, 10);
+        }
+        try (SegmentedLog reopened = new SegmentedLog(directory, SEGMENT_SIZE)) {
+            assertEquals(11 * RECORD_SIZE, reopened.size());
+            assertEquals(records(0, 11), readAll(reopened, 0));
+            assertEquals(records(5, 11), readAll(reopened, 5 * RECORD_SIZE));
+        }
+    }
+
+    @Test
+    void replacesSealedSegmentsWithACompactedCopy() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < 10; i++) {
+                append(log, i);
+            }
+            Path compacted = Files.writeString(directory.resolve("compacted.tmp"), "compacted\n");
+
+            log.replaceSealed(compacted);
+
+            assertFalse(Files.exists(compacted));
+            assertEquals(List.of("00000000000000000000.log", "00000000000000000240.log"), names(log.getSegments()));
+            assertEquals(1, log.getSealedCount());
+            assertEquals("compacted\n", Files.readString(log.getSegments().get(0)));
+            append(log, 10);
+            assertEquals(records(8, 11), Files.readString(log.getSegments().get(1)));
+
+            // With nothing sealed left to replace, the copy is dropped
+            log.archive(Long.MAX_VALUE);
+            Path unused = Files.writeString(directory.resolve("compacted.tmp"), "unused\n");
+            log.replaceSealed(unused);
+            assertFalse(Files.exists(unused));
+            assertEquals(List.of("00000000000000000240.log"), names(log.getSegments()));
+        }
+    }
+
+    @Test
+    void compactsTheAccountsLogWhenUsersAreLoaded() throws IOException, FileNotFoundException {
+        // Each name fills a segment of its own, and one name was written twice
+        FileManager fileManager = new FileManager(directory, TransactionJournal.Durability.NONE, 1);
+        try (SegmentedLog log = new SegmentedLog(fileManager.getAccountsPath(), 1)) {
+            for (int i = 0; i < 20; i++) {
+                log.write(ByteBuffer.wrap(("user" + i + "\n").getBytes(StandardCharsets.UTF_8)));
+                if (i == 7) {
+                    log.write(ByteBuffer.wrap(("user" + i + "\n").getBytes(StandardCharsets.UTF_8)));
+                }
+            }
+            assertEquals(20, log.getSealedCount());
+        }
+
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(fileManager.userExists("user" + i), "user" + i);
+            }
+            assertFalse(fileManager.userExists("user20"));
+            assertFalse(fileManager.registerUser("user3"));
+            assertTrue(fileManager.registerUser("user20"));
+        } finally {
+            fileManager.close();
+        }
+        try (SegmentedLog log = new SegmentedLog(fileManager.getAccountsPath())) {
+            // The sealed segments became one holding each name once, followed by the segment being written when
+            // the users were loaded and the one the new registration went into
+            List<Path> segments = log.getSegments();
+            assertEquals(3, segments.size());
+            Set<String> names = new HashSet<>();
+            for (Path segment : segments) {
+                for (String name : Files.readAllLines(segment)) {
+                    assertTrue(names.add(name), name);
+                }
+            }
+            assertEquals(21, names.size());
+        }
+    }
+
+    private static void append(SegmentedLog log, int record) throws IOException {
+        log.write(ByteBuffer.wrap(record(record).getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static String record(int record) {
+        String text = "record " + record;
+        return text + ".".repeat(RECORD_SIZE - text.length() - 1) + "\n";
+    }
+
+    private static String records(int from, int to) {
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            text.append(record(i));
+        }
+        return text.toString();
+    }
+
+    // Reads to the end of the log, one segment at a time, as recovery does
+    private static String readAll(SegmentedLog log, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (log.size() - position));
+        while (buffer.hasRemaining()) {
+            if (log.read(buffer, position + buffer.position()) <= 0) {
+                throw new IOException("log ended at " + (position + buffer.position()));
+            }
+        }
+        return new String(buffer.array(), StandardCharsets.US_ASCII);
+    }
+
+    private static List<String> names(List<Path> segments) {
+        return segments.stream().map(segment -> segment.getFileName().toString()).toList();
+    }
+}
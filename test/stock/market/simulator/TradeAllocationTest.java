@@ -0,0 +1,102 @@
+package stock.market.simulator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the steady-state trade path allocates nothing: once warmed up, a reused buy or sell that fills,
+ * journals its record to a real transactions log and records its fill in a real trade history allocates no more
+ * than noise per order on the trading thread.
+ */
+class TradeAllocationTest {
+    private static final int WARMUP_ORDERS = 200_000;
+    private static final int MEASURED_ORDERS = 200_000;
+    private static final int ROUNDS = 5;
+    private static final double MAX_BYTES_PER_ORDER = 1.0;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @TempDir
+    Path dataDirectory;
+
+    private FileManager fileManager;
+    private Stock stock;
+    private Account account;
+
+    @BeforeEach
+    void openMarket() {
+        fileManager = new FileManager(dataDirectory, TransactionJournal.Durability.NONE,
+                SegmentedLog.DEFAULT_SEGMENT_SIZE);
+        stock = SymbolRegistry.getInstance().getStock("ALLOC");
+        if (stock == null) {
+            stock = new Stock("ALLOC", 10.0, Integer.MAX_VALUE);
+            SymbolRegistry.getInstance().list(stock);
+        }
+        account = new Account("allocation", 1e12);
+        account.addStockToPortfolio(stock, 100_000_000);
+    }
+
+    @AfterEach
+    void closeMarket() {
+        fileManager.close();
+    }
+
+    @Test
+    void buyDoesNotAllocate() {
+        Buy buy = new Buy(null, null, 0, null, fileManager);
+        buy.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+        assertAllocationFree("buy", () -> {
+            buy.reuse(account, stock, 1).execute();
+            return filledOne(buy);
+        });
+    }
+
+    @Test
+    void sellDoesNotAllocate() {
+        Sell sell = new Sell(null, null, 0, null, fileManager);
+        sell.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+        assertAllocationFree("sell", () -> {
+            sell.reuse(account, stock, 1).execute();
+            return filledOne(sell);
+        });
+    }
+
+    // Whether the order went through with its one share filled, so a path that stops trading cannot pass for one
+    // that stopped allocating
+    private static boolean filledOne(AbstractTransaction order) {
+        return order.getStatus() == AbstractTransaction.EXECUTED && order.getFilledQuantity() == 1;
+    }
+
+    // Passes as soon as one measured round stays under the limit, so a stray compilation or safepoint in one round
+    // does not fail the test, while a path that allocates on every order fails every round. Orders that do not
+    // fill are only counted, so that checking them allocates nothing.
+    private static void assertAllocationFree(String name, BooleanSupplier order) {
+        int unfilled = 0;
+        for (int i = 0; i < WARMUP_ORDERS; i++) {
+            unfilled += order.getAsBoolean() ? 0 : 1;
+        }
+        double lowest = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && lowest > MAX_BYTES_PER_ORDER; round++) {
+            long before = THREADS.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < MEASURED_ORDERS; i++) {
+                unfilled += order.getAsBoolean() ? 0 : 1;
+            }
+            long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+            lowest = Math.min(lowest, (double) allocated / MEASURED_ORDERS);
+        }
+        assertEquals(0, unfilled, name + " orders that were not filled");
+        assertTrue(lowest <= MAX_BYTES_PER_ORDER, name + " allocated " + lowest + " bytes per order");
+    }
+}
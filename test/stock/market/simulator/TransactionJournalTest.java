@@ -0,0 +1,88 @@
+package stock.market.simulator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the journal stops rather than drops records when the log cannot be written, and that closing it
+ * while other threads are appending loses none of the records it accepted.
+ */
+class TransactionJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void stopsAtTheFirstFailedWrite() throws IOException {
+        AtomicInteger writes = new AtomicInteger();
+        SegmentedLog failing = new SegmentedLog(directory) {
+            @Override
+            public synchronized void write(ByteBuffer bytes) throws IOException {
+                if (writes.incrementAndGet() > 1) {
+                    throw new IOException("disk full");
+                }
+                super.write(bytes);
+            }
+        };
+        TransactionJournal journal = new TransactionJournal(failing, TransactionJournal.Durability.NONE);
+        try {
+            journal.append("written\n");
+            journal.flush();
+            journal.append("lost\n");
+
+            assertThrows(IllegalStateException.class, journal::flush);
+            assertThrows(IllegalStateException.class, () -> journal.append("later\n"));
+        } finally {
+            journal.close();
+        }
+        assertEquals(2, writes.get());
+        assertEquals("written\n", Files.readString(failing.getSegments().get(0)));
+    }
+
+    @Test
+    void keepsEveryAcceptedRecordWhenClosedWhileAppending() throws Exception {
+        int threads = 4;
+        TransactionJournal journal = new TransactionJournal(new SegmentedLog(directory),
+                TransactionJournal.Durability.NONE, TimeUnit.MILLISECONDS.toNanos(10), 64);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(threads);
+        Thread[] appenders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            appenders[i] = new Thread(() -> {
+                started.countDown();
+                try {
+                    while (true) {
+                        journal.append("record\n");
+                        accepted.incrementAndGet();
+                    }
+                } catch (IllegalStateException e) {
+                    // Closed
+                }
+            });
+            appenders[i].start();
+        }
+        started.await();
+        Thread.sleep(20);
+
+        journal.close();
+        for (Thread appender : appenders) {
+            appender.join(TimeUnit.SECONDS.toMillis(10));
+            assertTrue(!appender.isAlive(), "appender still running");
+        }
+
+        try (SegmentedLog log = new SegmentedLog(directory)) {
+            assertEquals(accepted.get() * "record\n".length(), log.size());
+        }
+    }
+}